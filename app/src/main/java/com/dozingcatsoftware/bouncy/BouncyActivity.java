@@ -1,7 +1,14 @@
 package com.dozingcatsoftware.bouncy;
 
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -13,6 +20,8 @@ import com.dozingcatsoftware.vectorpinball.util.IOUtils;
 import com.dozingcatsoftware.vectorpinball.model.Field;
 import com.dozingcatsoftware.vectorpinball.model.FieldDriver;
 import com.dozingcatsoftware.vectorpinball.model.GameState;
+import com.dozingcatsoftware.vectorpinball.model.InputRecorder;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -46,6 +55,7 @@ public class BouncyActivity extends Activity {
     View buttonPanel;
     Button switchTableButton;
     Button endGameButton;
+    Button writeTraceButton;
     CheckBox unlimitedBallsToggle;
     final static int ACTIVITY_PREFERENCES = 1;
 
@@ -64,6 +74,15 @@ public class BouncyActivity extends Activity {
     static String HIGHSCORES_PREFS_KEY = "highScores";
     static String OLD_HIGHSCORE_PREFS_KEY = "highScore";
     static String INITIAL_LEVEL_PREFS_KEY = "initialLevel";
+    // File lưu trạng thái trận đang chơi khi app bị tạm dừng, để tiếp tục khi mở lại.
+    static final String SNAPSHOT_FILE = "field_snapshot.bin";
+    // File lưu input của trận vừa kết thúc, để phát lại bằng ReplayCheck khi cần tìm lỗi vật lý
+    // hoặc giật hình mà người chơi báo cáo.
+    static final String LAST_GAME_FILE = "last_game.rec";
+    // Tiền tố tên file lưu trace của khoảng 30 giây gần nhất theo định dạng Chrome trace_event,
+    // ghi khi bấm nút "Save Trace" (chỉ hiện khi đang bật hiển thị FPS). Mỗi lần ghi tạo file mới
+    // có thời điểm trong tên. Lấy ra bằng adb pull và mở trong chrome://tracing.
+    static final String TRACE_FILE_PREFIX = "trace-";
 
     boolean useZoom = true;
     static final float ZOOM_FACTOR = 1.5f;
@@ -90,6 +109,7 @@ public class BouncyActivity extends Activity {
         this.numberOfLevels = FieldLayoutReader.getNumberOfLevels(this);
         this.currentLevel = getInitialLevel();
         resetFieldForCurrentLevel();
+        restoreGameSnapshot();
 
         canvasFieldView = findViewById(R.id.canvasFieldView);
         canvasFieldView.setManager(fieldViewManager);
@@ -119,10 +139,13 @@ public class BouncyActivity extends Activity {
         fieldViewManager.setStartGameAction(() -> doStartGame(null));
 
         scoreView = findViewById(R.id.scoreView);
-        scoreView.setField(field);
+        scoreView.setStatusBuffer(fieldViewManager.getStatusBuffer());
+        scoreView.setFrameTimingStats(fieldDriver.getFrameTimingStats());
+        scoreView.setProfiler(field.getProfiler());
 
         fieldDriver.setField(field);
         fieldDriver.setDrawFunction(fieldViewManager::draw);
+        fieldDriver.setFramePipeline(fieldViewManager.getFramePipeline());
 
         highScores = this.highScoresFromPreferencesForCurrentLevel();
         scoreView.setHighScores(highScores);
@@ -130,6 +153,7 @@ public class BouncyActivity extends Activity {
         buttonPanel = findViewById(R.id.buttonPanel);
         switchTableButton = findViewById(R.id.switchTableButton);
         endGameButton = findViewById(R.id.endGameButton);
+        writeTraceButton = findViewById(R.id.writeTraceButton);
         unlimitedBallsToggle = findViewById(R.id.unlimitedBallsToggle);
 
         // TODO: allow field configuration to specify whether tilting is allowed
@@ -152,14 +176,95 @@ public class BouncyActivity extends Activity {
         catch (Exception ignored) {
         }
 
+        // The window may have moved to a display with a different refresh rate while paused.
+        fieldDriver.setDisplayRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
         fieldDriver.resetFrameRate();
     }
 
     @Override public void onPause() {
         pauseGame();
+        saveGameSnapshot();
         super.onPause();
     }
 
+    // Ghi trace ra file trong thread riêng, vì một trace đầy đủ dài vài MB.
+    void writeTrace(TraceRecorder.Snapshot trace, long timeMillis) {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) return;
+        File traceFile = new File(dir, TRACE_FILE_PREFIX + timeMillis + ".json");
+        try (Writer out = new BufferedWriter(new FileWriter(traceFile))) {
+            trace.writeChromeTrace(out);
+            Log.i(TAG, "Wrote " + trace.getCount() + " trace events to " + traceFile);
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Error writing trace", ex);
+        }
+    }
+
+    /**
+     * Lưu trạng thái trận đang chơi vào file, để có thể tiếp tục nếu app bị đóng.
+     * Nếu không có trận nào đang chơi thì xóa file cũ.
+     */
+    void saveGameSnapshot() {
+        byte[] snapshot = null;
+        synchronized (field) {
+            if (field.getGameState().isGameInProgress()) {
+                snapshot = field.saveSnapshot();
+            }
+        }
+        if (snapshot == null) {
+            deleteFile(SNAPSHOT_FILE);
+            return;
+        }
+        try (DataOutputStream out =
+                     new DataOutputStream(openFileOutput(SNAPSHOT_FILE, MODE_PRIVATE))) {
+            out.writeInt(currentLevel);
+            out.writeInt(snapshot.length);
+            out.write(snapshot);
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Error saving game snapshot", ex);
+            deleteFile(SNAPSHOT_FILE);
+        }
+    }
+
+    /**
+     * Khôi phục trận đã lưu bởi saveGameSnapshot nếu có và cùng bàn với currentLevel. Trận được
+     * khôi phục ở trạng thái tạm dừng. File bị xóa sau khi đọc, onPause sẽ lưu lại.
+     */
+    void restoreGameSnapshot() {
+        byte[] snapshot;
+        int level;
+        try (DataInputStream in = new DataInputStream(openFileInput(SNAPSHOT_FILE))) {
+            level = in.readInt();
+            int length = in.readInt();
+            if (length < 0) throw new IOException("Invalid snapshot length: " + length);
+            snapshot = new byte[length];
+            in.readFully(snapshot);
+        }
+        catch (FileNotFoundException ex) {
+            return;
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Error reading game snapshot", ex);
+            deleteFile(SNAPSHOT_FILE);
+            return;
+        }
+        deleteFile(SNAPSHOT_FILE);
+        if (level != currentLevel) return;
+        synchronized (field) {
+            try {
+                field.restoreSnapshot(snapshot);
+                field.getGameState().setPaused(true);
+                endGameTime = null;
+            }
+            catch (IOException ex) {
+                Log.w(TAG, "Error restoring game snapshot", ex);
+                resetFieldForCurrentLevel();
+            }
+        }
+    }
+
     @Override public void onWindowFocusChanged(boolean hasWindowFocus) {
         // Hành động main activity pausing and resuming.
         super.onWindowFocusChanged(hasWindowFocus);
@@ -255,7 +360,14 @@ public class BouncyActivity extends Activity {
     void updateFromPreferences() {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
         fieldViewManager.setIndependentFlippers(prefs.getBoolean("independentFlippers", true));
-        scoreView.setShowFPS(prefs.getBoolean("showFPS", false));
+        boolean showFPS = prefs.getBoolean("showFPS", false);
+        scoreView.setShowFPS(showFPS);
+        // Chỉ đo thời gian từng giai đoạn của khung hình khi hiển thị FPS.
+        if (field.getProfiler().isEnabled() != showFPS) {
+            field.getProfiler().setEnabled(showFPS);
+        }
+        TraceRecorder.setEnabled(showFPS);
+        writeTraceButton.setVisibility(showFPS ? View.VISIBLE : View.GONE);
 
         // tùy chọn OpenGL/Canvas,
         // Thay đổi tốc độ khung hình
@@ -295,6 +407,8 @@ public class BouncyActivity extends Activity {
     void tick() {
         scoreView.invalidate();
         scoreView.setFPS(fieldDriver.getAverageFPS());
+        scoreView.setFrameLatencyMillis(
+                fieldViewManager.getFramePipeline().getAverageLatencyMillis());
         updateHighScoreAndButtonPanel();
         handler.postDelayed(this::tick, 100);
     }
@@ -311,6 +425,7 @@ public class BouncyActivity extends Activity {
             if (!field.getGameState().isGameInProgress()) {
                 //trò chơi vừa kết thúc, hiển thị bảng điều khiển nút và đặt dấu thời gian kết thúc trò chơi
                 this.endGameTime = System.currentTimeMillis();
+                saveLastGameRecording();
                 endGameButton.setVisibility(View.GONE);
                 switchTableButton.setVisibility(View.VISIBLE);
                 unlimitedBallsToggle.setVisibility(View.VISIBLE);
@@ -330,6 +445,33 @@ public class BouncyActivity extends Activity {
         }
     }
 
+    /**
+     * Dừng ghi input của trận vừa kết thúc và ghi nó vào LAST_GAME_FILE trên một thread nền. Phải
+     * được gọi khi giữ khóa field. Không có gì để ghi nếu trận được khôi phục từ snapshot.
+     */
+    void saveLastGameRecording() {
+        InputRecorder recorder = field.getInputRecorder();
+        if (recorder == null) return;
+        // Các tick sau khi trận kết thúc không thuộc về trận, và sẽ làm bản ghi lớn lên mãi.
+        field.setInputRecorder(null);
+        byte[] recording = recorder.toByteArray();
+        int level = currentLevel;
+        (new Thread(() -> writeGameRecording(level, recording), "SaveLastGame")).start();
+    }
+
+    /** Ghi bản ghi vào LAST_GAME_FILE theo định dạng của file snapshot: số bàn, độ dài, dữ liệu. */
+    void writeGameRecording(int level, byte[] recording) {
+        try (DataOutputStream out =
+                     new DataOutputStream(openFileOutput(LAST_GAME_FILE, MODE_PRIVATE))) {
+            out.writeInt(level);
+            out.writeInt(recording.length);
+            out.write(recording);
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Error saving game recording", ex);
+        }
+    }
+
     // Lưu trữ điểm cao riêng biệt cho từng trường, sử dụng unique suffix in prefs key.
     String highScorePrefsKeyForLevel(int theLevel) {
         return HIGHSCORES_PREFS_KEY + "." + theLevel;
@@ -421,13 +563,15 @@ public class BouncyActivity extends Activity {
         }
         if (!field.getGameState().isGameInProgress()) {
             buttonPanel.setVisibility(View.GONE);
-            resetFieldForCurrentLevel();
-
-            if (unlimitedBallsToggle.isChecked()) {
-                field.startGameWithUnlimitedBalls();
-            }
-            else {
-                field.startGame();
+            // Giữ khóa để thứ tự input được ghi lại khớp với các tick của FieldDriver.
+            synchronized (field) {
+                resetFieldForCurrentLevel(true);
+                if (unlimitedBallsToggle.isChecked()) {
+                    field.startGameWithUnlimitedBalls();
+                }
+                else {
+                    field.startGame();
+                }
             }
             VPSoundpool.playStart();
             endGameTime = null;
@@ -437,7 +581,9 @@ public class BouncyActivity extends Activity {
     public void doEndGame(View view) {
         //Trò chơi có thể bị tạm dừng nếu kết thúc thủ công từ nút.
         unpauseGame();
-        field.endGame();
+        synchronized (field) {
+            field.endGame();
+        }
     }
 
     public void doPreferences(View view) {
@@ -448,6 +594,13 @@ public class BouncyActivity extends Activity {
         gotoAbout();
     }
 
+    public void doWriteTrace(View view) {
+        if (!TraceRecorder.isEnabled()) return;
+        TraceRecorder.Snapshot trace = TraceRecorder.takeSnapshot();
+        long timeMillis = System.currentTimeMillis();
+        (new Thread(() -> writeTrace(trace, timeMillis), "WriteTrace")).start();
+    }
+
     public void scoreViewClicked(View view) {
         if (field.getGameState().isGameInProgress()) {
             if (field.getGameState().isPaused()) {
@@ -476,7 +629,19 @@ public class BouncyActivity extends Activity {
     }
 
     void resetFieldForCurrentLevel() {
+        resetFieldForCurrentLevel(false);
+    }
+
+    /**
+     * Đặt lại field cho bàn hiện tại. Nếu `recordGame` là true, bắt đầu ghi input cho trận sắp
+     * bắt đầu, để chế độ chờ giữa các trận không được ghi lại.
+     */
+    void resetFieldForCurrentLevel(boolean recordGame) {
         field.resetForLayoutMap(FieldLayoutReader.layoutMapForLevel(this, currentLevel));
+        if (recordGame) {
+            // Ghi lại input từ đầu, kể cả tick bên dưới, để có thể phát lại trận chính xác.
+            field.setInputRecorder(new InputRecorder());
+        }
         //Để trường chạy trong một phần giây trước khi nó được vẽ.
         synchronized (field) {
             field.tick((long) (250_000_000 * field.getTargetTimeRatio()), 4);
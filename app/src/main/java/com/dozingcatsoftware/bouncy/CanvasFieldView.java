@@ -10,7 +10,10 @@ import android.view.MotionEvent;
 import android.view.SurfaceView;
 
 import com.dozingcatsoftware.vectorpinball.model.Color;
+import com.dozingcatsoftware.vectorpinball.model.FrameProfiler;
 import com.dozingcatsoftware.vectorpinball.model.IFieldRenderer;
+import com.dozingcatsoftware.vectorpinball.model.RenderSnapshot;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
 
 public class CanvasFieldView extends SurfaceView implements IFieldRenderer.FloatOnlyRenderer {
 
@@ -51,21 +54,29 @@ public class CanvasFieldView extends SurfaceView implements IFieldRenderer.Float
     }
 
     /**
-     * Main draw method, called from FieldDriver's game thread. Calls each FieldElement's draw()
-     * method passing itself as the IFieldRenderer implementation.
+     * Main draw method, called from FieldDriver's game thread. Replays the latest RenderSnapshot
+     * passing itself as the IFieldRenderer implementation.
      */
     @Override public void doDraw() {
+        RenderSnapshot snapshot = manager.acquireRenderSnapshot();
+        if (snapshot == null) return;
+        long traceNanos = TraceRecorder.begin();
+        FrameProfiler profiler = manager.getField().getProfiler();
+        long startNanos = profiler.start();
         Canvas c = this.getHolder().lockCanvas();
         if (c == null) return;
         c.drawARGB(255, 0, 0, 0);
         paint.setStrokeWidth(manager.getLineWidth());
         this.canvas = c;
         try {
-            manager.getField().draw(this);
+            snapshot.replay(this);
         }
         finally {
             this.getHolder().unlockCanvasAndPost(c);
         }
+        profiler.end(FrameProfiler.RENDER_UPLOAD, startNanos);
+        manager.snapshotRendered(snapshot);
+        TraceRecorder.end(TraceRecorder.RENDER, traceNanos);
     }
 
 
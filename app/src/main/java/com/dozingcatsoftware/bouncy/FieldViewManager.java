@@ -1,13 +1,17 @@
 package com.dozingcatsoftware.bouncy;
 
-import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.List;
 
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Vector2;
 import com.dozingcatsoftware.vectorpinball.model.Field;
 import com.dozingcatsoftware.vectorpinball.model.IFieldRenderer;
+import com.dozingcatsoftware.vectorpinball.model.InputQueue;
+import com.dozingcatsoftware.vectorpinball.model.RenderSnapshot;
+import com.dozingcatsoftware.vectorpinball.model.StatusSnapshot;
+import com.dozingcatsoftware.vectorpinball.util.FramePipeline;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
+import com.dozingcatsoftware.vectorpinball.util.TripleBuffer;
 
 import android.view.KeyEvent;
 import android.view.MotionEvent;
@@ -24,6 +28,7 @@ public class FieldViewManager {
 
     public void setFieldRenderer(IFieldRenderer renderer) {
         this.fieldRenderer = renderer;
+        framePipeline.resetLatency();
     }
 
     Field field;
@@ -34,8 +39,20 @@ public class FieldViewManager {
 
     private float cachedXOffset, cachedYOffset, cachedScale, cachedHeight;
 
-    //Trì hoãn sau khi mất bóng, trước khi chạm bóng sẽ tung ra một quả bóng mới.
-    static final long END_BALL_DELAY_MS = 1000;
+    // Luồng game ghi ảnh chụp của mỗi khung hình vào đây; luồng vẽ đọc ảnh chụp mới nhất mà
+    // không cần khóa field.
+    final TripleBuffer<RenderSnapshot> renderBuffer = new TripleBuffer<>(RenderSnapshot::new);
+    final TripleBuffer<StatusSnapshot> statusBuffer = new TripleBuffer<>(StatusSnapshot::new);
+    // Giới hạn số khung hình đã chụp nhưng chưa vẽ, để luồng game có thể mô phỏng khung hình tiếp
+    // theo trong khi luồng GL vẽ khung hình hiện tại.
+    final FramePipeline framePipeline = new FramePipeline();
+
+    // Trạng thái flipper đưa vào hàng đợi gần nhất, để bỏ qua các sự kiện di chuyển không làm
+    // thay đổi flipper. Chỉ dùng trên luồng UI.
+    boolean queuedLeftFlippers, queuedRightFlippers;
+    boolean plungerPressed;
+
+    static final long MILLION = 1000000;
 
     public void setField(Field value) {
         field = value;
@@ -69,9 +86,9 @@ public class FieldViewManager {
         startGameAction = action;
     }
 
-    float getScale(float zoom) {
-        float xs = fieldRenderer.getWidth() / field.getWidth();
-        float ys = fieldRenderer.getHeight() / field.getHeight();
+    float getScale(RenderSnapshot snapshot, float zoom) {
+        float xs = fieldRenderer.getWidth() / snapshot.getFieldWidth();
+        float ys = fieldRenderer.getHeight() / snapshot.getFieldHeight();
         return Math.min(xs, ys) * zoom;
     }
 
@@ -85,44 +102,48 @@ public class FieldViewManager {
 
     /**
      * Saves scale and x and y offsets for use by world2pixel methods, avoiding repeated method
-     * calls and math operations.
+     * calls and math operations. Uses the zoom state saved in `snapshot` rather than the field,
+     * so that it can be called from the rendering thread.
      */
-    private void cacheScaleAndOffsets() {
+    private void cacheScaleAndOffsets(RenderSnapshot snapshot) {
         cachedHeight = fieldRenderer.getHeight();
-        float zr = field.zoomRatio();
+        float zr = snapshot.getZoomRatio();
         // Apply a cubic Bezier function to smoothly accelerate and decelerate.
         float easedRatio = zr * zr * (3.0f - 2.0f * zr);
         // The actual zoom factor ranges from 1 when zoomRatio() is 0 to `maxZoom` when it's 1.
         float zoomFactor = 1 + (maxZoom - 1) * easedRatio;
-        cachedScale = getScale(zoomFactor);
+        cachedScale = getScale(snapshot, zoomFactor);
+        float fieldWidth = snapshot.getFieldWidth();
+        float fieldHeight = snapshot.getFieldHeight();
         // Center the zoomed view on the ball if available, or the launch position if not.
-        Vector2 center = field.zoomCenterPoint();
+        float centerX = snapshot.getZoomCenterX();
+        float centerY = snapshot.getZoomCenterY();
         // `spanX` and `spanY` are how many world units are visible when zoomed. We don't want
         // the zoomed view to extend to less than 0, or greater than the field size. If the
         // span is greater than the table's width/height, then apply a negative offset so that
         // the table is centered.
         float spanX = fieldRenderer.getWidth() / cachedScale;
-        if (spanX >= field.getWidth()) {
-            cachedXOffset = -(spanX - field.getWidth()) / 2;
+        if (spanX >= fieldWidth) {
+            cachedXOffset = -(spanX - fieldWidth) / 2;
         }
         else {
-            float rawXOffset = center.x - spanX / 2;
-            float maxXOffset = field.getWidth() - spanX;
+            float rawXOffset = centerX - spanX / 2;
+            float maxXOffset = fieldWidth - spanX;
             cachedXOffset = MathUtils.clamp(rawXOffset, 0, maxXOffset);
         }
 
         float spanY = fieldRenderer.getHeight() / cachedScale;
-        if (spanY >= field.getHeight()) {
-            cachedYOffset = -(spanY - field.getHeight()) / 2;
+        if (spanY >= fieldHeight) {
+            cachedYOffset = -(spanY - fieldHeight) / 2;
         }
         else {
-            float rawYOffset = center.y - spanY / 2;
-            float maxYOffset = field.getHeight() - spanY;
+            float rawYOffset = centerY - spanY / 2;
+            float maxYOffset = fieldHeight - spanY;
             cachedYOffset = MathUtils.clamp(rawYOffset, 0, maxYOffset);
         }
     }
 
-    // world2pixel methods assume cacheScaleAndOffsets has been called previously.
+    // world2pixel methods assume acquireRenderSnapshot has been called previously.
 
     /** Converts an x coordinate from world coordinates to the view's pixel coordinates. */
     public float world2pixelX(float x) {
@@ -137,106 +158,97 @@ public class FieldViewManager {
         return cachedHeight - ((y - cachedYOffset) * cachedScale);
     }
 
-    // For compatibility with Android 1.6, use reflection for multitouch features.
-    boolean hasMultitouch;
-    Method getPointerCountMethod;
-    Method getXMethod;
-    int MOTIONEVENT_ACTION_MASK = 0xffffffff; // Defaults to no-op AND mask.
-    int MOTIONEVENT_ACTION_POINTER_UP;
-    int MOTIONEVENT_ACTION_POINTER_INDEX_MASK;
-    int MOTIONEVENT_ACTION_POINTER_INDEX_SHIFT;
-
-    {
-        try {
-            getPointerCountMethod = MotionEvent.class.getMethod("getPointerCount");
-            getXMethod = MotionEvent.class.getMethod("getX", int.class);
-            MOTIONEVENT_ACTION_MASK = MotionEvent.class.getField("ACTION_MASK").getInt(null);
-            MOTIONEVENT_ACTION_POINTER_UP =
-                    MotionEvent.class.getField("ACTION_POINTER_UP").getInt(null);
-            MOTIONEVENT_ACTION_POINTER_INDEX_MASK =
-                    MotionEvent.class.getField("ACTION_POINTER_INDEX_MASK").getInt(null);
-            MOTIONEVENT_ACTION_POINTER_INDEX_SHIFT =
-                    MotionEvent.class.getField("ACTION_POINTER_INDEX_SHIFT").getInt(null);
-            hasMultitouch = true;
-        }
-        catch (Exception ex) {
-            hasMultitouch = false;
-        }
+    // Vùng chạm cho từng ngón tay khi điều khiển flipper độc lập, hoặc null nếu thiết bị không hỗ
+    // trợ cảm ứng đa điểm. Mặc định nửa trái điều khiển flipper trái và nửa phải điều khiển
+    // flipper phải; có thể thêm vùng khác qua getTouchZones, ví dụ PLUNGER_ZONE để phóng bóng.
+    static final int LEFT_FLIPPER_ZONE = 0;
+    static final int RIGHT_FLIPPER_ZONE = 1;
+    static final int PLUNGER_ZONE = 2;
+    final TouchZones touchZones = TouchZones.isSupported() ? createDefaultTouchZones() : null;
+
+    static TouchZones createDefaultTouchZones() {
+        TouchZones zones = new TouchZones();
+        zones.addZone(LEFT_FLIPPER_ZONE, 0f, 0f, 0.5f, 1f);
+        zones.addZone(RIGHT_FLIPPER_ZONE, 0.5f, 0f, 1f, 1f);
+        return zones;
     }
 
-    void launchBallIfNeeded() {
-        // Don't launch a new ball immediately after losing the previous ball, since the user may
-        // have been trying to use a flipper.
-        if (field.ballLostWithinMillis(END_BALL_DELAY_MS)) {
-            return;
-        }
-        // Remove "dead" balls and launch if none already in play.
-        field.removeDeadBalls();
-        if (field.getBalls().size() == 0) field.launchBall();
+    public TouchZones getTouchZones() {
+        return touchZones;
     }
 
     /**
      * Called when the view is touched. Activates flippers, starts a new game if one is not in
-     * progress, and launches a ball if one is not in play.
+     * progress, and launches a ball if one is not in play. Flipper and launch input is queued for
+     * the game thread with the event's timestamp, so the UI thread doesn't wait for the field lock.
      */
     public boolean handleTouchEvent(MotionEvent event) {
-        int actionType = event.getAction() & MOTIONEVENT_ACTION_MASK;
-        synchronized (field) {
-            if (!field.getGameState().isGameInProgress() || field.getGameState().isPaused()) {
-                if (startGameAction != null) {
-                    startGameAction.run();
-                    return true;
-                }
-            }
-            // activate or deactivate flippers
-            boolean left = false, right = false;
-            if (this.independentFlippers && this.hasMultitouch) {
-                try {
-                    // Determine whether to activate left and/or right flippers,
-                    // using reflection for Android 2.2 multitouch APIs.
-                    if (actionType != MotionEvent.ACTION_UP) {
-                        int npointers = (Integer) getPointerCountMethod.invoke(event);
-                        // If pointer was lifted (ACTION_POINTER_UP), get its index so we don't
-                        // count it as pressed.
-                        int liftedPointerIndex = -1;
-                        if (actionType == MOTIONEVENT_ACTION_POINTER_UP) {
-                            liftedPointerIndex =
-                                    (event.getAction() & MOTIONEVENT_ACTION_POINTER_INDEX_MASK) >>
-                                            MOTIONEVENT_ACTION_POINTER_INDEX_SHIFT;
-                        }
-                        float halfwidth = fieldRenderer.getWidth() / 2.0f;
-                        for (int i = 0; i < npointers; i++) {
-                            if (i != liftedPointerIndex) {
-                                float touchx = (Float) getXMethod.invoke(event, i);
-                                if (touchx < halfwidth) left = true;
-                                else right = true;
-                            }
-                        }
-                    }
-                }
-                catch (Exception ignored) {
-                }
-            }
-            else {
-                left = right = !(event.getAction() == MotionEvent.ACTION_UP);
-            }
-            if (actionType == MotionEvent.ACTION_DOWN) {
-                launchBallIfNeeded();
-            }
-            // Treat both active separately because setAllFlippersEngaged will cycle the rollovers,
-            // as opposed to separate calls to set(Left|Right)FlippersEngaged which would result in
-            // cycling one way and then immediately back the other, for no net change.
-            if (left && right) {
-                field.setAllFlippersEngaged(true);
-            }
-            else {
-                field.setLeftFlippersEngaged(left);
-                field.setRightFlippersEngaged(right);
+        long traceNanos = TraceRecorder.begin();
+        int actionType = event.getAction() & MotionEvent.ACTION_MASK;
+        if (!field.getGameState().isGameInProgress() || field.getGameState().isPaused()) {
+            if (startGameAction != null) {
+                startGameAction.run();
+                return true;
             }
         }
+        // activate or deactivate flippers
+        boolean left, right, plunger = false;
+        if (this.independentFlippers && touchZones != null) {
+            touchZones.handleTouchEvent(event, fieldRenderer.getWidth(), fieldRenderer.getHeight());
+            left = touchZones.isZonePressed(LEFT_FLIPPER_ZONE);
+            right = touchZones.isZonePressed(RIGHT_FLIPPER_ZONE);
+            plunger = touchZones.isZonePressed(PLUNGER_ZONE);
+        }
+        else {
+            left = right = !(event.getAction() == MotionEvent.ACTION_UP);
+        }
+        // getEventTime dùng đồng hồ uptimeMillis, cùng nguồn CLOCK_MONOTONIC với System.nanoTime.
+        long eventNanos = event.getEventTime() * MILLION;
+        if (actionType == MotionEvent.ACTION_DOWN || (plunger && !plungerPressed)) {
+            queueInput(InputQueue.LAUNCH_BALL_IF_NEEDED, eventNanos);
+        }
+        plungerPressed = plunger;
+        // Di chuyển ngón tay tạo ra rất nhiều sự kiện, chỉ đưa vào hàng đợi khi có thay đổi.
+        if (actionType != MotionEvent.ACTION_MOVE ||
+                left != queuedLeftFlippers || right != queuedRightFlippers) {
+            queueFlippers(left, right, eventNanos);
+        }
+        TraceRecorder.end(TraceRecorder.INPUT, traceNanos);
         return true;
     }
 
+    // Treat both active separately because setAllFlippersEngaged will cycle the rollovers,
+    // as opposed to separate calls to set(Left|Right)FlippersEngaged which would result in
+    // cycling one way and then immediately back the other, for no net change.
+    private void queueFlippers(boolean left, boolean right, long eventNanos) {
+        if (left && right) {
+            queueInput(InputQueue.ALL_FLIPPERS_ENGAGED, eventNanos);
+        }
+        else {
+            queueInput(left ?
+                    InputQueue.LEFT_FLIPPERS_ENGAGED : InputQueue.LEFT_FLIPPERS_RELEASED,
+                    eventNanos);
+            queueInput(right ?
+                    InputQueue.RIGHT_FLIPPERS_ENGAGED : InputQueue.RIGHT_FLIPPERS_RELEASED,
+                    eventNanos);
+        }
+        queuedLeftFlippers = left;
+        queuedRightFlippers = right;
+    }
+
+    /**
+     * Đưa input vào hàng đợi của field để luồng game xử lý ở tick tiếp theo. Nếu hàng đợi đầy vì
+     * luồng game bị chậm quá nhiều, khóa field và xử lý các input đang chờ trước.
+     */
+    void queueInput(int type, long eventNanos) {
+        if (!field.queueInput(type, eventNanos)) {
+            synchronized (field) {
+                field.processQueuedInput();
+                field.queueInput(type, eventNanos);
+            }
+        }
+    }
+
     static List<Integer> LEFT_FLIPPER_KEYS = Arrays.asList(
             KeyEvent.KEYCODE_Z, KeyEvent.KEYCODE_DPAD_LEFT);
     static List<Integer> RIGHT_FLIPPER_KEYS = Arrays.asList(
@@ -246,49 +258,98 @@ public class FieldViewManager {
 
     public boolean handleKeyDown(int keyCode, KeyEvent event) {
         if (event.getAction() == KeyEvent.ACTION_DOWN && event.getRepeatCount() == 0) {
-            synchronized (field) {
-                // Don't let a pressed flipper key start a game, but do launch a ball if needed.
-                if (!field.getGameState().isGameInProgress() || field.getGameState().isPaused()) {
-                    return false;
-                }
-                boolean isActionKey = updateFlippersForKeyCode(keyCode, true);
-                if (isActionKey) launchBallIfNeeded();
-                return isActionKey;
+            // Don't let a pressed flipper key start a game, but do launch a ball if needed.
+            if (!field.getGameState().isGameInProgress() || field.getGameState().isPaused()) {
+                return false;
             }
+            long eventNanos = event.getEventTime() * MILLION;
+            boolean isActionKey = updateFlippersForKeyCode(keyCode, true, eventNanos);
+            if (isActionKey) queueInput(InputQueue.LAUNCH_BALL_IF_NEEDED, eventNanos);
+            return isActionKey;
         }
         return false;
     }
 
     public boolean handleKeyUp(int keyCode, KeyEvent event) {
         if (event.getAction() == KeyEvent.ACTION_UP) {
-            synchronized (field) {
-                if (!field.getGameState().isGameInProgress() || field.getGameState().isPaused()) {
-                    return false;
-                }
-                return updateFlippersForKeyCode(keyCode, false);
+            if (!field.getGameState().isGameInProgress() || field.getGameState().isPaused()) {
+                return false;
             }
+            return updateFlippersForKeyCode(keyCode, false, event.getEventTime() * MILLION);
         }
         return false;
     }
 
-    private boolean updateFlippersForKeyCode(int keyCode, boolean isPressed) {
+    private boolean updateFlippersForKeyCode(int keyCode, boolean isPressed, long eventNanos) {
         if (LEFT_FLIPPER_KEYS.contains(keyCode)) {
-            field.setLeftFlippersEngaged(isPressed);
+            queueInput(isPressed ?
+                    InputQueue.LEFT_FLIPPERS_ENGAGED : InputQueue.LEFT_FLIPPERS_RELEASED,
+                    eventNanos);
+            queuedLeftFlippers = isPressed;
             return true;
         }
         if (RIGHT_FLIPPER_KEYS.contains(keyCode)) {
-            field.setRightFlippersEngaged(isPressed);
+            queueInput(isPressed ?
+                    InputQueue.RIGHT_FLIPPERS_ENGAGED : InputQueue.RIGHT_FLIPPERS_RELEASED,
+                    eventNanos);
+            queuedRightFlippers = isPressed;
             return true;
         }
         if (ALL_FLIPPER_KEYS.contains(keyCode)) {
-            field.setAllFlippersEngaged(isPressed);
+            queueInput(isPressed ?
+                    InputQueue.ALL_FLIPPERS_ENGAGED : InputQueue.ALL_FLIPPERS_RELEASED,
+                    eventNanos);
+            queuedLeftFlippers = queuedRightFlippers = isPressed;
             return true;
         }
         return false;
     }
 
+    /**
+     * Được gọi từ luồng game sau mỗi lần tick. Chụp lại các lệnh vẽ và trạng thái game trong khi
+     * giữ khóa field, công bố chúng cho luồng vẽ và ScoreView, rồi yêu cầu renderer vẽ. Renderer
+     * OpenGL chỉ chờ khi có quá nhiều khung hình chưa vẽ; xem FramePipeline.
+     */
     public void draw() {
-        cacheScaleAndOffsets();
+        RenderSnapshot snapshot = renderBuffer.getWriteBuffer();
+        StatusSnapshot status = statusBuffer.getWriteBuffer();
+        snapshot.setFrame(framePipeline.nextFrame(), System.nanoTime());
+        snapshot.setCanDrawArc(fieldRenderer.canDrawArc());
+        long lockTraceNanos = TraceRecorder.begin();
+        synchronized (field) {
+            TraceRecorder.end(TraceRecorder.FIELD_LOCK_WAIT, lockTraceNanos);
+            long captureTraceNanos = TraceRecorder.begin();
+            snapshot.capture(field);
+            status.capture(field);
+            TraceRecorder.end(TraceRecorder.CAPTURE, captureTraceNanos);
+        }
+        renderBuffer.publish();
+        statusBuffer.publish();
         fieldRenderer.doDraw();
     }
+
+    /**
+     * Được gọi bởi renderer trên luồng vẽ. Trả về ảnh chụp mới nhất và tính tỷ lệ và độ lệch cho
+     * các phương thức world2pixel, hoặc trả về null nếu chưa có ảnh chụp nào. Không khóa field.
+     */
+    public RenderSnapshot acquireRenderSnapshot() {
+        RenderSnapshot snapshot = renderBuffer.acquire();
+        if (snapshot != null) {
+            cacheScaleAndOffsets(snapshot);
+        }
+        return snapshot;
+    }
+
+    /** Được gọi bởi renderer sau khi vẽ xong một ảnh chụp. */
+    public void snapshotRendered(RenderSnapshot snapshot) {
+        framePipeline.frameRendered(snapshot.getFrameNumber(), snapshot.getCaptureNanos());
+    }
+
+    public FramePipeline getFramePipeline() {
+        return framePipeline;
+    }
+
+    public TripleBuffer<StatusSnapshot> getStatusBuffer() {
+        return statusBuffer;
+    }
  }
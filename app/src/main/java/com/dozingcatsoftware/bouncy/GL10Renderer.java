@@ -7,8 +7,10 @@ import com.dozingcatsoftware.bouncy.util.GLVertexList;
 import com.dozingcatsoftware.bouncy.util.GLVertexListManager;
 import com.dozingcatsoftware.bouncy.util.TrigLookupTable;
 import com.dozingcatsoftware.vectorpinball.model.Color;
-import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.FrameProfiler;
 import com.dozingcatsoftware.vectorpinball.model.IFieldRenderer;
+import com.dozingcatsoftware.vectorpinball.model.RenderSnapshot;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -41,6 +43,8 @@ public class GL10Renderer implements IFieldRenderer.FloatOnlyRenderer, GLSurface
     }
 
     void endGLElements(GL10 gl) {
+        FrameProfiler profiler = manager.getField().getProfiler();
+        long startNanos = profiler.start();
         vertexListManager.end();
 
         gl.glEnable(GL10.GL_DITHER);
@@ -51,6 +55,7 @@ public class GL10Renderer implements IFieldRenderer.FloatOnlyRenderer, GLSurface
         gl.glLineWidth(manager.getLineWidth());
 
         vertexListManager.render(gl);
+        profiler.end(FrameProfiler.RENDER_UPLOAD, startNanos);
     }
 
     private static void addColorToVertexList(GLVertexList vl, int color) {
@@ -59,8 +64,8 @@ public class GL10Renderer implements IFieldRenderer.FloatOnlyRenderer, GLSurface
                 Color.getBlue(color) / 255f, Color.getAlpha(color) / 255f);
     }
 
-    // Implementation of IFieldRenderer drawing methods that FieldElement classes can call.
-    // Assumes cacheScaleAndOffsets has been called.
+    // Implementation of IFieldRenderer drawing methods, called when replaying a RenderSnapshot.
+    // Assumes acquireRenderSnapshot has been called.
     @Override public void drawLine(float x1, float y1, float x2, float y2, int color) {
         lineVertexList.addVertex(manager.world2pixelX(x1), manager.world2pixelY(y1));
         lineVertexList.addVertex(manager.world2pixelX(x2), manager.world2pixelY(y2));
@@ -105,45 +110,30 @@ public class GL10Renderer implements IFieldRenderer.FloatOnlyRenderer, GLSurface
     // segment endpoints in drawArc, but currently the only caller is WallArcElement which already
     // has the endpoints, so it's better to not implement it and have clients call drawLinePath.
 
-    final Object renderLock = new Object();
-    boolean renderDone;
-
     @Override public void onDrawFrame(GL10 gl) {
-        Field field = manager.getField();
-        if (field == null) return;
-        synchronized (field) {
+        // Draw the latest snapshot published by the game thread, without locking the field.
+        RenderSnapshot snapshot = manager.acquireRenderSnapshot();
+        if (snapshot != null) {
+            long traceNanos = TraceRecorder.begin();
             startGLElements(gl);
-            field.draw(this);
+            snapshot.replay(this);
             endGLElements(gl);
-        }
-
-        synchronized (renderLock) {
-            renderDone = true;
-            renderLock.notify();
+            manager.snapshotRendered(snapshot);
+            TraceRecorder.end(TraceRecorder.RENDER, traceNanos);
         }
     }
 
     /* requestRender() returns immediately and schedules onDrawFrame for execution on a separate
-     * thread. In this case, we want to block until onDrawFrame returns so that the simulation
-     * thread in FieldDriver stays in sync with the rendering thread. (Without the locks,
-     * FieldDriver registers 60fps even if the actual drawing is much slower).
+     * thread. The simulation thread in FieldDriver can go on to the next frame while this one is
+     * drawn, but it blocks if the rendering thread falls more than FramePipeline's maximum depth
+     * behind, so that it stays in sync. (Without waiting, FieldDriver registers 60fps even if the
+     * actual drawing is much slower).
      */
     @Override public void doDraw() {
-        synchronized (renderLock) {
-            renderDone = false;
-        }
-
         this.glView.requestRender();
-
-        synchronized (renderLock) {
-            while (!renderDone) {
-                try {
-                    renderLock.wait();
-                }
-                catch (InterruptedException ex) {
-                }
-            }
-        }
+        long traceNanos = TraceRecorder.begin();
+        manager.getFramePipeline().waitForRenderer();
+        TraceRecorder.end(TraceRecorder.RENDERER_WAIT, traceNanos);
     }
 
     @Override public void onSurfaceChanged(GL10 gl, int width, int height) {
@@ -9,8 +9,10 @@ import android.os.Build;
 
 import com.dozingcatsoftware.bouncy.util.TrigLookupTable;
 import com.dozingcatsoftware.vectorpinball.model.Color;
-import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.FrameProfiler;
 import com.dozingcatsoftware.vectorpinball.model.IFieldRenderer;
+import com.dozingcatsoftware.vectorpinball.model.RenderSnapshot;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -212,8 +214,11 @@ public class GL20Renderer implements IFieldRenderer.FloatOnlyRenderer, GLSurface
         // Calculate the projection and view transformation
         Matrix.multiplyMM(vPMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
 
+        FrameProfiler profiler = fvManager.getField().getProfiler();
+        long startNanos = profiler.start();
         drawLines();
         drawCircles();
+        profiler.end(FrameProfiler.RENDER_UPLOAD, startNanos);
     }
 
     private void drawCircles() {
@@ -632,25 +637,12 @@ public class GL20Renderer implements IFieldRenderer.FloatOnlyRenderer, GLSurface
         }
     }
 
-    final Object renderLock = new Object();
-    boolean renderDone;
-
+    // See GL10Renderer.doDraw.
     @Override public void doDraw() {
-        synchronized (renderLock) {
-            renderDone = false;
-        }
-
         this.glView.requestRender();
-
-        synchronized (renderLock) {
-            while (!renderDone) {
-                try {
-                    renderLock.wait();
-                }
-                catch (InterruptedException ex) {
-                }
-            }
-        }
+        long traceNanos = TraceRecorder.begin();
+        fvManager.getFramePipeline().waitForRenderer();
+        TraceRecorder.end(TraceRecorder.RENDERER_WAIT, traceNanos);
     }
 
     @Override public int getWidth() {
@@ -677,16 +669,15 @@ public class GL20Renderer implements IFieldRenderer.FloatOnlyRenderer, GLSurface
     }
 
     @Override public void onDrawFrame(GL10 gl10) {
-        Field field = fvManager.getField();
-        if (field == null) return;
-        synchronized (field) {
+        // Draw the latest snapshot published by the game thread, without locking the field.
+        RenderSnapshot snapshot = fvManager.acquireRenderSnapshot();
+        if (snapshot != null) {
+            long traceNanos = TraceRecorder.begin();
             startDraw();
-            field.draw(this);
+            snapshot.replay(this);
             endDraw();
-        }
-        synchronized (renderLock) {
-            renderDone = true;
-            renderLock.notify();
+            fvManager.snapshotRendered(snapshot);
+            TraceRecorder.end(TraceRecorder.RENDER, traceNanos);
         }
     }
 }
@@ -12,9 +12,11 @@ import android.util.DisplayMetrics;
 import android.view.View;
 import android.view.WindowManager;
 
-import com.dozingcatsoftware.vectorpinball.model.Field;
-import com.dozingcatsoftware.vectorpinball.model.GameMessage;
-import com.dozingcatsoftware.vectorpinball.model.GameState;
+import com.dozingcatsoftware.vectorpinball.model.FrameProfiler;
+import com.dozingcatsoftware.vectorpinball.model.StatusSnapshot;
+import com.dozingcatsoftware.vectorpinball.util.FrameTimeHistogram;
+import com.dozingcatsoftware.vectorpinball.util.FrameTimingStats;
+import com.dozingcatsoftware.vectorpinball.util.TripleBuffer;
 
 /**
  * This class displays the score and game messages above the game view. When there is no game in
@@ -22,7 +24,7 @@ import com.dozingcatsoftware.vectorpinball.model.GameState;
  */
 public class ScoreView extends View {
 
-    Field field;
+    TripleBuffer<StatusSnapshot> statusBuffer;
     Paint textPaint = new Paint();
     Rect textRect = new Rect();
 
@@ -44,6 +46,9 @@ public class ScoreView extends View {
     int gameOverMessageCycleTime = 3500;
 
     double fps;
+    double frameLatencyMillis;
+    FrameTimingStats frameTimingStats;
+    FrameProfiler profiler;
     boolean showFPS = false;
 
     static NumberFormat SCORE_FORMAT = NumberFormat.getInstance();
@@ -76,7 +81,7 @@ public class ScoreView extends View {
     }
 
     @Override public void onDraw(Canvas c) {
-        GameMessage msg = null;
+        String displayString = null;
         boolean gameInProgress = false;
         boolean ballInPlay = false;
         int totalBalls = 0;
@@ -84,21 +89,21 @@ public class ScoreView extends View {
         int currentBall = 0;
         double multiplier = 0;
         long score = 0;
-        synchronized (field) {
+        // Read the status most recently published by the game thread, without locking the field.
+        StatusSnapshot status = (statusBuffer != null) ? statusBuffer.acquire() : null;
+        if (status != null) {
             // Show custom message if present.
-            msg = field.getGameMessage();
-            GameState state = field.getGameState();
-            gameInProgress = state.isGameInProgress();
-            totalBalls = state.getTotalBalls();
-            unlimitedBalls = state.hasUnlimitedBalls();
-            currentBall = state.getBallNumber();
-            multiplier = state.getScoreMultiplier();
-            score = state.getScore();
-            ballInPlay = field.getBalls().size() > 0;
+            displayString = status.getMessageText();
+            gameInProgress = status.isGameInProgress();
+            totalBalls = status.getTotalBalls();
+            unlimitedBalls = status.hasUnlimitedBalls();
+            currentBall = status.getBallNumber();
+            multiplier = status.getScoreMultiplier();
+            score = status.getScore();
+            ballInPlay = status.isBallInPlay();
         }
 
         c.drawARGB(255, 8, 8, 8);
-        String displayString = (msg != null) ? msg.text : null;
         if (displayString == null) {
             // Show score if game is in progress, otherwise cycle between
             // "Touch to start"/previous score/high score.
@@ -127,7 +132,17 @@ public class ScoreView extends View {
                 width / 2.0f - textRect.width() / 2.0f, height / 2.0f + textRect.height() / 2.0f,
                 textPaint);
         if (showFPS && fps > 0) {
-            c.drawText(String.format("%.1f fps", fps), width * 0.02f, height * 0.25f, fpsPaint);
+            String fpsString = (frameLatencyMillis > 0) ?
+                    String.format("%.1f fps, %.1f ms", fps, frameLatencyMillis) :
+                    String.format("%.1f fps", fps);
+            c.drawText(fpsString, width * 0.02f, height * 0.25f, fpsPaint);
+            if (frameTimingStats != null) {
+                drawFrameTimingStats(c, width, height);
+            }
+            if (profiler != null && profiler.isEnabled()) {
+                c.drawText(profiler.summary(), width * 0.02f,
+                        height * 0.25f + 2.4f * fpsPaint.getTextSize(), fpsPaint);
+            }
         }
         if (gameInProgress) {
             // Draw balls.
@@ -168,6 +183,32 @@ public class ScoreView extends View {
         }
     }
 
+    // Draws frame time percentiles below the FPS, and a bar chart of the frame interval histogram
+    // in the lower left corner, so that stutter is visible and not just the average frame rate.
+    void drawFrameTimingStats(Canvas c, int width, int height) {
+        synchronized (frameTimingStats) {
+            FrameTimeHistogram intervals = frameTimingStats.getFrameIntervals();
+            if (intervals.getCount() == 0) return;
+            c.drawText(frameTimingStats.summary(), width * 0.02f,
+                    height * 0.25f + 1.2f * fpsPaint.getTextSize(), fpsPaint);
+            long maxCount = 0;
+            for (int i = 0; i < FrameTimeHistogram.NUM_BUCKETS; i++) {
+                maxCount = Math.max(maxCount, intervals.getBucketCount(i));
+            }
+            float left = width * 0.02f;
+            float bottom = height * 0.95f;
+            float chartHeight = height * 0.35f;
+            float barWidth = width * 0.25f / FrameTimeHistogram.NUM_BUCKETS;
+            for (int i = 0; i < FrameTimeHistogram.NUM_BUCKETS; i++) {
+                long count = intervals.getBucketCount(i);
+                if (count == 0) continue;
+                float barHeight = Math.max(1, chartHeight * count / maxCount);
+                float x = left + i * barWidth;
+                c.drawRect(x, bottom - barHeight, x + barWidth, bottom, fpsPaint);
+            }
+        }
+    }
+
     long currentMillis() {
         return System.currentTimeMillis();
     }
@@ -235,8 +276,8 @@ public class ScoreView extends View {
         return (unlimitedBalls) ? s + "*" : s;
     }
 
-    public void setField(Field value) {
-        field = value;
+    public void setStatusBuffer(TripleBuffer<StatusSnapshot> value) {
+        statusBuffer = value;
     }
 
     public void setHighScores(List<Long> value) {
@@ -247,6 +288,20 @@ public class ScoreView extends View {
         fps = value;
     }
 
+    /** Sets the average time from capturing a frame to finishing drawing it. */
+    public void setFrameLatencyMillis(double value) {
+        frameLatencyMillis = value;
+    }
+
+    public void setFrameTimingStats(FrameTimingStats value) {
+        frameTimingStats = value;
+    }
+
+    /** Sets the profiler whose phase times are shown with the FPS, if it's enabled. */
+    public void setProfiler(FrameProfiler value) {
+        profiler = value;
+    }
+
     public void setShowFPS(boolean value) {
         showFPS = value;
     }
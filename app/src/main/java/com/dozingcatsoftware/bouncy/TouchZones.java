@@ -0,0 +1,170 @@
+package com.dozingcatsoftware.bouncy;
+
+import java.util.Arrays;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.MotionEvent;
+
+/**
+ * Tracks which touch zone each pointer of a multitouch gesture is in, so that for example a
+ * finger on the left half of the screen holds the left flippers while another finger on the right
+ * half holds the right flippers. Zones are rectangles given as fractions of the view size, with
+ * IDs chosen by the caller; several rectangles can share an ID. A pointer is in the first zone
+ * that contains it, or in no zone. Touches can be reported slightly outside the view, so their
+ * positions are clamped to the view's bounds before finding their zone.
+ *
+ * Pointers are tracked by ID: ACTION_DOWN and ACTION_POINTER_DOWN assign the new pointer to a
+ * zone, ACTION_MOVE moves pointers that have crossed into another zone, and ACTION_POINTER_UP,
+ * ACTION_UP, and ACTION_CANCEL release them. The number of pointers in each zone is kept up to
+ * date, so `isZonePressed` doesn't need to look at the event. Nothing is allocated while
+ * handling events.
+ *
+ * Uses MotionEvent methods added in Android 2.0, so it must only be used if `isSupported`
+ * returns true.
+ */
+@TargetApi(Build.VERSION_CODES.ECLAIR)
+public class TouchZones {
+
+    /** Pointer IDs at or above this are ignored. IDs are reused, so they're normally small. */
+    static final int MAX_POINTER_ID = 32;
+    static final int NO_ZONE = -1;
+    // Just less than 1, so it's inside zones that extend to the right or bottom edge.
+    static final float MAX_FRACTION = 1 - 1e-7f;
+
+    int numZones = 0;
+    int[] zoneIds = new int[4];
+    float[] zoneLefts = new float[4];
+    float[] zoneTops = new float[4];
+    float[] zoneRights = new float[4];
+    float[] zoneBottoms = new float[4];
+    // Number of pointers currently in each zone.
+    int[] zonePointerCounts = new int[4];
+    // Index of the zone that each pointer ID is in, or NO_ZONE.
+    final int[] pointerZones = new int[MAX_POINTER_ID];
+
+    // Set by setPointerZone when a zone becomes pressed or released.
+    boolean zonesChanged;
+
+    public TouchZones() {
+        Arrays.fill(pointerZones, NO_ZONE);
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.ECLAIR;
+    }
+
+    /**
+     * Adds a zone covering the given fractions of the view's width and height, where (0, 0) is
+     * the top left corner and (1, 1) is the bottom right. Zones added earlier take precedence
+     * where they overlap.
+     */
+    public void addZone(int zoneId, float left, float top, float right, float bottom) {
+        if (numZones == zoneIds.length) {
+            int size = 2 * numZones;
+            zoneIds = Arrays.copyOf(zoneIds, size);
+            zoneLefts = Arrays.copyOf(zoneLefts, size);
+            zoneTops = Arrays.copyOf(zoneTops, size);
+            zoneRights = Arrays.copyOf(zoneRights, size);
+            zoneBottoms = Arrays.copyOf(zoneBottoms, size);
+            zonePointerCounts = Arrays.copyOf(zonePointerCounts, size);
+        }
+        zoneIds[numZones] = zoneId;
+        zoneLefts[numZones] = left;
+        zoneTops[numZones] = top;
+        zoneRights[numZones] = right;
+        zoneBottoms[numZones] = bottom;
+        zonePointerCounts[numZones] = 0;
+        numZones++;
+    }
+
+    /** Removes all zones and releases all pointers. */
+    public void clearZones() {
+        releaseAllPointers();
+        numZones = 0;
+    }
+
+    /** Returns true if any pointer is in a zone with the given ID. */
+    public boolean isZonePressed(int zoneId) {
+        for (int i = 0; i < numZones; i++) {
+            if (zoneIds[i] == zoneId && zonePointerCounts[i] > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Updates the zones of the pointers in `event`, for a view of the given size. Returns true if
+     * any zone was pressed or released as a result.
+     */
+    public boolean handleTouchEvent(MotionEvent event, float viewWidth, float viewHeight) {
+        zonesChanged = false;
+        int action = event.getAction();
+        int actionIndex = (action & MotionEvent.ACTION_POINTER_INDEX_MASK) >>
+                MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+        switch (action & MotionEvent.ACTION_MASK) {
+            case MotionEvent.ACTION_DOWN:
+                releaseAllPointers();
+                updatePointer(event, 0, viewWidth, viewHeight);
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                updatePointer(event, actionIndex, viewWidth, viewHeight);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                int pointerCount = event.getPointerCount();
+                for (int i = 0; i < pointerCount; i++) {
+                    updatePointer(event, i, viewWidth, viewHeight);
+                }
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+                setPointerZone(event.getPointerId(actionIndex), NO_ZONE);
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                releaseAllPointers();
+                break;
+        }
+        return zonesChanged;
+    }
+
+    private void updatePointer(MotionEvent event, int index, float viewWidth, float viewHeight) {
+        float x = clampFraction(event.getX(index) / viewWidth);
+        float y = clampFraction(event.getY(index) / viewHeight);
+        setPointerZone(event.getPointerId(index), zoneIndexAt(x, y));
+    }
+
+    // Zones don't include their right and bottom edges, so fractions of 1 or more are clamped to
+    // MAX_FRACTION.
+    static float clampFraction(float f) {
+        if (f < 0) return 0;
+        if (f >= 1) return MAX_FRACTION;
+        return f;
+    }
+
+    private int zoneIndexAt(float x, float y) {
+        for (int i = 0; i < numZones; i++) {
+            if (x >= zoneLefts[i] && x < zoneRights[i] && y >= zoneTops[i] && y < zoneBottoms[i]) {
+                return i;
+            }
+        }
+        return NO_ZONE;
+    }
+
+    private void setPointerZone(int pointerId, int zone) {
+        if (pointerId < 0 || pointerId >= MAX_POINTER_ID) return;
+        int previousZone = pointerZones[pointerId];
+        if (zone == previousZone) return;
+        if (previousZone != NO_ZONE && --zonePointerCounts[previousZone] == 0) {
+            zonesChanged = true;
+        }
+        if (zone != NO_ZONE && zonePointerCounts[zone]++ == 0) {
+            zonesChanged = true;
+        }
+        pointerZones[pointerId] = zone;
+    }
+
+    private void releaseAllPointers() {
+        for (int i = 0; i < MAX_POINTER_ID; i++) {
+            setPointerZone(i, NO_ZONE);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import android.media.SoundPool;
 import android.util.Log;
 
 import com.dozingcatsoftware.vectorpinball.model.AudioPlayer;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
 
 public class VPSoundpool {
 
@@ -59,6 +60,7 @@ public class VPSoundpool {
     // See https://code.google.com/p/android-developer-preview/issues/detail?id=1812
     public static void loadSounds() {
         Log.v(LOG_TAG, "loadSounds start");
+        long traceNanos = TraceRecorder.begin();
         soundsLoaded = false;
         mSoundPoolMap.clear();
         AssetManager assets = mContext.getAssets();
@@ -93,6 +95,7 @@ public class VPSoundpool {
             soundsLoaded = true;
             resetMusicState();
             Log.v(LOG_TAG, "loadSounds finished");
+            TraceRecorder.end(TraceRecorder.LOAD_SOUNDS, traceNanos);
         }
         catch(IOException ex) {
             Log.e(LOG_TAG, "Error loading sounds", ex);
@@ -56,6 +56,9 @@ public class BumperElement extends FieldElement {
         return true;
     }
 
+    // Returned by impulseForBall, reused to avoid allocating a vector for every hit.
+    private final Vector2 impulse = new Vector2();
+
     Vector2 impulseForBall(Ball ball) {
         if (this.kick <= 0.01f) return null;
         // Compute unit vector from center of bumper to ball, and scale by kick value to get impulse.
@@ -65,7 +68,7 @@ public class BumperElement extends FieldElement {
         float iy = ballpos.y - thisPos.y;
         float mag = (float) Math.hypot(ix, iy);
         float scale = this.kick / mag;
-        return new Vector2(ix * scale, iy * scale);
+        return impulse.set(ix * scale, iy * scale);
     }
 
     @Override public void handleCollision(Ball ball, Body bodyHit, Field field) {
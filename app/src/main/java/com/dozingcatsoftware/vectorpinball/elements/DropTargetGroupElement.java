@@ -3,12 +3,16 @@ package com.dozingcatsoftware.vectorpinball.elements;
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.TAU;
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asFloat;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.World;
+import com.dozingcatsoftware.vectorpinball.model.ActionScheduler;
 import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.Color;
 import com.dozingcatsoftware.vectorpinball.model.Field;
@@ -63,6 +67,8 @@ public class DropTargetGroupElement extends FieldElement {
     // Store all bodies and positions, use Body's active flag to determine which targets were hit.
     List<Body> allBodies = new ArrayList<>();
     float[][] positions;
+    // Scheduled action to restore the targets after all are hit, saved in field snapshots.
+    long resetAction = ActionScheduler.NO_ACTION;
 
     @Override public void finishCreateElement(
             Map<String, ?> params, FieldElementCollection collection) {
@@ -135,11 +141,15 @@ public class DropTargetGroupElement extends FieldElement {
 
             float restoreTime = asFloat(this.parameters.get(RESET_DELAY_PROPERTY));
             if (restoreTime>0) {
-                field.scheduleAction((long)(restoreTime*1000), this::makeAllTargetsVisible);
+                resetAction = field.scheduleAction(
+                        (long)(restoreTime*1000), makeAllTargetsVisibleFn);
             }
         }
     }
 
+    // Created once rather than on every reset.
+    private final Runnable makeAllTargetsVisibleFn = this::makeAllTargetsVisible;
+
     /** Makes all targets visible by calling Body.setActive(true) on each target body */
     public void makeAllTargetsVisible() {
         int bsize = allBodies.size();
@@ -148,6 +158,27 @@ public class DropTargetGroupElement extends FieldElement {
         }
     }
 
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        super.writeState(field, out);
+        int bsize = allBodies.size();
+        for (int i = 0; i < bsize; i++) {
+            out.writeBoolean(allBodies.get(i).isActive());
+        }
+        out.writeLong(field.getScheduledActionTime(resetAction));
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        super.readState(field, in);
+        int bsize = allBodies.size();
+        for (int i = 0; i < bsize; i++) {
+            allBodies.get(i).setActive(in.readBoolean());
+        }
+        long resetTime = in.readLong();
+        resetAction = (resetTime >= 0) ?
+                field.scheduleActionAtTime(resetTime, makeAllTargetsVisibleFn) :
+                ActionScheduler.NO_ACTION;
+    }
+
     @Override public void draw(Field field, IFieldRenderer renderer) {
         // draw line for each target
         int color = currentColor(DEFAULT_COLOR);
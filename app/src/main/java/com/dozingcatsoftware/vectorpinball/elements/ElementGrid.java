@@ -0,0 +1,292 @@
+package com.dozingcatsoftware.vectorpinball.elements;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.badlogic.gdx.math.Vector2;
+import com.dozingcatsoftware.vectorpinball.model.Ball;
+
+/**
+ * Finds the sensors and rollovers that each ball may be in, so that SensorElement and
+ * RolloverGroupElement don't have to test every ball against every rectangle and circle on every
+ * tick. When the layout is loaded, the bounding box of each sensor rectangle and rollover circle
+ * is added to every cell it overlaps in a uniform grid for its layer; sensors without a
+ * "ballLayerFrom" parameter apply to balls in any layer, and go in a separate grid. On each tick,
+ * `findCandidates` looks up the single cell containing each ball in the grid for the ball's layer,
+ * and marks the elements with an entry there as candidates. Elements with no candidates skip
+ * their hit tests, and elements with candidates test only those, so the results are the same as
+ * testing everything.
+ *
+ * A sensor or rollover callback to the field delegate can move, add, or remove balls, which can
+ * change the hits of elements that tick later. The field calls `mayHaveMovedBalls` after ticking
+ * each element, and if it returns true calls `findCandidates` again for the remaining elements.
+ * Rollover groups whose rollovers are moved or resized (e.g. the planets in table 6) are removed
+ * from the grid, and test every rollover on every tick as before.
+ *
+ * The grids are built once in the constructor; finding candidates doesn't allocate except when a
+ * rollover group's candidate arrays need to grow.
+ */
+public class ElementGrid {
+
+    /** Number of cells along the longer side of each layer's grid. */
+    static final int CELLS_PER_SIDE = 16;
+    // Added to rollover radii, so that rounding in the distance test can't make a ball hit a
+    // rollover outside its bounding box.
+    static final float ROLLOVER_MARGIN = 0.01f;
+    // Grid "layer" for sensors that apply to balls in any layer.
+    static final int ANY_LAYER = Integer.MIN_VALUE;
+
+    static class LayerGrid {
+        final int layer;
+        float minX, minY, maxX, maxY;
+        float cellSize;
+        int numColumns, numRows;
+        // Entries in the cell at (column, row) are cellEntries[cellStarts[c]] up to
+        // cellEntries[cellStarts[c + 1]], where c = row * numColumns + column.
+        int[] cellStarts;
+        int[] cellEntries;
+
+        LayerGrid(int layer) {
+            this.layer = layer;
+        }
+
+        int column(float x) {
+            return Math.min((int) ((x - minX) / cellSize), numColumns - 1);
+        }
+
+        int row(float y) {
+            return Math.min((int) ((y - minY) / cellSize), numRows - 1);
+        }
+
+        /** Returns the index of the cell containing (x, y), or -1 if it's outside the grid. */
+        int cellIndex(float x, float y) {
+            if (x < minX || x > maxX || y < minY || y > maxY) {
+                return -1;
+            }
+            return row(y) * numColumns + column(x);
+        }
+    }
+
+    // Sensor or rollover group at each position in the array of elements passed to the
+    // constructor, or null for other elements.
+    final SensorElement[] sensors;
+    final RolloverGroupElement[] rolloverGroups;
+
+    // For each entry, the position of its element in the array passed to the constructor, the
+    // index of the rollover within its group or -1 for a sensor, and its bounding box.
+    int numEntries = 0;
+    int[] entryElementIndices = new int[16];
+    int[] entryRolloverIndices = new int[16];
+    float[] entryMinX = new float[16];
+    float[] entryMinY = new float[16];
+    float[] entryMaxX = new float[16];
+    float[] entryMaxY = new float[16];
+    int[] entryLayers = new int[16];
+
+    LayerGrid[] grids;
+    LayerGrid anyLayerGrid;
+
+    // Positions of the elements that have candidates, so they can be cleared.
+    int[] candidateElementIndices;
+    int numCandidateElements = 0;
+
+    /**
+     * Builds grids for the sensors and rollover groups in `elements`, which must be in the order
+     * they're ticked. The elements are marked as indexed, so that their tick methods use the
+     * candidates found by this grid.
+     */
+    public ElementGrid(FieldElement[] elements) {
+        sensors = new SensorElement[elements.length];
+        rolloverGroups = new RolloverGroupElement[elements.length];
+        candidateElementIndices = new int[elements.length];
+        List<Integer> layers = new ArrayList<>();
+        for (int i = 0; i < elements.length; i++) {
+            FieldElement element = elements[i];
+            if (element instanceof SensorElement) {
+                SensorElement sensor = (SensorElement) element;
+                sensors[i] = sensor;
+                sensor.indexed = true;
+                sensor.hasCandidateBall = false;
+                int layer = (sensor.layerFrom != null) ? sensor.layerFrom.intValue() : ANY_LAYER;
+                addEntry(i, -1, layer, sensor.xmin, sensor.ymin, sensor.xmax, sensor.ymax);
+            }
+            else if (element instanceof RolloverGroupElement) {
+                RolloverGroupElement group = (RolloverGroupElement) element;
+                rolloverGroups[i] = group;
+                group.indexed = true;
+                group.numCandidates = 0;
+                for (int j = 0; j < group.rollovers.size(); j++) {
+                    RolloverGroupElement.Rollover r = group.rollovers.get(j);
+                    float radius = (float) Math.sqrt(r.radiusSquared) + ROLLOVER_MARGIN;
+                    addEntry(i, j, group.getLayer(), r.position.x - radius,
+                            r.position.y - radius, r.position.x + radius, r.position.y + radius);
+                }
+            }
+        }
+        for (int i = 0; i < numEntries; i++) {
+            if (!layers.contains(entryLayers[i])) {
+                layers.add(entryLayers[i]);
+            }
+        }
+        List<LayerGrid> layerGrids = new ArrayList<>();
+        for (int layer : layers) {
+            LayerGrid grid = buildGrid(layer);
+            if (layer == ANY_LAYER) {
+                anyLayerGrid = grid;
+            }
+            else {
+                layerGrids.add(grid);
+            }
+        }
+        grids = layerGrids.toArray(new LayerGrid[0]);
+    }
+
+    private void addEntry(int elementIndex, int rolloverIndex, int layer,
+            float minX, float minY, float maxX, float maxY) {
+        if (numEntries == entryElementIndices.length) {
+            int size = 2 * numEntries;
+            entryElementIndices = Arrays.copyOf(entryElementIndices, size);
+            entryRolloverIndices = Arrays.copyOf(entryRolloverIndices, size);
+            entryMinX = Arrays.copyOf(entryMinX, size);
+            entryMinY = Arrays.copyOf(entryMinY, size);
+            entryMaxX = Arrays.copyOf(entryMaxX, size);
+            entryMaxY = Arrays.copyOf(entryMaxY, size);
+            entryLayers = Arrays.copyOf(entryLayers, size);
+        }
+        entryElementIndices[numEntries] = elementIndex;
+        entryRolloverIndices[numEntries] = rolloverIndex;
+        entryMinX[numEntries] = minX;
+        entryMinY[numEntries] = minY;
+        entryMaxX[numEntries] = maxX;
+        entryMaxY[numEntries] = maxY;
+        entryLayers[numEntries] = layer;
+        numEntries++;
+    }
+
+    private LayerGrid buildGrid(int layer) {
+        LayerGrid grid = new LayerGrid(layer);
+        grid.minX = grid.minY = Float.MAX_VALUE;
+        grid.maxX = grid.maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < numEntries; i++) {
+            if (entryLayers[i] != layer) continue;
+            grid.minX = Math.min(grid.minX, entryMinX[i]);
+            grid.minY = Math.min(grid.minY, entryMinY[i]);
+            grid.maxX = Math.max(grid.maxX, entryMaxX[i]);
+            grid.maxY = Math.max(grid.maxY, entryMaxY[i]);
+        }
+        float size = Math.max(grid.maxX - grid.minX, grid.maxY - grid.minY);
+        grid.cellSize = (size > 0) ? size / CELLS_PER_SIDE : 1f;
+        grid.numColumns = (int) ((grid.maxX - grid.minX) / grid.cellSize) + 1;
+        grid.numRows = (int) ((grid.maxY - grid.minY) / grid.cellSize) + 1;
+        int numCells = grid.numColumns * grid.numRows;
+
+        // Count the entries in each cell, then fill them in, in the order they were added so that
+        // a group's rollovers are found in index order.
+        grid.cellStarts = new int[numCells + 1];
+        for (int pass = 0; pass < 2; pass++) {
+            int[] cellCounts = new int[numCells];
+            for (int i = 0; i < numEntries; i++) {
+                if (entryLayers[i] != layer) continue;
+                int col0 = grid.column(entryMinX[i]);
+                int col1 = grid.column(entryMaxX[i]);
+                int row0 = grid.row(entryMinY[i]);
+                int row1 = grid.row(entryMaxY[i]);
+                for (int row = row0; row <= row1; row++) {
+                    for (int col = col0; col <= col1; col++) {
+                        int cell = row * grid.numColumns + col;
+                        if (pass == 1) {
+                            grid.cellEntries[grid.cellStarts[cell] + cellCounts[cell]] = i;
+                        }
+                        cellCounts[cell]++;
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int cell = 0; cell < numCells; cell++) {
+                    grid.cellStarts[cell + 1] = grid.cellStarts[cell] + cellCounts[cell];
+                }
+                grid.cellEntries = new int[grid.cellStarts[numCells]];
+            }
+        }
+        return grid;
+    }
+
+    private LayerGrid gridForLayer(int layer) {
+        for (LayerGrid grid : grids) {
+            if (grid.layer == layer) return grid;
+        }
+        return null;
+    }
+
+    /**
+     * Marks the sensors and rollovers that `balls` may be in as candidates for their elements'
+     * next tick, considering only elements at or after `firstElementIndex` in the array passed
+     * to the constructor. Previous candidates of those elements are cleared.
+     */
+    public void findCandidates(List<Ball> balls, int firstElementIndex) {
+        int numKept = 0;
+        for (int i = 0; i < numCandidateElements; i++) {
+            int elementIndex = candidateElementIndices[i];
+            if (elementIndex < firstElementIndex) {
+                candidateElementIndices[numKept++] = elementIndex;
+            }
+            else if (sensors[elementIndex] != null) {
+                sensors[elementIndex].hasCandidateBall = false;
+            }
+            else {
+                rolloverGroups[elementIndex].numCandidates = 0;
+            }
+        }
+        numCandidateElements = numKept;
+
+        for (int i = 0; i < balls.size(); i++) {
+            Ball ball = balls.get(i);
+            Vector2 position = ball.getPosition();
+            addCandidatesInCell(gridForLayer(ball.getLayer()), ball, position, firstElementIndex);
+            addCandidatesInCell(anyLayerGrid, ball, position, firstElementIndex);
+        }
+    }
+
+    private void addCandidatesInCell(
+            LayerGrid grid, Ball ball, Vector2 position, int firstElementIndex) {
+        if (grid == null) return;
+        int cell = grid.cellIndex(position.x, position.y);
+        if (cell < 0) return;
+        int end = grid.cellStarts[cell + 1];
+        for (int i = grid.cellStarts[cell]; i < end; i++) {
+            int entry = grid.cellEntries[i];
+            int elementIndex = entryElementIndices[entry];
+            if (elementIndex < firstElementIndex) continue;
+            SensorElement sensor = sensors[elementIndex];
+            if (sensor != null) {
+                if (!sensor.hasCandidateBall) {
+                    sensor.hasCandidateBall = true;
+                    candidateElementIndices[numCandidateElements++] = elementIndex;
+                }
+            }
+            else {
+                RolloverGroupElement group = rolloverGroups[elementIndex];
+                if (!group.indexed) continue;
+                if (group.numCandidates == 0) {
+                    candidateElementIndices[numCandidateElements++] = elementIndex;
+                }
+                group.addCandidate(ball, entryRolloverIndices[entry]);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the element at `elementIndex` called the field delegate or changed a ball's
+     * layer during its last tick, in which case candidates for later elements may be out of date.
+     */
+    public boolean mayHaveMovedBalls(int elementIndex) {
+        if (sensors[elementIndex] != null) {
+            return sensors[elementIndex].mayHaveMovedBalls;
+        }
+        if (rolloverGroups[elementIndex] != null) {
+            return rolloverGroups[elementIndex].mayHaveMovedBalls;
+        }
+        return false;
+    }
+}
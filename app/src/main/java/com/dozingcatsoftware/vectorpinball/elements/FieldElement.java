@@ -2,6 +2,9 @@ package com.dozingcatsoftware.vectorpinball.elements;
 
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asFloat;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -31,7 +34,10 @@ public abstract class FieldElement implements IDrawable {
     String elementID;
     int layer = 0;
     Integer initialColor;
-    Integer newColor;
+    // Color set by setNewColor, used if hasNewColor is true. Not boxed so that delegates can
+    // change colors on every tick without allocating.
+    int newColor;
+    boolean hasNewColor = false;
     Integer inactiveLayerColor;
     // Between 0 and 1, increases if a ball is at this element's layer, decreases if not.
     double layerColorFraction = 0;
@@ -186,6 +192,29 @@ public abstract class FieldElement implements IDrawable {
     public void handleCollision(Ball ball, Body bodyHit, Field field) {
     }
 
+    /**
+     * Writes any state that can change during a game, for Field.saveSnapshot. The default
+     * implementation writes the color and flash state; subclasses with additional state should
+     * override and call super.writeState first.
+     */
+    public void writeState(Field field, DataOutput out) throws IOException {
+        out.writeBoolean(hasNewColor);
+        out.writeInt(newColor);
+        out.writeInt(flashCounter);
+        out.writeDouble(layerColorFraction);
+    }
+
+    /**
+     * Restores state written by writeState. Subclasses that override writeState must also
+     * override this method and call super.readState first.
+     */
+    public void readState(Field field, DataInput in) throws IOException {
+        hasNewColor = in.readBoolean();
+        newColor = in.readInt();
+        flashCounter = in.readInt();
+        layerColorFraction = in.readDouble();
+    }
+
     /** Returns this element's ID, or null if not specified. */
     public String getElementId() {
         return elementID;
@@ -235,8 +264,19 @@ public abstract class FieldElement implements IDrawable {
         return score;
     }
 
+    /** Sets the color of this element, or if `value` is null restores the initial color. */
     public void setNewColor(Integer value) {
+        if (value != null) {
+            setNewColor(value.intValue());
+        }
+        else {
+            this.hasNewColor = false;
+        }
+    }
+
+    public void setNewColor(int value) {
         this.newColor = value;
+        this.hasNewColor = true;
     }
 
     /**
@@ -244,7 +284,7 @@ public abstract class FieldElement implements IDrawable {
      * inverting if the element is flashing. Subclasses can override.
      */
     protected int currentColor(int defaultColor) {
-        int baseColor = (this.newColor != null) ?
+        int baseColor = (this.hasNewColor) ?
                 this.newColor :
                 (this.initialColor != null) ? this.initialColor : defaultColor;
         if (this.inactiveLayerColor != null && this.layerColorFraction < 1) {
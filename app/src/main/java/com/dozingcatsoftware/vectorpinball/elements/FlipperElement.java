@@ -3,6 +3,9 @@ package com.dozingcatsoftware.vectorpinball.elements;
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asFloat;
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.toRadiansF;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +57,8 @@ public class FlipperElement extends FieldElement {
     float upspeed, downspeed;
     float minangle, maxangle;
     float cx, cy;
+    // Joint angle before the most recent tick, for interpolating when drawing.
+    float previousJointAngle;
 
     @Override
     public void finishCreateElement(Map<String, ?> params, FieldElementCollection collection) {
@@ -91,6 +96,7 @@ public class FlipperElement extends FieldElement {
         jointDef.maxMotorTorque = 1000f;
 
         this.joint = (RevoluteJoint) world.createJoint(jointDef);
+        this.previousJointAngle = joint.getJointAngle();
 
         flipperBodySet = Collections.singletonList(flipperBody);
         this.setEffectiveMotorSpeed(-this.downspeed); // Force flipper to bottom when field is
@@ -147,6 +153,10 @@ public class FlipperElement extends FieldElement {
         }
     }
 
+    /** Returns the speed of the flipper's tip in world units per second. */
+    public float getTipSpeed() {
+        return Math.abs(joint.getJointSpeed() * flipperLength);
+    }
 
     public boolean isFlipperEngaged() {
         return getEffectiveMotorSpeed() > 0;
@@ -161,12 +171,43 @@ public class FlipperElement extends FieldElement {
         }
     }
 
+    /** Records the current angle as the starting point for drawing interpolation. */
+    public void savePreviousState() {
+        previousJointAngle = joint.getJointAngle();
+    }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        super.writeState(field, out);
+        Vector2 position = flipperBody.getPosition();
+        out.writeFloat(position.x);
+        out.writeFloat(position.y);
+        out.writeFloat(flipperBody.getAngle());
+        Vector2 velocity = flipperBody.getLinearVelocity();
+        out.writeFloat(velocity.x);
+        out.writeFloat(velocity.y);
+        out.writeFloat(flipperBody.getAngularVelocity());
+        out.writeFloat(joint.getMotorSpeed());
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        super.readState(field, in);
+        float x = in.readFloat();
+        float y = in.readFloat();
+        flipperBody.setTransform(x, y, in.readFloat());
+        flipperBody.setLinearVelocity(in.readFloat(), in.readFloat());
+        flipperBody.setAngularVelocity(in.readFloat());
+        joint.setMotorSpeed(in.readFloat());
+        savePreviousState();
+    }
+
     @Override public void draw(Field field, IFieldRenderer renderer) {
         // Draw single line segment from anchor point.
         Vector2 position = anchorBody.getPosition();
+        float alpha = field.getRenderInterpolation();
+        float jointAngle = joint.getJointAngle();
+        jointAngle = previousJointAngle + alpha * (jointAngle - previousJointAngle);
         // HACK: angle can briefly get out of range, always draw between min and max.
-        float angle = MathUtils.clamp(
-                joint.getJointAngle(), jointDef.lowerAngle, jointDef.upperAngle);
+        float angle = MathUtils.clamp(jointAngle, jointDef.lowerAngle, jointDef.upperAngle);
         if (angle < jointDef.lowerAngle) angle = jointDef.lowerAngle;
         if (angle > jointDef.upperAngle) angle = jointDef.upperAngle;
         float x1 = position.x;
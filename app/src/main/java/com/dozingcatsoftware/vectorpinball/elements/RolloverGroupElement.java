@@ -2,7 +2,11 @@ package com.dozingcatsoftware.vectorpinball.elements;
 
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asFloat;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -10,17 +14,25 @@ import java.util.Map;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.World;
+import com.dozingcatsoftware.vectorpinball.model.ActionScheduler;
 import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.Color;
 import com.dozingcatsoftware.vectorpinball.model.Field;
 import com.dozingcatsoftware.vectorpinball.model.IFieldRenderer;
+import com.dozingcatsoftware.vectorpinball.util.BitArray;
 
 /**
  * This class represents a collection of rollover elements. They are activated (and optionally
  * deactivated) when a ball passes over them. Individual rollovers in the group are represented by
  * instances of the Rollover nested class, which specify center, radius, and color. Parameters at
  * the collection level control whether the rollovers should cycle when flippers are activated,
- * and whether rollovers can toggle from on to off.
+ * and whether rollovers can toggle from on to off. The active and hit states of the rollovers are
+ * stored in BitArrays indexed by rollover, so checking or changing the state of a rollover takes
+ * constant time regardless of the size of the group.
+ *
+ * When the group is in the field's ElementGrid, only the rollovers in the grid cells containing
+ * a ball are tested on each tick. Moving or resizing a rollover removes the group from the grid,
+ * since the grid cells are computed when the layout is loaded.
  */
 public class RolloverGroupElement extends FieldElement {
 
@@ -39,9 +51,19 @@ public class RolloverGroupElement extends FieldElement {
         Vector2 position;
         float radius;
         float radiusSquared; // Optimization when computing whether ball is in range.
-        Integer color;
+        // Custom color, used instead of the group's color if hasColor is true.
+        int color;
+        boolean hasColor;
         long score;
         float resetDelay;
+        // Scheduled action that deactivates this rollover after resetDelay, and the Runnable
+        // for it, created once so that activating a rollover doesn't allocate.
+        long resetAction = ActionScheduler.NO_ACTION;
+        Runnable resetFn;
+        // Set when the rollover's state is changed by a method that doesn't have access to the
+        // Field to cancel the reset action. The action does nothing if it runs, and it's
+        // cancelled in the next call to tick().
+        boolean resetCancelled;
     }
 
     static final int DEFAULT_COLOR = Color.fromRGB(0, 255, 0);
@@ -52,9 +74,20 @@ public class RolloverGroupElement extends FieldElement {
     float defaultRadius;
     float defaultResetDelay;
     List<Rollover> rollovers = new ArrayList<>();
-    List<Rollover> activeRollovers = new ArrayList<>();
-    List<Rollover> rolloversHitOnPreviousTick = new ArrayList<>();
+    // Created in finishCreateElement once the number of rollovers is known.
+    BitArray activeRollovers;
+    BitArray rolloversHitOnPreviousTick;
     boolean isVisible = true;
+    boolean hasCancelledResets = false;
+
+    // Set by ElementGrid, and cleared if a rollover is moved or resized. Candidates are pairs of
+    // a ball and the index of a rollover it may be in, in ball order and then rollover order.
+    boolean indexed = false;
+    Ball[] candidateBalls = new Ball[4];
+    int[] candidateRollovers = new int[4];
+    int numCandidates = 0;
+    // Set by tick() if it called the delegate.
+    boolean mayHaveMovedBalls = false;
 
     @SuppressWarnings("unchecked")
     @Override public void finishCreateElement(
@@ -66,7 +99,9 @@ public class RolloverGroupElement extends FieldElement {
         this.defaultResetDelay = asFloat(params.get(RESET_DELAY_PROPERTY));
 
         List<Map<String, ?>> rolloverMaps = (List<Map<String, ?>>) params.get(ROLLOVERS_PROPERTY);
-        for (Map<String, ?> rmap : rolloverMaps) {
+        for (int i = 0; i < rolloverMaps.size(); i++) {
+            Map<String, ?> rmap = rolloverMaps.get(i);
+            final int index = i;
             Rollover rollover = new Rollover();
             rollovers.add(rollover);
 
@@ -76,15 +111,29 @@ public class RolloverGroupElement extends FieldElement {
             // If not present use default from group.
             rollover.radius = (rmap.containsKey(RADIUS_PROPERTY)) ?
                     asFloat(rmap.get(RADIUS_PROPERTY)) : this.defaultRadius;
-            rollover.color = (rmap.containsKey(COLOR_PROPERTY))
-                    ? Color.fromList((List<Number>) rmap.get(COLOR_PROPERTY)) : null;
+            if (rmap.containsKey(COLOR_PROPERTY)) {
+                rollover.color = Color.fromList((List<Number>) rmap.get(COLOR_PROPERTY));
+                rollover.hasColor = true;
+            }
             rollover.score = (rmap.containsKey(SCORE_PROPERTY)) ?
                     ((Number) rmap.get(SCORE_PROPERTY)).longValue() : this.score;
             rollover.resetDelay = (rmap.containsKey(RESET_DELAY_PROPERTY)) ?
                     asFloat(rmap.get(RESET_DELAY_PROPERTY)) : this.defaultResetDelay;
 
             rollover.radiusSquared = rollover.radius * rollover.radius;
+            rollover.resetFn = () -> {
+                if (!rollover.resetCancelled) {
+                    activeRollovers.set(index, false);
+                }
+                rollover.resetAction = ActionScheduler.NO_ACTION;
+                rollover.resetCancelled = false;
+            };
         }
+        int size = rollovers.size();
+        activeRollovers = new BitArray(size);
+        rolloversHitOnPreviousTick = new BitArray(size);
+        allHitRollovers = new BitArray(size);
+        rolloverIndicesHitByBall = new int[size];
     }
 
     @Override public void createBodies(World world) {
@@ -95,12 +144,15 @@ public class RolloverGroupElement extends FieldElement {
         return Collections.emptyList();
     }
 
-    /** Sets `hitRollovers` to the rollovers which have `ball` within their specified radius. */
-    private void getRolloversHitByBall(Ball ball, List<Rollover> hitRollovers) {
-        hitRollovers.clear();
+    /**
+     * Sets the start of rolloverIndicesHitByBall to the indices of the rollovers which have `ball`
+     * within their specified radius, and returns the number of them.
+     */
+    private int getRolloversHitByBall(Ball ball) {
         if (ball.getLayer() != this.getLayer()) {
-            return;
+            return 0;
         }
+        int numHits = 0;
         int rsize = this.rollovers.size();
         for(int i = 0; i < rsize; i++) {
             Rollover rollover = this.rollovers.get(i);
@@ -109,26 +161,54 @@ public class RolloverGroupElement extends FieldElement {
             float ydiff = position.y - rollover.position.y;
             float distanceSquared = xdiff * xdiff + ydiff * ydiff;
             if (distanceSquared <= rollover.radiusSquared) {
-                hitRollovers.add(rollover);
+                rolloverIndicesHitByBall[numHits++] = i;
             }
         }
+        return numHits;
+    }
+
+    /** Like getRolloversHitByBall, but only tests candidates found by ElementGrid. */
+    private int getCandidateRolloversHitByBall(Ball ball) {
+        if (ball.getLayer() != this.getLayer()) {
+            return 0;
+        }
+        int numHits = 0;
+        Vector2 position = ball.getPosition();
+        for (int i = 0; i < numCandidates; i++) {
+            if (candidateBalls[i] != ball) continue;
+            int index = candidateRollovers[i];
+            Rollover rollover = this.rollovers.get(index);
+            float xdiff = position.x - rollover.position.x;
+            float ydiff = position.y - rollover.position.y;
+            float distanceSquared = xdiff * xdiff + ydiff * ydiff;
+            if (distanceSquared <= rollover.radiusSquared) {
+                rolloverIndicesHitByBall[numHits++] = index;
+            }
+        }
+        return numHits;
+    }
+
+    void addCandidate(Ball ball, int rolloverIndex) {
+        if (numCandidates == candidateBalls.length) {
+            candidateBalls = Arrays.copyOf(candidateBalls, 2 * numCandidates);
+            candidateRollovers = Arrays.copyOf(candidateRollovers, 2 * numCandidates);
+        }
+        candidateBalls[numCandidates] = ball;
+        candidateRollovers[numCandidates] = rolloverIndex;
+        numCandidates++;
     }
 
     /** Returns true if all rollovers in the group are active. */
     public boolean allRolloversActive() {
-        return activeRollovers.size() == rollovers.size();
+        return activeRollovers.count() == rollovers.size();
     }
 
     /** Activates the first unactivated rollover in the group. Has no effect if all are active.
      */
     public void activateFirstUnactivatedRollover() {
-        int rsize = this.rollovers.size();
-        for (int i = 0; i < rsize; i++) {
-            Rollover rollover = this.rollovers.get(i);
-            if (!activeRollovers.contains(rollover)) {
-                activeRollovers.add(rollover);
-                break;
-            }
+        int index = activeRollovers.firstClear();
+        if (index >= 0) {
+            activeRollovers.set(index, true);
         }
     }
 
@@ -137,17 +217,14 @@ public class RolloverGroupElement extends FieldElement {
     }
 
     public boolean isRolloverActiveAtIndex(int index) {
-        return activeRollovers.contains(rollovers.get(index));
+        return activeRollovers.get(index);
     }
 
     public void setRolloverActiveAtIndex(int index, boolean active) {
         Rollover r = rollovers.get(index);
-        if (active) {
-            if (!activeRollovers.contains(r)) activeRollovers.add(r);
-        }
-        else {
-            activeRollovers.remove(r);
-        }
+        // Explicitly setting the state overrides any pending reset.
+        invalidateReset(r);
+        activeRollovers.set(index, active);
     }
 
     public Vector2 getRolloverCenterAtIndex(int index) {
@@ -158,6 +235,7 @@ public class RolloverGroupElement extends FieldElement {
         Rollover r = rollovers.get(index);
         r.position.x = (float) x;
         r.position.y = (float) y;
+        indexed = false;
     }
 
     public float getRolloverRadiusAtIndex(int index) {
@@ -166,10 +244,23 @@ public class RolloverGroupElement extends FieldElement {
 
     public void setRolloverRadiusAtIndex(int index, float radius) {
         rollovers.get(index).radius = radius;
+        indexed = false;
     }
 
+    /** Sets the color of a rollover, or if `color` is null uses the group's color. */
     public void setRolloverColorAtIndex(int index, Integer color) {
-        rollovers.get(index).color = color;
+        if (color != null) {
+            setRolloverColorAtIndex(index, color.intValue());
+        }
+        else {
+            rollovers.get(index).hasColor = false;
+        }
+    }
+
+    public void setRolloverColorAtIndex(int index, int color) {
+        Rollover r = rollovers.get(index);
+        r.color = color;
+        r.hasColor = true;
     }
 
     @Override public boolean shouldCallTick() {
@@ -177,11 +268,34 @@ public class RolloverGroupElement extends FieldElement {
     }
 
     // Reuse these to avoid allocating memory in tick().
-    List<Rollover> rolloversHitByBall = new ArrayList<>();
-    List<Rollover> allHitRollovers = new ArrayList<>();
+    int[] rolloverIndicesHitByBall;
+    BitArray allHitRollovers;
+
+    private void invalidateReset(Rollover r) {
+        if (r.resetAction != ActionScheduler.NO_ACTION) {
+            r.resetCancelled = true;
+            hasCancelledResets = true;
+        }
+    }
+
+    private void cancelInvalidatedResets(Field field) {
+        for (int i = 0; i < rollovers.size(); i++) {
+            Rollover r = rollovers.get(i);
+            if (r.resetCancelled) {
+                field.cancelScheduledAction(r.resetAction);
+                r.resetAction = ActionScheduler.NO_ACTION;
+                r.resetCancelled = false;
+            }
+        }
+        hasCancelledResets = false;
+    }
 
     @Override public void tick(Field field) {
         super.tick(field);
+        if (hasCancelledResets) {
+            cancelInvalidatedResets(field);
+        }
+        mayHaveMovedBalls = false;
         if (this.ignoreBall) return;
 
         boolean allActivePrevious = this.allRolloversActive();
@@ -190,43 +304,53 @@ public class RolloverGroupElement extends FieldElement {
         // With multiple balls this may not behave as expected, for example if two balls
         // simultaneously activate the two remaining inactive rollovers, the ball object passed
         // to `allRolloversInGroupActivated` will arbitrarily be one of them.
-        for (int i = 0; i < balls.size(); i++) {
+        // If the group is indexed and has no candidates, no rollovers are hit.
+        boolean mayHaveHits = !indexed || numCandidates > 0;
+        for (int i = 0; mayHaveHits && i < balls.size(); i++) {
             final Ball ball = balls.get(i);
-            getRolloversHitByBall(ball, rolloversHitByBall);
-            for (int j = 0; j < rolloversHitByBall.size(); j++) {
-                final Rollover r = rolloversHitByBall.get(j);
-                if (allHitRollovers.contains(r)) {
+            int numHits = (indexed) ?
+                    getCandidateRolloversHitByBall(ball) : getRolloversHitByBall(ball);
+            for (int j = 0; j < numHits; j++) {
+                int index = rolloverIndicesHitByBall[j];
+                final Rollover r = rollovers.get(index);
+                if (allHitRollovers.get(index)) {
                     continue;
                 }
-                allHitRollovers.add(r);
-                if (rolloversHitOnPreviousTick.contains(r)) {
+                allHitRollovers.set(index, true);
+                if (rolloversHitOnPreviousTick.get(index)) {
                     continue;
                 }
                 // Inactive rollover becomes active, active rollover becomes inactive if toggleOff
                 // setting is true. Add score whenever the state changes.
-                if (!activeRollovers.contains(r)) {
-                    activeRollovers.add(r);
+                if (!activeRollovers.get(index)) {
+                    activeRollovers.set(index, true);
                     field.addScore(r.score);
                     field.getAudioPlayer().playRollover();
-                    // Set timer to clear rollover if reset parameter is present and >0.
+                    // Set timer to clear rollover if reset parameter is present and >0, replacing
+                    // any timer from a previous activation.
                     if (r.resetDelay > 0) {
-                        field.scheduleAction((long)(r.resetDelay*1000), () -> activeRollovers.remove(r));
+                        field.cancelScheduledAction(r.resetAction);
+                        r.resetCancelled = false;
+                        r.resetAction = field.scheduleAction((long)(r.resetDelay*1000), r.resetFn);
                     }
                     // Notify delegate if all rollovers are now active and they weren't previously.
                     if (!allActivePrevious && allRolloversActive()) {
+                        mayHaveMovedBalls = true;
                         field.getDelegate().allRolloversInGroupActivated(field, this, ball);
                     }
                 }
                 else if (this.canToggleOff) {
-                    activeRollovers.remove(r);
+                    field.cancelScheduledAction(r.resetAction);
+                    r.resetAction = ActionScheduler.NO_ACTION;
+                    r.resetCancelled = false;
+                    activeRollovers.set(index, false);
                     field.addScore(r.score);
                     field.getAudioPlayer().playRollover();
                 }
             }
         }
 
-        rolloversHitOnPreviousTick.clear();
-        rolloversHitOnPreviousTick.addAll(allHitRollovers);
+        rolloversHitOnPreviousTick.copyFrom(allHitRollovers);
     }
 
     @Override public void flippersActivated(Field field, List<FlipperElement> flippers) {
@@ -240,8 +364,6 @@ public class RolloverGroupElement extends FieldElement {
         }
     }
 
-    List<Rollover> newActiveRollovers = new ArrayList<>();
-
     /**
      * Cycles the states of all rollover elements by "rotating" left or right. For example, if this
      * group has three rollovers whose states are (on, on, off), after calling this method with
@@ -249,24 +371,19 @@ public class RolloverGroupElement extends FieldElement {
      * to the first, so (off, off, on) -> (on, off, off).
      */
     public void cycleRollovers(boolean toRight) {
-        newActiveRollovers.clear();
-        for (int i = 0; i < this.rollovers.size(); i++) {
-            int prevIndex = (toRight) ? ((i == 0) ? this.rollovers.size() - 1 : i - 1) :
-                    ((i == this.rollovers.size() - 1) ? 0 : i + 1);
-            if (this.activeRollovers.contains(this.rollovers.get(prevIndex))) {
-                newActiveRollovers.add(this.rollovers.get(i));
-            }
-        }
-
-        this.activeRollovers.clear();
-        this.activeRollovers.addAll(newActiveRollovers);
+        this.activeRollovers.rotate(toRight);
     }
 
     /** Sets all rollovers to be active or inactive according to the boolean argument. */
     public void setAllRolloversActivated(boolean active) {
-        activeRollovers.clear();
+        for (int i = 0; i < rollovers.size(); i++) {
+            invalidateReset(rollovers.get(i));
+        }
         if (active) {
-            activeRollovers.addAll(rollovers);
+            activeRollovers.setAll();
+        }
+        else {
+            activeRollovers.clear();
         }
     }
 
@@ -286,6 +403,49 @@ public class RolloverGroupElement extends FieldElement {
         this.isVisible = visible;
     }
 
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        super.writeState(field, out);
+        out.writeBoolean(isVisible);
+        out.writeBoolean(ignoreBall);
+        for (int i = 0; i < rollovers.size(); i++) {
+            Rollover r = rollovers.get(i);
+            out.writeBoolean(activeRollovers.get(i));
+            out.writeBoolean(rolloversHitOnPreviousTick.get(i));
+            out.writeFloat(r.position.x);
+            out.writeFloat(r.position.y);
+            out.writeFloat(r.radius);
+            out.writeBoolean(r.hasColor);
+            out.writeInt(r.color);
+            out.writeLong(r.resetCancelled ? -1 : field.getScheduledActionTime(r.resetAction));
+        }
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        super.readState(field, in);
+        isVisible = in.readBoolean();
+        ignoreBall = in.readBoolean();
+        hasCancelledResets = false;
+        for (int i = 0; i < rollovers.size(); i++) {
+            Rollover r = rollovers.get(i);
+            activeRollovers.set(i, in.readBoolean());
+            rolloversHitOnPreviousTick.set(i, in.readBoolean());
+            float x = in.readFloat();
+            float y = in.readFloat();
+            float radius = in.readFloat();
+            if (x != r.position.x || y != r.position.y || radius != r.radius) {
+                indexed = false;
+            }
+            r.position.set(x, y);
+            r.radius = radius;
+            r.hasColor = in.readBoolean();
+            r.color = in.readInt();
+            long resetTime = in.readLong();
+            r.resetCancelled = false;
+            r.resetAction = (resetTime >= 0) ?
+                    field.scheduleActionAtTime(resetTime, r.resetFn) : ActionScheduler.NO_ACTION;
+        }
+    }
+
     @Override public void draw(Field field, IFieldRenderer renderer) {
         if (!this.isVisible) return;
 
@@ -297,9 +457,9 @@ public class RolloverGroupElement extends FieldElement {
         for (int i = 0; i < rsize; i++) {
             Rollover r = this.rollovers.get(i);
             // use custom rollover color if available
-            int color = (r.color != null) ? r.color : groupColor;
+            int color = (r.hasColor) ? r.color : groupColor;
 
-            if (activeRollovers.contains(r)) {
+            if (activeRollovers.get(i)) {
                 renderer.fillCircle(r.position.x, r.position.y, r.radius, color);
             }
             else {
@@ -2,6 +2,10 @@ package com.dozingcatsoftware.vectorpinball.elements;
 
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asFloat;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -17,18 +21,36 @@ import com.dozingcatsoftware.vectorpinball.model.IFieldRenderer;
  * This FieldElement subclass is used to identify areas on the table that should cause custom
  * behavior when the ball enters. A SensorElement has no bodies and doesn't draw anything. The area
  * it monitors is a rectangle defined by the "rect" parameter as a [xmin,ymin,xmax,ymax] list.
- * During every tick() invocation, a sensor determines if any of the field's balls are within its
- * area, and if so calls the field delegate's ballInSensorRange method.
+ * During every tick() invocation, a sensor determines which of the field's balls are within its
+ * area, and calls the field delegate's ballEnteredSensor and ballExitedSensor methods when a ball
+ * enters or leaves. If the "ballLayerFrom" parameter is set, only balls in that layer are
+ * considered to be in the sensor, so moving a ball to another layer also makes it leave. If the
+ * "notifyEveryTick" parameter is true, the delegate's ballInSensorRange method is also called on
+ * every tick for each ball in the sensor, for delegates that need to act continuously. When the
+ * sensor is in the field's ElementGrid, the balls are only tested if one of them is in a grid
+ * cell that the sensor overlaps or was in the sensor on the previous tick.
  */
 public class SensorElement extends FieldElement {
 
     public static final String RECT_PROPERTY = "rect";
     public static final String BALL_LAYER_TO_PROPERTY = "ballLayer";
     public static final String BALL_LAYER_FROM_PROPERTY = "ballLayerFrom";
+    public static final String NOTIFY_EVERY_TICK_PROPERTY = "notifyEveryTick";
 
     float xmin, ymin, xmax, ymax;
     private Number layerTo;
-    private Number layerFrom;
+    Number layerFrom;
+    boolean notifyEveryTick;
+
+    // Balls that were in the sensor as of the last tick, in the order they entered.
+    Ball[] ballsInside = new Ball[4];
+    int numBallsInside = 0;
+
+    // Set by ElementGrid; see ElementGrid.findCandidates.
+    boolean indexed = false;
+    boolean hasCandidateBall = false;
+    // Set by tick() if it called the delegate or moved a ball to another layer.
+    boolean mayHaveMovedBalls = false;
 
     @Override public void finishCreateElement(
             Map<String, ?> params, FieldElementCollection collection) {
@@ -39,6 +61,7 @@ public class SensorElement extends FieldElement {
         this.ymax = Math.max(asFloat(rectPos.get(1)), asFloat(rectPos.get(3)));
         this.layerFrom = (Number)params.get(BALL_LAYER_FROM_PROPERTY);
         this.layerTo = (Number)params.get(BALL_LAYER_TO_PROPERTY);
+        this.notifyEveryTick = Boolean.TRUE.equals(params.get(NOTIFY_EVERY_TICK_PROPERTY));
     }
 
     @Override public void createBodies(World world) {
@@ -58,20 +81,95 @@ public class SensorElement extends FieldElement {
         return true;
     }
 
+    /** Returns true if `ball` is in the sensor's area and the sensor applies to its layer. */
+    boolean ballInSensor(Ball ball) {
+        // Only trigger the sensor if the "from" layer is empty or it matches the ball.
+        return ballInRange(ball) &&
+                (this.layerFrom == null || this.layerFrom.intValue() == ball.getLayer());
+    }
+
+    private int indexOfBallInside(Ball ball) {
+        for (int i = 0; i < numBallsInside; i++) {
+            if (ballsInside[i] == ball) return i;
+        }
+        return -1;
+    }
+
+    private void addBallInside(Ball ball) {
+        if (numBallsInside == ballsInside.length) {
+            ballsInside = Arrays.copyOf(ballsInside, 2 * numBallsInside);
+        }
+        ballsInside[numBallsInside++] = ball;
+    }
+
+    private void removeBallInsideAt(int index) {
+        numBallsInside--;
+        System.arraycopy(ballsInside, index + 1, ballsInside, index, numBallsInside - index);
+        ballsInside[numBallsInside] = null;
+    }
+
     @Override public void tick(Field field) {
+        mayHaveMovedBalls = false;
+        if (indexed && !hasCandidateBall && numBallsInside == 0) return;
         List<Ball> balls = field.getBalls();
+        // Forget balls that were removed from the field without leaving the sensor.
+        for (int i = numBallsInside - 1; i >= 0; i--) {
+            if (!balls.contains(ballsInside[i])) {
+                removeBallInsideAt(i);
+            }
+        }
         for (int i = 0; i < balls.size(); i++) {
             Ball ball = balls.get(i);
-            if (ballInRange(ball)) {
-                // Only trigger the sensor if the "from" layer is empty or it matches the ball.
-                if (this.layerFrom == null || this.layerFrom.intValue() == ball.getLayer()) {
+            int insideIndex = indexOfBallInside(ball);
+            if (ballInSensor(ball)) {
+                boolean entered = (insideIndex < 0);
+                if (entered) {
+                    addBallInside(ball);
+                }
+                if (entered || this.notifyEveryTick) {
+                    mayHaveMovedBalls = true;
                     if (this.layerTo != null) {
                         ball.moveToLayer(this.layerTo.intValue());
                     }
-                    field.getDelegate().ballInSensorRange(field, this, ball);
+                    if (entered) {
+                        field.getDelegate().ballEnteredSensor(field, this, ball);
+                    }
+                    if (this.notifyEveryTick) {
+                        field.getDelegate().ballInSensorRange(field, this, ball);
+                    }
                     ball.setPreviousSensorId(this.getElementId());
                 }
             }
+            else if (insideIndex >= 0) {
+                removeBallInsideAt(insideIndex);
+                mayHaveMovedBalls = true;
+                field.getDelegate().ballExitedSensor(field, this, ball);
+            }
+        }
+    }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        super.writeState(field, out);
+        List<Ball> balls = field.getBalls();
+        out.writeInt(numBallsInside);
+        for (int i = 0; i < numBallsInside; i++) {
+            out.writeInt(balls.indexOf(ballsInside[i]));
+        }
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        super.readState(field, in);
+        List<Ball> balls = field.getBalls();
+        for (int i = 0; i < numBallsInside; i++) {
+            ballsInside[i] = null;
+        }
+        numBallsInside = 0;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int ballIndex = in.readInt();
+            if (ballIndex >= 0) {
+                addBallInside(balls.get(ballIndex));
+            }
         }
     }
 
@@ -2,6 +2,9 @@ package com.dozingcatsoftware.vectorpinball.elements;
 
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asFloat;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -107,6 +110,9 @@ public class WallElement extends FieldElement {
         return (super.shouldCallTick() || this.kick > 0.01f);
     }
 
+    // Returned by impulseForBall, reused to avoid allocating a vector for every hit.
+    private final Vector2 impulse = new Vector2();
+
     Vector2 impulseForBall(Ball ball) {
         if (this.kick <= 0.01f) return null;
         // Rotate wall direction 90 degrees for normal, choose direction toward ball.
@@ -127,7 +133,7 @@ public class WallElement extends FieldElement {
             ix = -ix;
             iy = -iy;
         }
-        return new Vector2(ix, iy);
+        return impulse.set(ix, iy);
     }
 
     @Override public void handleCollision(Ball ball, Body bodyHit, Field field) {
@@ -163,6 +169,36 @@ public class WallElement extends FieldElement {
         wallBody.setTransform((x1 + x2) / 2f, (y1 + y2) / 2f, angle);
     }
 
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        super.writeState(field, out);
+        out.writeBoolean(isRetracted());
+        out.writeBoolean(visible);
+        out.writeFloat(x1);
+        out.writeFloat(y1);
+        out.writeFloat(x2);
+        out.writeFloat(y2);
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        super.readState(field, in);
+        boolean retracted = in.readBoolean();
+        this.visible = in.readBoolean();
+        float newX1 = in.readFloat();
+        float newY1 = in.readFloat();
+        float newX2 = in.readFloat();
+        float newY2 = in.readFloat();
+        if (wallBody != null) {
+            setRetracted(retracted);
+            if (newX1 != x1 || newY1 != y1 || newX2 != x2 || newY2 != y2) {
+                setStartAndDirection(newX1, newY1, newX2, newY2);
+            }
+        }
+        this.x1 = newX1;
+        this.y1 = newY1;
+        this.x2 = newX2;
+        this.y2 = newY2;
+    }
+
     @Override public void draw(Field field, IFieldRenderer renderer) {
         if (!visible || isRetracted()) return;
         renderer.drawLine(x1, y1, x2, y2, currentColor(DEFAULT_WALL_COLOR));
@@ -1,8 +1,13 @@
 package com.dozingcatsoftware.vectorpinball.fields;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.BaseFieldDelegate;
 import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.PendingActions;
 import com.dozingcatsoftware.vectorpinball.elements.DropTargetGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.RolloverGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.SensorElement;
@@ -10,6 +15,10 @@ import com.dozingcatsoftware.vectorpinball.elements.WallElement;
 
 public class Field1Delegate extends BaseFieldDelegate {
 
+    // Multiball launches, saved in field snapshots.
+    static final int LAUNCH_BALL_ACTION = 0;
+    PendingActions pendingActions = new PendingActions();
+
     @Override public void allRolloversInGroupActivated(
             Field field, RolloverGroupElement rolloverGroup, Ball ball) {
         // Rollover groups increment field multiplier when all rollovers are activated.
@@ -40,11 +49,15 @@ public class Field1Delegate extends BaseFieldDelegate {
         restoreLeftBallSaver(field);
         restoreRightBallSaver(field);
 
-        Runnable launchBall = () -> {
+        Runnable launchBall = launchBallAction(field);
+        pendingActions.schedule(field, 1000, LAUNCH_BALL_ACTION, launchBall);
+        pendingActions.schedule(field, 3500, LAUNCH_BALL_ACTION, launchBall);
+    }
+
+    private Runnable launchBallAction(Field field) {
+        return () -> {
             if (field.getBalls().size() < 3) field.launchBall();
         };
-        field.scheduleAction(1000, launchBall);
-        field.scheduleAction(3500, launchBall);
     }
 
     @Override public void allDropTargetsInGroupHit(
@@ -95,4 +108,13 @@ public class Field1Delegate extends BaseFieldDelegate {
         setLaunchBarrierEnabled(field, false);
     }
 
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        pendingActions.writeState(field, out);
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        Runnable launchBall = launchBallAction(field);
+        pendingActions.readState(field, in, (code) -> launchBall);
+    }
+
 }
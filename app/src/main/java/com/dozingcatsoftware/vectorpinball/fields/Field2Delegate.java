@@ -1,10 +1,15 @@
 package com.dozingcatsoftware.vectorpinball.fields;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.BaseFieldDelegate;
 import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.PendingActions;
 import com.dozingcatsoftware.vectorpinball.elements.DropTargetGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
 import com.dozingcatsoftware.vectorpinball.elements.RolloverGroupElement;
@@ -15,6 +20,11 @@ public class Field2Delegate extends BaseFieldDelegate {
 
     static final double TAU = 2 * Math.PI; // pi is wrong.
 
+    // Codes for scheduled actions, saved in field snapshots.
+    static final int LAUNCH_BALL_ACTION = 0;
+    static final int RESTORE_TUBE_BARRIER_ACTION = 1;
+    PendingActions pendingActions = new PendingActions();
+
     static class RotatingGroup {
         String[] elementIDs;
         double centerX, centerY;
@@ -114,11 +124,29 @@ public class Field2Delegate extends BaseFieldDelegate {
         restoreLeftBallSaver(field);
         restoreRightBallSaver(field);
 
-        Runnable launchBall = () -> {
+        Runnable launchBall = launchBallAction(field);
+        pendingActions.schedule(field, 1000, LAUNCH_BALL_ACTION, launchBall);
+        pendingActions.schedule(field, 3500, LAUNCH_BALL_ACTION, launchBall);
+    }
+
+    private Runnable launchBallAction(Field field) {
+        return () -> {
             if (field.getBalls().size() < 3) field.launchBall();
         };
-        field.scheduleAction(1000, launchBall);
-        field.scheduleAction(3500, launchBall);
+    }
+
+    // The tube sensor schedules this on every tick that a ball moves up through it, so it's
+    // created once rather than allocating a new lambda each time.
+    private Runnable restoreTubeBarrier;
+
+    private Runnable restoreTubeBarrierAction(Field field) {
+        if (restoreTubeBarrier == null) {
+            restoreTubeBarrier = () -> {
+                WallElement barrier = field.getFieldElementById("LeftTubeBarrier");
+                barrier.setRetracted(false);
+            };
+        }
+        return restoreTubeBarrier;
     }
 
     /**
@@ -222,10 +250,8 @@ public class Field2Delegate extends BaseFieldDelegate {
         else if ("LeftTubeSensor".equals(sensorID)) {
             if (ball.getLinearVelocity().y > 0) {
                 // ball going up, retract barrier after delay
-                field.scheduleAction(1000, () -> {
-                    WallElement barrier = field.getFieldElementById("LeftTubeBarrier");
-                    barrier.setRetracted(false);
-                });
+                pendingActions.schedule(field, 1000, RESTORE_TUBE_BARRIER_ACTION,
+                        restoreTubeBarrierAction(field));
             }
         }
     }
@@ -237,4 +263,26 @@ public class Field2Delegate extends BaseFieldDelegate {
     @Override public void ballLost(Field field) {
         setLaunchBarrierEnabled(field, false);
     }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        if (rotatingGroups == null) {
+            setupRotatingGroups(field);
+        }
+        for (RotatingGroup rotatingGroup : rotatingGroups) {
+            out.writeDouble(rotatingGroup.currentAngle);
+        }
+        pendingActions.writeState(field, out);
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        if (rotatingGroups == null) {
+            setupRotatingGroups(field);
+        }
+        for (RotatingGroup rotatingGroup : rotatingGroups) {
+            rotatingGroup.currentAngle = in.readDouble();
+            rotatingGroup.applyRotation(field, 0);
+        }
+        pendingActions.readState(field, in, (code) -> (code == LAUNCH_BALL_ACTION) ?
+                launchBallAction(field) : restoreTubeBarrierAction(field));
+    }
 }
@@ -1,8 +1,10 @@
 package com.dozingcatsoftware.vectorpinball.fields;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 import com.badlogic.gdx.physics.box2d.Body;
@@ -10,6 +12,7 @@ import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.BaseFieldDelegate;
 import com.dozingcatsoftware.vectorpinball.model.Color;
 import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.PendingActions;
 import com.dozingcatsoftware.vectorpinball.elements.BumperElement;
 import com.dozingcatsoftware.vectorpinball.elements.DropTargetGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
@@ -88,8 +91,6 @@ public class Field3Delegate extends BaseFieldDelegate {
 
     enum MultiballStatus {PENDING, ACTIVE, INACTIVE}
 
-    static Random RAND = new Random();
-
     long baseBumperBonusDurationNanos;
     long bumperBonusDurationNanos;
 
@@ -115,7 +116,16 @@ public class Field3Delegate extends BaseFieldDelegate {
     double[] multiballFlashValues = new double[3];
     double[] multiballFlashIncrements = new double[3];
 
+    // Multiball launches, saved in field snapshots.
+    static final int LAUNCH_BALL_ACTION = 0;
+    PendingActions pendingActions = new PendingActions();
+
     void resetState(Field field) {
+        initParameters(field);
+        resetBumperBonuses(field);
+    }
+
+    void initParameters(Field field) {
         // TODO: Read these parameters from variables in field layout.
         maxBumperEnergy = 200;
         maxUpperTargetGroupCompleted = 2;
@@ -123,7 +133,6 @@ public class Field3Delegate extends BaseFieldDelegate {
 
         baseBumperBonusDurationNanos = TimeUnit.SECONDS.toNanos(15);
         baseBumperBonusMultiplier = 5;
-        resetBumperBonuses(field);
 
         List<FieldElement> bumpers = new ArrayList<>();
         for (FieldElement element : field.getFieldElements()) {
@@ -332,26 +341,30 @@ public class Field3Delegate extends BaseFieldDelegate {
         restoreLeftBallSaver(field);
         restoreRightBallSaver(field);
 
-        Runnable launchBall = () -> {
+        Runnable launchBall = launchBallAction(field);
+        pendingActions.schedule(field, 1000, LAUNCH_BALL_ACTION, launchBall);
+        pendingActions.schedule(field, 3500, LAUNCH_BALL_ACTION, launchBall);
+
+        // Increase bonuses past normal maximum.
+        bumperBonusMultiplier += bumperBonusMultiplierIncrement;
+        bumperBonusDurationNanos += bumperBonusDurationIncrement;
+    }
+
+    private Runnable launchBallAction(Field field) {
+        return () -> {
             if (field.getBalls().size() < 3) field.launchBall();
             if (multiballStatus != MultiballStatus.ACTIVE) {
                 multiballStatus = MultiballStatus.ACTIVE;
-                initializeMultiballFlashers();
+                initializeMultiballFlashers(field);
             }
         };
-        field.scheduleAction(1000, launchBall);
-        field.scheduleAction(3500, launchBall);
-
-        // Increase bonuses past normal maximum.
-        bumperBonusMultiplier += bumperBonusMultiplierIncrement;
-        bumperBonusDurationNanos += bumperBonusDurationIncrement;
     }
 
-    void initializeMultiballFlashers() {
+    void initializeMultiballFlashers(Field field) {
         // Between a 2 and 5 second cycle. (0.2 to 0.5 delta per second).
         for (int i = 0; i < 3; i++) {
             multiballFlashValues[i] = 0;
-            multiballFlashIncrements[i] = 0.2 + 0.3 * RAND.nextDouble();
+            multiballFlashIncrements[i] = 0.2 + 0.3 * field.getRandom().nextDouble();
         }
     }
 
@@ -370,4 +383,38 @@ public class Field3Delegate extends BaseFieldDelegate {
         field.getFieldElementById("LowerTargetIndicator").setNewColor(colorForMultiballFlasher(1));
         field.getFieldElementById("BumperIndicator").setNewColor(colorForMultiballFlasher(2));
     }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        out.writeLong(bumperBonusDurationNanos);
+        out.writeBoolean(bumperBonusActive);
+        out.writeLong(bumperBonusNanosElapsed);
+        out.writeInt(bumperBonusMultiplier);
+        out.writeInt(upperTargetGroupCompleted);
+        out.writeInt(lowerTargetGroupCompleted);
+        out.writeDouble(bumperEnergy);
+        out.writeByte(multiballStatus.ordinal());
+        for (int i = 0; i < 3; i++) {
+            out.writeDouble(multiballFlashValues[i]);
+            out.writeDouble(multiballFlashIncrements[i]);
+        }
+        pendingActions.writeState(field, out);
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        initParameters(field);
+        bumperBonusDurationNanos = in.readLong();
+        bumperBonusActive = in.readBoolean();
+        bumperBonusNanosElapsed = in.readLong();
+        bumperBonusMultiplier = in.readInt();
+        upperTargetGroupCompleted = in.readInt();
+        lowerTargetGroupCompleted = in.readInt();
+        bumperEnergy = in.readDouble();
+        multiballStatus = MultiballStatus.values()[in.readByte()];
+        for (int i = 0; i < 3; i++) {
+            multiballFlashValues[i] = in.readDouble();
+            multiballFlashIncrements[i] = in.readDouble();
+        }
+        Runnable launchBall = launchBallAction(field);
+        pendingActions.readState(field, in, (code) -> launchBall);
+    }
 }
@@ -1,5 +1,8 @@
 package com.dozingcatsoftware.vectorpinball.fields;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -9,6 +12,7 @@ import com.badlogic.gdx.physics.box2d.Body;
 import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.BaseFieldDelegate;
 import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.PendingActions;
 import com.dozingcatsoftware.vectorpinball.elements.DropTargetGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
 import com.dozingcatsoftware.vectorpinball.elements.RolloverGroupElement;
@@ -37,6 +41,11 @@ public class Field4Delegate extends BaseFieldDelegate {
     int baseJackpot = 25;
     int jackpotIncrease = 5;
 
+    // Codes for the scheduled multiball launches, saved in field snapshots.
+    static final int FIRST_MULTIBALL_LAUNCH_ACTION = 0;
+    static final int SECOND_MULTIBALL_LAUNCH_ACTION = 1;
+    PendingActions pendingActions = new PendingActions();
+
     boolean allStatusRolloversActiveForIndex(int index) {
         for (RolloverGroupElement rollovers : multiballStatusRollovers.values()) {
             if (!rollovers.isRolloverActiveAtIndex(index)) return false;
@@ -93,23 +102,32 @@ public class Field4Delegate extends BaseFieldDelegate {
         setIgnoreBallForMultiballStatusRollovers(false);
         jackpot = baseJackpot;
 
-        field.scheduleAction(1000, () -> {
-            lockedBallKickers.get(1).setRetracted(true);
-            lockedBallKickers.get(2).setRetracted(true);
-            lockedBallRollovers.get(1).setIgnoreBall(true);
-            lockedBallRollovers.get(1).setVisible(false);
-            if (field.getBalls().size() < 3) {
-                field.launchBall();
-            }
-        });
-        field.scheduleAction(3500, () -> {
+        pendingActions.schedule(field, 1000, FIRST_MULTIBALL_LAUNCH_ACTION,
+                multiballLaunchAction(field, FIRST_MULTIBALL_LAUNCH_ACTION));
+        pendingActions.schedule(field, 3500, SECOND_MULTIBALL_LAUNCH_ACTION,
+                multiballLaunchAction(field, SECOND_MULTIBALL_LAUNCH_ACTION));
+    }
+
+    private Runnable multiballLaunchAction(Field field, int code) {
+        if (code == FIRST_MULTIBALL_LAUNCH_ACTION) {
+            return () -> {
+                lockedBallKickers.get(1).setRetracted(true);
+                lockedBallKickers.get(2).setRetracted(true);
+                lockedBallRollovers.get(1).setIgnoreBall(true);
+                lockedBallRollovers.get(1).setVisible(false);
+                if (field.getBalls().size() < 3) {
+                    field.launchBall();
+                }
+            };
+        }
+        return () -> {
             isMultiballStarting = false;
             lockedBallRollovers.get(0).setIgnoreBall(true);
             lockedBallRollovers.get(0).setVisible(false);
             if (field.getBalls().size() < 3) {
                 field.launchBall();
             }
-        });
+        };
     }
 
     void doJackpot(Field field) {
@@ -125,6 +143,25 @@ public class Field4Delegate extends BaseFieldDelegate {
     }
 
     @Override public void gameStarted(Field field) {
+        initFieldElements(field);
+        // Locked ball rollovers start hidden and disabled.
+        for (RolloverGroupElement rollover : lockedBallRollovers) {
+            rollover.setRolloverActiveAtIndex(0, false);
+            rollover.setVisible(false);
+            rollover.setIgnoreBall(true);
+        }
+        // Kickers in the ball lock zone start disabled except the bottom one.
+        lockedBallKickers.get(1).setRetracted(true);
+        lockedBallKickers.get(2).setRetracted(true);
+        clearMultiballStatus();
+
+        // Remove the launch barrier.
+        launchBarrier.setRetracted(true);
+        rightKicker.setRetracted(true);
+    }
+
+    /** Looks up the elements used by this delegate. */
+    void initFieldElements(Field field) {
         launchBarrier = field.getFieldElementById("LaunchBarrier");
         topBlocker = field.getFieldElementById("TopRampBlocker");
         rightKicker = field.getFieldElementById("RightRampKicker");
@@ -134,38 +171,24 @@ public class Field4Delegate extends BaseFieldDelegate {
                 field.getFieldElementById("MultiballKicker3")
         );
 
-        // Locked ball rollovers start hidden and disabled.
         lockedBallRollovers = Arrays.asList(
                 field.getFieldElementById("LockedBallRollover1"),
                 field.getFieldElementById("LockedBallRollover2"),
                 field.getFieldElementById("LockedBallRollover3")
         );
-        for (RolloverGroupElement rollover : lockedBallRollovers) {
-            rollover.setRolloverActiveAtIndex(0, false);
-            rollover.setVisible(false);
-            rollover.setIgnoreBall(true);
-        }
 
-        // Kickers in the ball lock zone start disabled except the bottom one.
         lockedBallKickers = Arrays.asList(
                 field.getFieldElementById("LockedBallKicker1"),
                 field.getFieldElementById("LockedBallKicker2"),
                 field.getFieldElementById("LockedBallKicker3")
         );
-        lockedBallKickers.get(1).setRetracted(true);
-        lockedBallKickers.get(2).setRetracted(true);
 
-        // Get references to multiball status rollovers and initialize them.
+        // Get references to multiball status rollovers.
         multiballStatusRollovers = new HashMap<>();
         for (String suffix : COLOR_SUFFIXES) {
             multiballStatusRollovers.put(suffix,
                     field.getFieldElementById("Rollovers." + suffix));
         }
-        clearMultiballStatus();
-
-        // Remove the launch barrier.
-        launchBarrier.setRetracted(true);
-        rightKicker.setRetracted(true);
     }
 
     @Override public void ballLost(Field field) {
@@ -175,6 +198,8 @@ public class Field4Delegate extends BaseFieldDelegate {
 
 
     @Override public void ballInSensorRange(Field field, SensorElement sensor, Ball ball) {
+        // These sensors have notifyEveryTick set, so that a ball waiting in the launch lane
+        // keeps the launch barrier retracted.
         String id = sensor.getElementId();
         // Enable launch barrier.
         if ("LaunchBarrierRetract".equals(id)) {
@@ -185,7 +210,11 @@ public class Field4Delegate extends BaseFieldDelegate {
             topBlocker.setRetracted(true);
             rightKicker.setRetracted(false);
         }
-        else if ("RightRampSensor".equals(id)) {
+    }
+
+    @Override public void ballEnteredSensor(Field field, SensorElement sensor, Ball ball) {
+        String id = sensor.getElementId();
+        if ("RightRampSensor".equals(id)) {
             topBlocker.setRetracted(false);
             rightKicker.setRetracted(true);
         }
@@ -280,4 +309,23 @@ public class Field4Delegate extends BaseFieldDelegate {
             clearMultiballStatus();
         }
     }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        out.writeBoolean(inMultiball);
+        out.writeBoolean(isMultiballStarting);
+        out.writeInt(bumperMultiplierIncrease);
+        out.writeInt(ballsLocked);
+        out.writeInt(jackpot);
+        pendingActions.writeState(field, out);
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        initFieldElements(field);
+        inMultiball = in.readBoolean();
+        isMultiballStarting = in.readBoolean();
+        bumperMultiplierIncrease = in.readInt();
+        ballsLocked = in.readInt();
+        jackpot = in.readInt();
+        pendingActions.readState(field, in, (code) -> multiballLaunchAction(field, code));
+    }
 }
@@ -1,7 +1,11 @@
 package com.dozingcatsoftware.vectorpinball.fields;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -10,6 +14,7 @@ import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.BaseFieldDelegate;
 import com.dozingcatsoftware.vectorpinball.model.Color;
 import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.PendingActions;
 import com.dozingcatsoftware.vectorpinball.elements.DropTargetGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
 import com.dozingcatsoftware.vectorpinball.elements.RolloverGroupElement;
@@ -87,12 +92,18 @@ public class Field5Delegate extends BaseFieldDelegate {
     private RolloverGroupElement triangleCenterRollover;
 
     // For each ball, store the most recent sensor (id) that it's hit.
-    // This lets us detect when a ball has fully gone over a ramp.
+    // This lets us detect when a ball has fully gone over a ramp. An IdentityHashMap stores its
+    // entries in an array, so adding a ball after the map is cleared doesn't allocate.
     Map<Ball, String> previousSensorIds = null;
 
     private MultiballStatus multiballStatus;
     private int multiballJackpotCount;
 
+    // Codes for the scheduled multiball launches, saved in field snapshots.
+    private static final int LAUNCH_BALL_ACTION = 0;
+    private static final int LAUNCH_LAST_BALL_ACTION = 1;
+    private PendingActions pendingActions = new PendingActions();
+
     private static void setBallColor(Ball ball, BallColor color) {
         ball.setPrimaryColor(BALL_PRIMARY_COLORS.get(color));
         ball.setSecondaryColor(BALL_SECONDARY_COLORS.get(color));
@@ -243,22 +254,31 @@ public class Field5Delegate extends BaseFieldDelegate {
         restoreLeftBallSaver(field);
         restoreRightBallSaver(field);
 
+        final Runnable doLaunch = multiballLaunchAction(field, LAUNCH_BALL_ACTION);
+
+        // "Starting" state until the last ball is launched so we don't exit multiball until then.
+        multiballStatus = MultiballStatus.STARTING;
+        multiballJackpotCount = 0;
+        pendingActions.schedule(field, 1000, LAUNCH_BALL_ACTION, doLaunch);
+        pendingActions.schedule(field, 4000, LAUNCH_BALL_ACTION, doLaunch);
+        pendingActions.schedule(field, 7000, LAUNCH_BALL_ACTION, doLaunch);
+        pendingActions.schedule(field, 10000, LAUNCH_LAST_BALL_ACTION,
+                multiballLaunchAction(field, LAUNCH_LAST_BALL_ACTION));
+    }
+
+    private Runnable multiballLaunchAction(Field field, int code) {
         final Runnable doLaunch = () -> {
             Ball ball = field.launchBall();
             setBallColor(ball, unusedBallColor(field));
             updateCenterRollovers(field);
         };
-
-        // "Starting" state until the last ball is launched so we don't exit multiball until then.
-        multiballStatus = MultiballStatus.STARTING;
-        multiballJackpotCount = 0;
-        field.scheduleAction(1000, doLaunch);
-        field.scheduleAction(4000, doLaunch);
-        field.scheduleAction(7000, doLaunch);
-        field.scheduleAction(10000, () -> {
-            doLaunch.run();
-            multiballStatus = MultiballStatus.ACTIVE;
-        });
+        if (code == LAUNCH_LAST_BALL_ACTION) {
+            return () -> {
+                doLaunch.run();
+                multiballStatus = MultiballStatus.ACTIVE;
+            };
+        }
+        return doLaunch;
     }
 
     private void endMultiball(Field field) {
@@ -283,16 +303,26 @@ public class Field5Delegate extends BaseFieldDelegate {
     }
 
     @Override public void gameStarted(Field field) {
+        initFieldElements(field);
+        triangleRotationAngle = TAU / 4;
+        rampBonuses = buildBallColorMap(0, 0, 0, 0);
+
+        updateCenterRollovers(field);
+        updateCenterLines(field);
+        multiballStatus = MultiballStatus.NOT_READY;
+    }
+
+    /** Looks up the elements used by this delegate. */
+    private void initFieldElements(Field field) {
         launchBarrier = field.getFieldElementById("LaunchBarrier");
 
-        triangleRotationAngle = TAU / 4;
         triangleWalls = Arrays.asList(
                 field.getFieldElementById("TriangleWall1"),
                 field.getFieldElementById("TriangleWall2"),
                 field.getFieldElementById("TriangleWall3"));
         triangleCenterRollover = field.getFieldElementById("TriangleCenter");
 
-        previousSensorIds = new HashMap<>();
+        previousSensorIds = new IdentityHashMap<>();
 
         centerRolloversByColor = buildBallColorMap(
                 Arrays.asList(
@@ -331,18 +361,12 @@ public class Field5Delegate extends BaseFieldDelegate {
                         field.getFieldElementById("CenterLine_Green_2_3"),
                         field.getFieldElementById("CenterLine_Green_3_1")));
 
-        rampBonuses = buildBallColorMap(0, 0, 0, 0);
-
         extraBallRollover = field.getFieldElementById("ExtraBallRollover");
         extraBallBarriers = Arrays.asList(
                 field.getFieldElementById("ExtraBallBarrier_Blue"),
                 field.getFieldElementById("ExtraBallBarrier_Red"),
                 field.getFieldElementById("ExtraBallBarrier_Yellow"),
                 field.getFieldElementById("ExtraBallBarrier_Green"));
-
-        updateCenterRollovers(field);
-        updateCenterLines(field);
-        multiballStatus = MultiballStatus.NOT_READY;
     }
 
     @Override public void ballLost(Field field) {
@@ -351,6 +375,8 @@ public class Field5Delegate extends BaseFieldDelegate {
     }
 
     @Override public void ballInSensorRange(Field field, SensorElement sensor, Ball ball) {
+        // The launch barrier sensors have notifyEveryTick set, so that a ball waiting in the
+        // launch lane keeps the launch barrier retracted.
         String sensorId = sensor.getElementId();
         if ("LaunchBarrierSensor".equals(sensorId)) {
             launchBarrier.setRetracted(false);
@@ -358,7 +384,12 @@ public class Field5Delegate extends BaseFieldDelegate {
         else if ("LaunchBarrierRetract".equals(sensorId)) {
             launchBarrier.setRetracted(true);
         }
-        else if ("RampSensor_OuterLeftTop".equals(sensorId)) {
+        previousSensorIds.put(ball, sensorId);
+    }
+
+    @Override public void ballEnteredSensor(Field field, SensorElement sensor, Ball ball) {
+        String sensorId = sensor.getElementId();
+        if ("RampSensor_OuterLeftTop".equals(sensorId)) {
             checkForRamp(field, ball, "RampSensor_OuterRightTop", BallColor.GREEN);
         }
         else if ("RampSensor_OuterRightTop".equals(sensorId)) {
@@ -459,4 +490,51 @@ public class Field5Delegate extends BaseFieldDelegate {
             endMultiball(field);
         }
     }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        out.writeDouble(triangleRotationSpeedMultiplier);
+        out.writeDouble(triangleRotationAngle);
+        // Bonuses and multiball status aren't set until the first game starts.
+        out.writeBoolean(rampBonuses != null);
+        if (rampBonuses != null) {
+            for (BallColor ballColor : BALL_COLOR_VALUES) {
+                out.writeInt(rampBonuses.get(ballColor));
+            }
+        }
+        out.writeByte((multiballStatus != null) ? multiballStatus.ordinal() : -1);
+        out.writeInt(multiballJackpotCount);
+        // Previous sensors are saved in the same order as the field's balls.
+        List<Ball> balls = field.getBalls();
+        for (int i = 0; i < balls.size(); i++) {
+            String sensorId = previousSensorIds.get(balls.get(i));
+            out.writeBoolean(sensorId != null);
+            if (sensorId != null) {
+                out.writeUTF(sensorId);
+            }
+        }
+        pendingActions.writeState(field, out);
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        initFieldElements(field);
+        triangleRotationSpeedMultiplier = in.readDouble();
+        triangleRotationAngle = in.readDouble();
+        rampBonuses = null;
+        if (in.readBoolean()) {
+            rampBonuses = new HashMap<>();
+            for (BallColor ballColor : BALL_COLOR_VALUES) {
+                rampBonuses.put(ballColor, in.readInt());
+            }
+        }
+        int status = in.readByte();
+        multiballStatus = (status >= 0) ? MultiballStatus.values()[status] : null;
+        multiballJackpotCount = in.readInt();
+        List<Ball> balls = field.getBalls();
+        for (int i = 0; i < balls.size(); i++) {
+            if (in.readBoolean()) {
+                previousSensorIds.put(balls.get(i), in.readUTF());
+            }
+        }
+        pendingActions.readState(field, in, (code) -> multiballLaunchAction(field, code));
+    }
 }
@@ -1,15 +1,20 @@
 package com.dozingcatsoftware.vectorpinball.fields;
 
 import com.badlogic.gdx.math.Vector2;
+import com.dozingcatsoftware.vectorpinball.model.ActionScheduler;
 import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.BaseFieldDelegate;
 import com.dozingcatsoftware.vectorpinball.model.Color;
 import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.PendingActions;
 import com.dozingcatsoftware.vectorpinball.elements.DropTargetGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.RolloverGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.SensorElement;
 import com.dozingcatsoftware.vectorpinball.elements.WallElement;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
@@ -27,9 +32,11 @@ public class Field6Delegate extends BaseFieldDelegate {
     // Distance from sun beyond which gravity is not applied.
     private final double gravityRangeSquared = 8.0 * 8.0;
 
-    private final long rampBonusDurationNanos = 12_000_000_000L;
-    private long rampBonusNanosRemaining = 0;
+    private final long rampBonusDurationMillis = 12_000;
     private int rampBonusMultiplier = 1;
+    // Resets the ramp multiplier when the bonus time runs out, rescheduled on every ramp shot.
+    private long rampBonusEndAction = ActionScheduler.NO_ACTION;
+    private final Runnable endRampBonus = () -> rampBonusMultiplier = 1;
 
     private final long rampScore = 2500;
     private final long planet1TargetsScore = 5000;
@@ -40,6 +47,11 @@ public class Field6Delegate extends BaseFieldDelegate {
     private MultiballStatus multiballStatus = MultiballStatus.INACTIVE;
     private int multiballJackpotMultiplier = 1;
 
+    // Codes for the scheduled multiball launches, saved in field snapshots.
+    private static final int LAUNCH_BALL_ACTION = 0;
+    private static final int LAUNCH_LAST_BALL_ACTION = 1;
+    private final PendingActions pendingActions = new PendingActions();
+
     private static final int BLACK = Color.fromRGB(0, 0, 0);
     private final List<Integer> planetColors = Arrays.asList(
             Color.fromRGB(0xFF, 0x99, 0x00),
@@ -86,11 +98,20 @@ public class Field6Delegate extends BaseFieldDelegate {
         multiballStatus = MultiballStatus.STARTING;
         multiballJackpotMultiplier = 1;
         field.showGameMessage(field.resolveString("multiball_started_message"), 4000);
-        field.scheduleAction(1000, field::launchBall);
-        field.scheduleAction(4000, () -> {
-            field.launchBall();
-            multiballStatus = MultiballStatus.ACTIVE;
-        });
+        pendingActions.schedule(field, 1000, LAUNCH_BALL_ACTION,
+                multiballLaunchAction(field, LAUNCH_BALL_ACTION));
+        pendingActions.schedule(field, 4000, LAUNCH_LAST_BALL_ACTION,
+                multiballLaunchAction(field, LAUNCH_LAST_BALL_ACTION));
+    }
+
+    private Runnable multiballLaunchAction(Field field, int code) {
+        if (code == LAUNCH_LAST_BALL_ACTION) {
+            return () -> {
+                field.launchBall();
+                multiballStatus = MultiballStatus.ACTIVE;
+            };
+        }
+        return field::launchBall;
     }
 
     private void endMultiball(Field field) {
@@ -149,7 +170,8 @@ public class Field6Delegate extends BaseFieldDelegate {
                 String msg = field.resolveString("ramp_bonus_message", rampBonusMultiplier);
                 field.showGameMessage(msg, 1000);
             }
-            rampBonusNanosRemaining = rampBonusDurationNanos;
+            field.cancelScheduledAction(rampBonusEndAction);
+            rampBonusEndAction = field.scheduleAction(rampBonusDurationMillis, endRampBonus);
             field.addScore(points * rampBonusMultiplier);
             rampBonusMultiplier += 1;
             if (planetIndex != null) {
@@ -195,7 +217,7 @@ public class Field6Delegate extends BaseFieldDelegate {
 
         int numPlanets = orbits.numberOfRollovers();
         planets = new Planet[numPlanets];
-        Random rand = new Random();
+        Random rand = field.getRandom();
         for (int i = 0; i < numPlanets; i++) {
             Planet p = new Planet();
             planets[i] = p;
@@ -225,6 +247,7 @@ public class Field6Delegate extends BaseFieldDelegate {
     }
 
     @Override public void ballInSensorRange(Field field, SensorElement sensor, Ball ball) {
+        // Only the launch barrier sensors have notifyEveryTick set in table6.json.
         String sensorId = sensor.getElementId();
         if ("LaunchBarrierSensor".equals(sensorId)) {
             launchBarrier.setRetracted(false);
@@ -232,7 +255,11 @@ public class Field6Delegate extends BaseFieldDelegate {
         else if ("LaunchBarrierRetract".equals(sensorId)) {
             launchBarrier.setRetracted(true);
         }
-        else if ("LeftLoopDetector_Trigger".equals(sensorId)) {
+    }
+
+    @Override public void ballEnteredSensor(Field field, SensorElement sensor, Ball ball) {
+        String sensorId = sensor.getElementId();
+        if ("LeftLoopDetector_Trigger".equals(sensorId)) {
             checkRamp(field, ball, "LeftLoopDetector_Enter", rampScore, 3);
         }
         else if ("RightLoopDetector_Trigger".equals(sensorId)) {
@@ -305,13 +332,6 @@ public class Field6Delegate extends BaseFieldDelegate {
         }
         // Sync planet states with active balls.
         updatePlanetStatus(field, nanos);
-        // Update ramp multiplier.
-        if (rampBonusNanosRemaining > 0) {
-            rampBonusNanosRemaining -= nanos;
-        }
-        if (rampBonusNanosRemaining <= 0) {
-            rampBonusMultiplier = 1;
-        }
         // Move planets.
         double dt = nanos / 1e9;
         for (int i = 0; i < planets.length; i++) {
@@ -361,4 +381,50 @@ public class Field6Delegate extends BaseFieldDelegate {
             }
         }
     }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        out.writeInt(rampBonusMultiplier);
+        out.writeLong(field.getScheduledActionTime(rampBonusEndAction));
+        out.writeByte(multiballStatus.ordinal());
+        out.writeInt(multiballJackpotMultiplier);
+        out.writeDouble(inProgressPlanetPhase);
+        // Initializing the planets here would use random numbers, so that saving a snapshot
+        // would change the game. If they haven't been initialized yet, they will be after the
+        // snapshot is restored, in the same way.
+        out.writeBoolean(planets != null);
+        if (planets != null) {
+            for (Planet p : planets) {
+                out.writeDouble(p.angle);
+                out.writeDouble(p.angularVelocity);
+                out.writeByte(p.status.ordinal());
+            }
+        }
+        pendingActions.writeState(field, out);
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        launchBarrier = field.getFieldElementById("LaunchBarrier");
+        rampBonusMultiplier = in.readInt();
+        long rampBonusEndTime = in.readLong();
+        rampBonusEndAction = (rampBonusEndTime >= 0) ?
+                field.scheduleActionAtTime(rampBonusEndTime, endRampBonus) :
+                ActionScheduler.NO_ACTION;
+        multiballStatus = MultiballStatus.values()[in.readByte()];
+        multiballJackpotMultiplier = in.readInt();
+        inProgressPlanetPhase = in.readDouble();
+        if (in.readBoolean()) {
+            if (planets == null) {
+                initializePlanets(field);
+            }
+            for (Planet p : planets) {
+                p.angle = in.readDouble();
+                p.angularVelocity = in.readDouble();
+                p.status = PlanetStatus.values()[in.readByte()];
+            }
+        }
+        else {
+            planets = null;
+        }
+        pendingActions.readState(field, in, (code) -> multiballLaunchAction(field, code));
+    }
 }
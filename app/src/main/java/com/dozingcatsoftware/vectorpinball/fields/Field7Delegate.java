@@ -6,6 +6,7 @@ import com.dozingcatsoftware.vectorpinball.model.Ball;
 import com.dozingcatsoftware.vectorpinball.model.BaseFieldDelegate;
 import com.dozingcatsoftware.vectorpinball.model.Color;
 import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.PendingActions;
 import com.dozingcatsoftware.vectorpinball.model.Shape;
 import com.dozingcatsoftware.vectorpinball.elements.DropTargetGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
@@ -13,14 +14,14 @@ import com.dozingcatsoftware.vectorpinball.elements.RolloverGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.SensorElement;
 import com.dozingcatsoftware.vectorpinball.elements.WallElement;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
 
 import static com.dozingcatsoftware.vectorpinball.fields.Stars.Constellation;
 import static com.dozingcatsoftware.vectorpinball.fields.Stars.StarCatalog;
@@ -28,7 +29,6 @@ import static com.dozingcatsoftware.vectorpinball.fields.Stars.StarCatalog;
 public class Field7Delegate extends BaseFieldDelegate {
 
     static final double TAU = 2 * Math.PI;
-    static Random RAND = new Random();
 
     static final List<Constellation> CONSTELLATIONS = Stars.CONSTELLATIONS;
     static final StarCatalog CATALOG = Stars.CATALOG;
@@ -52,42 +52,59 @@ public class Field7Delegate extends BaseFieldDelegate {
         double angularRadius;
     }
 
+    // Stars that are visible in the current projection. Stored in primitive arrays that are
+    // reused on every tick, to avoid allocating and boxing.
     static class Star2DProjection {
-        ArrayList<Double> x = new ArrayList<>();
-        ArrayList<Double> y = new ArrayList<>();
-        ArrayList<Double> magnitude = new ArrayList<>();
-        ArrayList<Integer> indices = new ArrayList<>();
-        HashMap<Integer, Integer> starIndexToProjIndex = new HashMap<>();
+        double[] x = new double[64];
+        double[] y = new double[64];
+        double[] magnitude = new double[64];
+        int[] indices = new int[64];
+        int size = 0;
+        // Index into the above arrays for each star in the catalog, or -1 if not visible.
+        int[] starIndexToProjIndex;
+
+        Star2DProjection(int catalogSize) {
+            starIndexToProjIndex = new int[catalogSize];
+            Arrays.fill(starIndexToProjIndex, -1);
+        }
 
         int size() {
-            return this.x.size();
+            return this.size;
         }
 
         void clear() {
-            this.x.clear();
-            this.y.clear();
-            this.magnitude.clear();
-            this.indices.clear();
-            this.starIndexToProjIndex.clear();
+            for (int i = 0; i < size; i++) {
+                starIndexToProjIndex[indices[i]] = -1;
+            }
+            size = 0;
         }
 
         void add(double xx, double yy, double mag, int index) {
-            this.x.add(xx);
-            this.y.add(yy);
-            this.magnitude.add(mag);
-            this.indices.add(index);
-            this.starIndexToProjIndex.put(index, this.x.size() - 1);
+            if (size == x.length) {
+                int newSize = 2 * size;
+                x = Arrays.copyOf(x, newSize);
+                y = Arrays.copyOf(y, newSize);
+                magnitude = Arrays.copyOf(magnitude, newSize);
+                indices = Arrays.copyOf(indices, newSize);
+            }
+            this.x[size] = xx;
+            this.y[size] = yy;
+            this.magnitude[size] = mag;
+            this.indices[size] = index;
+            this.starIndexToProjIndex[index] = size;
+            size++;
         }
     }
 
     static class StarState {
         final static double CONSTELLATION_RADIUS_MULTIPLIER = 1.2;
 
-        Set<Integer> activatedStars = new HashSet<>();
+        // Indexed by star index in the catalog.
+        BitSet activatedStars = new BitSet(CATALOG.size());
         List<Constellation> lockedConstellations = new ArrayList<>();
         Constellation currentConstellation = null;
         ProjectionTarget currentTarget = new ProjectionTarget();
-        Star2DProjection projection = new Star2DProjection();
+        Star2DProjection projection = new Star2DProjection(CATALOG.size());
 
         StarMode mode = StarMode.WANDERING;
         long wanderNanos = 0;
@@ -140,7 +157,12 @@ public class Field7Delegate extends BaseFieldDelegate {
         }
 
         boolean allStarsInConstellationActive(Constellation c) {
-            return this.activatedStars.containsAll(c.starIndices);
+            for (int starIndex : c.starIndexArray) {
+                if (!this.activatedStars.get(starIndex)) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         boolean allStarsInCurrentConstellationActive() {
@@ -167,19 +189,25 @@ public class Field7Delegate extends BaseFieldDelegate {
         }
 
         boolean allConstellationsLocked() {
-            return this.lockedConstellations.containsAll(CONSTELLATIONS);
+            // Not using containsAll, because it allocates an iterator.
+            for (int i = 0; i < CONSTELLATIONS.size(); i++) {
+                if (!this.lockedConstellations.contains(CONSTELLATIONS.get(i))) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         void activateStarsInActiveConstellationNearPoint(double x, double y) {
             if (this.currentConstellation != null && (x * x + y * y < 1)) {
-                for (int starIndex : this.currentConstellation.starIndices) {
-                    Integer pi = this.projection.starIndexToProjIndex.get(starIndex);
-                    if (pi != null) {
-                        double px = projection.x.get(pi) / this.currentTarget.angularRadius;
-                        double py = projection.y.get(pi) / this.currentTarget.angularRadius;
+                for (int starIndex : this.currentConstellation.starIndexArray) {
+                    int pi = this.projection.starIndexToProjIndex[starIndex];
+                    if (pi >= 0) {
+                        double px = projection.x[pi] / this.currentTarget.angularRadius;
+                        double py = projection.y[pi] / this.currentTarget.angularRadius;
                         double dist2 = (x - px) * (x - px) + (y - py) * (y - py);
                         if (dist2 < 0.1 * 0.1) {
-                            this.activatedStars.add(starIndex);
+                            this.activatedStars.set(starIndex);
                         }
                     }
                 }
@@ -215,7 +243,7 @@ public class Field7Delegate extends BaseFieldDelegate {
             this.animationElapsedNanos = 0;
         }
 
-        boolean switchToRandomUnlockedConstellation() {
+        boolean switchToRandomUnlockedConstellation(Random rand) {
             List<Constellation> candidates = new ArrayList<>();
             for (Constellation c : CONSTELLATIONS) {
                 if (c != currentConstellation && !lockedConstellations.contains(c)) {
@@ -225,12 +253,67 @@ public class Field7Delegate extends BaseFieldDelegate {
             if (candidates.isEmpty()) {
                 return false;
             }
-            Constellation dst = candidates.get(RAND.nextInt(candidates.size()));
+            Constellation dst = candidates.get(rand.nextInt(candidates.size()));
             animateToConstellation(dst);
             mode = StarMode.CONSTELLATION;
             return true;
         }
 
+        void writeState(DataOutput out) throws IOException {
+            long[] starBits = activatedStars.toLongArray();
+            out.writeInt(starBits.length);
+            for (long bits : starBits) {
+                out.writeLong(bits);
+            }
+            out.writeInt(lockedConstellations.size());
+            for (int i = 0; i < lockedConstellations.size(); i++) {
+                out.writeInt(CONSTELLATIONS.indexOf(lockedConstellations.get(i)));
+            }
+            out.writeInt(CONSTELLATIONS.indexOf(currentConstellation));
+            out.writeByte(mode.ordinal());
+            out.writeLong(wanderNanos);
+            out.writeLong(animationElapsedNanos);
+            writeTarget(out, currentTarget);
+            writeTarget(out, animateFromTarget);
+            writeTarget(out, animateToTarget);
+        }
+
+        void readState(DataInput in) throws IOException {
+            long[] starBits = new long[in.readInt()];
+            for (int i = 0; i < starBits.length; i++) {
+                starBits[i] = in.readLong();
+            }
+            activatedStars.clear();
+            activatedStars.or(BitSet.valueOf(starBits));
+            lockedConstellations.clear();
+            int numLocked = in.readInt();
+            for (int i = 0; i < numLocked; i++) {
+                lockedConstellations.add(CONSTELLATIONS.get(in.readInt()));
+            }
+            int currentIndex = in.readInt();
+            currentConstellation = (currentIndex >= 0) ? CONSTELLATIONS.get(currentIndex) : null;
+            mode = StarMode.values()[in.readByte()];
+            wanderNanos = in.readLong();
+            animationElapsedNanos = in.readLong();
+            readTarget(in, currentTarget);
+            readTarget(in, animateFromTarget);
+            readTarget(in, animateToTarget);
+            projectVisibleStars(CATALOG, this.currentTarget, this.projection);
+        }
+
+        private static void writeTarget(DataOutput out, ProjectionTarget target)
+                throws IOException {
+            out.writeDouble(target.rightAscension);
+            out.writeDouble(target.declination);
+            out.writeDouble(target.angularRadius);
+        }
+
+        private static void readTarget(DataInput in, ProjectionTarget target) throws IOException {
+            target.rightAscension = in.readDouble();
+            target.declination = in.readDouble();
+            target.angularRadius = in.readDouble();
+        }
+
         static void projectVisibleStars(
                 StarCatalog catalog, ProjectionTarget target, Star2DProjection projection) {
             projection.clear();
@@ -305,17 +388,33 @@ public class Field7Delegate extends BaseFieldDelegate {
     WallElement ballSaverLeft;
     WallElement ballSaverRight;
 
+    // Scheduled actions that release the held ball and launch new balls when multiball starts.
+    // They're cancelled if the game ends first, so they can't affect the next game.
+    static final int RELEASE_HELD_BALL_ACTION = 0;
+    static final int LAUNCH_BALL_ACTION = 1;
+    static final int LAUNCH_LAST_BALL_ACTION = 2;
+    PendingActions multiballLaunches = new PendingActions();
+    // Ball held over the final lock rollover with gravity cancelled until it's released, and its
+    // original gravity scale.
+    Ball heldBall;
+    float heldBallGravityScale;
+
     @Override public boolean isFieldActive(Field field) {
         return true;
     }
 
     @Override public void gameStarted(Field field) {
+        cancelMultiballLaunches(field);
         starState = new StarState();
         multiballStatus = MultiballStatus.INACTIVE;
         numBallsLocked = 0;
         rampScore = BASE_RAMP_SCORE;
     }
 
+    @Override public void gameEnded(Field field) {
+        cancelMultiballLaunches(field);
+    }
+
     @Override public void tick(Field field, long nanos) {
         if (starViewCenter == null) {
             initFieldElements(field);
@@ -372,8 +471,9 @@ public class Field7Delegate extends BaseFieldDelegate {
     }
 
     @Override public void ballInSensorRange(final Field field, SensorElement sensor, Ball ball) {
+        // Called on every tick for the launch barrier sensors, so that during multiball a ball
+        // sitting in LaunchBarrierRetract holds the barrier open for the next launch.
         String id = sensor.getElementId();
-        String prevId = ball.getPreviousSensorId();
         // Enable launch barrier.
         if ("LaunchBarrierSensor".equals(id)) {
             setLaunchBarrierEnabled(field, true);
@@ -381,7 +481,12 @@ public class Field7Delegate extends BaseFieldDelegate {
         else if ("LaunchBarrierRetract".equals(id)) {
             setLaunchBarrierEnabled(field, false);
         }
-        else if ("LeftFlipperDropSensor".equals(id) || "RightFlipperDropSensor".equals(id)) {
+    }
+
+    @Override public void ballEnteredSensor(final Field field, SensorElement sensor, Ball ball) {
+        String id = sensor.getElementId();
+        String prevId = ball.getPreviousSensorId();
+        if ("LeftFlipperDropSensor".equals(id) || "RightFlipperDropSensor".equals(id)) {
             ball.getBody().setLinearVelocity(0, 0);
         }
         else if ("MiniTableOrBallLockSensor".equals(id)) {
@@ -429,7 +534,7 @@ public class Field7Delegate extends BaseFieldDelegate {
     void handleLoop(Field field) {
         field.addScore(rampScore);
         if (!starState.allStarsInCurrentConstellationActive()) {
-            if (starState.switchToRandomUnlockedConstellation()) {
+            if (starState.switchToRandomUnlockedConstellation(field.getRandom())) {
                 field.showGameMessage(starState.currentConstellation.name, 3000);
             }
         }
@@ -442,7 +547,7 @@ public class Field7Delegate extends BaseFieldDelegate {
 
     private void updateActivatedStars(Field field) {
         List<Ball> balls = field.getBalls();
-        int numPrevStars = starState.activatedStars.size();
+        int numPrevStars = starState.activatedStars.cardinality();
         for (int i = 0; i < balls.size(); i++) {
             Ball ball = balls.get(i);
             if (ball.getLayer() != 0) {
@@ -452,7 +557,7 @@ public class Field7Delegate extends BaseFieldDelegate {
             double by = (ball.getPosition().y - starViewCenter.y) / starViewRadius;
             starState.activateStarsInActiveConstellationNearPoint(bx, by);
         }
-        int numNewStars = starState.activatedStars.size() - numPrevStars;
+        int numNewStars = starState.activatedStars.cardinality() - numPrevStars;
         if (numNewStars > 0) {
             field.addScore(numNewStars * STAR_SCORE);
             if (starState.allStarsInCurrentConstellationActive()) {
@@ -525,7 +630,7 @@ public class Field7Delegate extends BaseFieldDelegate {
             ball = field.createBall(center.x, center.y);
         }
         ball.moveToLayer(BALL_LOCK_LAYER);
-        ball.getBody().setLinearVelocity(0, -(5.0f + RAND.nextFloat()));
+        ball.getBody().setLinearVelocity(0, -(5.0f + field.getRandom().nextFloat()));
         field.playBallLaunchSound();
         numBallsLocked--;
     }
@@ -539,7 +644,8 @@ public class Field7Delegate extends BaseFieldDelegate {
         bb.setTransform(center.x, center.y, bb.getAngle());
         bb.setLinearVelocity(0, 0);
         bb.setAngularVelocity(0);
-        final float origGravity = bb.getGravityScale();
+        heldBall = ball;
+        heldBallGravityScale = bb.getGravityScale();
         bb.setGravityScale(0);
 
         field.showGameMessage(field.resolveString("multiball_started_message"), 3000);
@@ -548,15 +654,44 @@ public class Field7Delegate extends BaseFieldDelegate {
         ballSaverRight.setRetracted(false);
 
         // Release the current ball, then create additional balls over the corresponding rollovers.
-        field.scheduleAction(1000, () -> {
-            bb.setGravityScale(origGravity);
-            launchBallForMulitball(field, ball);
-        });
-        field.scheduleAction(3500, () -> launchBallForMulitball(field, null));
-        field.scheduleAction(6000, () -> {
-            launchBallForMulitball(field, null);
-            multiballStatus = MultiballStatus.ACTIVE;
-        });
+        // The held ball may have been removed or moved to another body by the time it's released,
+        // so look it up again rather than using `bb`.
+        cancelMultiballLaunches(field);
+        multiballLaunches.schedule(field, 1000, RELEASE_HELD_BALL_ACTION,
+                multiballLaunchAction(field, RELEASE_HELD_BALL_ACTION));
+        multiballLaunches.schedule(field, 3500, LAUNCH_BALL_ACTION,
+                multiballLaunchAction(field, LAUNCH_BALL_ACTION));
+        multiballLaunches.schedule(field, 6000, LAUNCH_LAST_BALL_ACTION,
+                multiballLaunchAction(field, LAUNCH_LAST_BALL_ACTION));
+    }
+
+    private Runnable multiballLaunchAction(Field field, int code) {
+        switch (code) {
+            case RELEASE_HELD_BALL_ACTION:
+                return () -> {
+                    Ball ball = heldBall;
+                    heldBall = null;
+                    if (ball != null && field.getBalls().contains(ball)) {
+                        ball.getBody().setGravityScale(heldBallGravityScale);
+                        launchBallForMulitball(field, ball);
+                    }
+                    else {
+                        launchBallForMulitball(field, null);
+                    }
+                };
+            case LAUNCH_LAST_BALL_ACTION:
+                return () -> {
+                    launchBallForMulitball(field, null);
+                    multiballStatus = MultiballStatus.ACTIVE;
+                };
+            default:
+                return () -> launchBallForMulitball(field, null);
+        }
+    }
+
+    private void cancelMultiballLaunches(Field field) {
+        multiballLaunches.cancelAll(field);
+        heldBall = null;
     }
 
     void doJackpot(Field field) {
@@ -572,9 +707,9 @@ public class Field7Delegate extends BaseFieldDelegate {
     static int CONSTELLATION_LINE_COLOR = Color.fromRGBA(240, 240, 240, 192);
 
     int starColorForIndex(int starIndex) {
-        boolean isActive = starState.activatedStars.contains(starIndex);
+        boolean isActive = starState.activatedStars.get(starIndex);
         boolean isInActiveConstellation = starState.currentConstellation != null &&
-                starState.currentConstellation.starIndices.contains(starIndex);
+                starState.currentConstellation.containsStar(starIndex);
         if (isInActiveConstellation) {
             return isActive ?
                     ACTIVE_STAR_ACTIVE_CONSTELLATION_COLOR :
@@ -587,51 +722,101 @@ public class Field7Delegate extends BaseFieldDelegate {
         }
     }
 
+    // Shapes passed to Field.setShapes, and the circles and lines in it. They're updated in
+    // place on every tick rather than recreated.
+    ArrayList<Shape> starShapes = new ArrayList<>();
+    ArrayList<Shape.Circle> starCircles = new ArrayList<>();
+    ArrayList<Shape.Line> constellationLines = new ArrayList<>();
+
+    Shape.Circle starCircleAtIndex(int index) {
+        if (index == starCircles.size()) {
+            starCircles.add(Shape.Circle.create(0, 0, 0, Shape.FillType.SOLID, 0, 0, null));
+        }
+        return starCircles.get(index);
+    }
+
+    Shape.Line constellationLineAtIndex(int index) {
+        if (index == constellationLines.size()) {
+            constellationLines.add(
+                    Shape.Line.create(0, 0, 0, 0, 0, CONSTELLATION_LINE_COLOR, null));
+        }
+        return constellationLines.get(index);
+    }
+
     List<Shape> shapesFromProjection() {
         Star2DProjection proj = starState.projection;
         double centerX = this.starViewCenter.x;
         double centerY = this.starViewCenter.y;
         double distScale = this.starViewRadius / starState.currentTarget.angularRadius;
         double baseRadius = this.starViewRadius * 0.015;
-        List<Shape> shapes = new ArrayList<>();
-        for (int i = 0; i < proj.size(); i++) {
-            double cx = centerX + proj.x.get(i) * distScale;
-            double cy = centerY + proj.y.get(i) * distScale;
-            double mag = proj.magnitude.get(i);
+        starShapes.clear();
+        // Draw brighter stars (with lower magnitudes) last.
+        int numCircles = 0;
+        for (int i = proj.size() - 1; i >= 0; i--) {
+            double cx = centerX + proj.x[i] * distScale;
+            double cy = centerY + proj.y[i] * distScale;
+            double mag = proj.magnitude[i];
             int alpha = (mag <= 0) ? 255 : Math.max(0, (int) (255 - 30 * mag));
-            int baseColor = starColorForIndex(proj.indices.get(i));
+            int baseColor = starColorForIndex(proj.indices[i]);
             int color = Color.withAlpha(baseColor, alpha);
             double rmul = (mag <= 0) ? 1.5 : (mag >= 4) ? 0.75 : 1.0;
-            shapes.add(Shape.Circle.create(
-                    cx, cy, rmul * baseRadius, Shape.FillType.SOLID, 0, color, null));
+            Shape.Circle circle = starCircleAtIndex(numCircles++);
+            circle.setCenterAndRadius(cx, cy, rmul * baseRadius);
+            circle.setColor(color);
+            starShapes.add(circle);
         }
-        // Draw brighter stars (with lower magnitudes) last.
-        Collections.reverse(shapes);
         // Lines for activated stars in constellations.
-        for (Constellation c : CONSTELLATIONS) {
-            for (int starIndex : c.starIndices) {
-                if (starState.activatedStars.contains((starIndex))) {
-                    Set<Integer> endpoints = c.segmentsByIndex.get(starIndex);
-                    if (endpoints != null) {
-                        for (int endIndex : endpoints) {
-                            if (starState.activatedStars.contains(endIndex)) {
-                                Integer pi1 = proj.starIndexToProjIndex.get(starIndex);
-                                Integer pi2 = proj.starIndexToProjIndex.get(endIndex);
-                                if (pi1 == null || pi2 == null) {
-                                    continue;
-                                }
-                                double x1 = centerX + proj.x.get(pi1) * distScale;
-                                double y1 = centerY + proj.y.get(pi1) * distScale;
-                                double x2 = centerX + proj.x.get(pi2) * distScale;
-                                double y2 = centerY + proj.y.get(pi2) * distScale;
-                                shapes.add(Shape.Line.create(
-                                        x1, y1, x2, y2, 0, CONSTELLATION_LINE_COLOR, null));
-                            }
-                        }
+        int numLines = 0;
+        for (int c = 0; c < CONSTELLATIONS.size(); c++) {
+            int[] segments = CONSTELLATIONS.get(c).uniqueSegments;
+            for (int i = 0; i < segments.length; i += 2) {
+                int starIndex = segments[i];
+                int endIndex = segments[i + 1];
+                if (starState.activatedStars.get(starIndex) &&
+                        starState.activatedStars.get(endIndex)) {
+                    int pi1 = proj.starIndexToProjIndex[starIndex];
+                    int pi2 = proj.starIndexToProjIndex[endIndex];
+                    if (pi1 < 0 || pi2 < 0) {
+                        continue;
                     }
+                    double x1 = centerX + proj.x[pi1] * distScale;
+                    double y1 = centerY + proj.y[pi1] * distScale;
+                    double x2 = centerX + proj.x[pi2] * distScale;
+                    double y2 = centerY + proj.y[pi2] * distScale;
+                    Shape.Line line = constellationLineAtIndex(numLines++);
+                    line.setEndpoints(x1, y1, x2, y2);
+                    starShapes.add(line);
                 }
             }
         }
-        return shapes;
+        return starShapes;
+    }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {
+        out.writeByte((multiballStatus != null) ? multiballStatus.ordinal() : -1);
+        out.writeInt(numBallsLocked);
+        out.writeLong(guideTickCounter);
+        out.writeLong(rampScore);
+        starState.writeState(out);
+        // The held ball is saved as its index in the field's list of balls.
+        out.writeInt((heldBall != null) ? field.getBalls().indexOf(heldBall) : -1);
+        out.writeFloat(heldBallGravityScale);
+        multiballLaunches.writeState(field, out);
+    }
+
+    @Override public void readState(Field field, DataInput in) throws IOException {
+        initFieldElements(field);
+        int status = in.readByte();
+        multiballStatus = (status >= 0) ? MultiballStatus.values()[status] : null;
+        numBallsLocked = in.readInt();
+        guideTickCounter = in.readLong();
+        rampScore = in.readLong();
+        starState = new StarState();
+        starState.readState(in);
+        int heldBallIndex = in.readInt();
+        heldBall = (heldBallIndex >= 0) ? field.getBalls().get(heldBallIndex) : null;
+        heldBallGravityScale = in.readFloat();
+        multiballLaunches.readState(field, in, (code) -> multiballLaunchAction(field, code));
+        field.setShapes(shapesFromProjection());
     }
 }
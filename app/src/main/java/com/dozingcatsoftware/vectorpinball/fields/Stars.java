@@ -95,6 +95,14 @@ public class Stars {
         int[] segments;
         // Maps smaller index to endpoints with greater indices.
         Map<Integer, Set<Integer>> segmentsByIndex = new HashMap<>();
+        // Primitive versions of `starIndices` (sorted) and `segmentsByIndex` (flattened pairs
+        // without duplicates, smaller index first), so they can be used without allocating.
+        int[] starIndexArray;
+        int[] uniqueSegments;
+
+        boolean containsStar(int starIndex) {
+            return Arrays.binarySearch(starIndexArray, starIndex) >= 0;
+        }
 
         static Constellation withSegments(StarCatalog catalog, String name, int... segments) {
             assert segments.length % 2 == 0;
@@ -145,6 +153,28 @@ public class Stars {
             self.centerDecRadians = avgDec;
             self.angularRadius = maxDist;
             self.starIndices = starIndices;
+
+            self.starIndexArray = new int[starIndices.size()];
+            int numSegments = 0;
+            int si = 0;
+            for (int index : starIndices) {
+                self.starIndexArray[si++] = index;
+                Set<Integer> endpoints = self.segmentsByIndex.get(index);
+                numSegments += (endpoints != null) ? endpoints.size() : 0;
+            }
+            Arrays.sort(self.starIndexArray);
+            // Same order as iterating over `starIndices` and then `segmentsByIndex`.
+            self.uniqueSegments = new int[2 * numSegments];
+            int segIndex = 0;
+            for (int index : starIndices) {
+                Set<Integer> endpoints = self.segmentsByIndex.get(index);
+                if (endpoints != null) {
+                    for (int endIndex : endpoints) {
+                        self.uniqueSegments[segIndex++] = index;
+                        self.uniqueSegments[segIndex++] = endIndex;
+                    }
+                }
+            }
             return self;
         }
     }
@@ -0,0 +1,403 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.util.Arrays;
+
+/**
+ * Runs actions at scheduled times, measured in nanoseconds of game time. Implemented as a hashed
+ * timing wheel: each action is stored in the slot for the time it's due, and advancing the clock
+ * only examines the slots for the elapsed time, so scheduling and cancelling take constant time
+ * regardless of how many actions are pending. An action that's due more than one revolution of
+ * the wheel in the future stays in its slot until its time arrives.
+ *
+ * Entries are stored in parallel arrays that are reused, so scheduling doesn't allocate memory
+ * unless more actions are pending than ever before. Each scheduled action is identified by a
+ * handle that can be passed to `cancel`. Handles of actions that have run or been cancelled are
+ * never reused, so cancelling with an old handle is harmless. NO_ACTION is never returned as a
+ * handle, so it can be used to initialize handle variables.
+ *
+ * Actions that are due at the same time run in the order they were scheduled.
+ */
+public class ActionScheduler {
+
+    /** A handle value that never refers to a scheduled action. */
+    public static final long NO_ACTION = 0;
+
+    // 256 slots of 2^24 nanoseconds (about 16.8 milliseconds) each, so one revolution of the wheel
+    // is about 4.3 seconds.
+    static final int DEFAULT_SLOT_COUNT = 256;
+    static final int DEFAULT_SLOT_SHIFT = 24;
+
+    final int slotShift;
+    final int slotMask;
+    // Index of the first entry in each slot, or -1 if empty. Entries in a slot are linked
+    // through `nextInSlot`.
+    final int[] slotHeads;
+
+    // Entry storage. An entry is free when its action is null and it's not in any slot.
+    long[] dueNanos;
+    long[] periodNanos;
+    long[] sequence;
+    Runnable[] actions;
+    int[] generations;
+    int[] nextInSlot;
+    int[] freeEntries;
+    int numFreeEntries;
+
+    // While advancing, entries that are due, sorted by time. Entries before `dueCursor` have
+    // been run. Actions that become due during the same advance (repeating actions, or actions
+    // scheduled by other actions) are inserted in order, so everything runs in time order.
+    int[] dueEntries;
+    int numDueEntries = 0;
+    int dueCursor = 0;
+    boolean advancing = false;
+    long advancingToNanos;
+
+    long currentNanos = 0;
+    long nextSequence = 0;
+    int numScheduled = 0;
+    // Incremented by `clear`, so that an action that calls it doesn't free its own entry again.
+    int clearCount = 0;
+
+    public ActionScheduler() {
+        this(DEFAULT_SLOT_COUNT, DEFAULT_SLOT_SHIFT, 32);
+    }
+
+    /**
+     * Creates a scheduler with `slotCount` slots (which must be a power of 2), each covering
+     * 2^slotShift nanoseconds, and storage for `initialCapacity` pending actions.
+     */
+    public ActionScheduler(int slotCount, int slotShift, int initialCapacity) {
+        if (slotCount <= 0 || (slotCount & (slotCount - 1)) != 0) {
+            throw new IllegalArgumentException("slotCount must be a power of 2: " + slotCount);
+        }
+        this.slotShift = slotShift;
+        this.slotMask = slotCount - 1;
+        this.slotHeads = new int[slotCount];
+        Arrays.fill(slotHeads, -1);
+
+        int capacity = Math.max(1, initialCapacity);
+        dueNanos = new long[capacity];
+        periodNanos = new long[capacity];
+        sequence = new long[capacity];
+        actions = new Runnable[capacity];
+        generations = new int[capacity];
+        nextInSlot = new int[capacity];
+        freeEntries = new int[capacity];
+        dueEntries = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeEntries[i] = capacity - 1 - i;
+        }
+        numFreeEntries = capacity;
+    }
+
+    /** Returns the time that the scheduler was last advanced to. */
+    public long getCurrentNanos() {
+        return currentNanos;
+    }
+
+    /** Returns the number of actions that are scheduled and haven't been cancelled. */
+    public int size() {
+        return numScheduled;
+    }
+
+    /**
+     * Schedules `action` to run once when the scheduler is advanced to `timeNanos` or later.
+     * Returns a handle that can be passed to `cancel`.
+     */
+    public long scheduleAt(long timeNanos, Runnable action) {
+        return addEntry(timeNanos, 0, action);
+    }
+
+    /**
+     * Schedules `action` to run at `timeNanos` and then every `periodNanos` after that, until it's
+     * cancelled. If the scheduler is advanced by more than one period at once, the action runs
+     * once for each period that elapsed. Returns a handle that can be passed to `cancel`, which
+     * is the same for every run.
+     */
+    public long scheduleRepeatingAt(long timeNanos, long periodNanos, Runnable action) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("periodNanos must be positive: " + periodNanos);
+        }
+        return addEntry(timeNanos, periodNanos, action);
+    }
+
+    /**
+     * Cancels the action identified by `handle`. Returns true if the action was pending, false if
+     * it already ran (for a non-repeating action) or was cancelled. A repeating action can cancel
+     * itself while running.
+     */
+    public boolean cancel(long handle) {
+        int index = entryIndexForHandle(handle);
+        if (index < 0) {
+            return false;
+        }
+        // The entry is freed when its slot is next examined, or after it runs if it's running.
+        actions[index] = null;
+        generations[index]++;
+        numScheduled--;
+        return true;
+    }
+
+    /** Returns true if the action identified by `handle` is scheduled and hasn't been cancelled. */
+    public boolean isScheduled(long handle) {
+        return entryIndexForHandle(handle) >= 0;
+    }
+
+    /**
+     * Returns the time that the action identified by `handle` will next run, or -1 if it's not
+     * scheduled.
+     */
+    public long getScheduledTime(long handle) {
+        int index = entryIndexForHandle(handle);
+        return (index >= 0) ? dueNanos[index] : -1;
+    }
+
+    /**
+     * Returns the time of the earliest pending action, or Long.MAX_VALUE if none are scheduled.
+     * Examines every entry, so it's meant for occasional use such as deciding how long to wait
+     * while nothing else is happening.
+     */
+    public long nextDueTime() {
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < actions.length; i++) {
+            if (actions[i] != null && dueNanos[i] < earliest) {
+                earliest = dueNanos[i];
+            }
+        }
+        return earliest;
+    }
+
+    /** Cancels all pending actions. */
+    public void clear() {
+        for (int i = 0; i < actions.length; i++) {
+            if (actions[i] != null) {
+                actions[i] = null;
+                generations[i]++;
+            }
+        }
+        // Every entry is now free and can be unlinked from the slots.
+        Arrays.fill(slotHeads, -1);
+        numFreeEntries = actions.length;
+        for (int i = 0; i < numFreeEntries; i++) {
+            freeEntries[i] = numFreeEntries - 1 - i;
+        }
+        numDueEntries = 0;
+        dueCursor = 0;
+        numScheduled = 0;
+        clearCount++;
+    }
+
+    /**
+     * Cancels all pending actions and sets the clock to `nowNanos`, which may be earlier than the
+     * current time. Used when restoring a saved game. Must not be called from a scheduled action.
+     */
+    public void reset(long nowNanos) {
+        if (advancing) {
+            throw new IllegalStateException("reset called from a scheduled action");
+        }
+        clear();
+        currentNanos = nowNanos;
+    }
+
+    /**
+     * Advances the clock to `nowNanos`, and runs every action whose time is at or before it, in
+     * time order. Actions scheduled by running actions also run if they're due. Must not be
+     * called from a scheduled action.
+     */
+    public void advanceTo(long nowNanos) {
+        if (nowNanos < currentNanos) {
+            nowNanos = currentNanos;
+        }
+        if (advancing) {
+            throw new IllegalStateException("advanceTo called from a scheduled action");
+        }
+        advancing = true;
+        advancingToNanos = nowNanos;
+        try {
+            collectDueEntries(nowNanos);
+            sortDueEntries();
+            while (dueCursor < numDueEntries) {
+                runEntry(dueEntries[dueCursor++]);
+            }
+        }
+        finally {
+            numDueEntries = 0;
+            dueCursor = 0;
+            advancing = false;
+        }
+        currentNanos = nowNanos;
+    }
+
+    private void runEntry(int index) {
+        Runnable action = actions[index];
+        if (action == null) {
+            // Cancelled by an action that ran before it.
+            freeEntry(index);
+            return;
+        }
+        int generation = generations[index];
+        int clears = clearCount;
+        if (periodNanos[index] == 0) {
+            // Invalidate the handle first, so cancelling it from within the action has no effect.
+            actions[index] = null;
+            generations[index]++;
+            numScheduled--;
+            freeEntry(index);
+            action.run();
+            return;
+        }
+        action.run();
+        if (clearCount != clears) {
+            return;
+        }
+        if (generations[index] != generation) {
+            // Cancelled itself.
+            freeEntry(index);
+            return;
+        }
+        dueNanos[index] += periodNanos[index];
+        sequence[index] = nextSequence++;
+        insertEntry(index);
+    }
+
+    private long addEntry(long timeNanos, long period, Runnable action) {
+        if (action == null) {
+            throw new IllegalArgumentException("action must not be null");
+        }
+        if (numFreeEntries == 0) {
+            grow();
+        }
+        int index = freeEntries[--numFreeEntries];
+        dueNanos[index] = timeNanos;
+        periodNanos[index] = period;
+        sequence[index] = nextSequence++;
+        actions[index] = action;
+        // Generation starts at 1 so that no handle is equal to NO_ACTION.
+        if (generations[index] == 0) generations[index] = 1;
+        insertEntry(index);
+        numScheduled++;
+        return ((long) generations[index] << 32) | index;
+    }
+
+    private int entryIndexForHandle(long handle) {
+        int index = (int) handle;
+        int generation = (int) (handle >>> 32);
+        if (index < 0 || index >= actions.length) {
+            return -1;
+        }
+        if (generations[index] != generation || actions[index] == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    private void insertEntry(int index) {
+        if (advancing && dueNanos[index] <= advancingToNanos) {
+            insertDueEntry(index);
+        }
+        else {
+            insertIntoSlot(index);
+        }
+    }
+
+    // Inserts into the entries that haven't run yet in the current advance, keeping them sorted.
+    private void insertDueEntry(int index) {
+        if (numDueEntries == dueEntries.length) {
+            // Discard the entries that already ran; the rest fit since each is a live entry.
+            System.arraycopy(dueEntries, dueCursor, dueEntries, 0, numDueEntries - dueCursor);
+            numDueEntries -= dueCursor;
+            dueCursor = 0;
+        }
+        int j = numDueEntries - 1;
+        while (j >= dueCursor && isBefore(index, dueEntries[j])) {
+            dueEntries[j + 1] = dueEntries[j];
+            j--;
+        }
+        dueEntries[j + 1] = index;
+        numDueEntries++;
+    }
+
+    private void insertIntoSlot(int index) {
+        // Actions scheduled in the past go in the current slot so they run on the next advance.
+        long time = Math.max(dueNanos[index], currentNanos);
+        int slot = (int) (time >> slotShift) & slotMask;
+        nextInSlot[index] = slotHeads[slot];
+        slotHeads[slot] = index;
+    }
+
+    private void freeEntry(int index) {
+        freeEntries[numFreeEntries++] = index;
+    }
+
+    // Moves entries that are due at or before `nowNanos` from their slots to `dueEntries`, and
+    // frees cancelled entries along the way. Only the slots between the current time and
+    // `nowNanos` are examined, or all of them if that's more than one revolution.
+    private void collectDueEntries(long nowNanos) {
+        long startTick = currentNanos >> slotShift;
+        long endTick = nowNanos >> slotShift;
+        long numTicks = Math.min(endTick - startTick + 1, slotHeads.length);
+        for (long tick = startTick; tick < startTick + numTicks; tick++) {
+            int slot = (int) tick & slotMask;
+            int prev = -1;
+            int index = slotHeads[slot];
+            while (index >= 0) {
+                int next = nextInSlot[index];
+                boolean cancelled = (actions[index] == null);
+                if (cancelled || dueNanos[index] <= nowNanos) {
+                    if (prev >= 0) {
+                        nextInSlot[prev] = next;
+                    }
+                    else {
+                        slotHeads[slot] = next;
+                    }
+                    if (cancelled) {
+                        freeEntry(index);
+                    }
+                    else {
+                        dueEntries[numDueEntries++] = index;
+                    }
+                }
+                else {
+                    prev = index;
+                }
+                index = next;
+            }
+        }
+    }
+
+    // Insertion sort by time, then by scheduling order. There are rarely more than a few.
+    private void sortDueEntries() {
+        for (int i = 1; i < numDueEntries; i++) {
+            int entry = dueEntries[i];
+            int j = i - 1;
+            while (j >= 0 && isBefore(entry, dueEntries[j])) {
+                dueEntries[j + 1] = dueEntries[j];
+                j--;
+            }
+            dueEntries[j + 1] = entry;
+        }
+    }
+
+    private boolean isBefore(int e1, int e2) {
+        if (dueNanos[e1] != dueNanos[e2]) {
+            return dueNanos[e1] < dueNanos[e2];
+        }
+        return sequence[e1] < sequence[e2];
+    }
+
+    private void grow() {
+        int oldCapacity = actions.length;
+        int newCapacity = 2 * oldCapacity;
+        dueNanos = Arrays.copyOf(dueNanos, newCapacity);
+        periodNanos = Arrays.copyOf(periodNanos, newCapacity);
+        sequence = Arrays.copyOf(sequence, newCapacity);
+        actions = Arrays.copyOf(actions, newCapacity);
+        generations = Arrays.copyOf(generations, newCapacity);
+        nextInSlot = Arrays.copyOf(nextInSlot, newCapacity);
+        dueEntries = Arrays.copyOf(dueEntries, newCapacity);
+        freeEntries = Arrays.copyOf(freeEntries, newCapacity);
+        for (int i = newCapacity - 1; i >= oldCapacity; i--) {
+            freeEntries[numFreeEntries++] = i;
+        }
+    }
+}
@@ -1,12 +1,13 @@
 package com.dozingcatsoftware.vectorpinball.model;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
-import com.badlogic.gdx.physics.box2d.CircleShape;
-import com.badlogic.gdx.physics.box2d.Fixture;
 import com.badlogic.gdx.physics.box2d.World;
-import com.badlogic.gdx.utils.Array;
 import com.dozingcatsoftware.vectorpinball.elements.Box2DFactory;
 
 /**
@@ -17,24 +18,78 @@ public class Ball implements IDrawable {
     private WorldLayers worlds;
     private int layer;
     private Body body;
+    // Cached because Fixture.getShape allocates a new Shape object the first time it's called.
+    private float radius;
     private int primaryColor;
     private int secondaryColor;
     private String previousSensorId;
+    // Position and angle before the most recent tick, for interpolating when drawing.
+    private float previousX;
+    private float previousY;
+    private float previousAngle;
 
     private Ball(
-            WorldLayers worlds, int layer, Body body, int primaryColor, int secondaryColor) {
+            WorldLayers worlds, int layer, Body body, float radius,
+            int primaryColor, int secondaryColor) {
         this.worlds = worlds;
         this.layer = layer;
         this.body = body;
+        this.radius = radius;
         this.primaryColor = primaryColor;
         this.secondaryColor = secondaryColor;
+        body.setUserData(this);
+        this.savePreviousState();
     }
 
     public static Ball create(
             WorldLayers worlds, int layer, float x, float y, float radius,
             int primaryColor, int secondaryColor) {
         Body body = createBody(worlds.existingWorldForLayer(layer), x, y, radius);
-        return new Ball(worlds, layer, body, primaryColor, secondaryColor);
+        worlds.bodiesChanged();
+        return new Ball(worlds, layer, body, radius, primaryColor, secondaryColor);
+    }
+
+    /**
+     * Creates a ball from state written by writeState, for restoring a field snapshot. Unlike
+     * `create`, the ball's layer doesn't need to have an existing world.
+     */
+    static Ball readState(DataInput in, WorldLayers worlds) throws IOException {
+        int layer = in.readInt();
+        float radius = in.readFloat();
+        float x = in.readFloat();
+        float y = in.readFloat();
+        Body body = createBody(worlds.existingOrNewWorldForLayer(layer), x, y, radius);
+        body.setTransform(x, y, in.readFloat());
+        body.setLinearVelocity(in.readFloat(), in.readFloat());
+        body.setAngularVelocity(in.readFloat());
+        body.setGravityScale(in.readFloat());
+        int primaryColor = in.readInt();
+        int secondaryColor = in.readInt();
+        worlds.bodiesChanged();
+        Ball ball = new Ball(worlds, layer, body, radius, primaryColor, secondaryColor);
+        ball.previousSensorId = in.readBoolean() ? in.readUTF() : null;
+        return ball;
+    }
+
+    /** Writes the ball's layer, physics state, and colors, for saving a field snapshot. */
+    void writeState(DataOutput out) throws IOException {
+        Vector2 position = body.getPosition();
+        out.writeInt(layer);
+        out.writeFloat(radius);
+        out.writeFloat(position.x);
+        out.writeFloat(position.y);
+        out.writeFloat(body.getAngle());
+        Vector2 velocity = body.getLinearVelocity();
+        out.writeFloat(velocity.x);
+        out.writeFloat(velocity.y);
+        out.writeFloat(body.getAngularVelocity());
+        out.writeFloat(body.getGravityScale());
+        out.writeInt(primaryColor);
+        out.writeInt(secondaryColor);
+        out.writeBoolean(previousSensorId != null);
+        if (previousSensorId != null) {
+            out.writeUTF(previousSensorId);
+        }
     }
 
     private static Body createBody(World world, float x, float y, float radius) {
@@ -48,14 +103,19 @@ public class Ball implements IDrawable {
     }
 
     @Override public void draw(Field field, IFieldRenderer renderer) {
-        Vector2 center = this.getPosition();
+        // Draw between the previous and current physics states, so that motion is smooth when
+        // the frame rate doesn't match the physics rate.
+        float alpha = field.getRenderInterpolation();
+        Vector2 position = this.getPosition();
+        float centerX = previousX + alpha * (position.x - previousX);
+        float centerY = previousY + alpha * (position.y - previousY);
         float radius = this.getRadius();
-        renderer.fillCircle(center.x, center.y, radius, primaryColor);
+        renderer.fillCircle(centerX, centerY, radius, primaryColor);
 
         // Draw a smaller circle to show the ball's rotation.
-        float angle = body.getAngle();
-        float smallCenterX = center.x + (radius / 2) * MathUtils.cos(angle);
-        float smallCenterY = center.y + (radius / 2) * MathUtils.sin(angle);
+        float angle = previousAngle + alpha * (body.getAngle() - previousAngle);
+        float smallCenterX = centerX + (radius / 2) * MathUtils.cos(angle);
+        float smallCenterY = centerY + (radius / 2) * MathUtils.sin(angle);
         renderer.fillCircle(smallCenterX, smallCenterY, radius / 4, secondaryColor);
     }
 
@@ -80,13 +140,11 @@ public class Ball implements IDrawable {
     }
 
     public float getRadius() {
-        Array<Fixture> fixtures = body.getFixtureList();
-        if (fixtures.isEmpty()) {
+        if (body.getFixtureList().isEmpty()) {
             // Shouldn't happen, but occasionally does at the start or end of a game.
             return 0;
         }
-        CircleShape shape = (CircleShape)fixtures.get(0).getShape();
-        return shape.getRadius();
+        return radius;
     }
 
     public int getPrimaryColor() {
@@ -113,6 +171,14 @@ public class Ball implements IDrawable {
     }
 
 
+    /** Records the current position and angle as the starting point for drawing interpolation. */
+    void savePreviousState() {
+        Vector2 position = body.getPosition();
+        previousX = position.x;
+        previousY = position.y;
+        previousAngle = body.getAngle();
+    }
+
     public void moveToLayer(int newLayer) {
         if (layer == newLayer) {
             return;
@@ -120,7 +186,10 @@ public class Ball implements IDrawable {
         Body oldBody = this.body;
         this.body = copyBodyToWorld(worlds.existingOrNewWorldForLayer(newLayer));
         this.layer = newLayer;
+        // Contacts ended by destroying the old body shouldn't be reported for this ball.
+        oldBody.setUserData(null);
         oldBody.getWorld().destroyBody(oldBody);
+        worlds.bodiesChanged();
     }
 
     private Body copyBodyToWorld(World world) {
@@ -129,10 +198,12 @@ public class Ball implements IDrawable {
         newBody.setTransform(position.x, position.y, this.body.getAngle());
         newBody.setLinearVelocity(this.body.getLinearVelocity());
         newBody.setAngularVelocity(this.body.getAngularVelocity());
+        newBody.setUserData(this);
         return newBody;
     }
 
     void destroySelf() {
         this.getBody().getWorld().destroyBody(this.getBody());
+        worlds.bodiesChanged();
     }
 }
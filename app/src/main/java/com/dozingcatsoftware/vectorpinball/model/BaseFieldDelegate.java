@@ -1,5 +1,8 @@
 package com.dozingcatsoftware.vectorpinball.model;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 
 import com.badlogic.gdx.physics.box2d.Body;
@@ -33,9 +36,17 @@ public class BaseFieldDelegate implements Field.Delegate {
 
     @Override public void tick(Field field, long nanos) {}
 
+    @Override public void ballEnteredSensor(Field field, SensorElement sensor, Ball ball) {}
+
+    @Override public void ballExitedSensor(Field field, SensorElement sensor, Ball ball) {}
+
     @Override public void ballInSensorRange(Field field, SensorElement sensor, Ball ball) {}
 
     @Override public boolean isFieldActive(Field field) {
         return false;
     }
+
+    @Override public void writeState(Field field, DataOutput out) throws IOException {}
+
+    @Override public void readState(Field field, DataInput in) throws IOException {}
 }
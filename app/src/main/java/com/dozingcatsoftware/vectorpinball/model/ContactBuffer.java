@@ -0,0 +1,105 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.physics.box2d.Body;
+import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
+
+/**
+ * Records the contacts between balls and other bodies that ended during a Box2D step, in the
+ * order they were reported. Each record has the ball, the body it hit and that body's
+ * FieldElement (null if the body isn't part of an element, e.g. another ball), the unit normal
+ * pointing from the body toward the ball, and the speed at which the ball was approaching the
+ * body along that normal when the contact began. Records are stored in parallel arrays that are
+ * reused after `clear`, and only grow when a step has more contacts than any previous step.
+ */
+public class ContactBuffer {
+
+    Ball[] balls;
+    FieldElement[] elements;
+    Body[] bodies;
+    float[] normalX;
+    float[] normalY;
+    float[] approachSpeeds;
+    int size = 0;
+
+    public ContactBuffer() {
+        this(16);
+    }
+
+    public ContactBuffer(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        balls = new Ball[capacity];
+        elements = new FieldElement[capacity];
+        bodies = new Body[capacity];
+        normalX = new float[capacity];
+        normalY = new float[capacity];
+        approachSpeeds = new float[capacity];
+    }
+
+    /** Removes all records, without releasing the storage. */
+    public void clear() {
+        // Don't keep removed balls and destroyed bodies reachable.
+        Arrays.fill(balls, 0, size, null);
+        Arrays.fill(elements, 0, size, null);
+        Arrays.fill(bodies, 0, size, null);
+        size = 0;
+    }
+
+    public void add(Ball ball, FieldElement element, Body body,
+            float nx, float ny, float approachSpeed) {
+        if (size == balls.length) {
+            int newCapacity = 2 * size;
+            balls = Arrays.copyOf(balls, newCapacity);
+            elements = Arrays.copyOf(elements, newCapacity);
+            bodies = Arrays.copyOf(bodies, newCapacity);
+            normalX = Arrays.copyOf(normalX, newCapacity);
+            normalY = Arrays.copyOf(normalY, newCapacity);
+            approachSpeeds = Arrays.copyOf(approachSpeeds, newCapacity);
+        }
+        balls[size] = ball;
+        elements[size] = element;
+        bodies[size] = body;
+        normalX[size] = nx;
+        normalY[size] = ny;
+        approachSpeeds[size] = approachSpeed;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of records that can be stored before the arrays have to grow. */
+    public int capacity() {
+        return balls.length;
+    }
+
+    public Ball getBall(int index) {
+        return balls[index];
+    }
+
+    public FieldElement getFieldElement(int index) {
+        return elements[index];
+    }
+
+    public Body getBody(int index) {
+        return bodies[index];
+    }
+
+    public float getNormalX(int index) {
+        return normalX[index];
+    }
+
+    public float getNormalY(int index) {
+        return normalY[index];
+    }
+
+    /**
+     * Returns the speed in world units per second at which the ball was moving toward the body
+     * when the contact began, or 0 if it's unknown (e.g. for sensors, which have no normal).
+     */
+    public float getApproachSpeed(int index) {
+        return approachSpeeds[index];
+    }
+}
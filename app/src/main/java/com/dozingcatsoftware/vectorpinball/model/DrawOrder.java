@@ -0,0 +1,142 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
+
+/**
+ * Determines the order in which a field's shapes, elements, and balls are drawn. Layers are drawn
+ * low to high, and within a layer custom shapes are drawn first, then field elements, then balls,
+ * so that each ball is drawn on top of everything else at its layer. Items of the same kind at
+ * the same layer are drawn in the order they're listed in the layout, or given to `setShapes`.
+ *
+ * Field elements don't change layers, so they're divided into per-layer buckets once when the
+ * layout is loaded. Shapes are re-bucketed when they're replaced, and balls when one is added or
+ * removed or moves to a different layer. Drawing a frame otherwise doesn't sort or allocate.
+ */
+public class DrawOrder {
+
+    static class LayerBucket {
+        final int layer;
+        final ArrayList<Shape> shapes = new ArrayList<>();
+        final ArrayList<FieldElement> elements = new ArrayList<>();
+        final ArrayList<Ball> balls = new ArrayList<>();
+
+        LayerBucket(int layer) {
+            this.layer = layer;
+        }
+    }
+
+    // Sorted by layer.
+    LayerBucket[] buckets = new LayerBucket[0];
+
+    // The balls and their layers when they were last bucketed, to detect changes.
+    Ball[] bucketedBalls = new Ball[4];
+    int[] bucketedBallLayers = new int[4];
+    int numBucketedBalls = 0;
+
+    public DrawOrder(FieldElement[] elements) {
+        for (FieldElement element : elements) {
+            bucketForLayer(element.getLayer()).elements.add(element);
+        }
+    }
+
+    /** Replaces the custom shapes, which are drawn below the elements and balls at each layer. */
+    public void setShapes(List<Shape> shapes) {
+        for (LayerBucket bucket : buckets) {
+            bucket.shapes.clear();
+        }
+        for (int i = 0; i < shapes.size(); i++) {
+            Shape shape = shapes.get(i);
+            bucketForLayer(shape.getLayer()).shapes.add(shape);
+        }
+    }
+
+    /**
+     * Updates the ball buckets if `balls` or any of their layers have changed since the last call.
+     * This only compares the balls with the previous ones, so it can be called on every frame.
+     */
+    public void updateBalls(List<Ball> balls) {
+        if (!ballsChanged(balls)) {
+            return;
+        }
+        for (LayerBucket bucket : buckets) {
+            bucket.balls.clear();
+        }
+        int numBalls = balls.size();
+        if (numBalls > bucketedBalls.length) {
+            int newSize = Math.max(numBalls, 2 * bucketedBalls.length);
+            bucketedBalls = new Ball[newSize];
+            bucketedBallLayers = new int[newSize];
+        }
+        for (int i = 0; i < numBalls; i++) {
+            Ball ball = balls.get(i);
+            bucketForLayer(ball.getLayer()).balls.add(ball);
+            bucketedBalls[i] = ball;
+            bucketedBallLayers[i] = ball.getLayer();
+        }
+        for (int i = numBalls; i < numBucketedBalls; i++) {
+            bucketedBalls[i] = null;
+        }
+        numBucketedBalls = numBalls;
+    }
+
+    private boolean ballsChanged(List<Ball> balls) {
+        if (balls.size() != numBucketedBalls) {
+            return true;
+        }
+        for (int i = 0; i < numBucketedBalls; i++) {
+            Ball ball = balls.get(i);
+            if (ball != bucketedBalls[i] || ball.getLayer() != bucketedBallLayers[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Draws everything in order. Call `updateBalls` first if the balls may have changed. */
+    public void draw(Field field, IFieldRenderer renderer) {
+        for (LayerBucket bucket : buckets) {
+            ArrayList<Shape> shapes = bucket.shapes;
+            for (int i = 0; i < shapes.size(); i++) {
+                shapes.get(i).draw(field, renderer);
+            }
+            ArrayList<FieldElement> elements = bucket.elements;
+            for (int i = 0; i < elements.size(); i++) {
+                elements.get(i).draw(field, renderer);
+            }
+            ArrayList<Ball> balls = bucket.balls;
+            for (int i = 0; i < balls.size(); i++) {
+                balls.get(i).draw(field, renderer);
+            }
+        }
+    }
+
+    // Returns the bucket for `layer`, creating it if needed. New layers are rare (only when a
+    // ball first moves to a layer with no elements or shapes), so inserting copies the array.
+    private LayerBucket bucketForLayer(int layer) {
+        int low = 0;
+        int high = buckets.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midLayer = buckets[mid].layer;
+            if (midLayer < layer) {
+                low = mid + 1;
+            }
+            else if (midLayer > layer) {
+                high = mid - 1;
+            }
+            else {
+                return buckets[mid];
+            }
+        }
+        LayerBucket bucket = new LayerBucket(layer);
+        LayerBucket[] newBuckets = new LayerBucket[buckets.length + 1];
+        System.arraycopy(buckets, 0, newBuckets, 0, low);
+        newBuckets[low] = bucket;
+        System.arraycopy(buckets, low, newBuckets, low + 1, buckets.length - low);
+        buckets = newBuckets;
+        return bucket;
+    }
+}
@@ -1,13 +1,13 @@
 package com.dozingcatsoftware.vectorpinball.model;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.function.Function;
 import java.util.function.LongSupplier;
@@ -19,32 +19,44 @@ import com.badlogic.gdx.physics.box2d.ContactImpulse;
 import com.badlogic.gdx.physics.box2d.ContactListener;
 import com.badlogic.gdx.physics.box2d.Fixture;
 import com.badlogic.gdx.physics.box2d.Manifold;
+import com.badlogic.gdx.physics.box2d.WorldManifold;
 import com.dozingcatsoftware.vectorpinball.elements.DropTargetGroupElement;
+import com.dozingcatsoftware.vectorpinball.elements.ElementGrid;
 import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
 import com.dozingcatsoftware.vectorpinball.elements.FlipperElement;
 import com.dozingcatsoftware.vectorpinball.elements.RolloverGroupElement;
 import com.dozingcatsoftware.vectorpinball.elements.SensorElement;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
 
-public class Field implements ContactListener {
+public class Field {
 
     FieldLayout layout;
     WorldLayers worlds;
+    // Arguments to the last resetForLayoutMap call, so that keyframes can recreate the field.
+    Map<String, Object> layoutMap;
+    Function<Field, Delegate> delegateFn;
 
     ArrayList<Ball> balls;
     ArrayList<Shape> shapes;
 
-    // Allow access to model objects from Box2d bodies.
-    Map<Body, FieldElement> bodyToFieldElement;
+    // Box2d bodies of FieldElements have the element as their user data, and ball bodies have
+    // the Ball, so contacts can be resolved without searching.
     Map<String, FieldElement> fieldElementsByID;
     // Store FieldElements in arrays for optimized iteration.
     FieldElement[] fieldElementsArray;
+    // Elements, shapes, and balls bucketed by layer for drawing.
+    DrawOrder drawOrder;
     FieldElement[] fieldElementsToTick;
+    // Finds the sensors and rollovers that balls may be in before elements are ticked.
+    ElementGrid elementGrid;
 
+    // Source of randomness for the field, layout, and delegate, so that a game can be reproduced
+    // from the same seed and input; see setRandomSeed.
     Random RAND = new Random();
 
     long gameTime;
     // Actions scheduled to occur at specific times in the future.
-    PriorityQueue<ScheduledAction> scheduledActions;
+    ActionScheduler scheduledActions;
 
     Delegate delegate;
 
@@ -55,18 +67,66 @@ public class Field implements ContactListener {
     float lastBallPositionX;
     float lastBallPositionY;
     long nanosSinceBallMoved = -1;
+    Vector2 stuckBallImpulse = new Vector2();
+    Vector2 launchVelocity = new Vector2(); // avoid allocation every launch
     // Duration after which the ball is considered stuck if it hasn't moved significantly,
     // if it's a single ball and no flippers are active. Normally the time ratio is around 2,
     // so this will be about 5 real-world seconds.
     static final long STUCK_BALL_NANOS = 10_000_000_000L;
 
     Long lostBallTimeMillis = null;
+    // Message shown shortly after a ball is lost, for the next ball number or shoot again.
+    // Created once so that it can be saved in a snapshot while it's pending.
+    String nextBallMessage;
+    long nextBallMessageAction = ActionScheduler.NO_ACTION;
+    final Runnable showNextBallMessage = () -> showGameMessage(nextBallMessage, 1500, false);
 
     // `zoomNanos` is 0 if the field should be zoomed out fully and `ZOOM_DURATION_NANOS` if
     // zoomed in fully.
     static final long ZOOM_DURATION_NANOS = 1_000_000_000L;
     long zoomNanos = 0;
-    Vector2 zoomCenter = null;
+    // Position of the first ball as of the last tick, or the launch position if there hasn't
+    // been a ball yet. Updated in place to avoid allocation.
+    final Vector2 zoomCenter = new Vector2();
+    boolean hasZoomCenter = false;
+
+    // Whether to step the Box2D worlds of different layers concurrently; see WorldLayers.
+    boolean parallelLayerStepping = false;
+    SubstepPolicy substepPolicy;
+    int lastTickSubsteps;
+    int lastTickSolverIterations;
+    float renderInterpolation = 1f;
+    // The contact buffer and index of the collision being processed, if any.
+    ContactBuffer collisionContacts;
+    int collisionIndex;
+
+    // Records input for replay, if set. `ticking` is true while tick() is running, so that calls
+    // made by the delegate and scheduled actions aren't recorded; they happen again in the replay.
+    InputRecorder inputRecorder;
+    boolean ticking = false;
+    // Called when input or a new game may make an inactive field active; see setWakeListener.
+    Runnable wakeListener;
+
+    // Input from the UI thread, drained at the start of each tick; see queueInput.
+    static final int INPUT_QUEUE_CAPACITY = 256;
+    final InputQueue inputQueue = new InputQueue(INPUT_QUEUE_CAPACITY);
+    // Real time covered by the next tick, set by setNextTickRealTime, or -1 if not known.
+    long nextTickRealStartNanos = -1;
+    long nextTickRealNanos = 0;
+    // Flipper input to apply during the next tick, in order, with nondecreasing offsets into the
+    // tick in nanoseconds of game time.
+    int[] pendingInputTypes = new int[16];
+    long[] pendingInputOffsets = new long[16];
+    int numPendingInputs = 0;
+
+    /**
+     * Delay after losing a ball before launchBallIfNeeded will launch another, since the player
+     * may have been trying to use a flipper.
+     */
+    public static final long LAUNCH_DELAY_AFTER_BALL_LOST_MILLIS = 1000;
+
+    // Times each phase of tick() and drawing when enabled; see getProfiler.
+    final FrameProfiler profiler = new FrameProfiler();
 
     LongSupplier milliTimeFn;
     AudioPlayer audioPlayer;
@@ -97,9 +157,31 @@ public class Field implements ContactListener {
 
         void allRolloversInGroupActivated(Field field, RolloverGroupElement rollovers, Ball ball);
 
+        /** Called when a ball enters the area of a sensor; see SensorElement. */
+        void ballEnteredSensor(Field field, SensorElement sensor, Ball ball);
+
+        /** Called when a ball that entered a sensor leaves its area or moves to another layer. */
+        void ballExitedSensor(Field field, SensorElement sensor, Ball ball);
+
+        /**
+         * Called on every tick for each ball in the area of a sensor whose "notifyEveryTick"
+         * parameter is true, after ballEnteredSensor if the ball just entered.
+         */
         void ballInSensorRange(Field field, SensorElement sensor, Ball ball);
 
         boolean isFieldActive(Field field);
+
+        /**
+         * Writes any state that can change during a game to `out`, for `Field.saveSnapshot`.
+         * Pending scheduled actions can be saved with PendingActions.
+         */
+        void writeState(Field field, DataOutput out) throws IOException;
+
+        /**
+         * Restores state written by writeState. Called after the balls and field elements have
+         * been restored, and after all scheduled actions have been cancelled.
+         */
+        void readState(Field field, DataInput in) throws IOException;
     }
 
     // Used by field delegates to retrieve localized strings.
@@ -107,34 +189,36 @@ public class Field implements ContactListener {
         return this.stringResolver.resolveString(key, params);
     }
 
-    // Helper class to represent actions scheduled in the future.
-    static class ScheduledAction implements Comparable<ScheduledAction> {
-        Long actionTimeNanos;
-        Runnable action;
-
-        @Override public int compareTo(ScheduledAction another) {
-            // Sort by action time so these objects can be inserted into a PriorityQueue.
-            return actionTimeNanos.compareTo(another.actionTimeNanos);
-        }
-    }
-
     /**
      * Creates Box2D world, reads layout definitions for the given level, and initializes the game
      * to the starting state.
      */
     public void resetForLayoutMap(
             Map<String, Object> layoutMap, Function<Field, Delegate> delegateFn) {
-        this.worlds = new WorldLayers(this);
+        this.layoutMap = layoutMap;
+        this.delegateFn = delegateFn;
+        this.worlds = new WorldLayers(LayerContacts::new);
+        worlds.setParallelStepping(parallelLayerStepping);
+        worlds.setProfiler(profiler);
         this.layout = new FieldLayout(layoutMap, worlds);
+        this.substepPolicy = layout.createSubstepPolicy();
         worlds.setGravity(new Vector2(0.0f, -this.layout.getGravity()));
         balls = new ArrayList<>();
         shapes = new ArrayList<>();
 
-        scheduledActions = new PriorityQueue<>();
+        scheduledActions = new ActionScheduler();
         gameTime = 0;
+        nextBallMessageAction = ActionScheduler.NO_ACTION;
+        // Clear state that affects the simulation, so that a recorded game can be replayed from
+        // a newly reset field. A recording doesn't continue into a new layout.
+        nanosSinceBallMoved = -1;
+        zoomNanos = 0;
+        hasZoomCenter = false;
+        inputRecorder = null;
+        inputQueue.clear();
+        numPendingInputs = 0;
 
         // Map bodies and IDs to FieldElements, and get elements on whom tick() has to be called.
-        bodyToFieldElement = new HashMap<>();
         fieldElementsByID = new HashMap<>();
         List<FieldElement> tickElements = new ArrayList<>();
 
@@ -143,16 +227,19 @@ public class Field implements ContactListener {
                 fieldElementsByID.put(element.getElementId(), element);
             }
             for (Body body : element.getBodies()) {
-                bodyToFieldElement.put(body, element);
+                body.setUserData(element);
             }
             if (element.shouldCallTick()) {
                 tickElements.add(element);
             }
         }
         fieldElementsToTick = tickElements.toArray(new FieldElement[0]);
+        elementGrid = new ElementGrid(fieldElementsToTick);
         fieldElementsArray = layout.getFieldElements().toArray(new FieldElement[0]);
+        drawOrder = new DrawOrder(fieldElementsArray);
 
         delegate = delegateFn.apply(this);
+        wakeUp();
     }
 
     public void resetForLayoutMap(Map<String, Object> layoutMap) {
@@ -179,6 +266,11 @@ public class Field implements ContactListener {
     }
 
     private void _startGame(boolean unlimitedBalls) {
+        if (inputRecorder != null && !ticking) {
+            inputRecorder.record(unlimitedBalls ?
+                    InputRecorder.START_GAME_UNLIMITED_BALLS : InputRecorder.START_GAME);
+        }
+        wakeUp();
         gameState.setTotalBalls(layout.getNumberOfBalls());
         gameState.setUnlimitedBalls(unlimitedBalls);
         gameState.startNewGame();
@@ -201,6 +293,20 @@ public class Field implements ContactListener {
         return (T) fieldElementsByID.get(elementID);
     }
 
+    /**
+     * Called to advance the game's state by the specified number of nanoseconds. The number of
+     * Box2D steps and solver iterations are chosen by the layout's SubstepPolicy, based on the
+     * current speed of the balls and flippers: fewer when nothing is moving quickly, more for fast
+     * shots so that the ball doesn't pass through walls or flippers.
+     */
+    public void tick(long nanos) {
+        processInputQueue(nanos);
+        if (inputRecorder != null) inputRecorder.tickStarted(nanos, 0);
+        substepPolicy.update(nanos, maxBodySpeed(), balls.size());
+        tick(nanos, substepPolicy.getSubsteps(), substepPolicy.getSolverIterations());
+        if (inputRecorder != null) inputRecorder.tickFinished(this);
+    }
+
     /**
      * Called to advance the game's state by the specified number of nanoseconds. iters is the
      * number of times to call the Box2D World.step method; more iterations produce better accuracy.
@@ -208,29 +314,216 @@ public class Field implements ContactListener {
      * and performs scheduled actions.
      */
     public void tick(long nanos, int iters) {
-        float dt = (nanos / 1e9f) / iters;
+        processInputQueue(nanos);
+        if (inputRecorder != null) inputRecorder.tickStarted(nanos, iters);
+        tick(nanos, iters, 10);
+        if (inputRecorder != null) inputRecorder.tickFinished(this);
+    }
+
+    private void tick(long nanos, int iters, int solverIters) {
+        long traceNanos = TraceRecorder.begin();
+        ticking = true;
+        // FieldDriver keeps running after an exception, so `ticking` must not stay set or
+        // input would no longer be recorded and the driver would no longer be woken.
+        try {
+            float dt = (nanos / 1e9f) / iters;
+            this.lastTickSubsteps = iters;
+            this.lastTickSolverIterations = solverIters;
+            savePreviousRenderState();
+
+            FrameProfiler profiler = this.profiler;
+            int nextInput = 0;
+            for (int i = 0; i < iters; i++) {
+                while (nextInput < numPendingInputs &&
+                        substepForOffset(pendingInputOffsets[nextInput], nanos, iters) <= i) {
+                    applyInput(pendingInputTypes[nextInput++]);
+                }
+                clearBallContacts();
+                long startNanos = profiler.start();
+                worlds.step(dt, solverIters, solverIters);
+                profiler.end(FrameProfiler.WORLD_STEP, startNanos);
+                startNanos = profiler.start();
+                processBallContacts();
+                profiler.end(FrameProfiler.BALL_CONTACTS, startNanos);
+            }
 
-        for (int i = 0; i < iters; i++) {
-            clearBallContacts();
-            worlds.step(dt, 10, 10);
-            processBallContacts();
+            numPendingInputs = 0;
+
+            gameTime += nanos;
+            long startNanos = profiler.start();
+            processElementTicks();
+            profiler.end(FrameProfiler.ELEMENT_TICKS, startNanos);
+            startNanos = profiler.start();
+            processScheduledActions();
+            profiler.end(FrameProfiler.SCHEDULED_ACTIONS, startNanos);
+            processGameMessages();
+            processZoom(nanos);
+            checkForStuckBall(nanos);
+
+            startNanos = profiler.start();
+            getDelegate().tick(this, nanos);
+            profiler.end(FrameProfiler.DELEGATE_TICK, startNanos);
         }
+        finally {
+            ticking = false;
+        }
+        TraceRecorder.end(TraceRecorder.FIELD_TICK, traceNanos);
+    }
 
-        gameTime += nanos;
-        processElementTicks();
-        processScheduledActions();
-        processGameMessages();
-        processZoom(nanos);
-        checkForStuckBall(nanos);
+    /**
+     * Queues input from the UI thread, to be applied by the next tick without waiting for the
+     * field lock. `type` is one of the InputQueue event types, and `timeNanos` is when the input
+     * happened on the System.nanoTime clock. If the real time covered by the tick is known (see
+     * setNextTickRealTime), flipper input is applied at the substep matching its time, so that a
+     * flipper pressed partway through a frame starts moving partway through the tick rather than
+     * at its start or end. Other input is applied before a tick, so if it follows flipper input
+     * applied partway through a tick, it waits for the next tick; input is always applied in the
+     * order it was queued. Must be called from only one thread. Returns false without queueing
+     * the input if the queue is full, in which case the caller can hold the field lock and call
+     * processQueuedInput to make room.
+     */
+    public boolean queueInput(int type, long timeNanos) {
+        if (!inputQueue.offer(type, timeNanos)) return false;
+        if (wakeListener != null) wakeListener.run();
+        return true;
+    }
+
+    /** Immediately applies all queued input, as if it happened before the next tick. */
+    public void processQueuedInput() {
+        processInputQueue(0, -1, 0);
+    }
+
+    /**
+     * Sets the interval of real time, on the System.nanoTime clock, that the next call to tick()
+     * simulates. Used to place queued input at the matching substep; applies only to the next tick.
+     */
+    public void setNextTickRealTime(long startNanos, long durationNanos) {
+        nextTickRealStartNanos = startNanos;
+        nextTickRealNanos = durationNanos;
+    }
+
+    private void processInputQueue(long nanos) {
+        long realStartNanos = nextTickRealStartNanos;
+        nextTickRealStartNanos = -1;
+        processInputQueue(nanos, realStartNanos, nextTickRealNanos);
+    }
+
+    // Applies queued input that happened before the end of the tick covering `realNanos` from
+    // `realStartNanos`, in queue order. Flipper input that happened after the start of the tick,
+    // or that follows such input, is recorded and added to the pending input for the tick, at an
+    // offset no earlier than the pending input before it. Other input is applied now, or if it
+    // follows pending input, left queued for the next tick: launchBallIfNeeded depends on the
+    // wall clock, so it's recorded by what it does, which only works outside tick(). If the real
+    // time is unknown (`realStartNanos` is -1), all queued input is applied now.
+    private void processInputQueue(long nanos, long realStartNanos, long realNanos) {
+        boolean hasPendingInput = false;
+        while (!inputQueue.isEmpty()) {
+            int type = inputQueue.peekType();
+            long offsetNanos = 0;
+            if (realStartNanos >= 0) {
+                long realOffset = inputQueue.peekTimeNanos() - realStartNanos;
+                if (realOffset >= realNanos) break;
+                if (hasPendingInput && !isFlipperInput(type)) break;
+                if (isFlipperInput(type) && (realOffset > 0 || hasPendingInput)) {
+                    offsetNanos = Math.max(1, (long) ((double) realOffset * nanos / realNanos));
+                }
+            }
+            inputQueue.remove();
+            if (offsetNanos > 0) {
+                if (hasPendingInput) {
+                    offsetNanos = Math.max(offsetNanos, pendingInputOffsets[numPendingInputs - 1]);
+                }
+                if (inputRecorder != null) inputRecorder.recordAtOffset(type, offsetNanos);
+                addPendingInput(type, offsetNanos);
+                hasPendingInput = true;
+            }
+            else {
+                applyInput(type);
+            }
+        }
+    }
+
+    static boolean isFlipperInput(int type) {
+        return type >= InputQueue.LEFT_FLIPPERS_ENGAGED && type <= InputQueue.ALL_FLIPPERS_RELEASED;
+    }
+
+    /** Adds flipper input to apply `offsetNanos` of game time into the next tick. */
+    void addPendingInput(int type, long offsetNanos) {
+        if (numPendingInputs == pendingInputTypes.length) {
+            pendingInputTypes = Arrays.copyOf(pendingInputTypes, 2 * numPendingInputs);
+            pendingInputOffsets = Arrays.copyOf(pendingInputOffsets, 2 * numPendingInputs);
+        }
+        pendingInputTypes[numPendingInputs] = type;
+        pendingInputOffsets[numPendingInputs] = offsetNanos;
+        numPendingInputs++;
+    }
+
+    // Returns the index of the substep during which input `offsetNanos` into a tick is applied.
+    private static int substepForOffset(long offsetNanos, long nanos, int iters) {
+        if (nanos <= 0) return 0;
+        return (int) Math.min(iters - 1, offsetNanos * iters / nanos);
+    }
+
+    private void applyInput(int type) {
+        switch (type) {
+            case InputQueue.LEFT_FLIPPERS_ENGAGED:
+                setLeftFlippersEngaged(true);
+                break;
+            case InputQueue.LEFT_FLIPPERS_RELEASED:
+                setLeftFlippersEngaged(false);
+                break;
+            case InputQueue.RIGHT_FLIPPERS_ENGAGED:
+                setRightFlippersEngaged(true);
+                break;
+            case InputQueue.RIGHT_FLIPPERS_RELEASED:
+                setRightFlippersEngaged(false);
+                break;
+            case InputQueue.ALL_FLIPPERS_ENGAGED:
+                setAllFlippersEngaged(true);
+                break;
+            case InputQueue.ALL_FLIPPERS_RELEASED:
+                setAllFlippersEngaged(false);
+                break;
+            case InputQueue.LAUNCH_BALL_IF_NEEDED:
+                launchBallIfNeeded();
+                break;
+        }
+    }
+
+    /** Records ball and flipper positions before they're updated, for drawing interpolation. */
+    private void savePreviousRenderState() {
+        for (int i = 0; i < balls.size(); i++) {
+            balls.get(i).savePreviousState();
+        }
+        List<FlipperElement> flippers = layout.getFlipperElements();
+        for (int i = 0; i < flippers.size(); i++) {
+            flippers.get(i).savePreviousState();
+        }
+    }
 
-        getDelegate().tick(this, nanos);
+    /** Returns the speed of the fastest moving ball or flipper tip, in world units per second. */
+    float maxBodySpeed() {
+        float maxSpeed = 0;
+        for (int i = 0; i < balls.size(); i++) {
+            maxSpeed = Math.max(maxSpeed, balls.get(i).getBody().getLinearVelocity().len());
+        }
+        List<FlipperElement> flippers = layout.getFlipperElements();
+        for (int i = 0; i < flippers.size(); i++) {
+            maxSpeed = Math.max(maxSpeed, flippers.get(i).getTipSpeed());
+        }
+        return maxSpeed;
     }
 
     /** Calls the tick() method of every FieldElement in the layout. */
     private void processElementTicks() {
-        int size = fieldElementsToTick.length;
-        for (FieldElement elem : fieldElementsToTick) {
-            elem.tick(this);
+        FieldElement[] elements = fieldElementsToTick;
+        elementGrid.findCandidates(balls, 0);
+        for (int i = 0; i < elements.length; i++) {
+            elements[i].tick(this);
+            // A delegate callback may have moved balls, so find them again for later elements.
+            if (elementGrid.mayHaveMovedBalls(i)) {
+                elementGrid.findCandidates(balls, i + 1);
+            }
         }
     }
 
@@ -238,22 +531,17 @@ public class Field implements ContactListener {
      * Runs actions that were scheduled with scheduleAction and whose execution time has arrived.
      */
     private void processScheduledActions() {
-        while (true) {
-            ScheduledAction nextAction = scheduledActions.peek();
-            if (nextAction != null && gameTime >= nextAction.actionTimeNanos) {
-                scheduledActions.poll();
-                nextAction.action.run();
-            }
-            else {
-                break;
-            }
-        }
+        scheduledActions.advanceTo(gameTime);
     }
 
     public void setShapes(List<Shape> shapes) {
         this.shapes.clear();
         this.shapes.ensureCapacity(shapes.size());
-        this.shapes.addAll(shapes);
+        // Add individually, because addAll allocates an array.
+        for (int i = 0; i < shapes.size(); i++) {
+            this.shapes.add(shapes.get(i));
+        }
+        drawOrder.setShapes(this.shapes);
     }
 
     public Ball createBall(float x, float y) {
@@ -269,14 +557,183 @@ public class Field implements ContactListener {
 
     /**
      * Schedules an action to be run after the given interval in milliseconds has elapsed.
-     * Interval is in game time, not real time.
+     * Interval is in game time, not real time. Returns a handle that can be passed to
+     * cancelScheduledAction.
      */
-    public void scheduleAction(long intervalMillis, Runnable action) {
-        ScheduledAction sa = new ScheduledAction();
+    public long scheduleAction(long intervalMillis, Runnable action) {
         // interval is in milliseconds, gameTime is in nanoseconds
-        sa.actionTimeNanos = gameTime + (intervalMillis * 1000000);
-        sa.action = action;
-        scheduledActions.add(sa);
+        return scheduledActions.scheduleAt(gameTime + (intervalMillis * 1000000), action);
+    }
+
+    /**
+     * Schedules an action to be run after `initialDelayMillis`, and then every `periodMillis`
+     * until it's cancelled. Times are in game time, not real time. Returns a handle that can be
+     * passed to cancelScheduledAction.
+     */
+    public long scheduleRepeatingAction(
+            long initialDelayMillis, long periodMillis, Runnable action) {
+        return scheduledActions.scheduleRepeatingAt(
+                gameTime + (initialDelayMillis * 1000000), periodMillis * 1000000, action);
+    }
+
+    /**
+     * Cancels an action scheduled with scheduleAction or scheduleRepeatingAction. Returns true if
+     * the action was pending, false if it already ran or was cancelled. ActionScheduler.NO_ACTION
+     * can be passed to do nothing.
+     */
+    public boolean cancelScheduledAction(long handle) {
+        return scheduledActions.cancel(handle);
+    }
+
+    /** Returns true if the action identified by `handle` is scheduled and hasn't been cancelled. */
+    public boolean isActionScheduled(long handle) {
+        return scheduledActions.isScheduled(handle);
+    }
+
+    /**
+     * Returns the game time in nanoseconds (see getGameTimeNanos) at which the action identified
+     * by `handle` will next run, or -1 if it's not scheduled.
+     */
+    public long getScheduledActionTime(long handle) {
+        return scheduledActions.getScheduledTime(handle);
+    }
+
+    /**
+     * Schedules an action to be run when the game time reaches `gameTimeNanos`, or on the next
+     * tick if it already has. Used to restore actions saved by getScheduledActionTime.
+     */
+    public long scheduleActionAtTime(long gameTimeNanos, Runnable action) {
+        return scheduledActions.scheduleAt(gameTimeNanos, action);
+    }
+
+    /** Returns the total simulated time in nanoseconds passed to tick() for the current layout. */
+    public long getGameTimeNanos() {
+        return gameTime;
+    }
+
+    /**
+     * Returns a compact binary snapshot of the game in progress, which can be passed to
+     * restoreSnapshot to resume it, possibly in a different process. See FieldSnapshot.
+     */
+    public byte[] saveSnapshot() {
+        return FieldSnapshot.save(this);
+    }
+
+    /**
+     * Restores a snapshot created by saveSnapshot. The field must already be reset for the same
+     * layout. Throws IOException if the data is invalid or was saved from a different layout,
+     * in which case the field should be reset before it's used.
+     */
+    public void restoreSnapshot(byte[] snapshot) throws IOException {
+        // A recording can't be replayed from a restored game.
+        inputRecorder = null;
+        FieldSnapshot.restore(this, snapshot);
+        wakeUp();
+    }
+
+    /**
+     * Recreates the field from its layout and restores `snapshot`, then sets the random seed.
+     * Unlike restoring a snapshot into an existing field, the result depends only on the snapshot
+     * and seed and not on the previous state of the Box2D worlds, so replay keyframes use this to
+     * reach exactly the same state whether a replay is played from the start or seeks to them.
+     */
+    void resetToSnapshot(byte[] snapshot, long seed) throws IOException {
+        resetForCurrentLayout();
+        FieldSnapshot.restore(this, snapshot);
+        setRandomSeed(seed);
+    }
+
+    /** Resets the field for the layout it was last reset with, and frees the previous worlds. */
+    void resetForCurrentLayout() {
+        WorldLayers previousWorlds = worlds;
+        resetForLayoutMap(layoutMap, delegateFn);
+        previousWorlds.dispose();
+    }
+
+    /**
+     * Sets the seed of the random number generators used by the field, its layout, and its
+     * delegate. Together with the input recorded by an InputRecorder, this determines the
+     * complete course of a game.
+     */
+    public void setRandomSeed(long seed) {
+        RAND.setSeed(seed);
+        layout.setRandomSeed(RAND.nextLong());
+    }
+
+    /** Returns the random number generator that field delegates should use. */
+    public Random getRandom() {
+        return RAND;
+    }
+
+    /**
+     * Starts recording input to `recorder`, which will record every tick and every call to start
+     * or end a game, launch a ball, or engage or release flippers, until the field is reset for
+     * a new layout or this is called with null. Must be called on a newly reset field, before the
+     * first tick. Sets the random seed to the recorder's seed.
+     */
+    public void setInputRecorder(InputRecorder recorder) {
+        if (recorder != null) recorder.begin(this);
+        inputRecorder = recorder;
+    }
+
+    public InputRecorder getInputRecorder() {
+        return inputRecorder;
+    }
+
+    /**
+     * Sets a function to call when something other than tick() happens that may need the field to
+     * be ticked and redrawn: starting or ending a game, launching a ball, engaging or releasing
+     * flippers, or resetting or restoring the field. FieldDriver uses this to wait for input
+     * instead of polling while the field is inactive. The listener is called with the field
+     * lock held, so it must not block.
+     */
+    public void setWakeListener(Runnable listener) {
+        wakeListener = listener;
+    }
+
+    private void wakeUp() {
+        if (wakeListener != null && !ticking) wakeListener.run();
+    }
+
+    /**
+     * Returns the profiler that times the phases of tick() and draw(). It's disabled by default;
+     * the game loop should call its frameFinished method after each frame.
+     */
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Removes dead balls and launches a new ball if none are in play, unless a ball was lost
+     * within LAUNCH_DELAY_AFTER_BALL_LOST_MILLIS.
+     */
+    public void launchBallIfNeeded() {
+        if (ballLostWithinMillis(LAUNCH_DELAY_AFTER_BALL_LOST_MILLIS)) {
+            return;
+        }
+        removeDeadBalls();
+        if (balls.size() == 0) launchBall();
+    }
+
+    /**
+     * Returns the real time in nanoseconds until the next scheduled action is due or the current
+     * game message expires, or Long.MAX_VALUE if neither is pending. When hasActiveElements is
+     * false nothing else changes without input, so FieldDriver can wait this long before the
+     * next tick.
+     */
+    public long nanosUntilNextEvent() {
+        long nanos = Long.MAX_VALUE;
+        long nextActionTime = scheduledActions.nextDueTime();
+        if (nextActionTime != Long.MAX_VALUE) {
+            nanos = (long) (Math.max(0, nextActionTime - gameTime) / getTargetTimeRatio());
+        }
+        if (gameMessage != null) {
+            // The message is removed once the time is past its end, so wait 1 ms longer.
+            long messageEndTime = gameMessage.creationTimeMillis + gameMessage.durationMillis;
+            long millis = Math.max(0, messageEndTime + 1 - milliTimeFn.getAsLong());
+            nanos = Math.min(nanos, millis * 1000000);
+        }
+        return nanos;
     }
 
     /**
@@ -284,10 +741,11 @@ public class Field implements ContactListener {
      * in the field layout JSON.
      */
     public Ball launchBall() {
+        if (inputRecorder != null && !ticking) inputRecorder.record(InputRecorder.LAUNCH_BALL);
+        wakeUp();
         List<Float> position = layout.getLaunchPosition();
-        List<Float> velocity = layout.getLaunchVelocity();
         Ball ball = createBall(position.get(0), position.get(1));
-        ball.getBody().setLinearVelocity(new Vector2(velocity.get(0), velocity.get(1)));
+        ball.getBody().setLinearVelocity(layout.getLaunchVelocity(launchVelocity));
         playBallLaunchSound();
         lostBallTimeMillis = null;
         return ball;
@@ -329,8 +787,8 @@ public class Field implements ContactListener {
         }
         if (msg != null) {
             // Game is still going, show message after delay.
-            final String msg2 = msg;
-            this.scheduleAction(1500, () -> showGameMessage(msg2, 1500, false));
+            nextBallMessage = msg;
+            nextBallMessageAction = this.scheduleAction(1500, showNextBallMessage);
         }
         else {
             endGame();
@@ -385,60 +843,22 @@ public class Field implements ContactListener {
         for (int i = 0; i < deadBalls.size(); i++) {
             this.balls.remove(deadBalls.get(i));
         }
+        if (inputRecorder != null && !ticking && !deadBalls.isEmpty()) {
+            inputRecorder.record(InputRecorder.REMOVE_DEAD_BALLS);
+        }
         deadBalls.clear();
     }
 
-    // Reusable array for sorting elements and balls into the order in which they should be draw.
-    // Earlier items are drawn first, so "upper" items should compare "greater" than lower.
-    private ArrayList<IDrawable> elementsInDrawOrder = new ArrayList<>();
-    private Comparator<IDrawable> drawOrdering = (e1, e2) -> {
-        int diff = e1.getLayer() - e2.getLayer();
-        if (diff != 0) {
-            return diff;
-        }
-        // At the same layer, balls are drawn after field elements, which are drawn after custom shapes.
-        boolean e1Element = e1 instanceof FieldElement;
-        boolean e2Element = e2 instanceof FieldElement;
-        if (e1Element && e2Element) {
-            return 0;
-        }
-        boolean e1Ball = e1 instanceof Ball;
-        boolean e2Ball = e2 instanceof Ball;
-        if (e1Ball && e2Ball) {
-            return 0;
-        }
-        boolean e1Shape = !e1Ball && !e1Element;
-        boolean e2Shape = !e2Ball && !e2Element;
-        if (e1Shape && e2Shape) {
-            return 0;
-        }
-        if (e1Ball) {
-            return 1;
-        }
-        else if (e1Element) {
-            return (e2Ball) ? -1 : 1;
-        }
-        else {
-            // e1 is Shape, e2 isn't.
-            return -1;
-        }
-    };
-
     /**
      * Draws all field elements and balls. Levels are drawn low to high, and each ball is drawn
      * after (i.e. on top of) all elements at its level.
      */
     public void draw(IFieldRenderer renderer) {
+        long startNanos = profiler.start();
         // Draw levels low to high, and draw each ball after everything else at its level.
-        elementsInDrawOrder.clear();
-        elementsInDrawOrder.addAll(Arrays.asList(this.getFieldElementsArray()));
-        elementsInDrawOrder.addAll(this.balls);
-        elementsInDrawOrder.addAll(this.shapes);
-        Collections.sort(elementsInDrawOrder, drawOrdering);
-
-        for (int i = 0; i < elementsInDrawOrder.size(); i++) {
-            this.elementsInDrawOrder.get(i).draw(this, renderer);
-        }
+        drawOrder.updateBalls(this.balls);
+        drawOrder.draw(this, renderer);
+        profiler.end(FrameProfiler.DRAW, startNanos);
     }
 
     ArrayList<FlipperElement> activatedFlippers = new ArrayList<>();
@@ -446,11 +866,12 @@ public class Field implements ContactListener {
     /**
      * Called to engage or disengage all flippers. If called with an argument of true, and all
      * flippers were not previously engaged, calls the flipperActivated methods of all field
-     * elements and the field's delegate.
+     * elements and the field's delegate. Returns true if any flipper changed state.
      */
-    private void setFlippersEngaged(List<FlipperElement> flippers, boolean engaged) {
+    private boolean setFlippersEngaged(List<FlipperElement> flippers, boolean engaged) {
         activatedFlippers.clear();
         boolean allFlippersPreviouslyActive = true;
+        boolean changed = false;
         int fsize = flippers.size();
         for (int i = 0; i < fsize; i++) {
             FlipperElement flipper = flippers.get(i);
@@ -460,6 +881,7 @@ public class Field implements ContactListener {
                     activatedFlippers.add(flipper);
                 }
             }
+            changed |= (flipper.isFlipperEngaged() != engaged);
             flipper.setFlipperEngaged(engaged);
         }
 
@@ -470,18 +892,34 @@ public class Field implements ContactListener {
             }
             getDelegate().flippersActivated(this, activatedFlippers);
         }
+        return changed;
     }
 
+    // Input is only recorded when it changes flippers, since that's all that replaying needs.
     public void setAllFlippersEngaged(boolean engaged) {
-        setFlippersEngaged(this.getFlipperElements(), engaged);
+        if (setFlippersEngaged(this.getFlipperElements(), engaged)) {
+            recordFlipperInput(engaged ?
+                    InputRecorder.ALL_FLIPPERS_ENGAGED : InputRecorder.ALL_FLIPPERS_RELEASED);
+        }
     }
 
     public void setLeftFlippersEngaged(boolean engaged) {
-        setFlippersEngaged(layout.getLeftFlipperElements(), engaged);
+        if (setFlippersEngaged(layout.getLeftFlipperElements(), engaged)) {
+            recordFlipperInput(engaged ?
+                    InputRecorder.LEFT_FLIPPERS_ENGAGED : InputRecorder.LEFT_FLIPPERS_RELEASED);
+        }
     }
 
     public void setRightFlippersEngaged(boolean engaged) {
-        setFlippersEngaged(layout.getRightFlipperElements(), engaged);
+        if (setFlippersEngaged(layout.getRightFlipperElements(), engaged)) {
+            recordFlipperInput(engaged ?
+                    InputRecorder.RIGHT_FLIPPERS_ENGAGED : InputRecorder.RIGHT_FLIPPERS_RELEASED);
+        }
+    }
+
+    private void recordFlipperInput(int type) {
+        if (inputRecorder != null && !ticking) inputRecorder.record(type);
+        wakeUp();
     }
 
     /**
@@ -489,6 +927,8 @@ public class Field implements ContactListener {
      * on the GameState, and setting a "Game Over" message for display by the score view.
      */
     public void endGame() {
+        if (inputRecorder != null && !ticking) inputRecorder.record(InputRecorder.END_GAME);
+        wakeUp();
         audioPlayer.playStart(); // play startup sound at end of game
         for (Ball ball : this.getBalls()) {
             ball.destroySelf();
@@ -510,79 +950,219 @@ public class Field implements ContactListener {
     }
     */
 
-    // Contact support. Keep parallel lists of balls and the fixtures they contact.
-    // A ball can have multiple contacts in the same tick, e.g. against two walls.
-    ArrayList<Ball> contactedBalls = new ArrayList<>();
-    ArrayList<Fixture> contactedFixtures = new ArrayList<>();
+    // Contact support. Each layer's world has its own LayerContacts listener, which records
+    // contacts between balls and other bodies in a ContactBuffer. Because the buffers aren't
+    // shared between layers, the worlds can be stepped concurrently. After stepping, the buffers
+    // are processed in layer order so that the order of collisions is the same whether or not
+    // that happens. A ball can have multiple contacts in the same tick, e.g. against two walls.
+    class LayerContacts implements ContactListener {
+        ContactBuffer contacts = new ContactBuffer();
+
+        // Contacts involving a ball that have begun but not ended, with the normal and approach
+        // speed computed when they began. By the time a contact ends the ball has bounced, so
+        // its velocity no longer shows how hard it hit. Parallel arrays to avoid allocation.
+        Fixture[] openBallFixtures = new Fixture[8];
+        Fixture[] openOtherFixtures = new Fixture[8];
+        float[] openContactValues = new float[8 * 3];
+        int numOpenContacts = 0;
+
+        void clear() {
+            contacts.clear();
+        }
+
+        // Box2D ContactListener methods.
+        @Override public void beginContact(Contact contact) {
+            Fixture fixtureA = contact.getFixtureA();
+            Fixture fixtureB = contact.getFixtureB();
+            Fixture ballFixture;
+            Fixture otherFixture;
+            // The manifold normal points from A to B, we want it to point toward the ball.
+            float sign;
+            if (ballWithBody(fixtureA.getBody()) != null) {
+                ballFixture = fixtureA;
+                otherFixture = fixtureB;
+                sign = -1;
+            }
+            else if (ballWithBody(fixtureB.getBody()) != null) {
+                ballFixture = fixtureB;
+                otherFixture = fixtureA;
+                sign = 1;
+            }
+            else {
+                return;
+            }
+
+            float nx = 0, ny = 0, approachSpeed = 0;
+            if (!fixtureA.isSensor() && !fixtureB.isSensor()) {
+                WorldManifold manifold = contact.getWorldManifold();
+                if (manifold.getNumberOfContactPoints() > 0) {
+                    nx = sign * manifold.getNormal().x;
+                    ny = sign * manifold.getNormal().y;
+                    Vector2 point = manifold.getPoints()[0];
+                    // Each body returns its own cached vector, so read the components before
+                    // calling the other body.
+                    Vector2 ballVelocity =
+                            ballFixture.getBody().getLinearVelocityFromWorldPoint(point);
+                    float vx = ballVelocity.x;
+                    float vy = ballVelocity.y;
+                    Vector2 otherVelocity =
+                            otherFixture.getBody().getLinearVelocityFromWorldPoint(point);
+                    vx -= otherVelocity.x;
+                    vy -= otherVelocity.y;
+                    approachSpeed = -(vx * nx + vy * ny);
+                }
+            }
+            addOpenContact(ballFixture, otherFixture, nx, ny, approachSpeed);
+        }
+
+        @Override public void endContact(Contact contact) {
+            Fixture fixtureA = contact.getFixtureA();
+            Fixture fixtureB = contact.getFixtureB();
+            // Always remove the open contact, even if the ball's body is being destroyed.
+            float nx = 0, ny = 0, approachSpeed = 0;
+            int openIndex = indexOfOpenContact(fixtureA, fixtureB);
+            if (openIndex >= 0) {
+                nx = openContactValues[3 * openIndex];
+                ny = openContactValues[3 * openIndex + 1];
+                approachSpeed = openContactValues[3 * openIndex + 2];
+                removeOpenContact(openIndex);
+            }
+
+            Fixture fixture = null;
+            Ball ball = ballWithBody(fixtureA.getBody());
+            if (ball != null) {
+                fixture = fixtureB;
+            }
+            else {
+                ball = ballWithBody(fixtureB.getBody());
+                if (ball != null) {
+                    fixture = fixtureA;
+                }
+            }
+
+            if (ball != null) {
+                Body body = fixture.getBody();
+                contacts.add(ball, fieldElementWithBody(body), body, nx, ny, approachSpeed);
+            }
+        }
+
+        @Override public void postSolve(Contact arg0, ContactImpulse arg1) {
+            // Not used.
+        }
+
+        @Override public void preSolve(Contact arg0, Manifold arg1) {
+            // Not used.
+        }
+        // End ContactListener methods.
+
+        private void addOpenContact(
+                Fixture ballFixture, Fixture otherFixture, float nx, float ny, float speed) {
+            if (numOpenContacts == openBallFixtures.length) {
+                int newSize = 2 * numOpenContacts;
+                openBallFixtures = Arrays.copyOf(openBallFixtures, newSize);
+                openOtherFixtures = Arrays.copyOf(openOtherFixtures, newSize);
+                openContactValues = Arrays.copyOf(openContactValues, 3 * newSize);
+            }
+            int i = numOpenContacts++;
+            openBallFixtures[i] = ballFixture;
+            openOtherFixtures[i] = otherFixture;
+            openContactValues[3 * i] = nx;
+            openContactValues[3 * i + 1] = ny;
+            openContactValues[3 * i + 2] = speed;
+        }
+
+        private int indexOfOpenContact(Fixture fixtureA, Fixture fixtureB) {
+            for (int i = 0; i < numOpenContacts; i++) {
+                Fixture f1 = openBallFixtures[i];
+                Fixture f2 = openOtherFixtures[i];
+                if ((f1 == fixtureA && f2 == fixtureB) || (f1 == fixtureB && f2 == fixtureA)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Replaces the removed contact with the last one; the order of open contacts is irrelevant.
+        private void removeOpenContact(int index) {
+            int last = --numOpenContacts;
+            openBallFixtures[index] = openBallFixtures[last];
+            openOtherFixtures[index] = openOtherFixtures[last];
+            System.arraycopy(openContactValues, 3 * last, openContactValues, 3 * index, 3);
+            openBallFixtures[last] = null;
+            openOtherFixtures[last] = null;
+        }
+    }
 
     private void clearBallContacts() {
-        contactedBalls.clear();
-        contactedFixtures.clear();
+        List<ContactListener> layerContacts = worlds.getContactListeners();
+        for (int i = 0; i < layerContacts.size(); i++) {
+            ((LayerContacts) layerContacts.get(i)).clear();
+        }
     }
 
     /**
      * Called after Box2D world step method, to notify FieldElements that the ball collided with.
      */
     private void processBallContacts() {
-        for (int i = 0; i < contactedBalls.size(); i++) {
-            Ball ball = contactedBalls.get(i);
-            Fixture f = contactedFixtures.get(i);
-            FieldElement element = bodyToFieldElement.get(f.getBody());
-            if (element != null) {
-                element.handleCollision(ball, f.getBody(), this);
-                if (delegate != null) {
-                    delegate.processCollision(this, element, f.getBody(), ball);
-                }
-                if (element.getScore() != 0) {
-                    this.gameState.addScore(element.getScore());
-                    audioPlayer.playScore();
+        // Layers added while processing (by a ball moving to a new layer) won't be in this list,
+        // but they can't have any contacts yet.
+        List<ContactListener> layerContacts = worlds.getContactListeners();
+        for (int layerIndex = 0; layerIndex < layerContacts.size(); layerIndex++) {
+            ContactBuffer contacts = ((LayerContacts) layerContacts.get(layerIndex)).contacts;
+            // Destroying a ball in a collision handler can add contacts while we're iterating.
+            for (int i = 0; i < contacts.size(); i++) {
+                FieldElement element = contacts.getFieldElement(i);
+                if (element != null) {
+                    Ball ball = contacts.getBall(i);
+                    Body body = contacts.getBody(i);
+                    collisionContacts = contacts;
+                    collisionIndex = i;
+                    element.handleCollision(ball, body, this);
+                    if (delegate != null) {
+                        delegate.processCollision(this, element, body, ball);
+                    }
+                    if (element.getScore() != 0) {
+                        this.gameState.addScore(element.getScore());
+                        audioPlayer.playScore();
+                    }
                 }
             }
         }
+        collisionContacts = null;
     }
 
-    private Ball ballWithBody(Body body) {
-        for (int i = 0; i < this.balls.size(); i++) {
-            Ball ball = this.balls.get(i);
-            if (ball.getBody() == body) {
-                return ball;
-            }
-        }
-        return null;
+    /**
+     * While a FieldElement's handleCollision method or a delegate's processCollision method is
+     * being called, returns the speed in world units per second at which the ball was moving
+     * toward the body it hit when the contact began. Returns 0 at other times, or if the body is
+     * a sensor.
+     */
+    public float getCollisionApproachSpeed() {
+        return (collisionContacts != null) ? collisionContacts.getApproachSpeed(collisionIndex) : 0;
     }
 
-    // Box2D ContactListener methods.
-    @Override public void beginContact(Contact contact) {
-        // Nothing here, contact is recorded in endContact().
+    /**
+     * While a collision is being handled, returns the x component of the unit normal pointing
+     * from the body that was hit toward the ball. Returns 0 at other times.
+     */
+    public float getCollisionNormalX() {
+        return (collisionContacts != null) ? collisionContacts.getNormalX(collisionIndex) : 0;
     }
 
-    @Override public void endContact(Contact contact) {
-        Fixture fixture = null;
-        Ball ball = ballWithBody(contact.getFixtureA().getBody());
-        if (ball != null) {
-            fixture = contact.getFixtureB();
-        }
-        else {
-            ball = ballWithBody(contact.getFixtureB().getBody());
-            if (ball != null) {
-                fixture = contact.getFixtureA();
-            }
-        }
-
-        if (ball != null) {
-            contactedBalls.add(ball);
-            contactedFixtures.add(fixture);
-        }
+    /** Returns the y component of the collision normal; see getCollisionNormalX. */
+    public float getCollisionNormalY() {
+        return (collisionContacts != null) ? collisionContacts.getNormalY(collisionIndex) : 0;
     }
 
-    @Override public void postSolve(Contact arg0, ContactImpulse arg1) {
-        // Not used.
+    private static Ball ballWithBody(Body body) {
+        Object data = body.getUserData();
+        return (data instanceof Ball) ? (Ball) data : null;
     }
 
-    @Override public void preSolve(Contact arg0, Manifold arg1) {
-        // Not used.
+    private static FieldElement fieldElementWithBody(Body body) {
+        Object data = body.getUserData();
+        return (data instanceof FieldElement) ? (FieldElement) data : null;
     }
-    // End ContactListener methods.
 
     /**
      * Displays a message in the score view for the specified duration in milliseconds.
@@ -618,9 +1198,16 @@ public class Field implements ContactListener {
         return (float) (1.0 * zoomNanos / ZOOM_DURATION_NANOS);
     }
 
+    /**
+     * Returns the point that the view should be centered on when zoomed in. The same Vector2
+     * object is returned on every call and updated by tick(), so callers shouldn't keep it.
+     */
     public Vector2 zoomCenterPoint() {
-        return (zoomCenter != null) ?
-                zoomCenter : new Vector2(getLaunchPosition().get(0), getLaunchPosition().get(1));
+        if (!hasZoomCenter) {
+            List<Float> launchPosition = getLaunchPosition();
+            zoomCenter.set(launchPosition.get(0), launchPosition.get(1));
+        }
+        return zoomCenter;
     }
 
     private void processZoom(long nanos) {
@@ -628,7 +1215,10 @@ public class Field implements ContactListener {
                 Math.min(ZOOM_DURATION_NANOS, zoomNanos + nanos) :
                 Math.max(0, zoomNanos - nanos);
         // When the last ball goes away, zoom out from its last position.
-        zoomCenter = (this.balls.size() >= 1) ? this.balls.get(0).getPosition() : zoomCenter;
+        if (this.balls.size() >= 1) {
+            zoomCenter.set(this.balls.get(0).getPosition());
+            hasZoomCenter = true;
+        }
     }
 
     /**
@@ -668,8 +1258,8 @@ public class Field implements ContactListener {
         if (nanosSinceBallMoved > STUCK_BALL_NANOS) {
             showGameMessage(this.stringResolver.resolveString("bump_message"), 1000);
             // Could make the bump impulse table-specific if needed.
-            Vector2 impulse = new Vector2(RAND.nextBoolean() ? 1f : -1f, 1.5f);
-            ball.applyLinearImpulse(impulse);
+            stuckBallImpulse.set(RAND.nextBoolean() ? 1f : -1f, 1.5f);
+            ball.applyLinearImpulse(stuckBallImpulse);
             nanosSinceBallMoved = 0;
         }
     }
@@ -768,4 +1358,53 @@ public class Field implements ContactListener {
     public AudioPlayer getAudioPlayer() {
         return audioPlayer;
     }
+
+    public WorldLayers getWorlds() {
+        return worlds;
+    }
+
+    public boolean isParallelLayerStepping() {
+        return parallelLayerStepping;
+    }
+
+    /**
+     * Sets whether the Box2D worlds for each layer should be stepped concurrently on a small pool
+     * of worker threads, which may be faster on multicore devices for tables with several layers.
+     * Collisions are processed in the same order either way. Applies to the current layout and to
+     * layouts loaded later. Defaults to false.
+     */
+    public void setParallelLayerStepping(boolean parallel) {
+        parallelLayerStepping = parallel;
+        if (worlds != null) {
+            worlds.setParallelStepping(parallel);
+        }
+    }
+
+    /** Returns the number of Box2D steps taken by the most recent call to tick(). */
+    public int getLastTickSubsteps() {
+        return lastTickSubsteps;
+    }
+
+    /** Returns the solver iterations used for each Box2D step in the most recent tick(). */
+    public int getLastTickSolverIterations() {
+        return lastTickSolverIterations;
+    }
+
+    /**
+     * Returns the fraction of the way from the previous tick's state to the current state at which
+     * balls and flippers should be drawn. See setRenderInterpolation.
+     */
+    public float getRenderInterpolation() {
+        return renderInterpolation;
+    }
+
+    /**
+     * Sets the point between the last two physics states at which balls and flippers are drawn,
+     * from 0 for the state before the most recent tick to 1 for the current state. FieldDriver
+     * advances the simulation in fixed steps and sets this to the fraction of a step that has
+     * elapsed since the last one, so that drawing is smooth at any frame rate. Defaults to 1.
+     */
+    public void setRenderInterpolation(float value) {
+        renderInterpolation = value;
+    }
 }
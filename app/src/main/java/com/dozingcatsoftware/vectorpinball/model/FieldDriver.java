@@ -1,12 +1,16 @@
 package com.dozingcatsoftware.vectorpinball.model;
 
+import com.dozingcatsoftware.vectorpinball.util.FramePipeline;
 import com.dozingcatsoftware.vectorpinball.util.FrameRateManager;
+import com.dozingcatsoftware.vectorpinball.util.FrameTimingStats;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
 
 /**
  * Class to manage the game thread which updates the game's internal state and draws to the
  * FieldView. Controls the frame rate and attempts to keep it as consistent as possible. Because
  * this class manipulates the Field object in a separate thread, all access to the Field from the
- * game thread and main thread must be synchronized.
+ * game thread and main thread must be synchronized, except for flipper and launch input which
+ * the main thread passes through Field.queueInput.
  */
 public class FieldDriver {
 
@@ -15,37 +19,83 @@ public class FieldDriver {
     boolean running;
     Thread gameThread;
     Runnable drawFn;
+    FramePipeline framePipeline;
 
-    FrameRateManager frameRateManager = new FrameRateManager(
-            System::nanoTime,
-            new double[] {60, 50, 45, 40, 30},
-            new double[] {57, 48, 43, 38});
+    FrameRateManager frameRateManager = createFrameRateManager();
     double averageFPS;
+    // Copy of the frame timing histograms for display, updated along with averageFPS.
+    final FrameTimingStats frameTimingStats = new FrameTimingStats();
 
-    // Sleep this long when field.hasActiveElements() is false.
-    static long INACTIVE_FRAME_MSECS = 250;
+    /** Number of frames between updates of the average FPS and frame timing stats. */
+    public static final int STATS_UPDATE_FRAMES = 100;
 
     private static long MILLION = 1000000;
     private static long BILLION = MILLION * 1000;
 
+    // When field.hasActiveElements() is false, the game thread waits until woken by input or
+    // until the field's next scheduled event, but no longer than this in case a delegate changes
+    // something over time without reporting the field as active.
+    static final long MAX_INACTIVE_WAIT_NANOS = BILLION;
+    // Longest single tick while inactive; longer waits are simulated in several ticks.
+    static final long MAX_INACTIVE_TICK_NANOS = BILLION / 4;
+
+    // The simulation advances in steps of this much real time regardless of the frame rate, so
+    // that a drop in frame rate doesn't change the physics.
+    static final long PHYSICS_STEP_NANOS = BILLION / 60;
+    // Limits how far the simulation tries to catch up after a stall, so that a long pause doesn't
+    // cause a burst of steps that makes the next frame late as well.
+    static final int MAX_PHYSICS_STEPS_PER_FRAME = 4;
+
+    // Real time that has elapsed but hasn't yet been simulated, always less than a physics step
+    // after a frame.
+    long accumulatedNanos = 0;
+    // Time of the previous active frame, or -1 if the previous frame was inactive.
+    long previousFrameNanos = -1;
+    // Time of the previous inactive frame, or -1 if the previous frame was active.
+    long previousInactiveFrameNanos = -1;
+
+    // Signalled by `wake` to end a wait while the field is inactive.
+    private final Object wakeLock = new Object();
+    private boolean wakeRequested = false;
+
+    /** Returns a FrameRateManager with the target frame rates used by the game thread. */
+    public static FrameRateManager createFrameRateManager() {
+        return new FrameRateManager(
+                System::nanoTime,
+                new double[] {60, 50, 45, 40, 30},
+                new double[] {57, 48, 43, 38});
+    }
+
     public void setDrawFunction(Runnable drawFn) {
         this.drawFn = drawFn;
     }
 
+    /**
+     * Sets the pipeline that the draw function waits on, so that time blocked waiting for the
+     * renderer is recorded as waiting rather than as work in the frame timing stats.
+     */
+    public void setFramePipeline(FramePipeline pipeline) {
+        this.framePipeline = pipeline;
+    }
+
     public void setField(Field value) {
         this.field = value;
+        if (value != null) value.setWakeListener(this::wake);
     }
 
     /** Starts the game thread running. Does not actually start a new game. */
     public void start() {
         running = true;
-        gameThread = new Thread(this::threadMain);
+        previousFrameNanos = -1;
+        previousInactiveFrameNanos = -1;
+        gameThread = new Thread(this::threadMain, "FieldDriver");
         gameThread.start();
     }
 
     /** Stops the game thread, which will pause updates to the game state and view redraws. */
     public void stop() {
         running = false;
+        wake();
         try {
             gameThread.join();
         }
@@ -53,30 +103,58 @@ public class FieldDriver {
         }
     }
 
+    /**
+     * Ends a wait while the field is inactive, so that the next frame starts immediately. Called
+     * by the field when it receives input; see Field.setWakeListener. Can be called from any
+     * thread.
+     */
+    public void wake() {
+        synchronized (wakeLock) {
+            wakeRequested = true;
+            wakeLock.notify();
+        }
+    }
+
     /**
      * Main loop for the game thread. Repeatedly calls field.tick to advance the game simulation,
      * redraws the field, and sleeps until it's time for the next frame. Dynamically adjusts sleep
-     * times in an attempt to maintain a consistent frame rate.
+     * times in an attempt to maintain a consistent frame rate. The field is advanced in fixed
+     * steps of PHYSICS_STEP_NANOS for the real time that has elapsed since the previous frame,
+     * and the remaining fraction of a step is used to interpolate drawing. While the field is
+     * inactive, the thread waits until it's woken by input or the field's next scheduled event,
+     * so that it uses almost no CPU but responds immediately.
      */
     void threadMain() {
         while (running) {
             frameRateManager.frameStarted();
+            long frameTraceNanos = TraceRecorder.begin();
             boolean fieldActive = true;
+            long inactiveWaitNanos = MAX_INACTIVE_WAIT_NANOS;
             if (field != null) {
                 try {
+                    long lockTraceNanos = TraceRecorder.begin();
                     synchronized (field) {
-                        long nanosPerFrame =
-                                (long) (BILLION / frameRateManager.targetFramesPerSecond());
-                        long fieldTickNanos = (long) (nanosPerFrame * field.getTargetTimeRatio());
+                        TraceRecorder.end(TraceRecorder.FIELD_LOCK_WAIT, lockTraceNanos);
                         // If field isn't doing anything, sleep for a long time.
                         fieldActive = field.hasActiveElements();
-                        if (!fieldActive) {
-                            fieldTickNanos = (long)
-                                    (INACTIVE_FRAME_MSECS * MILLION * field.getTargetTimeRatio());
+                        if (fieldActive) {
+                            advanceFieldForElapsedTime();
+                            previousInactiveFrameNanos = -1;
+                        }
+                        else {
+                            advanceInactiveField();
+                            field.setRenderInterpolation(1f);
+                            previousFrameNanos = -1;
+                            inactiveWaitNanos =
+                                    Math.min(field.nanosUntilNextEvent(), MAX_INACTIVE_WAIT_NANOS);
                         }
-                        field.tick(fieldTickNanos, 4);
                     }
+                    // Waiting for the renderer isn't work done by this thread.
+                    long rendererWaitStart = totalRendererWaitNanos();
                     drawFn.run();
+                    frameRateManager.frameEnded(totalRendererWaitNanos() - rendererWaitStart);
+                    field.getProfiler().frameFinished();
+                    TraceRecorder.end(TraceRecorder.GAME_FRAME, frameTraceNanos);
                 }
                 catch (Exception ex) {
                     ex.printStackTrace();
@@ -87,23 +165,111 @@ public class FieldDriver {
             if (!fieldActive) {
                 frameRateManager.clearTimestamps();
                 setAverageFPS(0);
-                try {
-                    Thread.sleep(INACTIVE_FRAME_MSECS);
-                }
-                catch (InterruptedException ignored) {
-                }
+                long sleepTraceNanos = TraceRecorder.begin();
+                waitForWake(inactiveWaitNanos);
+                TraceRecorder.end(TraceRecorder.FRAME_SLEEP, sleepTraceNanos);
                 continue;
             }
 
+            long sleepTraceNanos = TraceRecorder.begin();
             frameRateManager.sleepUntilNextFrame();
+            TraceRecorder.end(TraceRecorder.FRAME_SLEEP, sleepTraceNanos);
 
             // For debugging, show frames per second and other info.
-            if (frameRateManager.getTotalFrames() % 100 == 0) {
+            if (frameRateManager.getTotalFrames() % STATS_UPDATE_FRAMES == 0) {
                 setAverageFPS(frameRateManager.currentFramesPerSecond());
+                frameRateManager.copyTimingStats(frameTimingStats);
             }
         }
     }
 
+    private long totalRendererWaitNanos() {
+        return (framePipeline != null) ? framePipeline.getTotalWaitNanos() : 0;
+    }
+
+    /**
+     * Calls field.tick once for every PHYSICS_STEP_NANOS of real time since the previous frame,
+     * carrying over the remainder to the next frame. The first active frame after being inactive
+     * runs a single step.
+     */
+    void advanceFieldForElapsedTime() {
+        long now = System.nanoTime();
+        if (previousFrameNanos < 0) {
+            accumulatedNanos = PHYSICS_STEP_NANOS;
+        }
+        else {
+            accumulatedNanos += now - previousFrameNanos;
+        }
+        previousFrameNanos = now;
+
+        long fieldTickNanos = (long) (PHYSICS_STEP_NANOS * field.getTargetTimeRatio());
+        int steps = 0;
+        while (accumulatedNanos >= PHYSICS_STEP_NANOS) {
+            if (steps == MAX_PHYSICS_STEPS_PER_FRAME) {
+                // Too far behind; drop the excess time rather than falling further behind.
+                accumulatedNanos %= PHYSICS_STEP_NANOS;
+                break;
+            }
+            // The step simulates the real time starting where the previous step ended, so that
+            // queued input can be applied at the matching substep.
+            field.setNextTickRealTime(now - accumulatedNanos, PHYSICS_STEP_NANOS);
+            field.tick(fieldTickNanos);
+            accumulatedNanos -= PHYSICS_STEP_NANOS;
+            steps++;
+        }
+        field.setRenderInterpolation(accumulatedNanos / (float) PHYSICS_STEP_NANOS);
+    }
+
+    /**
+     * Advances an inactive field by the real time since the previous inactive frame, in ticks of
+     * at most MAX_INACTIVE_TICK_NANOS. The first inactive frame after active frames runs a single
+     * physics step.
+     */
+    void advanceInactiveField() {
+        long now = System.nanoTime();
+        long elapsed = (previousInactiveFrameNanos < 0) ?
+                PHYSICS_STEP_NANOS : Math.min(now - previousInactiveFrameNanos,
+                        MAX_INACTIVE_WAIT_NANOS);
+        previousInactiveFrameNanos = now;
+        float timeRatio = field.getTargetTimeRatio();
+        while (elapsed > 0) {
+            long tickNanos = Math.min(elapsed, MAX_INACTIVE_TICK_NANOS);
+            field.tick((long) (tickNanos * timeRatio));
+            elapsed -= tickNanos;
+        }
+    }
+
+    /**
+     * Waits until `wake` is called or `maxNanos` have passed. Returns immediately if `wake` was
+     * called since the previous wait.
+     */
+    void waitForWake(long maxNanos) {
+        synchronized (wakeLock) {
+            long deadline = System.nanoTime() + maxNanos;
+            while (!wakeRequested && running) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                try {
+                    wakeLock.wait(remaining / MILLION, (int) (remaining % MILLION));
+                }
+                catch (InterruptedException ex) {
+                    break;
+                }
+            }
+            wakeRequested = false;
+        }
+    }
+
+    /**
+     * Sets the refresh rate of the display that frames are shown on, used to count missed vsyncs.
+     * Ignored if `framesPerSecond` isn't positive, as some devices report.
+     */
+    public void setDisplayRefreshRate(float framesPerSecond) {
+        if (framesPerSecond > 0) {
+            frameRateManager.setVsyncIntervalNanos((long) (BILLION / framesPerSecond));
+        }
+    }
+
     /**
      * Resets the frame rate and forgets any locked rate, called when rendering quality is changed.
      */
@@ -118,4 +284,12 @@ public class FieldDriver {
     public void setAverageFPS(double value) {
         averageFPS = value;
     }
+
+    /**
+     * Returns frame time histograms and totals, updated every STATS_UPDATE_FRAMES frames.
+     * Synchronize on the returned object while reading it.
+     */
+    public FrameTimingStats getFrameTimingStats() {
+        return frameTimingStats;
+    }
 }
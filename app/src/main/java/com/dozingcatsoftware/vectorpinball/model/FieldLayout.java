@@ -4,12 +4,12 @@ import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asFloat;
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asFloatList;
 import static com.dozingcatsoftware.vectorpinball.util.MathUtils.asInt;
 
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import com.badlogic.gdx.math.Vector2;
 import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
 import com.dozingcatsoftware.vectorpinball.elements.FieldElementCollection;
 import com.dozingcatsoftware.vectorpinball.elements.FlipperElement;
@@ -30,6 +30,13 @@ public class FieldLayout {
     static final String LAUNCH_RANDOM_VELOCITY_PROPERTY = "launchVelocityRandomDelta";
     static final String LAUNCH_DEAD_ZONE_PROPERTY = "launchDeadZone";
     static final String SCRIPT_PROPERTY = "script";
+    // Limits for SubstepPolicy.
+    static final String MIN_SUBSTEPS_PROPERTY = "minSubsteps";
+    static final String MAX_SUBSTEPS_PROPERTY = "maxSubsteps";
+    static final String MIN_MULTIBALL_SUBSTEPS_PROPERTY = "minMultiballSubsteps";
+    static final String MIN_SOLVER_ITERATIONS_PROPERTY = "minSolverIterations";
+    static final String MAX_SOLVER_ITERATIONS_PROPERTY = "maxSolverIterations";
+    static final String MAX_SUBSTEP_DISTANCE_PROPERTY = "maxSubstepDistance";
 
     static final String VARIABLES_PROPERTY = "variables";
     static final String ELEMENTS_PROPERTY = "elements";
@@ -50,6 +57,12 @@ public class FieldLayout {
     List<Float> launchVelocity;
     List<Float> launchVelocityRandomDelta;
     List<Float> launchDeadZoneRect;
+    int minSubsteps;
+    int maxSubsteps;
+    int minMultiballSubsteps;
+    int minSolverIterations;
+    int maxSolverIterations;
+    float maxSubstepDistance;
 
     static final int DEFAULT_BALL_COLOR = Color.fromRGB(255, 0, 0);
     static final int DEFAULT_SECONDARY_BALL_COLOR = Color.fromRGB(176, 176, 176);
@@ -68,6 +81,14 @@ public class FieldLayout {
         this.launchVelocity = asFloatList(listForKey(layoutMap, LAUNCH_VELOCITY_PROPERTY));
         this.launchVelocityRandomDelta = asFloatList(listForKey(layoutMap, LAUNCH_RANDOM_VELOCITY_PROPERTY));
         this.launchDeadZoneRect = asFloatList(listForKey(layoutMap, LAUNCH_DEAD_ZONE_PROPERTY));
+        this.minSubsteps = asInt(layoutMap.get(MIN_SUBSTEPS_PROPERTY), 2);
+        this.maxSubsteps = asInt(layoutMap.get(MAX_SUBSTEPS_PROPERTY), 8);
+        this.minMultiballSubsteps = asInt(layoutMap.get(MIN_MULTIBALL_SUBSTEPS_PROPERTY), 4);
+        this.minSolverIterations = asInt(layoutMap.get(MIN_SOLVER_ITERATIONS_PROPERTY), 6);
+        this.maxSolverIterations = asInt(layoutMap.get(MAX_SOLVER_ITERATIONS_PROPERTY), 10);
+        // By default a ball can move at most half its radius in a single Box2D step.
+        this.maxSubstepDistance =
+                asFloat(layoutMap.get(MAX_SUBSTEP_DISTANCE_PROPERTY), this.ballRadius / 2);
 
         this.allParameters = layoutMap;
         this.fieldElements = createFieldElements(layoutMap, worlds);
@@ -146,8 +167,14 @@ public class FieldLayout {
         return launchDeadZoneRect;
     }
 
+    /** Sets the seed for random launch velocities; see Field.setRandomSeed. */
+    public void setRandomSeed(long seed) {
+        RAND.setSeed(seed);
+    }
+
     // Can apply random velocity increment if specified by "launchVelocityRandomDelta" key.
-    public List<Float> getLaunchVelocity() {
+    // Sets and returns `velocity` rather than allocating a new object.
+    public Vector2 getLaunchVelocity(Vector2 velocity) {
         float vx = launchVelocity.get(0);
         float vy = launchVelocity.get(1);
 
@@ -159,7 +186,17 @@ public class FieldLayout {
                 vy += launchVelocityRandomDelta.get(1) * RAND.nextFloat();
             }
         }
-        return Arrays.asList(vx, vy);
+        return velocity.set(vx, vy);
+    }
+
+    /**
+     * Returns a SubstepPolicy using the limits from the "minSubsteps", "maxSubsteps",
+     * "minMultiballSubsteps", "minSolverIterations", "maxSolverIterations", and
+     * "maxSubstepDistance" properties.
+     */
+    public SubstepPolicy createSubstepPolicy() {
+        return new SubstepPolicy(minSubsteps, maxSubsteps, minMultiballSubsteps,
+                minSolverIterations, maxSolverIterations, maxSubstepDistance);
     }
 
     public float getWidth() {
@@ -0,0 +1,160 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
+import com.dozingcatsoftware.vectorpinball.elements.FlipperElement;
+
+/**
+ * Saves and restores the state of a game in progress as a compact binary snapshot, so that a game
+ * can be resumed after the app is stopped. The snapshot contains the game time and GameState, the
+ * position and velocity of each ball, the state of each field element and the field delegate, and
+ * the times of pending scheduled actions. Static data from the layout isn't included, so restoring
+ * requires a field that has been reset for the same layout; a fingerprint of the layout's elements
+ * is stored to detect a mismatch.
+ *
+ * Scheduled actions are arbitrary Runnables and can't be saved directly. Instead the element or
+ * delegate that scheduled an action saves its time and schedules it again when restoring, usually
+ * with PendingActions. Actions not owned by any saved state are dropped.
+ */
+class FieldSnapshot {
+
+    static final int MAGIC = 0x56505346; // "VPSF"
+    static final int VERSION = 4;
+
+    static byte[] save(Field field) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(field.fieldElementsArray.length);
+            out.writeInt(layoutFingerprint(field));
+            out.writeLong(field.gameTime);
+            field.gameState.writeState(out);
+
+            // Message and ball loss times are in real time rather than game time, so save how
+            // long ago they happened.
+            long nowMillis = field.milliTimeFn.getAsLong();
+            GameMessage message = field.gameMessage;
+            out.writeBoolean(message != null);
+            if (message != null) {
+                out.writeUTF(message.text);
+                out.writeLong(message.durationMillis);
+                out.writeLong(nowMillis - message.creationTimeMillis);
+            }
+            out.writeBoolean(field.lostBallTimeMillis != null);
+            if (field.lostBallTimeMillis != null) {
+                out.writeLong(nowMillis - field.lostBallTimeMillis);
+            }
+            long nextBallMessageTime = field.getScheduledActionTime(field.nextBallMessageAction);
+            out.writeLong(nextBallMessageTime);
+            if (nextBallMessageTime >= 0) {
+                out.writeUTF(field.nextBallMessage);
+            }
+
+            out.writeLong(field.zoomNanos);
+            out.writeBoolean(field.hasZoomCenter);
+            out.writeFloat(field.zoomCenter.x);
+            out.writeFloat(field.zoomCenter.y);
+            out.writeLong(field.nanosSinceBallMoved);
+            out.writeFloat(field.lastBallPositionX);
+            out.writeFloat(field.lastBallPositionY);
+
+            out.writeInt(field.balls.size());
+            for (int i = 0; i < field.balls.size(); i++) {
+                field.balls.get(i).writeState(out);
+            }
+            for (FieldElement element : field.fieldElementsArray) {
+                element.writeState(field, out);
+            }
+            field.delegate.writeState(field, out);
+        }
+        catch (IOException ex) {
+            // Writing to a byte array doesn't fail.
+            throw new RuntimeException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void restore(Field field, byte[] snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a field snapshot or unsupported version");
+            }
+            if (in.readInt() != field.fieldElementsArray.length ||
+                    in.readInt() != layoutFingerprint(field)) {
+                throw new IOException("Snapshot was saved from a different layout");
+            }
+            for (int i = 0; i < field.balls.size(); i++) {
+                field.balls.get(i).destroySelf();
+            }
+            field.balls.clear();
+            field.gameTime = in.readLong();
+            field.scheduledActions.reset(field.gameTime);
+            field.gameState.readState(in);
+
+            long nowMillis = field.milliTimeFn.getAsLong();
+            field.gameMessage = null;
+            if (in.readBoolean()) {
+                GameMessage message = new GameMessage();
+                message.text = in.readUTF();
+                message.durationMillis = in.readLong();
+                message.creationTimeMillis = nowMillis - in.readLong();
+                field.gameMessage = message;
+            }
+            field.lostBallTimeMillis = in.readBoolean() ? nowMillis - in.readLong() : null;
+            long nextBallMessageTime = in.readLong();
+            field.nextBallMessageAction = ActionScheduler.NO_ACTION;
+            if (nextBallMessageTime >= 0) {
+                field.nextBallMessage = in.readUTF();
+                field.nextBallMessageAction =
+                        field.scheduleActionAtTime(nextBallMessageTime, field.showNextBallMessage);
+            }
+
+            field.zoomNanos = in.readLong();
+            field.hasZoomCenter = in.readBoolean();
+            field.zoomCenter.set(in.readFloat(), in.readFloat());
+            field.nanosSinceBallMoved = in.readLong();
+            field.lastBallPositionX = in.readFloat();
+            field.lastBallPositionY = in.readFloat();
+
+            int numBalls = in.readInt();
+            for (int i = 0; i < numBalls; i++) {
+                field.balls.add(Ball.readState(in, field.worlds));
+            }
+            for (FieldElement element : field.fieldElementsArray) {
+                element.readState(field, in);
+            }
+            field.delegate.readState(field, in);
+        }
+        catch (RuntimeException ex) {
+            // Invalid data can cause exceptions like IndexOutOfBoundsException in readState
+            // methods, report them the same way as truncated data.
+            throw new IOException(ex);
+        }
+        // Don't interpolate from positions before the restore.
+        for (int i = 0; i < field.balls.size(); i++) {
+            field.balls.get(i).savePreviousState();
+        }
+        List<FlipperElement> flippers = field.layout.getFlipperElements();
+        for (int i = 0; i < flippers.size(); i++) {
+            flippers.get(i).savePreviousState();
+        }
+    }
+
+    /** Hash of the class and ID of every element, to check that a snapshot matches the layout. */
+    static int layoutFingerprint(Field field) {
+        int hash = 17;
+        for (FieldElement element : field.fieldElementsArray) {
+            hash = 31 * hash + element.getClass().getName().hashCode();
+            String id = element.getElementId();
+            hash = 31 * hash + ((id != null) ? id.hashCode() : 0);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,223 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures how long each phase of a frame takes, to find out whether a slow frame is spent in
+ * physics, game rules, generating drawing commands, or uploading them to the GPU. Code around a
+ * phase calls `start` and then `end` with the phase ID; times are accumulated with
+ * System.nanoTime into preallocated counters, so profiling doesn't allocate. The time for each
+ * Box2D world step is also recorded by layer index.
+ *
+ * The game loop calls `frameFinished` once per frame. Every WINDOW_FRAMES frames, the average and
+ * maximum time per frame of each phase over that window are published and can be read with
+ * getAverageMillis and getMaxMillis. A phase can run several times in a frame (e.g. one world step
+ * per substep), and its times are summed. The renderer upload phase runs on the GL thread, so its
+ * per-frame counter is atomic; published values may be read from any thread for display.
+ *
+ * Profiling is disabled by default, in which case `start` returns 0 and `end` does nothing.
+ * setEnabled and clear may be called from any thread; they only make a request, which the game
+ * thread applies at the start of the next call to `frameFinished`, since only the game thread
+ * may write the window and layer arrays.
+ */
+public class FrameProfiler {
+
+    public static final int WORLD_STEP = 0;
+    public static final int BALL_CONTACTS = 1;
+    public static final int ELEMENT_TICKS = 2;
+    public static final int SCHEDULED_ACTIONS = 3;
+    public static final int DELEGATE_TICK = 4;
+    public static final int DRAW = 5;
+    public static final int RENDER_UPLOAD = 6;
+    public static final int NUM_PHASES = 7;
+
+    static final String[] PHASE_NAMES = {
+            "step", "contacts", "elements", "actions", "delegate", "draw", "upload"};
+
+    /** Number of frames over which averages and maximums are computed. */
+    public static final int WINDOW_FRAMES = 60;
+
+    // Whether profiling is currently on. Only changed by the game thread, in frameFinished.
+    volatile boolean enabled = false;
+    // Set by setEnabled and clear, and applied by frameFinished.
+    volatile boolean requestedEnabled = false;
+    volatile boolean clearRequested = false;
+
+    // Time spent in each phase in the current frame.
+    final AtomicLongArray frameNanos = new AtomicLongArray(NUM_PHASES);
+    // Totals and per-frame maximums for the current window.
+    final long[] windowNanos = new long[NUM_PHASES];
+    final long[] windowMaxNanos = new long[NUM_PHASES];
+    int windowFrames = 0;
+    // Results from the last complete window.
+    final double[] averageMillis = new double[NUM_PHASES];
+    final double[] maxMillis = new double[NUM_PHASES];
+
+    // The same for world steps by layer index, which are only recorded on the game thread. The
+    // arrays grow if a layout has more layers than any previous one.
+    long[] layerFrameNanos = new long[0];
+    long[] layerWindowNanos = new long[0];
+    double[] layerAverageMillis = new double[0];
+    int numLayers = 0;
+
+    long totalFrames = 0;
+
+    /** Returns whether profiling is enabled, as last set by setEnabled. */
+    public boolean isEnabled() {
+        return requestedEnabled;
+    }
+
+    /**
+     * Enables or disables profiling and clears all results, starting with the next frame. Can be
+     * called from any thread.
+     */
+    public void setEnabled(boolean value) {
+        requestedEnabled = value;
+        clearRequested = true;
+    }
+
+    /** Returns the current System.nanoTime if profiling is enabled, or 0 if not. */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Adds the time since `startNanos`, returned by `start`, to the given phase. */
+    public void end(int phase, long startNanos) {
+        if (startNanos != 0) {
+            frameNanos.addAndGet(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Adds the time since `startNanos` to the world step time of the layer at `layerIndex`. This
+     * is in addition to WORLD_STEP, which is measured around all layers.
+     */
+    public void endLayerStep(int layerIndex, long startNanos) {
+        if (startNanos == 0) return;
+        if (layerIndex >= layerFrameNanos.length) {
+            int size = layerIndex + 1;
+            layerFrameNanos = Arrays.copyOf(layerFrameNanos, size);
+            layerWindowNanos = Arrays.copyOf(layerWindowNanos, size);
+            layerAverageMillis = Arrays.copyOf(layerAverageMillis, size);
+        }
+        numLayers = Math.max(numLayers, layerIndex + 1);
+        layerFrameNanos[layerIndex] += System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Called by the game loop at the end of each frame. Applies any request from setEnabled or
+     * clear first, so the frame in which profiling is enabled isn't recorded.
+     */
+    public void frameFinished() {
+        if (clearRequested) {
+            clearRequested = false;
+            enabled = requestedEnabled;
+            clearResults();
+            return;
+        }
+        if (!enabled) return;
+        totalFrames++;
+        for (int i = 0; i < NUM_PHASES; i++) {
+            long nanos = frameNanos.getAndSet(i, 0);
+            windowNanos[i] += nanos;
+            if (nanos > windowMaxNanos[i]) windowMaxNanos[i] = nanos;
+        }
+        for (int i = 0; i < numLayers; i++) {
+            layerWindowNanos[i] += layerFrameNanos[i];
+            layerFrameNanos[i] = 0;
+        }
+        if (++windowFrames == WINDOW_FRAMES) {
+            for (int i = 0; i < NUM_PHASES; i++) {
+                averageMillis[i] = windowNanos[i] / 1e6 / windowFrames;
+                maxMillis[i] = windowMaxNanos[i] / 1e6;
+                windowNanos[i] = 0;
+                windowMaxNanos[i] = 0;
+            }
+            for (int i = 0; i < numLayers; i++) {
+                layerAverageMillis[i] = layerWindowNanos[i] / 1e6 / windowFrames;
+                layerWindowNanos[i] = 0;
+            }
+            windowFrames = 0;
+        }
+    }
+
+    /**
+     * Clears all accumulated and published results, at the end of the current frame. Can be
+     * called from any thread.
+     */
+    public void clear() {
+        clearRequested = true;
+    }
+
+    private void clearResults() {
+        for (int i = 0; i < NUM_PHASES; i++) {
+            frameNanos.set(i, 0);
+        }
+        Arrays.fill(windowNanos, 0);
+        Arrays.fill(windowMaxNanos, 0);
+        Arrays.fill(averageMillis, 0);
+        Arrays.fill(maxMillis, 0);
+        Arrays.fill(layerFrameNanos, 0);
+        Arrays.fill(layerWindowNanos, 0);
+        Arrays.fill(layerAverageMillis, 0);
+        windowFrames = 0;
+        totalFrames = 0;
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /** Returns the average time per frame spent in `phase` over the last complete window. */
+    public double getAverageMillis(int phase) {
+        return averageMillis[phase];
+    }
+
+    /** Returns the longest time in a single frame spent in `phase` in the last complete window. */
+    public double getMaxMillis(int phase) {
+        return maxMillis[phase];
+    }
+
+    /** Returns the number of layers whose world step times have been recorded. */
+    public int getLayerCount() {
+        return numLayers;
+    }
+
+    /** Returns the average time per frame spent stepping the world of the given layer index. */
+    public double getLayerAverageMillis(int layerIndex) {
+        return layerAverageMillis[layerIndex];
+    }
+
+    /** Returns the number of frames recorded since profiling was enabled. */
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+
+    /** Returns the average time of each phase, for an on-screen overlay. */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_PHASES; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(PHASE_NAMES[i]).append(' ')
+                    .append(String.format(Locale.US, "%.2f", averageMillis[i]));
+        }
+        sb.append(" ms");
+        return sb.toString();
+    }
+
+    /** Returns average and maximum times of each phase and each layer's step, one per line. */
+    public String detailedSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_PHASES; i++) {
+            sb.append(String.format(Locale.US, "%-10s avg %7.3f ms  max %7.3f ms%n",
+                    PHASE_NAMES[i], averageMillis[i], maxMillis[i]));
+        }
+        for (int i = 0; i < numLayers; i++) {
+            sb.append(String.format(Locale.US, "  layer %d avg %7.3f ms%n",
+                    i, layerAverageMillis[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -1,5 +1,9 @@
 package com.dozingcatsoftware.vectorpinball.model;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class GameState {
 
     // Defines how score multiplier is affected when ball is lost.
@@ -137,4 +141,31 @@ public class GameState {
     public void setMultiplierBehavior(MultiplierBehavior behavior) {
         multiplierBehavior = behavior;
     }
+
+    /** Writes all fields to `out`, for saving a field snapshot. */
+    void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(gameInProgress);
+        out.writeBoolean(paused);
+        out.writeInt(ballNumber);
+        out.writeInt(extraBalls);
+        out.writeInt(totalBalls);
+        out.writeBoolean(unlimitedBalls);
+        out.writeLong(score);
+        out.writeDouble(scoreMultiplier);
+        out.writeByte((multiplierBehavior != null) ? multiplierBehavior.ordinal() : -1);
+    }
+
+    /** Restores fields written by writeState. */
+    void readState(DataInput in) throws IOException {
+        gameInProgress = in.readBoolean();
+        paused = in.readBoolean();
+        ballNumber = in.readInt();
+        extraBalls = in.readInt();
+        totalBalls = in.readInt();
+        unlimitedBalls = in.readBoolean();
+        score = in.readLong();
+        scoreMultiplier = in.readDouble();
+        int behavior = in.readByte();
+        multiplierBehavior = (behavior >= 0) ? MultiplierBehavior.values()[behavior] : null;
+    }
 }
@@ -0,0 +1,81 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size queue of timestamped input events, passed from the UI thread to the game thread
+ * without locking. There must be only one producer thread calling `offer` and one consumer
+ * calling the other methods; Field is the consumer, and only drains the queue while its lock is
+ * held. Events are stored in primitive arrays, so queueing doesn't allocate.
+ *
+ * Event types with the same values as InputRecorder record types have the same meaning, so they
+ * can be recorded directly when they're applied.
+ */
+public class InputQueue {
+
+    public static final int LEFT_FLIPPERS_ENGAGED = InputRecorder.LEFT_FLIPPERS_ENGAGED;
+    public static final int LEFT_FLIPPERS_RELEASED = InputRecorder.LEFT_FLIPPERS_RELEASED;
+    public static final int RIGHT_FLIPPERS_ENGAGED = InputRecorder.RIGHT_FLIPPERS_ENGAGED;
+    public static final int RIGHT_FLIPPERS_RELEASED = InputRecorder.RIGHT_FLIPPERS_RELEASED;
+    public static final int ALL_FLIPPERS_ENGAGED = InputRecorder.ALL_FLIPPERS_ENGAGED;
+    public static final int ALL_FLIPPERS_RELEASED = InputRecorder.ALL_FLIPPERS_RELEASED;
+    /** Calls Field.launchBallIfNeeded; not an InputRecorder type since it may do nothing. */
+    public static final int LAUNCH_BALL_IF_NEEDED = 16;
+
+    final int[] types;
+    final long[] timesNanos;
+    final int mask;
+    // Number of events removed, written only by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    // Number of events added, written only by the producer.
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Creates a queue that holds up to `capacity` events, which must be a power of 2. */
+    public InputQueue(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        types = new int[capacity];
+        timesNanos = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds an event that happened at `timeNanos`, on the System.nanoTime clock. Returns false
+     * without adding it if the queue is full. Called only by the producer thread.
+     */
+    public boolean offer(int type, long timeNanos) {
+        long t = tail.get();
+        if (t - head.get() > mask) return false;
+        int slot = (int) (t & mask);
+        types[slot] = type;
+        timesNanos[slot] = timeNanos;
+        // Publishes the slot's contents along with the new tail.
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /** Returns the type of the oldest event. The queue must not be empty. */
+    public int peekType() {
+        return types[(int) (head.get() & mask)];
+    }
+
+    /** Returns the time of the oldest event. The queue must not be empty. */
+    public long peekTimeNanos() {
+        return timesNanos[(int) (head.get() & mask)];
+    }
+
+    /** Removes the oldest event. The queue must not be empty. */
+    public void remove() {
+        head.lazySet(head.get() + 1);
+    }
+
+    /** Removes all events. Called only by the consumer thread. */
+    public void clear() {
+        head.lazySet(tail.get());
+    }
+}
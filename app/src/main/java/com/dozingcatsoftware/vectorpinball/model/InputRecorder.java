@@ -0,0 +1,242 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Records the input to a field as a compact stream, so that a game can be reproduced exactly by
+ * InputReplayer; for example to debug a physics problem or stutter reported by a player, or to
+ * run a real game in a performance test. Given the same random seed, starting state, and calls
+ * to tick(), the simulation is deterministic, so only those need to be recorded: the duration and
+ * number of substeps of ticks, and the calls that start or end a game, launch or remove balls,
+ * and engage or release flippers, along with the tick after which each happened.
+ *
+ * The stream starts with a header containing the layout fingerprint, the random seed, whether
+ * keyframes are exact (see below), and the GameState. Each record after that starts with a
+ * varint containing the number of ticks since the previous record, shifted left by 4 bits, and
+ * the record type in the low 4 bits. TICK_PARAMS records are followed by varints with the tick
+ * duration and substeps, and are only written when those change, so a typical frame adds nothing
+ * to the stream. An INPUT_OFFSET record is followed by a varint number of nanoseconds, and means
+ * that the flipper record after it is applied that far into the next tick, at the matching
+ * substep, rather than before the tick; see Field.queueInput. The records end with an END
+ * record, followed by a varint count of keyframes and the keyframes themselves.
+ *
+ * If a keyframe interval is given, keyframes are field snapshots taken every interval of game
+ * time, which allow InputReplayer to seek without simulating from the start. Taking a keyframe
+ * doesn't change the recorded game, but restoring a snapshot doesn't reproduce internal Box2D
+ * state like contact caches or the state of the random number generator, so a seek only
+ * approximates the recorded game after the keyframe. For exact keyframes, the recorder can be
+ * created with `resetAtKeyframes`: then the recorded field is itself reset to each keyframe as
+ * it's taken (see Field.resetToSnapshot), so that the recorded game passes through exactly the
+ * states that a seek will restore. That changes the course of the game being recorded and costs
+ * a few milliseconds per keyframe, so it's meant for headless soak tests and not for the app.
+ *
+ * Attach a recorder with Field.setInputRecorder, and call toByteArray to get the stream.
+ */
+public class InputRecorder {
+
+    static final int MAGIC = 0x56505249; // "VPRI"
+    static final int VERSION = 4;
+
+    // Record types.
+    static final int TICK_PARAMS = 0;
+    static final int LEFT_FLIPPERS_ENGAGED = 1;
+    static final int LEFT_FLIPPERS_RELEASED = 2;
+    static final int RIGHT_FLIPPERS_ENGAGED = 3;
+    static final int RIGHT_FLIPPERS_RELEASED = 4;
+    static final int ALL_FLIPPERS_ENGAGED = 5;
+    static final int ALL_FLIPPERS_RELEASED = 6;
+    static final int LAUNCH_BALL = 7;
+    static final int REMOVE_DEAD_BALLS = 8;
+    static final int START_GAME = 9;
+    static final int START_GAME_UNLIMITED_BALLS = 10;
+    static final int END_GAME = 11;
+    static final int INPUT_OFFSET = 12;
+    static final int END = 15;
+    static final int TYPE_BITS = 4;
+
+    final long seed;
+    final long keyframeIntervalNanos;
+    final boolean resetAtKeyframes;
+    byte[] header;
+    // Grows by doubling, so recording doesn't allocate on most frames.
+    ByteArrayOutputStream records = new ByteArrayOutputStream(4096);
+    long ticksSinceLastRecord = 0;
+    long tickCount = 0;
+    long tickNanos = -1;
+    int tickIterations = -1;
+
+    // Each keyframe is the tick count after which it was taken, its random seed, and a snapshot.
+    ByteArrayOutputStream keyframeBytes = new ByteArrayOutputStream();
+    DataOutputStream keyframes = new DataOutputStream(keyframeBytes);
+    int keyframeCount = 0;
+    long nextKeyframeNanos;
+    Random keyframeSeeds;
+
+    /** Creates a recorder with a random seed and no keyframes. */
+    public InputRecorder() {
+        this(new Random().nextLong());
+    }
+
+    public InputRecorder(long seed) {
+        this(seed, 0);
+    }
+
+    /**
+     * Creates a recorder that takes a keyframe at the start and after every `keyframeIntervalNanos`
+     * of game time, or no keyframes if it's 0. Keyframes don't affect the recorded game, and are
+     * approximate when seeking.
+     */
+    public InputRecorder(long seed, long keyframeIntervalNanos) {
+        this(seed, keyframeIntervalNanos, false);
+    }
+
+    /**
+     * Creates a recorder that takes keyframes as above. If `resetAtKeyframes` is true, the
+     * recorded field is reset to each keyframe as it's taken, so that seeking is exact but the
+     * recorded game differs from what it would have been without keyframes.
+     */
+    public InputRecorder(long seed, long keyframeIntervalNanos, boolean resetAtKeyframes) {
+        this.seed = seed;
+        this.keyframeIntervalNanos = keyframeIntervalNanos;
+        this.resetAtKeyframes = resetAtKeyframes;
+        this.keyframeSeeds = new Random(seed);
+    }
+
+    /** Called by Field.setInputRecorder. Sets the field's random seed and writes the header. */
+    void begin(Field field) {
+        if (header != null) {
+            throw new IllegalStateException("InputRecorder has already been used");
+        }
+        if (field.getGameTimeNanos() != 0 || !field.getBalls().isEmpty()) {
+            throw new IllegalStateException("Input must be recorded from a newly reset field");
+        }
+        field.setRandomSeed(seed);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(field.fieldElementsArray.length);
+            out.writeInt(FieldSnapshot.layoutFingerprint(field));
+            out.writeLong(seed);
+            out.writeBoolean(resetAtKeyframes);
+            field.gameState.writeState(out);
+        }
+        catch (IOException ex) {
+            // Writing to a byte array doesn't fail.
+            throw new RuntimeException(ex);
+        }
+        header = bytes.toByteArray();
+        if (keyframeIntervalNanos > 0) {
+            addKeyframe(field);
+        }
+    }
+
+    /** Called at the start of Field.tick. `iterations` is 0 if the SubstepPolicy is used. */
+    void tickStarted(long nanos, int iterations) {
+        if (nanos != tickNanos || iterations != tickIterations) {
+            record(TICK_PARAMS);
+            writeVarLong(records, nanos);
+            writeVarLong(records, iterations);
+            tickNanos = nanos;
+            tickIterations = iterations;
+        }
+        ticksSinceLastRecord++;
+        tickCount++;
+    }
+
+    /** Called at the end of Field.tick. Adds a keyframe if one is due. */
+    void tickFinished(Field field) {
+        if (keyframeIntervalNanos > 0 && field.gameTime >= nextKeyframeNanos) {
+            addKeyframe(field);
+        }
+    }
+
+    private void addKeyframe(Field field) {
+        byte[] snapshot = FieldSnapshot.save(field);
+        // Without resetting, the seed is only used when seeking, since the recorded field's
+        // random number generator can't be saved.
+        long keyframeSeed = keyframeSeeds.nextLong();
+        try {
+            if (resetAtKeyframes) {
+                field.resetToSnapshot(snapshot, keyframeSeed);
+                // Resetting the field detached this recorder.
+                field.inputRecorder = this;
+            }
+            keyframes.writeLong(tickCount);
+            keyframes.writeLong(keyframeSeed);
+            keyframes.writeInt(snapshot.length);
+            keyframes.write(snapshot);
+        }
+        catch (IOException ex) {
+            // The snapshot was just created from the same layout, so restoring shouldn't fail.
+            throw new RuntimeException(ex);
+        }
+        keyframeCount++;
+        nextKeyframeNanos = field.gameTime + keyframeIntervalNanos;
+    }
+
+    /** Records an input event of the given type, which happens before the next tick. */
+    void record(int type) {
+        writeVarLong(records, (ticksSinceLastRecord << TYPE_BITS) | type);
+        ticksSinceLastRecord = 0;
+    }
+
+    /**
+     * Records a flipper input event of the given type, which happens `offsetNanos` of game time
+     * into the next tick.
+     */
+    void recordAtOffset(int type, long offsetNanos) {
+        record(INPUT_OFFSET);
+        writeVarLong(records, offsetNanos);
+        record(type);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Returns the number of ticks recorded so far. */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /** Returns the number of keyframes taken so far. */
+    public int getKeyframeCount() {
+        return keyframeCount;
+    }
+
+    /** Returns the number of bytes in the stream, not counting the END record. */
+    public int size() {
+        return ((header != null) ? header.length : 0) + records.size() + keyframeBytes.size();
+    }
+
+    /**
+     * Returns the stream of everything recorded so far, for InputReplayer. Recording can continue
+     * afterwards.
+     */
+    public byte[] toByteArray() {
+        if (header == null) {
+            throw new IllegalStateException("InputRecorder hasn't been attached to a field");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size() + 16);
+        out.write(header, 0, header.length);
+        out.write(records.toByteArray(), 0, records.size());
+        writeVarLong(out, (ticksSinceLastRecord << TYPE_BITS) | END);
+        writeVarLong(out, keyframeCount);
+        out.write(keyframeBytes.toByteArray(), 0, keyframeBytes.size());
+        return out.toByteArray();
+    }
+
+    // Writes `value` as an unsigned LEB128 varint: 7 bits per byte, low bits first, with the
+    // high bit set on all but the last byte.
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,366 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Replays input recorded by InputRecorder, by calling Field.tick and the recorded input methods
+ * in the same order as when the input was recorded. The field must have been reset for the same
+ * layout; see `begin`. Since the simulation is deterministic, this reproduces the recorded game
+ * exactly, as long as the field and delegate code haven't changed in ways that affect it.
+ *
+ * If the recording has keyframes, `seek` can move to any tick by restoring the last keyframe at
+ * or before it and simulating forward from there, so the cost of seeking is bounded by the
+ * keyframe interval rather than the length of the recording. Without keyframes, seeking backwards
+ * replays from the start. Unless the keyframes are exact (see InputRecorder), the state after
+ * seeking to a keyframe only approximates the recorded game; playing from the start with `step`
+ * is always exact.
+ */
+public class InputReplayer {
+
+    final long seed;
+    final boolean exactKeyframes;
+    final int numElements;
+    final int layoutFingerprint;
+    final byte[] gameState;
+
+    // Decoded records. `recordStartTicks` is the number of ticks before each record is applied.
+    // For TICK_PARAMS records, `tickNanos` and `tickIterations` have the new parameters, and for
+    // INPUT_OFFSET records `tickNanos` has the offset. The last record is always END.
+    int numRecords = 0;
+    long[] ticksBefore = new long[64];
+    long[] recordStartTicks = new long[64];
+    int[] types = new int[64];
+    long[] tickNanos = new long[64];
+    int[] tickIterations = new int[64];
+    long totalTicks = 0;
+    int offsetInputCount = 0;
+
+    // Keyframes, in increasing tick order. A keyframe is restored after its tick.
+    long[] keyframeTicks;
+    long[] keyframeSeeds;
+    byte[][] keyframeSnapshots;
+
+    // Replay position.
+    int recordIndex = 0;
+    long ticksUntilRecord;
+    long nanos = -1;
+    int iterations = -1;
+    long ticksReplayed = 0;
+    int nextKeyframe = 0;
+    // Offset into the next tick of the next flipper record, from an INPUT_OFFSET record.
+    long inputOffsetNanos = 0;
+
+    /** Parses a stream returned by InputRecorder.toByteArray. */
+    public InputReplayer(byte[] data) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        try (DataInputStream in = new DataInputStream(bytes)) {
+            if (in.readInt() != InputRecorder.MAGIC || in.readInt() != InputRecorder.VERSION) {
+                throw new IOException("Not an input recording or unsupported version");
+            }
+            numElements = in.readInt();
+            layoutFingerprint = in.readInt();
+            seed = in.readLong();
+            exactKeyframes = in.readBoolean();
+            int gameStateStart = data.length - bytes.available();
+            new GameState().readState(in);
+            gameState = Arrays.copyOfRange(data, gameStateStart, data.length - bytes.available());
+
+            boolean hasTickParams = false;
+            int type;
+            do {
+                long value = readVarLong(in);
+                long ticks = value >>> InputRecorder.TYPE_BITS;
+                type = (int) (value & ((1 << InputRecorder.TYPE_BITS) - 1));
+                if (type > InputRecorder.INPUT_OFFSET && type != InputRecorder.END) {
+                    throw new IOException("Invalid record type: " + type);
+                }
+                if (ticks > 0 && !hasTickParams) {
+                    throw new IOException("Ticks recorded without parameters");
+                }
+                addRecord(ticks, type);
+                if (type == InputRecorder.TICK_PARAMS) {
+                    tickNanos[numRecords - 1] = readVarLong(in);
+                    tickIterations[numRecords - 1] = (int) readVarLong(in);
+                    hasTickParams = true;
+                }
+                else if (type == InputRecorder.INPUT_OFFSET) {
+                    tickNanos[numRecords - 1] = readVarLong(in);
+                    offsetInputCount++;
+                }
+            } while (type != InputRecorder.END);
+
+            int numKeyframes = (int) readVarLong(in);
+            if (numKeyframes < 0) throw new IOException("Invalid keyframe count");
+            keyframeTicks = new long[numKeyframes];
+            keyframeSeeds = new long[numKeyframes];
+            keyframeSnapshots = new byte[numKeyframes][];
+            for (int i = 0; i < numKeyframes; i++) {
+                keyframeTicks[i] = in.readLong();
+                if (keyframeTicks[i] < ((i > 0) ? keyframeTicks[i - 1] : 0) ||
+                        keyframeTicks[i] > totalTicks) {
+                    throw new IOException("Invalid keyframe tick: " + keyframeTicks[i]);
+                }
+                keyframeSeeds[i] = in.readLong();
+                int length = in.readInt();
+                if (length < 0 || length > bytes.available()) {
+                    throw new IOException("Invalid keyframe length: " + length);
+                }
+                keyframeSnapshots[i] = new byte[length];
+                in.readFully(keyframeSnapshots[i]);
+            }
+        }
+        ticksUntilRecord = ticksBefore[0];
+    }
+
+    private void addRecord(long ticks, int type) {
+        if (numRecords == types.length) {
+            int capacity = 2 * numRecords;
+            ticksBefore = Arrays.copyOf(ticksBefore, capacity);
+            recordStartTicks = Arrays.copyOf(recordStartTicks, capacity);
+            types = Arrays.copyOf(types, capacity);
+            tickNanos = Arrays.copyOf(tickNanos, capacity);
+            tickIterations = Arrays.copyOf(tickIterations, capacity);
+        }
+        totalTicks += ticks;
+        ticksBefore[numRecords] = ticks;
+        recordStartTicks[numRecords] = totalTicks;
+        types[numRecords] = type;
+        numRecords++;
+    }
+
+    /**
+     * Prepares `field` for replaying: checks that it was reset for the recorded layout, and resets
+     * it to the state at the start of the recording.
+     */
+    public void begin(Field field) {
+        if (field.fieldElementsArray.length != numElements ||
+                FieldSnapshot.layoutFingerprint(field) != layoutFingerprint) {
+            throw new IllegalArgumentException("Input was recorded with a different layout");
+        }
+        rewind(field);
+    }
+
+    // Resets the field and replay position to the start of the recording.
+    private void rewind(Field field) {
+        if (exactKeyframes && keyframeTicks.length > 0 && keyframeTicks[0] == 0) {
+            restoreKeyframe(field, 0);
+            return;
+        }
+        field.resetForCurrentLayout();
+        field.setRandomSeed(seed);
+        try {
+            field.gameState.readState(new DataInputStream(new ByteArrayInputStream(gameState)));
+        }
+        catch (IOException ex) {
+            // Already parsed successfully in the constructor.
+            throw new RuntimeException(ex);
+        }
+        moveToTick(0);
+        nextKeyframe = exactKeyframes ? 0 : keyframeTicks.length;
+    }
+
+    private void restoreKeyframe(Field field, int index) {
+        try {
+            field.resetToSnapshot(keyframeSnapshots[index], keyframeSeeds[index]);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        moveToTick(keyframeTicks[index]);
+        nextKeyframe = exactKeyframes ? index + 1 : keyframeTicks.length;
+    }
+
+    // Sets the input position to just after `tick` ticks, before applying input for the next tick.
+    private void moveToTick(long tick) {
+        int index = Arrays.binarySearch(recordStartTicks, 0, numRecords, tick);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        else {
+            // There can be several records at the same tick; use the first.
+            while (index > 0 && recordStartTicks[index - 1] == tick) index--;
+        }
+        recordIndex = index;
+        ticksUntilRecord = recordStartTicks[index] - tick;
+        ticksReplayed = tick;
+        inputOffsetNanos = 0;
+        nanos = -1;
+        iterations = -1;
+        for (int i = index - 1; i >= 0; i--) {
+            if (types[i] == InputRecorder.TICK_PARAMS) {
+                nanos = tickNanos[i];
+                iterations = tickIterations[i];
+                break;
+            }
+        }
+    }
+
+    /**
+     * Applies the input recorded before the next tick, and runs the tick. Returns false without
+     * changing the field if the end of the recording has been reached.
+     */
+    public boolean step(Field field) {
+        while (ticksUntilRecord == 0) {
+            int type = types[recordIndex];
+            if (type == InputRecorder.END) return false;
+            apply(field, recordIndex);
+            recordIndex++;
+            ticksUntilRecord = ticksBefore[recordIndex];
+        }
+        ticksUntilRecord--;
+        ticksReplayed++;
+        if (iterations == 0) {
+            field.tick(nanos);
+        }
+        else {
+            field.tick(nanos, iterations);
+        }
+        // With exact keyframes, the recorded field was reset to the keyframe at this point, so do
+        // the same. (nextKeyframe is past the end otherwise.)
+        if (nextKeyframe < keyframeTicks.length && keyframeTicks[nextKeyframe] == ticksReplayed) {
+            restoreKeyframe(field, nextKeyframe);
+        }
+        return true;
+    }
+
+    /** Replays the rest of the recording. */
+    public void replayToEnd(Field field) {
+        while (step(field)) {
+            // Keep going.
+        }
+    }
+
+    /**
+     * Moves the replay to the point just after the given number of ticks, clamped to the length
+     * of the recording. Seeking forward within the current keyframe interval continues from the
+     * current position; otherwise restores the last keyframe at or before `tick` and simulates
+     * forward from there. The field must be the one passed to `begin`.
+     */
+    public void seek(Field field, long tick) {
+        tick = Math.max(0, Math.min(tick, totalTicks));
+        int keyframe = lastKeyframeAtOrBefore(tick);
+        long keyframeTick = (keyframe >= 0) ? keyframeTicks[keyframe] : 0;
+        if (tick < ticksReplayed || ticksReplayed < keyframeTick) {
+            if (keyframe >= 0) {
+                restoreKeyframe(field, keyframe);
+            }
+            else {
+                rewind(field);
+            }
+        }
+        while (ticksReplayed < tick && step(field)) {
+            // Keep going.
+        }
+    }
+
+    private int lastKeyframeAtOrBefore(long tick) {
+        int index = Arrays.binarySearch(keyframeTicks, tick);
+        if (index < 0) return -index - 2;
+        // Use the last of any keyframes at the same tick.
+        while (index + 1 < keyframeTicks.length && keyframeTicks[index + 1] == tick) index++;
+        return index;
+    }
+
+    private void apply(Field field, int index) {
+        int type = types[index];
+        if (inputOffsetNanos > 0 && type >= InputRecorder.LEFT_FLIPPERS_ENGAGED &&
+                type <= InputRecorder.ALL_FLIPPERS_RELEASED) {
+            field.addPendingInput(type, inputOffsetNanos);
+            inputOffsetNanos = 0;
+            return;
+        }
+        switch (type) {
+            case InputRecorder.TICK_PARAMS:
+                nanos = tickNanos[index];
+                iterations = tickIterations[index];
+                break;
+            case InputRecorder.INPUT_OFFSET:
+                inputOffsetNanos = tickNanos[index];
+                break;
+            case InputRecorder.LEFT_FLIPPERS_ENGAGED:
+                field.setLeftFlippersEngaged(true);
+                break;
+            case InputRecorder.LEFT_FLIPPERS_RELEASED:
+                field.setLeftFlippersEngaged(false);
+                break;
+            case InputRecorder.RIGHT_FLIPPERS_ENGAGED:
+                field.setRightFlippersEngaged(true);
+                break;
+            case InputRecorder.RIGHT_FLIPPERS_RELEASED:
+                field.setRightFlippersEngaged(false);
+                break;
+            case InputRecorder.ALL_FLIPPERS_ENGAGED:
+                field.setAllFlippersEngaged(true);
+                break;
+            case InputRecorder.ALL_FLIPPERS_RELEASED:
+                field.setAllFlippersEngaged(false);
+                break;
+            case InputRecorder.LAUNCH_BALL:
+                field.launchBall();
+                break;
+            case InputRecorder.REMOVE_DEAD_BALLS:
+                field.removeDeadBalls();
+                break;
+            case InputRecorder.START_GAME:
+                field.startGame();
+                break;
+            case InputRecorder.START_GAME_UNLIMITED_BALLS:
+                field.startGameWithUnlimitedBalls();
+                break;
+            case InputRecorder.END_GAME:
+                field.endGame();
+                break;
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Returns the total number of ticks in the recording. */
+    public long getTotalTicks() {
+        return totalTicks;
+    }
+
+    /** Returns the number of ticks replayed so far, which is the current position. */
+    public long getTicksReplayed() {
+        return ticksReplayed;
+    }
+
+    /**
+     * Returns true if the recorded field was reset to each keyframe, so that seeking reproduces
+     * the recorded game exactly.
+     */
+    public boolean hasExactKeyframes() {
+        return exactKeyframes;
+    }
+
+    public int getKeyframeCount() {
+        return keyframeTicks.length;
+    }
+
+    /**
+     * Returns the number of flipper records that are applied partway through a tick, which come
+     * from input queued with Field.queueInput.
+     */
+    public int getOffsetInputCount() {
+        return offsetInputCount;
+    }
+
+    public boolean isFinished() {
+        return ticksUntilRecord == 0 && types[recordIndex] == InputRecorder.END;
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Invalid varint");
+    }
+}
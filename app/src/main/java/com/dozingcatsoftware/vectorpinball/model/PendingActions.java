@@ -0,0 +1,88 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Keeps track of actions that a field delegate or element has scheduled, so that they can be
+ * saved in a field snapshot and scheduled again when the snapshot is restored. Scheduled actions
+ * are arbitrary Runnables that can't be saved, so the owner identifies each one with an integer
+ * code, and when restoring provides a function that creates the action for a code.
+ */
+public class PendingActions {
+
+    long[] handles = new long[4];
+    int[] codes = new int[4];
+    int size = 0;
+
+    /**
+     * Schedules `action` to run after `intervalMillis` of game time, as Field.scheduleAction
+     * does, and records it with `code`. Returns the handle of the scheduled action.
+     */
+    public long schedule(Field field, long intervalMillis, int code, Runnable action) {
+        removeFinished(field);
+        long handle = field.scheduleAction(intervalMillis, action);
+        add(handle, code);
+        return handle;
+    }
+
+    /** Cancels all actions scheduled with `schedule` that haven't run yet. */
+    public void cancelAll(Field field) {
+        for (int i = 0; i < size; i++) {
+            field.cancelScheduledAction(handles[i]);
+        }
+        size = 0;
+    }
+
+    /** Writes the code and scheduled time of each pending action. */
+    public void writeState(Field field, DataOutput out) throws IOException {
+        removeFinished(field);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(codes[i]);
+            out.writeLong(field.getScheduledActionTime(handles[i]));
+        }
+    }
+
+    /**
+     * Reads actions written by writeState, and schedules the action returned by `actionForCode`
+     * for each one at its original time. Actions that were previously recorded are forgotten but
+     * not cancelled, since restoring a snapshot cancels all scheduled actions.
+     */
+    public void readState(Field field, DataInput in, IntFunction<Runnable> actionForCode)
+            throws IOException {
+        size = 0;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int code = in.readInt();
+            long timeNanos = in.readLong();
+            add(field.scheduleActionAtTime(timeNanos, actionForCode.apply(code)), code);
+        }
+    }
+
+    private void add(long handle, int code) {
+        if (size == handles.length) {
+            handles = Arrays.copyOf(handles, 2 * size);
+            codes = Arrays.copyOf(codes, 2 * size);
+        }
+        handles[size] = handle;
+        codes[size] = code;
+        size++;
+    }
+
+    // Removes actions that have run or been cancelled.
+    private void removeFinished(Field field) {
+        int newSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (field.isActionScheduled(handles[i])) {
+                handles[newSize] = handles[i];
+                codes[newSize] = codes[i];
+                newSize++;
+            }
+        }
+        size = newSize;
+    }
+}
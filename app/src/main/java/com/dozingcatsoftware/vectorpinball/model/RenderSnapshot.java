@@ -0,0 +1,258 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * The drawing commands for one frame of a field, along with the zoom state needed to map them to
+ * the screen. The game thread captures a snapshot while it holds the field lock, and a renderer
+ * can replay it later on another thread without touching the field, so drawing never blocks the
+ * simulation or input handling. Snapshots are reused through a TripleBuffer: commands are stored
+ * in primitive arrays that only grow when a frame has more commands than any previous frame, so
+ * capturing and replaying don't allocate in steady-state play.
+ */
+public class RenderSnapshot implements IFieldRenderer {
+
+    static final int LINE = 0;
+    static final int LINE_PATH = 1;
+    static final int FILLED_CIRCLE = 2;
+    static final int FRAMED_CIRCLE = 3;
+    static final int ARC = 4;
+
+    // Each command has a type, color, and offset into `coordinates`. Lines use 4 coordinates,
+    // circles 3, and arcs 6. Line paths store the number of points followed by all the x
+    // coordinates and then all the y coordinates.
+    int[] commandTypes = new int[256];
+    int[] commandColors = new int[256];
+    int[] commandOffsets = new int[256];
+    int numCommands = 0;
+    float[] coordinates = new float[1024];
+    int numCoordinates = 0;
+
+    boolean canDrawArc;
+    long frameNumber;
+    long captureNanos;
+    float zoomRatio;
+    float zoomCenterX;
+    float zoomCenterY;
+    float fieldWidth;
+    float fieldHeight;
+
+    // Arrays of each length needed to pass line paths to a renderer, created as needed.
+    float[][] pathXScratch = new float[0][];
+    float[][] pathYScratch = new float[0][];
+
+    /**
+     * Sets whether the renderer that will replay this snapshot supports drawArc. If not, elements
+     * draw arcs as line paths.
+     */
+    public void setCanDrawArc(boolean value) {
+        canDrawArc = value;
+    }
+
+    /**
+     * Sets the frame number and System.nanoTime() value of the capture, so that the renderer can
+     * report when the frame has been drawn and measure latency. See FramePipeline.
+     */
+    public void setFrame(long frameNumber, long captureNanos) {
+        this.frameNumber = frameNumber;
+        this.captureNanos = captureNanos;
+    }
+
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * Records the drawing commands and zoom state of `field`, replacing any previous contents.
+     * The caller must hold the field lock.
+     */
+    public void capture(Field field) {
+        numCommands = 0;
+        numCoordinates = 0;
+        zoomRatio = field.zoomRatio();
+        Vector2 center = field.zoomCenterPoint();
+        zoomCenterX = center.x;
+        zoomCenterY = center.y;
+        fieldWidth = field.getWidth();
+        fieldHeight = field.getHeight();
+        field.draw(this);
+    }
+
+    /** Calls the drawing methods of `renderer` with the recorded commands, in order. */
+    public void replay(IFieldRenderer renderer) {
+        float[] c = coordinates;
+        for (int i = 0; i < numCommands; i++) {
+            int offset = commandOffsets[i];
+            int color = commandColors[i];
+            switch (commandTypes[i]) {
+                case LINE:
+                    renderer.drawLine(
+                            c[offset], c[offset + 1], c[offset + 2], c[offset + 3], color);
+                    break;
+                case LINE_PATH:
+                    int numPoints = (int) c[offset];
+                    if (numPoints >= pathXScratch.length) {
+                        pathXScratch = Arrays.copyOf(pathXScratch, numPoints + 1);
+                        pathYScratch = Arrays.copyOf(pathYScratch, numPoints + 1);
+                    }
+                    if (pathXScratch[numPoints] == null) {
+                        pathXScratch[numPoints] = new float[numPoints];
+                        pathYScratch[numPoints] = new float[numPoints];
+                    }
+                    float[] xs = pathXScratch[numPoints];
+                    float[] ys = pathYScratch[numPoints];
+                    System.arraycopy(c, offset + 1, xs, 0, numPoints);
+                    System.arraycopy(c, offset + 1 + numPoints, ys, 0, numPoints);
+                    renderer.drawLinePath(xs, ys, color);
+                    break;
+                case FILLED_CIRCLE:
+                    renderer.fillCircle(c[offset], c[offset + 1], c[offset + 2], color);
+                    break;
+                case FRAMED_CIRCLE:
+                    renderer.frameCircle(c[offset], c[offset + 1], c[offset + 2], color);
+                    break;
+                case ARC:
+                    renderer.drawArc(c[offset], c[offset + 1], c[offset + 2], c[offset + 3],
+                            c[offset + 4], c[offset + 5], color);
+                    break;
+            }
+        }
+    }
+
+    public int getCommandCount() {
+        return numCommands;
+    }
+
+    public float getZoomRatio() {
+        return zoomRatio;
+    }
+
+    public float getZoomCenterX() {
+        return zoomCenterX;
+    }
+
+    public float getZoomCenterY() {
+        return zoomCenterY;
+    }
+
+    public float getFieldWidth() {
+        return fieldWidth;
+    }
+
+    public float getFieldHeight() {
+        return fieldHeight;
+    }
+
+    // Adds a command and returns the offset of its coordinates, which the caller must fill in.
+    private int addCommand(int type, int color, int coordinateCount) {
+        if (numCommands == commandTypes.length) {
+            int newSize = 2 * numCommands;
+            commandTypes = Arrays.copyOf(commandTypes, newSize);
+            commandColors = Arrays.copyOf(commandColors, newSize);
+            commandOffsets = Arrays.copyOf(commandOffsets, newSize);
+        }
+        if (numCoordinates + coordinateCount > coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates,
+                    Math.max(2 * coordinates.length, numCoordinates + coordinateCount));
+        }
+        int offset = numCoordinates;
+        commandTypes[numCommands] = type;
+        commandColors[numCommands] = color;
+        commandOffsets[numCommands] = offset;
+        numCommands++;
+        numCoordinates += coordinateCount;
+        return offset;
+    }
+
+    @Override public void drawLine(float x1, float y1, float x2, float y2, int color) {
+        int offset = addCommand(LINE, color, 4);
+        coordinates[offset] = x1;
+        coordinates[offset + 1] = y1;
+        coordinates[offset + 2] = x2;
+        coordinates[offset + 3] = y2;
+    }
+
+    @Override public void drawLine(double x1, double y1, double x2, double y2, int color) {
+        drawLine((float) x1, (float) y1, (float) x2, (float) y2, color);
+    }
+
+    @Override public void drawLinePath(float[] xEndpoints, float[] yEndpoints, int color) {
+        int numPoints = xEndpoints.length;
+        int offset = addCommand(LINE_PATH, color, 1 + 2 * numPoints);
+        coordinates[offset] = numPoints;
+        System.arraycopy(xEndpoints, 0, coordinates, offset + 1, numPoints);
+        System.arraycopy(yEndpoints, 0, coordinates, offset + 1 + numPoints, numPoints);
+    }
+
+    @Override public void drawLinePath(double[] xEndpoints, double[] yEndpoints, int color) {
+        int numPoints = xEndpoints.length;
+        int offset = addCommand(LINE_PATH, color, 1 + 2 * numPoints);
+        coordinates[offset] = numPoints;
+        for (int i = 0; i < numPoints; i++) {
+            coordinates[offset + 1 + i] = (float) xEndpoints[i];
+            coordinates[offset + 1 + numPoints + i] = (float) yEndpoints[i];
+        }
+    }
+
+    @Override public void fillCircle(float cx, float cy, float radius, int color) {
+        addCircle(FILLED_CIRCLE, cx, cy, radius, color);
+    }
+
+    @Override public void fillCircle(double cx, double cy, double radius, int color) {
+        addCircle(FILLED_CIRCLE, (float) cx, (float) cy, (float) radius, color);
+    }
+
+    @Override public void frameCircle(float cx, float cy, float radius, int color) {
+        addCircle(FRAMED_CIRCLE, cx, cy, radius, color);
+    }
+
+    @Override public void frameCircle(double cx, double cy, double radius, int color) {
+        addCircle(FRAMED_CIRCLE, (float) cx, (float) cy, (float) radius, color);
+    }
+
+    private void addCircle(int type, float cx, float cy, float radius, int color) {
+        int offset = addCommand(type, color, 3);
+        coordinates[offset] = cx;
+        coordinates[offset + 1] = cy;
+        coordinates[offset + 2] = radius;
+    }
+
+    @Override public boolean canDrawArc() {
+        return canDrawArc;
+    }
+
+    @Override public void drawArc(float cx, float cy, float xRadius, float yRadius,
+            float startAngle, float sweepAngle, int color) {
+        int offset = addCommand(ARC, color, 6);
+        coordinates[offset] = cx;
+        coordinates[offset + 1] = cy;
+        coordinates[offset + 2] = xRadius;
+        coordinates[offset + 3] = yRadius;
+        coordinates[offset + 4] = startAngle;
+        coordinates[offset + 5] = sweepAngle;
+    }
+
+    @Override public void drawArc(double cx, double cy, double xRadius, double yRadius,
+            double startAngle, double sweepAngle, int color) {
+        drawArc((float) cx, (float) cy, (float) xRadius, (float) yRadius,
+                (float) startAngle, (float) sweepAngle, color);
+    }
+
+    // A snapshot is only a recording; the renderer that replays it does the actual drawing.
+    @Override public void doDraw() {
+    }
+
+    @Override public int getWidth() {
+        return 0;
+    }
+
+    @Override public int getHeight() {
+        return 0;
+    }
+}
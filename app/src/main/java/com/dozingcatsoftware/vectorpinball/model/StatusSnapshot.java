@@ -0,0 +1,65 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+/**
+ * The game status shown outside the field view: the current message, score, and ball counts.
+ * Like RenderSnapshot, this is captured by the game thread while it holds the field lock and
+ * passed through a TripleBuffer, so that the score display can read it without locking the field.
+ */
+public class StatusSnapshot {
+
+    String messageText;
+    boolean gameInProgress;
+    boolean ballInPlay;
+    int totalBalls;
+    boolean unlimitedBalls;
+    int ballNumber;
+    double scoreMultiplier;
+    long score;
+
+    /** Copies the status of `field`. The caller must hold the field lock. */
+    public void capture(Field field) {
+        GameMessage message = field.getGameMessage();
+        messageText = (message != null) ? message.text : null;
+        GameState state = field.getGameState();
+        gameInProgress = state.isGameInProgress();
+        totalBalls = state.getTotalBalls();
+        unlimitedBalls = state.hasUnlimitedBalls();
+        ballNumber = state.getBallNumber();
+        scoreMultiplier = state.getScoreMultiplier();
+        score = state.getScore();
+        ballInPlay = field.getBalls().size() > 0;
+    }
+
+    /** Returns the text of the current game message, or null if there is none. */
+    public String getMessageText() {
+        return messageText;
+    }
+
+    public boolean isGameInProgress() {
+        return gameInProgress;
+    }
+
+    public boolean isBallInPlay() {
+        return ballInPlay;
+    }
+
+    public int getTotalBalls() {
+        return totalBalls;
+    }
+
+    public boolean hasUnlimitedBalls() {
+        return unlimitedBalls;
+    }
+
+    public int getBallNumber() {
+        return ballNumber;
+    }
+
+    public double getScoreMultiplier() {
+        return scoreMultiplier;
+    }
+
+    public long getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,82 @@
+package com.dozingcatsoftware.vectorpinball.model;
+
+/**
+ * Chooses how many Box2D steps Field.tick should take, and how many solver iterations each step
+ * should use, based on the speed of the fastest moving ball or flipper and the number of balls.
+ * The number of steps is the smallest that keeps every body from moving more than
+ * `maxSubstepDistance` in a single step, so that fast shots don't tunnel through walls or
+ * flippers, limited to the range [minSubsteps, maxSubsteps]. Solver iterations scale with the
+ * number of steps. When there are multiple balls they can rest on each other, so the maximum
+ * solver iterations and at least `minMultiballSubsteps` steps are used; long steps with several
+ * balls stacked against each other can stall Box2D's continuous collision handling. With no
+ * balls in play the minimums are used.
+ */
+public class SubstepPolicy {
+
+    final int minSubsteps;
+    final int maxSubsteps;
+    final int minMultiballSubsteps;
+    final int minSolverIterations;
+    final int maxSolverIterations;
+    final float maxSubstepDistance;
+
+    int substeps;
+    int solverIterations;
+
+    public SubstepPolicy(int minSubsteps, int maxSubsteps, int minMultiballSubsteps,
+            int minSolverIterations, int maxSolverIterations, float maxSubstepDistance) {
+        if (minSubsteps < 1 || maxSubsteps < minSubsteps) {
+            throw new IllegalArgumentException(
+                    "Invalid substep range: " + minSubsteps + "-" + maxSubsteps);
+        }
+        if (minSolverIterations < 1 || maxSolverIterations < minSolverIterations) {
+            throw new IllegalArgumentException("Invalid solver iteration range: " +
+                    minSolverIterations + "-" + maxSolverIterations);
+        }
+        if (!(maxSubstepDistance > 0)) {
+            throw new IllegalArgumentException(
+                    "maxSubstepDistance must be positive: " + maxSubstepDistance);
+        }
+        this.minSubsteps = minSubsteps;
+        this.maxSubsteps = maxSubsteps;
+        this.minMultiballSubsteps =
+                Math.max(minSubsteps, Math.min(maxSubsteps, minMultiballSubsteps));
+        this.minSolverIterations = minSolverIterations;
+        this.maxSolverIterations = maxSolverIterations;
+        this.maxSubstepDistance = maxSubstepDistance;
+        this.substeps = minSubsteps;
+        this.solverIterations = minSolverIterations;
+    }
+
+    /**
+     * Updates the values returned by getSubsteps() and getSolverIterations() for a tick of the
+     * given duration in nanoseconds, where `maxSpeed` is the speed of the fastest moving body in
+     * world units per second.
+     */
+    public void update(long nanos, float maxSpeed, int ballCount) {
+        if (ballCount == 0 && maxSpeed == 0) {
+            substeps = minSubsteps;
+            solverIterations = minSolverIterations;
+            return;
+        }
+        float distance = maxSpeed * (nanos / 1e9f);
+        int neededSteps = (int) Math.ceil(distance / maxSubstepDistance);
+        int lowerLimit = (ballCount > 1) ? minMultiballSubsteps : minSubsteps;
+        substeps = Math.max(lowerLimit, Math.min(maxSubsteps, neededSteps));
+
+        float fraction = (ballCount > 1 || maxSubsteps == minSubsteps) ?
+                1f : (substeps - minSubsteps) / (float) (maxSubsteps - minSubsteps);
+        solverIterations = minSolverIterations +
+                Math.round(fraction * (maxSolverIterations - minSolverIterations));
+    }
+
+    /** Returns the number of Box2D steps to take for the tick passed to the last update() call. */
+    public int getSubsteps() {
+        return substeps;
+    }
+
+    /** Returns the velocity and position iterations for each Box2D step. */
+    public int getSolverIterations() {
+        return solverIterations;
+    }
+}
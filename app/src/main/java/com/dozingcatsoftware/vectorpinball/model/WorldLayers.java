@@ -1,25 +1,51 @@
 package com.dozingcatsoftware.vectorpinball.model;
 
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
 import com.badlogic.gdx.physics.box2d.ContactListener;
 import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * Collection of Box2d worlds, one for each "layer" of a table.
  */
 public class WorldLayers {
     private Vector2 gravity = Vector2.Zero;
-    private ContactListener contactListener;
+    private Supplier<? extends ContactListener> contactListenerFn;
     private HashMap<Integer, World> worldsByLayer = new HashMap<>();
+    private HashMap<Integer, ContactListener> contactListenersByLayer = new HashMap<>();
     private List<World> layerWorlds = Collections.emptyList();
+    private List<ContactListener> layerContactListeners = Collections.emptyList();
+    private LayerActivity[] layerActivities = new LayerActivity[0];
+    // Worlds that need to be stepped, reused by `step` to avoid allocation.
+    private ArrayList<World> activeWorlds = new ArrayList<>();
+    // Layer index of each world in `activeWorlds`, for profiling.
+    private int[] activeLayerIndexes = new int[0];
+    private boolean parallelStepping = false;
+    private FrameProfiler profiler;
 
+    /**
+     * Creates a WorldLayers object whose worlds all report contacts to the same listener. The
+     * listener will be called from multiple threads if parallel stepping is enabled.
+     */
     public WorldLayers(ContactListener listener) {
-        this.contactListener = listener;
+        this(() -> listener);
+    }
+
+    /**
+     * Creates a WorldLayers object that calls `contactListenerFn` to create a separate contact
+     * listener for each layer's world when it's created.
+     */
+    public WorldLayers(Supplier<? extends ContactListener> contactListenerFn) {
+        this.contactListenerFn = contactListenerFn;
     }
 
     // Redundant storage so that we can iterate over the layers without memory allocations.
@@ -28,10 +54,18 @@ public class WorldLayers {
         ArrayList<Integer> levelValues = new ArrayList<>(this.worldsByLayer.keySet());
         Collections.sort(levelValues);
         ArrayList<World> worlds = new ArrayList<>();
-        for (int lv : levelValues) {
+        ArrayList<ContactListener> listeners = new ArrayList<>();
+        LayerActivity[] activities = new LayerActivity[levelValues.size()];
+        for (int i = 0; i < levelValues.size(); i++) {
+            int lv = levelValues.get(i);
             worlds.add(this.worldsByLayer.get(lv));
+            listeners.add(this.contactListenersByLayer.get(lv));
+            activities[i] = new LayerActivity(this.worldsByLayer.get(lv));
         }
         this.layerWorlds = Collections.unmodifiableList(worlds);
+        this.layerContactListeners = Collections.unmodifiableList(listeners);
+        this.layerActivities = activities;
+        this.activeWorlds = new ArrayList<>(worlds.size());
     }
 
     public World existingWorldForLayer(int layer) {
@@ -42,13 +76,46 @@ public class WorldLayers {
         World w = this.existingWorldForLayer(layer);
         if (w == null) {
             w = new World(this.gravity, false);
-            w.setContactListener(this.contactListener);
+            ContactListener listener = this.contactListenerFn.get();
+            w.setContactListener(listener);
             this.worldsByLayer.put(layer, w);
+            this.contactListenersByLayer.put(layer, listener);
             this._rebuildArrays();
         }
         return w;
     }
 
+    /**
+     * Returns the contact listeners of all layers, in ascending layer order. The returned list is
+     * not modified when layers are added, so it can be safely iterated while contacts are being
+     * processed.
+     */
+    public List<ContactListener> getContactListeners() {
+        return this.layerContactListeners;
+    }
+
+    public boolean isParallelStepping() {
+        return this.parallelStepping;
+    }
+
+    /**
+     * Sets whether the layer worlds should be stepped concurrently on a shared pool of worker
+     * threads. The worlds share no bodies so they can be stepped independently, but contact
+     * listeners will be called on the worker threads, so each layer should have its own listener
+     * that only records contacts to be processed after `step` returns. Defaults to false.
+     */
+    public void setParallelStepping(boolean parallel) {
+        this.parallelStepping = parallel;
+    }
+
+    /**
+     * Sets a profiler to record the time to step each layer's world. Times are only recorded by
+     * layer when stepping sequentially.
+     */
+    public void setProfiler(FrameProfiler profiler) {
+        this.profiler = profiler;
+    }
+
     void setGravity(Vector2 gravity) {
         this.gravity = gravity.cpy();
         for (int i = 0; i < this.layerWorlds.size(); i++) {
@@ -56,10 +123,231 @@ public class WorldLayers {
         }
     }
 
+    /**
+     * Frees the native resources of all layer worlds. The worlds and their bodies must not be used
+     * after calling this method.
+     */
+    public void dispose() {
+        for (int i = 0; i < this.layerWorlds.size(); i++) {
+            this.layerWorlds.get(i).dispose();
+        }
+    }
+
+    /**
+     * Called when bodies are created or destroyed, so that the next call to `step` rechecks which
+     * layers have bodies that can move. Body counts are also checked on every step, but a body can
+     * be destroyed and another created between steps.
+     */
+    void bodiesChanged() {
+        for (LayerActivity activity : this.layerActivities) {
+            activity.invalidate();
+        }
+    }
+
+    /**
+     * Returns the number of layer worlds that were stepped by the most recent call to `step`.
+     * Worlds that contain no awake dynamic or kinematic bodies are skipped.
+     */
+    public int getActiveWorldCount() {
+        return this.activeWorlds.size();
+    }
+
+    /**
+     * Steps every layer world that has an awake dynamic or kinematic body. Layers that only
+     * contain static bodies, such as a layer that no ball is currently on, are skipped because
+     * stepping them can't move anything or produce contacts. A ball entering a layer creates a
+     * dynamic body there, so the layer is stepped again starting with the next call. Static bodies
+     * that are moved or enabled while their layer is idle (e.g. walls moved by a delegate) are
+     * handled when the layer is next stepped, since Box2D finds their new contacts at the start
+     * of a step.
+     */
     void step(float dt, int velIters, int posIters) {
-        int n = this.layerWorlds.size();
+        ArrayList<World> worlds = this.activeWorlds;
+        worlds.clear();
+        if (activeLayerIndexes.length < this.layerActivities.length) {
+            activeLayerIndexes = new int[this.layerActivities.length];
+        }
+        for (int i = 0; i < this.layerActivities.length; i++) {
+            LayerActivity activity = this.layerActivities[i];
+            if (activity.needsStep()) {
+                activeLayerIndexes[worlds.size()] = i;
+                worlds.add(activity.world);
+            }
+        }
+        int n = worlds.size();
+        if (this.parallelStepping && n > 1) {
+            ParallelStepper.getInstance().step(worlds, dt, velIters, posIters);
+            return;
+        }
         for (int i = 0; i < n; i++) {
-            this.layerWorlds.get(i).step(dt, velIters, posIters);
+            long startNanos = (profiler != null) ? profiler.start() : 0;
+            worlds.get(i).step(dt, velIters, posIters);
+            if (profiler != null) profiler.endLayerStep(activeLayerIndexes[i], startNanos);
+        }
+    }
+
+    /**
+     * Tracks the bodies of a world that can move on their own, meaning dynamic and kinematic
+     * bodies. The list is rebuilt when the world's body count changes or `invalidate` is called.
+     */
+    static class LayerActivity {
+        final World world;
+        final Array<Body> movableBodies = new Array<>();
+        final Array<Body> allBodies = new Array<>();
+        int bodyCount = -1;
+
+        LayerActivity(World world) {
+            this.world = world;
+        }
+
+        void invalidate() {
+            bodyCount = -1;
+        }
+
+        boolean needsStep() {
+            int count = world.getBodyCount();
+            if (count != bodyCount) {
+                bodyCount = count;
+                movableBodies.clear();
+                world.getBodies(allBodies);
+                for (int i = 0; i < allBodies.size; i++) {
+                    Body body = allBodies.get(i);
+                    if (body.getType() != BodyDef.BodyType.StaticBody) {
+                        movableBodies.add(body);
+                    }
+                }
+                allBodies.clear();
+            }
+            for (int i = 0; i < movableBodies.size; i++) {
+                if (movableBodies.get(i).isAwake()) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Fixed pool of daemon threads that step worlds concurrently, shared by all WorldLayers
+     * objects. The thread calling `step` also steps worlds, and returns when all of them are done.
+     * Worlds are claimed by incrementing a counter, so no memory is allocated per step.
+     */
+    static class ParallelStepper {
+        private static ParallelStepper instance;
+
+        private final Object lock = new Object();
+        // The generation of the current step in the high 32 bits, and the index of the next world
+        // to claim in the low 32 bits. A worker that copied the parameters of an earlier step and
+        // was delayed until a later one started sees a different generation and claims nothing,
+        // so it can't step a world of the later step with the earlier parameters, or count it as
+        // done. The list passed to `step` may be reused by the next step, but its contents can't
+        // change while a claim for its generation can still succeed.
+        private final AtomicLong nextClaim = new AtomicLong();
+        // Parameters for the current step, guarded by `lock`.
+        private List<World> stepWorlds = Collections.emptyList();
+        private float stepDt;
+        private int stepVelIters;
+        private int stepPosIters;
+        private int stepGeneration = 0;
+        private int worldsRemaining = 0;
+        private Throwable stepFailure;
+
+        static synchronized ParallelStepper getInstance() {
+            if (instance == null) {
+                int numThreads = Math.max(1, Math.min(3,
+                        Runtime.getRuntime().availableProcessors() - 1));
+                instance = new ParallelStepper(numThreads);
+            }
+            return instance;
+        }
+
+        private ParallelStepper(int numThreads) {
+            for (int i = 0; i < numThreads; i++) {
+                Thread t = new Thread(this::workerMain, "WorldLayers-step-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        // Synchronized so that fields being stepped from different threads take turns.
+        synchronized void step(List<World> worlds, float dt, int velIters, int posIters) {
+            int generation;
+            synchronized (lock) {
+                generation = ++stepGeneration;
+                stepWorlds = worlds;
+                stepDt = dt;
+                stepVelIters = velIters;
+                stepPosIters = posIters;
+                stepFailure = null;
+                worldsRemaining = worlds.size();
+                nextClaim.set((long) generation << 32);
+                lock.notifyAll();
+            }
+            stepClaimedWorlds(generation, worlds, dt, velIters, posIters);
+            synchronized (lock) {
+                while (worldsRemaining > 0) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException ignored) {
+                    }
+                }
+                if (stepFailure != null) {
+                    throw new RuntimeException(stepFailure);
+                }
+            }
+        }
+
+        // Returns the index of the next unclaimed world of step `generation` and claims it, or -1
+        // if all of them are claimed or another step has started.
+        private int claimWorld(int generation, int numWorlds) {
+            while (true) {
+                long claim = nextClaim.get();
+                int index = (int) claim;
+                if ((int) (claim >>> 32) != generation || index >= numWorlds) return -1;
+                if (nextClaim.compareAndSet(claim, claim + 1)) return index;
+            }
+        }
+
+        private void stepClaimedWorlds(
+                int generation, List<World> worlds, float dt, int velIters, int posIters) {
+            int numWorlds = worlds.size();
+            int index;
+            while ((index = claimWorld(generation, numWorlds)) >= 0) {
+                Throwable failure = null;
+                try {
+                    worlds.get(index).step(dt, velIters, posIters);
+                }
+                catch (Throwable ex) {
+                    failure = ex;
+                }
+                synchronized (lock) {
+                    if (failure != null) stepFailure = failure;
+                    if (--worldsRemaining == 0) lock.notifyAll();
+                }
+            }
+        }
+
+        private void workerMain() {
+            int lastGeneration = 0;
+            while (true) {
+                List<World> worlds;
+                float dt;
+                int velIters, posIters;
+                synchronized (lock) {
+                    while (stepGeneration == lastGeneration) {
+                        try {
+                            lock.wait();
+                        }
+                        catch (InterruptedException ignored) {
+                        }
+                    }
+                    lastGeneration = stepGeneration;
+                    worlds = stepWorlds;
+                    dt = stepDt;
+                    velIters = stepVelIters;
+                    posIters = stepPosIters;
+                }
+                stepClaimedWorlds(lastGeneration, worlds, dt, velIters, posIters);
+            }
         }
     }
 }
@@ -0,0 +1,129 @@
+package com.dozingcatsoftware.vectorpinball.util;
+
+/**
+ * A fixed-size array of bits stored in longs, for per-item flags that are queried in the game
+ * loop. Getting and setting a bit and counting the set bits take constant time, and rotating all
+ * the bits by one position takes one shift per 64 bits. Nothing allocates after construction.
+ */
+public class BitArray {
+
+    final int size;
+    final long[] words;
+    int count = 0;
+
+    public BitArray(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of bits that are set. */
+    public int count() {
+        return count;
+    }
+
+    public boolean get(int index) {
+        checkIndex(index);
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public void set(int index, boolean value) {
+        checkIndex(index);
+        int w = index >>> 6;
+        long mask = 1L << index;
+        boolean previous = (words[w] & mask) != 0;
+        if (value != previous) {
+            words[w] ^= mask;
+            count += value ? 1 : -1;
+        }
+    }
+
+    /** Returns the index of the first bit that isn't set, or -1 if all bits are set. */
+    public int firstClear() {
+        for (int w = 0; w < words.length; w++) {
+            if (words[w] != -1L) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(~words[w]);
+                return (index < size) ? index : -1;
+            }
+        }
+        return -1;
+    }
+
+    public void clear() {
+        for (int w = 0; w < words.length; w++) {
+            words[w] = 0;
+        }
+        count = 0;
+    }
+
+    public void setAll() {
+        for (int w = 0; w < words.length; w++) {
+            words[w] = -1L;
+        }
+        clearUnusedBits();
+        count = size;
+    }
+
+    /** Sets this array's bits to those of `other`, which must have the same size. */
+    public void copyFrom(BitArray other) {
+        if (other.size != size) {
+            throw new IllegalArgumentException("Size mismatch: " + other.size + " != " + size);
+        }
+        System.arraycopy(other.words, 0, words, 0, words.length);
+        count = other.count;
+    }
+
+    /**
+     * Moves each bit to the next higher index if `toHigher` is true, or to the next lower index
+     * if false. The bit at the end wraps around to the other end.
+     */
+    public void rotate(boolean toHigher) {
+        if (size <= 1) return;
+        int last = size - 1;
+        if (words.length == 1) {
+            // Common case: rotate within a single word.
+            long bits = words[0];
+            words[0] = toHigher ?
+                    (bits << 1) | (bits >>> last) :
+                    (bits >>> 1) | ((bits & 1L) << last);
+            clearUnusedBits();
+            return;
+        }
+        if (toHigher) {
+            long carry = (words[last >>> 6] >>> last) & 1L;
+            for (int w = 0; w < words.length; w++) {
+                long next = words[w] >>> 63;
+                words[w] = (words[w] << 1) | carry;
+                carry = next;
+            }
+            clearUnusedBits();
+        }
+        else {
+            long wrapped = words[0] & 1L;
+            long carry = 0;
+            for (int w = words.length - 1; w >= 0; w--) {
+                long next = words[w] & 1L;
+                words[w] = (words[w] >>> 1) | (carry << 63);
+                carry = next;
+            }
+            words[last >>> 6] |= wrapped << last;
+        }
+    }
+
+    // Bits past `size` in the last word are always 0, so that counts and shifts don't see them.
+    private void clearUnusedBits() {
+        int used = size & 63;
+        if (used != 0) {
+            words[words.length - 1] &= (1L << used) - 1;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.dozingcatsoftware.vectorpinball.util;
+
+/**
+ * Coordinates a game thread that produces frames with a rendering thread that draws them, so that
+ * the game thread can simulate the next frame while the previous one is being drawn. Frames are
+ * numbered in the order they're submitted. After submitting a frame, the game thread calls
+ * waitForRenderer(), which blocks while more than `maxDepth` submitted frames haven't been drawn.
+ * With a depth of 0 the two threads are fully serialized as if drawing were synchronous; with a
+ * depth of 1 simulation of frame N+1 overlaps drawing of frame N, so on a multi-core device the
+ * frame rate is limited by the slower of the two rather than their sum. The rendering thread can
+ * skip frames (e.g. if it only draws the latest of several), in which case the skipped frames
+ * count as drawn.
+ *
+ * Also measures latency, the time from when a frame was captured to when it finished drawing.
+ */
+public class FramePipeline {
+
+    /** Default depth, allowing simulation of one frame to overlap drawing of the previous one. */
+    public static final int DEFAULT_MAX_DEPTH = 1;
+    // Don't wait forever if the rendering thread stops drawing, e.g. because its view is paused.
+    static final long MAX_WAIT_MILLIS = 100;
+
+    private final Object lock = new Object();
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    // Guarded by `lock`.
+    private long lastSubmittedFrame = 0;
+    private long lastRenderedFrame = 0;
+    // Total time spent in waitForRenderer. Only accessed by the game thread.
+    private long totalWaitNanos = 0;
+
+    // Latency statistics, written by the rendering thread and read for display.
+    private volatile long lastLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+    private volatile double averageLatencyNanos = 0;
+    // Weight of each new frame in the exponential moving average.
+    static final double LATENCY_AVERAGE_WEIGHT = 0.05;
+
+    public void setMaxDepth(int depth) {
+        if (depth < 0) throw new IllegalArgumentException("Depth must be nonnegative: " + depth);
+        maxDepth = depth;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** Called by the game thread before capturing a frame. Returns the frame's number. */
+    public long nextFrame() {
+        synchronized (lock) {
+            return ++lastSubmittedFrame;
+        }
+    }
+
+    /**
+     * Called by the game thread after submitting a frame to the renderer. Blocks until no more
+     * than `maxDepth` frames are waiting to be drawn, or until MAX_WAIT_MILLIS have passed.
+     */
+    public void waitForRenderer() {
+        long startNanos = System.nanoTime();
+        synchronized (lock) {
+            long deadline = System.nanoTime() + MAX_WAIT_MILLIS * 1000000L;
+            while (lastSubmittedFrame - lastRenderedFrame > maxDepth) {
+                long remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+                if (remainingMillis <= 0) break;
+                try {
+                    lock.wait(remainingMillis);
+                }
+                catch (InterruptedException ex) {
+                    break;
+                }
+            }
+        }
+        totalWaitNanos += System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the total time the game thread has spent in waitForRenderer, so that it can be
+     * excluded from the time spent working on frames. Must be called from the game thread.
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    /**
+     * Called by the rendering thread after it finishes drawing a frame. `captureNanos` is the
+     * System.nanoTime() value when the frame was captured. Drawing a frame again, e.g. because
+     * the surface was recreated, doesn't affect the latency statistics.
+     */
+    public void frameRendered(long frame, long captureNanos) {
+        synchronized (lock) {
+            if (frame <= lastRenderedFrame) return;
+            lastRenderedFrame = frame;
+            lock.notify();
+        }
+        long latency = System.nanoTime() - captureNanos;
+        lastLatencyNanos = latency;
+        if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+        double average = averageLatencyNanos;
+        averageLatencyNanos = (average == 0) ?
+                latency : average + LATENCY_AVERAGE_WEIGHT * (latency - average);
+    }
+
+    /** Returns the number of frames that have been submitted but not drawn. */
+    public long framesInFlight() {
+        synchronized (lock) {
+            return lastSubmittedFrame - lastRenderedFrame;
+        }
+    }
+
+    public double getLastLatencyMillis() {
+        return lastLatencyNanos / 1e6;
+    }
+
+    public double getAverageLatencyMillis() {
+        return averageLatencyNanos / 1e6;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos / 1e6;
+    }
+
+    /** Clears latency statistics, e.g. after the renderer is changed. */
+    public void resetLatency() {
+        maxLatencyNanos = 0;
+        averageLatencyNanos = 0;
+    }
+}
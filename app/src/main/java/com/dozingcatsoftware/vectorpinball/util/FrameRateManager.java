@@ -1,6 +1,5 @@
 package com.dozingcatsoftware.vectorpinball.util;
 
-import java.util.LinkedList;
 import java.util.function.LongSupplier;
 
 /**
@@ -15,6 +14,17 @@ import java.util.function.LongSupplier;
  *
  * frameStarted(), nanosToWaitUntilNextFrame(), and sleepUntilNextFrame() should not be called from
  * separate threads.
+ *
+ * For diagnosing stutter, the client can also call frameEnded() when it has finished generating a
+ * frame, passing the time within the frame spent blocked waiting for another thread (such as the
+ * renderer) so that it isn't counted as work. The start and end times of recent frames are kept in
+ * a ring buffer, and the intervals between frame starts and the time spent working on each frame
+ * are recorded in histograms, along with the number of missed vsync intervals and the total time
+ * spent working, waiting, and sleeping. A
+ * vsync counts as missed if a frame takes more vsync intervals than the current target frame rate
+ * allows, so frames at a deliberately lowered rate aren't counted; call setVsyncIntervalNanos()
+ * with the display's refresh interval so that this is accurate. Call copyTimingStats() to read
+ * these from another thread.
  */
 
 public class FrameRateManager {
@@ -29,9 +39,34 @@ public class FrameRateManager {
     double targetFrameRateFudgeFactor = 1.015;
     double[] unfudgedTargetFrameRates; // Report un-fudged target frame rates to client.
 
-    LinkedList<Long> previousFrameTimestamps = new LinkedList<>();
+    final int frameHistorySize = 10;
+
+    // Start times of the most recent frames, up to frameHistorySize of them. A circular buffer
+    // of primitives so that recording a frame doesn't allocate; `nextTimestampIndex` is where the
+    // next time will be stored, which is the oldest time once the buffer is full.
+    long[] previousFrameTimestamps = new long[frameHistorySize];
+    int numTimestamps = 0;
+    int nextTimestampIndex = 0;
+
+    // Start and end times of the last timingHistorySize frames, in a circular buffer like
+    // previousFrameTimestamps. An end time of 0 means frameEnded() wasn't called for that frame.
+    final int timingHistorySize = 256;
+    long[] recentFrameStarts = new long[timingHistorySize];
+    long[] recentFrameEnds = new long[timingHistorySize];
+    int numRecentFrames = 0;
+    int nextRecentFrameIndex = 0;
+
+    // Intervals between consecutive frame starts, and time from start to end of each frame.
+    FrameTimeHistogram frameIntervals = new FrameTimeHistogram();
+    FrameTimeHistogram frameWorkTimes = new FrameTimeHistogram();
+    long vsyncNanos = BILLION / 60;
+    // Number of vsync intervals per frame at the current target frame rate.
+    long targetVsyncsPerFrame = 1;
+    long missedVsyncs = 0;
+    long totalWorkNanos = 0;
+    long totalWaitNanos = 0;
+    long totalSleepNanos = 0;
 
-    int frameHistorySize = 10;
     boolean allowReducingFrameRate = true;
     boolean allowLockingFrameRate = true;
 
@@ -84,7 +119,10 @@ public class FrameRateManager {
      * otherwise not generating frames, to avoid inaccurate frame rates when it starts again.
      */
     public void clearTimestamps() {
-        previousFrameTimestamps.clear();
+        numTimestamps = 0;
+        nextTimestampIndex = 0;
+        numRecentFrames = 0;
+        nextRecentFrameIndex = 0;
         goodFrames = 0;
         slowFrames = 0;
         currentFPS = -1;
@@ -93,6 +131,14 @@ public class FrameRateManager {
     private void setCurrentRateIndex(int index) {
         currentRateIndex = index;
         currentNanosPerFrame = (long) (BILLION / targetFrameRates[currentRateIndex]);
+        updateTargetVsyncsPerFrame();
+    }
+
+    private void updateTargetVsyncsPerFrame() {
+        // Round up, so that e.g. 45 fps on a 60 Hz display allows 2 vsyncs per frame, but with
+        // some tolerance so that the fudge factor doesn't turn 60 fps at 60 Hz into 2 vsyncs.
+        double vsyncs = (double) currentNanosPerFrame / vsyncNanos;
+        targetVsyncsPerFrame = Math.max(1, (long) Math.ceil(vsyncs - 0.05));
     }
 
     /** Internal method to reduce the target frame rate to the next lower value. */
@@ -132,9 +178,15 @@ public class FrameRateManager {
         resetIfRequested();
         long time = nanoTimeFn.getAsLong();
         ++totalFrames;
-        previousFrameTimestamps.add(time);
-        if (previousFrameTimestamps.size() > frameHistorySize) {
-            long firstTime = previousFrameTimestamps.removeFirst();
+        recordFrameStart(time);
+        boolean historyFull = (numTimestamps == frameHistorySize);
+        long firstTime = previousFrameTimestamps[nextTimestampIndex];
+        previousFrameTimestamps[nextTimestampIndex] = time;
+        nextTimestampIndex = (nextTimestampIndex + 1) % frameHistorySize;
+        if (!historyFull) {
+            numTimestamps++;
+        }
+        else {
             double seconds = (time - firstTime) / (double) BILLION;
             currentFPS = frameHistorySize / seconds;
 
@@ -164,6 +216,131 @@ public class FrameRateManager {
         }
     }
 
+    private void recordFrameStart(long time) {
+        if (numRecentFrames > 0) {
+            int lastIndex = (nextRecentFrameIndex + timingHistorySize - 1) % timingHistorySize;
+            long interval = time - recentFrameStarts[lastIndex];
+            frameIntervals.record(interval);
+            // At 60 fps on a 60 Hz display an interval of 2 vsyncs missed 1, and so on. Round so
+            // that jitter doesn't count.
+            long vsyncs = (interval + vsyncNanos / 2) / vsyncNanos;
+            if (vsyncs > targetVsyncsPerFrame) missedVsyncs += vsyncs - targetVsyncsPerFrame;
+        }
+        recentFrameStarts[nextRecentFrameIndex] = time;
+        recentFrameEnds[nextRecentFrameIndex] = 0;
+        nextRecentFrameIndex = (nextRecentFrameIndex + 1) % timingHistorySize;
+        if (numRecentFrames < timingHistorySize) numRecentFrames++;
+    }
+
+    /** Calls frameEnded(0), for frames that didn't wait on other threads. */
+    public void frameEnded() {
+        frameEnded(0);
+    }
+
+    /**
+     * Records the end time of the current frame, and the time spent working on it. Should be
+     * called after the frame has been generated and before sleeping until the next frame.
+     * `waitNanos` is the time since frameStarted() spent blocked waiting for another thread, e.g.
+     * for the renderer to catch up, which is counted as waiting rather than work.
+     */
+    public void frameEnded(long waitNanos) {
+        if (numRecentFrames == 0) return;
+        long time = nanoTimeFn.getAsLong();
+        int index = (nextRecentFrameIndex + timingHistorySize - 1) % timingHistorySize;
+        recentFrameEnds[index] = time;
+        long elapsed = time - recentFrameStarts[index];
+        waitNanos = Math.max(0, Math.min(waitNanos, elapsed));
+        long work = elapsed - waitNanos;
+        frameWorkTimes.record(work);
+        totalWorkNanos += work;
+        totalWaitNanos += waitNanos;
+    }
+
+    /** Returns the number of frames whose start times are available from getRecentFrameStart. */
+    public int getRecentFrameCount() {
+        return numRecentFrames;
+    }
+
+    /** Returns the start time of a recent frame, where index 0 is the oldest. */
+    public long getRecentFrameStart(int index) {
+        return recentFrameStarts[recentFrameIndex(index)];
+    }
+
+    /**
+     * Returns the end time of a recent frame, where index 0 is the oldest, or 0 if frameEnded()
+     * wasn't called for it.
+     */
+    public long getRecentFrameEnd(int index) {
+        return recentFrameEnds[recentFrameIndex(index)];
+    }
+
+    private int recentFrameIndex(int index) {
+        if (index < 0 || index >= numRecentFrames) {
+            throw new IndexOutOfBoundsException("Invalid frame index: " + index);
+        }
+        int oldest = (numRecentFrames < timingHistorySize) ? 0 : nextRecentFrameIndex;
+        return (oldest + index) % timingHistorySize;
+    }
+
+    /** Sets the display refresh interval used to count missed vsyncs. Defaults to 1/60 second. */
+    public void setVsyncIntervalNanos(long nanos) {
+        vsyncNanos = nanos;
+        updateTargetVsyncsPerFrame();
+    }
+
+    /**
+     * Copies the frame interval and work time histograms and totals into `stats`. Timing data is
+     * updated by the thread that calls frameStarted(), so other threads should read copies; this
+     * doesn't allocate, so it can be called every frame.
+     */
+    public void copyTimingStats(FrameTimingStats stats) {
+        synchronized (stats) {
+            stats.frameIntervals.copyFrom(frameIntervals);
+            stats.frameWorkTimes.copyFrom(frameWorkTimes);
+            stats.missedVsyncs = missedVsyncs;
+            stats.totalWorkNanos = totalWorkNanos;
+            stats.totalWaitNanos = totalWaitNanos;
+            stats.totalSleepNanos = totalSleepNanos;
+        }
+    }
+
+    /** Clears the histograms and totals of frame timing. */
+    public void clearTimingStats() {
+        frameIntervals.clear();
+        frameWorkTimes.clear();
+        missedVsyncs = 0;
+        totalWorkNanos = 0;
+        totalWaitNanos = 0;
+        totalSleepNanos = 0;
+    }
+
+    /** Returns the histogram of intervals between frame starts. */
+    public FrameTimeHistogram getFrameIntervals() {
+        return frameIntervals;
+    }
+
+    /** Returns the histogram of times from frameStarted() to frameEnded(), minus waits. */
+    public FrameTimeHistogram getFrameWorkTimes() {
+        return frameWorkTimes;
+    }
+
+    public long getMissedVsyncCount() {
+        return missedVsyncs;
+    }
+
+    public long getTotalWorkNanos() {
+        return totalWorkNanos;
+    }
+
+    /** Returns the total time passed to frameEnded() as spent waiting for other threads. */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    public long getTotalSleepNanos() {
+        return totalSleepNanos;
+    }
+
     /**
      * Returns the current frames per second, based on previously recorded frame times. If there
      * have not been a sufficient number of times recorded, returns -1.
@@ -192,16 +369,17 @@ public class FrameRateManager {
      */
     public long nanosToWaitUntilNextFrame() {
         long time = nanoTimeFn.getAsLong();
-        if (previousFrameTimestamps.isEmpty()) {
+        if (numTimestamps == 0) {
             return MILLION;
         }
-        long lastStartTime = previousFrameTimestamps.getLast();
+        int lastIndex = (nextTimestampIndex + frameHistorySize - 1) % frameHistorySize;
+        long lastStartTime = previousFrameTimestamps[lastIndex];
         long singleFrameGoalTime = lastStartTime + currentNanosPerFrame;
         long waitTime = singleFrameGoalTime - time;
         // adjust based on previous frame rates
-        if (previousFrameTimestamps.size() == frameHistorySize) {
-            long multiFrameGoalTime =
-                    previousFrameTimestamps.getFirst() + frameHistorySize * currentNanosPerFrame;
+        if (numTimestamps == frameHistorySize) {
+            long firstStartTime = previousFrameTimestamps[nextTimestampIndex];
+            long multiFrameGoalTime = firstStartTime + frameHistorySize * currentNanosPerFrame;
             long behind = singleFrameGoalTime - multiFrameGoalTime;
             // behind>0 means we're behind schedule and should decrease wait time.
             // behind<0 means we're ahead of schedule, but don't adjust.
@@ -220,10 +398,12 @@ public class FrameRateManager {
      */
     public long sleepUntilNextFrame() {
         long nanos = nanosToWaitUntilNextFrame();
+        long sleepStart = nanoTimeFn.getAsLong();
         try {
             Thread.sleep(nanos / MILLION, (int) (nanos % MILLION));
         } catch (InterruptedException ignored) {
         }
+        totalSleepNanos += nanoTimeFn.getAsLong() - sleepStart;
         return nanos;
     }
 
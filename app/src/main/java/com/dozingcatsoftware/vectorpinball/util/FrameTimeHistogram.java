@@ -0,0 +1,164 @@
+package com.dozingcatsoftware.vectorpinball.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Histogram of frame durations with fixed log-scale buckets, so that occasional slow frames
+ * ("jank") are visible instead of being hidden in an average. Bucket boundaries start at
+ * MIN_NANOS and increase by a factor of 2^(1/BUCKETS_PER_DOUBLING), so percentiles are accurate
+ * to within about 9% over the whole range; durations below MIN_NANOS go in the first bucket and
+ * durations above the last boundary go in an overflow bucket. The exact maximum is also tracked.
+ * The range is wide enough for both display frame intervals and headless ticks, which can take
+ * well under a millisecond. Recording doesn't allocate, so it can be done every frame.
+ */
+public class FrameTimeHistogram {
+
+    /** Upper bound of the first bucket, 1 microsecond. */
+    public static final long MIN_NANOS = 1000L;
+    public static final int BUCKETS_PER_DOUBLING = 8;
+    // 19 doublings from 1 us covers up to 524 ms.
+    static final int NUM_DOUBLINGS = 19;
+    /** Number of buckets, including the overflow bucket. */
+    public static final int NUM_BUCKETS = NUM_DOUBLINGS * BUCKETS_PER_DOUBLING + 1;
+
+    static final double LN_2 = Math.log(2);
+
+    final long[] counts = new long[NUM_BUCKETS];
+    long totalCount = 0;
+    long totalNanos = 0;
+    long maxNanos = 0;
+
+    /** Returns the index of the bucket that `nanos` is recorded in. */
+    public static int bucketIndex(long nanos) {
+        if (nanos <= MIN_NANOS) return 0;
+        double doublings = Math.log((double) nanos / MIN_NANOS) / LN_2;
+        int index = (int) Math.ceil(doublings * BUCKETS_PER_DOUBLING);
+        return Math.min(index, NUM_BUCKETS - 1);
+    }
+
+    /**
+     * Returns the largest duration recorded in the bucket at `index`, or Long.MAX_VALUE for the
+     * overflow bucket.
+     */
+    public static long bucketUpperBoundNanos(int index) {
+        if (index >= NUM_BUCKETS - 1) return Long.MAX_VALUE;
+        return (long) (MIN_NANOS * Math.pow(2, (double) index / BUCKETS_PER_DOUBLING));
+    }
+
+    public void record(long nanos) {
+        counts[bucketIndex(nanos)]++;
+        totalCount++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    /** Replaces the contents of this histogram with those of `other`. */
+    public void copyFrom(FrameTimeHistogram other) {
+        System.arraycopy(other.counts, 0, counts, 0, NUM_BUCKETS);
+        totalCount = other.totalCount;
+        totalNanos = other.totalNanos;
+        maxNanos = other.maxNanos;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getBucketCount(int index) {
+        return counts[index];
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public double getMeanNanos() {
+        return (totalCount > 0) ? (double) totalNanos / totalCount : 0;
+    }
+
+    /**
+     * Returns the duration that `fraction` (0 to 1) of the recorded durations are less than or
+     * equal to, rounded up to the upper bound of its bucket but never more than the maximum. For
+     * example, percentileNanos(0.95) is the 95th percentile. Returns 0 if nothing is recorded.
+     */
+    public long percentileNanos(double fraction) {
+        int bucket = percentileBucket(fraction);
+        if (bucket < 0) return 0;
+        return Math.min(bucketUpperBoundNanos(bucket), maxNanos);
+    }
+
+    // Returns the index of the bucket containing the percentile `fraction`, or -1 if nothing is
+    // recorded.
+    int percentileBucket(double fraction) {
+        if (totalCount == 0) return -1;
+        long rank = (long) Math.ceil(fraction * totalCount);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) return i;
+        }
+        return NUM_BUCKETS - 1;
+    }
+
+    /** Returns the number of recorded durations longer than `nanos`, to bucket resolution. */
+    public long countLongerThan(long nanos) {
+        long count = 0;
+        for (int i = bucketIndex(nanos) + 1; i < NUM_BUCKETS; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the 50th, 95th, and 99th percentiles and the maximum in milliseconds. Percentiles in
+     * the first bucket are shown as "<" its upper bound, since they can be anywhere below it.
+     */
+    public String percentileSummary() {
+        return String.format(Locale.US, "p50 %s p95 %s p99 %s max %.3f ms",
+                formatPercentile(0.5), formatPercentile(0.95), formatPercentile(0.99),
+                maxNanos / 1e6);
+    }
+
+    private String formatPercentile(double fraction) {
+        if (percentileBucket(fraction) == 0) {
+            return String.format(Locale.US, "<%.3f", MIN_NANOS / 1e6);
+        }
+        return String.format(Locale.US, "%.3f", percentileNanos(fraction) / 1e6);
+    }
+
+    /**
+     * Returns a text chart of the histogram, with a line for each bucket from the first to the
+     * last nonempty bucket, showing its upper bound, count, and a bar proportional to the count.
+     */
+    public String asciiChart(int maxBarLength) {
+        StringBuilder sb = new StringBuilder();
+        int first = 0;
+        while (first < NUM_BUCKETS && counts[first] == 0) first++;
+        int last = NUM_BUCKETS - 1;
+        while (last > first && counts[last] == 0) last--;
+        long maxCount = 0;
+        for (int i = first; i <= last; i++) {
+            maxCount = Math.max(maxCount, counts[i]);
+        }
+        for (int i = first; i <= last; i++) {
+            long bound = bucketUpperBoundNanos(i);
+            String label = (bound == Long.MAX_VALUE) ?
+                    "     more" : String.format(Locale.US, "%9.3f", bound / 1e6);
+            sb.append(label).append(String.format(Locale.US, " ms %8d ", counts[i]));
+            int barLength = (int) Math.ceil((double) maxBarLength * counts[i] / maxCount);
+            for (int j = 0; j < barLength; j++) {
+                sb.append('#');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
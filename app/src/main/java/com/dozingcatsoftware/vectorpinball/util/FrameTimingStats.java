@@ -0,0 +1,57 @@
+package com.dozingcatsoftware.vectorpinball.util;
+
+import java.util.Locale;
+
+/**
+ * A copy of the frame timing statistics from a FrameRateManager, made by copyTimingStats() so
+ * that they can be displayed by a thread other than the one generating frames. Callers should
+ * synchronize on this object while reading it.
+ */
+public class FrameTimingStats {
+
+    final FrameTimeHistogram frameIntervals = new FrameTimeHistogram();
+    final FrameTimeHistogram frameWorkTimes = new FrameTimeHistogram();
+    long missedVsyncs;
+    long totalWorkNanos;
+    long totalWaitNanos;
+    long totalSleepNanos;
+
+    /** Returns the histogram of intervals between frame starts. */
+    public FrameTimeHistogram getFrameIntervals() {
+        return frameIntervals;
+    }
+
+    /** Returns the histogram of time spent generating each frame. */
+    public FrameTimeHistogram getFrameWorkTimes() {
+        return frameWorkTimes;
+    }
+
+    public long getMissedVsyncCount() {
+        return missedVsyncs;
+    }
+
+    public long getTotalWorkNanos() {
+        return totalWorkNanos;
+    }
+
+    /** Returns the time spent blocked on other threads, such as waiting for the renderer. */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    public long getTotalSleepNanos() {
+        return totalSleepNanos;
+    }
+
+    /** Returns the fraction of time spent generating frames rather than waiting or sleeping. */
+    public double workFraction() {
+        long total = totalWorkNanos + totalWaitNanos + totalSleepNanos;
+        return (total > 0) ? (double) totalWorkNanos / total : 0;
+    }
+
+    /** Returns frame interval percentiles, missed vsyncs, and the fraction of time working. */
+    public String summary() {
+        return String.format(Locale.US, "%s, %d missed vsyncs, %.0f%% working",
+                frameIntervals.percentileSummary(), missedVsyncs, 100 * workFraction());
+    }
+}
@@ -0,0 +1,255 @@
+package com.dozingcatsoftware.vectorpinball.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records timed spans from any thread into a fixed-size ring, so that the interleaving of the
+ * game, GL, and UI threads can be examined after the fact. Each record is an event ID, the ID of
+ * the thread that recorded it, and its begin and end times from System.nanoTime, stored in
+ * primitive arrays; once the ring is full the oldest records are overwritten. Code around a span
+ * calls `begin` and then `end` with the event ID, which doesn't allocate or lock, so recording can
+ * be left on during normal play. The ring holds about 30 seconds of a typical game at 60 fps.
+ *
+ * Each slot also has a commit stamp, which the recording thread sets to the record's index plus 1
+ * after writing the other fields. takeSnapshot copies the spans out of the ring, pausing tracing
+ * only for the copy, and copies only slots whose stamp matches the index it expects, so records
+ * that are unwritten, half written, or left over from an earlier lap of the ring are skipped.
+ * Snapshot.writeChromeTrace writes them in the Chrome trace_event JSON format, which can be
+ * opened in chrome://tracing or https://ui.perfetto.dev. Writing a full ring produces several
+ * megabytes, so apps should write snapshots on a background thread. Waits to acquire a lock are
+ * recorded as their own events (e.g. FIELD_LOCK_WAIT), so contention between threads shows up as
+ * gaps.
+ *
+ * Tracing is disabled by default, in which case `begin` returns 0 and `end` does nothing.
+ */
+public class TraceRecorder {
+
+    public static final int GAME_FRAME = 0;
+    public static final int FIELD_LOCK_WAIT = 1;
+    public static final int FIELD_TICK = 2;
+    public static final int CAPTURE = 3;
+    public static final int RENDERER_WAIT = 4;
+    public static final int FRAME_SLEEP = 5;
+    public static final int RENDER = 6;
+    public static final int INPUT = 7;
+    public static final int LOAD_SOUNDS = 8;
+    public static final int NUM_EVENTS = 9;
+
+    static final String[] EVENT_NAMES = {
+            "frame", "field lock wait", "tick", "capture", "renderer wait", "sleep", "render",
+            "input", "load sounds"};
+
+    /** Number of records kept, a power of 2. */
+    public static final int CAPACITY = 1 << 16;
+    static final int INDEX_MASK = CAPACITY - 1;
+
+    private static volatile boolean enabled = false;
+    // Allocated the first time tracing is enabled.
+    private static int[] eventIds;
+    private static long[] threadIds;
+    private static long[] beginNanos;
+    private static long[] endNanos;
+    // Commit stamp of each slot: the index of its record plus 1 once the record is completely
+    // written, or IN_PROGRESS while it's being written. The volatile write of the stamp after the
+    // other fields makes them visible to a thread that reads the stamp first.
+    private static AtomicLongArray stamps;
+    static final long IN_PROGRESS = -1;
+    // Total number of records started; the next record goes in slot (nextIndex & INDEX_MASK).
+    // Never reset, so that stamps from before tracing was last enabled can't match.
+    private static final AtomicLong nextIndex = new AtomicLong();
+    // Value of nextIndex when tracing was last enabled.
+    private static volatile long firstIndex = 0;
+
+    private TraceRecorder() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Enables or disables tracing. Enabling clears any previous records. */
+    public static synchronized void setEnabled(boolean value) {
+        if (value && !enabled) {
+            if (eventIds == null) {
+                eventIds = new int[CAPACITY];
+                threadIds = new long[CAPACITY];
+                beginNanos = new long[CAPACITY];
+                endNanos = new long[CAPACITY];
+                stamps = new AtomicLongArray(CAPACITY);
+            }
+            firstIndex = nextIndex.get();
+        }
+        enabled = value;
+    }
+
+    /** Returns the current System.nanoTime if tracing is enabled, or 0 if not. */
+    public static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Records a span of `eventId` on the current thread from `startNanos`, returned by `begin`. */
+    public static void end(int eventId, long startNanos) {
+        if (startNanos == 0 || !enabled) return;
+        long now = System.nanoTime();
+        long index = nextIndex.getAndIncrement();
+        int slot = (int) (index & INDEX_MASK);
+        // getAndSet rather than set, so that a snapshot that validated this slot before this
+        // write can't see any of the fields below; see takeSnapshot.
+        stamps.getAndSet(slot, IN_PROGRESS);
+        eventIds[slot] = eventId;
+        threadIds[slot] = Thread.currentThread().getId();
+        beginNanos[slot] = startNanos;
+        endNanos[slot] = now;
+        stamps.set(slot, index + 1);
+    }
+
+    public static String getEventName(int eventId) {
+        return EVENT_NAMES[eventId];
+    }
+
+    /** Returns the number of records currently in the ring, including any still being written. */
+    public static int getRecordCount() {
+        return (int) Math.min(nextIndex.get() - firstIndex, CAPACITY);
+    }
+
+    /**
+     * Recorded spans copied out of the ring by takeSnapshot, oldest first, along with the names
+     * of the threads that recorded them.
+     */
+    public static class Snapshot {
+        int count = 0;
+        final int[] eventIds;
+        final long[] threadIds;
+        final long[] beginNanos;
+        final long[] endNanos;
+        final Map<Long, String> threadNames = new HashMap<>();
+
+        Snapshot(int capacity) {
+            this.eventIds = new int[capacity];
+            this.threadIds = new long[capacity];
+            this.beginNanos = new long[capacity];
+            this.endNanos = new long[capacity];
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Writes the spans as a Chrome trace_event JSON object. Times are in microseconds
+         * relative to the oldest span. Threads that were running when the snapshot was taken
+         * are named in metadata events.
+         */
+        public void writeChromeTrace(Writer out) throws IOException {
+            out.write("{\"traceEvents\":[\n");
+            long originNanos = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                originNanos = Math.min(originNanos, beginNanos[i]);
+            }
+            boolean needsComma = false;
+            Set<Long> threadsSeen = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                if (needsComma) out.write(",\n");
+                writeSpan(out, EVENT_NAMES[eventIds[i]], threadIds[i],
+                        (beginNanos[i] - originNanos) / 1000.0,
+                        (endNanos[i] - beginNanos[i]) / 1000.0);
+                threadsSeen.add(threadIds[i]);
+                needsComma = true;
+            }
+            for (Map.Entry<Long, String> entry : threadNames.entrySet()) {
+                if (!threadsSeen.contains(entry.getKey())) continue;
+                if (needsComma) out.write(",\n");
+                out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+                out.write(Long.toString(entry.getKey()));
+                out.write(",\"args\":{\"name\":\"");
+                out.write(escapeJson(entry.getValue()));
+                out.write("\"}}");
+                needsComma = true;
+            }
+            out.write("\n]}\n");
+            out.flush();
+        }
+    }
+
+    /**
+     * Copies the recorded spans out of the ring. Tracing is paused while copying so that the ring
+     * isn't overwritten by new spans. A thread that checked `enabled` just before the pause may
+     * still be recording, so each slot is copied only if its stamp shows the expected record
+     * before the copy and is unchanged after it; incomplete and overwritten spans are skipped.
+     */
+    public static synchronized Snapshot takeSnapshot() {
+        boolean wasEnabled = enabled;
+        enabled = false;
+        try {
+            long total = nextIndex.get();
+            if (stamps == null) return new Snapshot(0);
+            int available = (int) Math.min(total - firstIndex, CAPACITY);
+            Snapshot snapshot = new Snapshot(available);
+            int n = 0;
+            for (long i = total - available; i < total; i++) {
+                int slot = (int) (i & INDEX_MASK);
+                if (stamps.get(slot) != i + 1) continue;
+                snapshot.eventIds[n] = eventIds[slot];
+                snapshot.threadIds[n] = threadIds[slot];
+                snapshot.beginNanos[n] = beginNanos[slot];
+                snapshot.endNanos[n] = endNanos[slot];
+                // A compare-and-set rather than a read, so that a writer's getAndSet either fails
+                // this check or happens after the copy above.
+                if (stamps.compareAndSet(slot, i + 1, i + 1)) n++;
+            }
+            snapshot.count = n;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                snapshot.threadNames.put(thread.getId(), thread.getName());
+            }
+            return snapshot;
+        }
+        finally {
+            enabled = wasEnabled;
+        }
+    }
+
+    /**
+     * Takes a snapshot and writes it as a Chrome trace_event JSON object, on the calling thread.
+     * See Snapshot.writeChromeTrace.
+     */
+    public static void writeChromeTrace(Writer out) throws IOException {
+        takeSnapshot().writeChromeTrace(out);
+    }
+
+    private static void writeSpan(Writer out, String name, long threadId,
+            double startMicros, double durationMicros) throws IOException {
+        out.write("{\"name\":\"");
+        out.write(name);
+        out.write("\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+        out.write(Long.toString(threadId));
+        out.write(",\"ts\":");
+        out.write(Double.toString(startMicros));
+        out.write(",\"dur\":");
+        out.write(Double.toString(durationMicros));
+        out.write("}");
+    }
+
+    static String escapeJson(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package com.dozingcatsoftware.vectorpinball.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free triple buffer for passing the latest of a series of values from one producer thread
+ * to one consumer thread, without either one waiting for the other. There are three
+ * preallocated values: the producer fills the "back" value returned by getWriteBuffer() and then
+ * calls publish() to swap it with the "middle" value, and the consumer calls acquire() to swap
+ * the middle value with its "front" value if a newer one has been published. The producer and
+ * consumer never see the same value at the same time, and the consumer always gets the most
+ * recently published value; values published between two calls to acquire() are skipped.
+ *
+ * The only shared state is an AtomicInteger holding the index of the middle value and a flag
+ * that's set when it has been published and not yet acquired. Nothing is allocated after
+ * construction, so this can be used every frame.
+ */
+public class TripleBuffer<T> {
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final Object[] buffers = new Object[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    // Only accessed by the producer.
+    private int backIndex = 0;
+    // Only accessed by the consumer.
+    private int frontIndex = 2;
+    private boolean hasFront = false;
+
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = factory.get();
+        }
+    }
+
+    /** Returns the value that the producer should fill before calling publish(). */
+    @SuppressWarnings("unchecked")
+    public T getWriteBuffer() {
+        return (T) buffers[backIndex];
+    }
+
+    /**
+     * Makes the value returned by getWriteBuffer() available to the consumer. The producer then
+     * gets a different value from getWriteBuffer(), which will have old contents.
+     */
+    public void publish() {
+        backIndex = middle.getAndSet(backIndex | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Returns the most recently published value, or null if nothing has been published yet. The
+     * value belongs to the consumer until the next call to acquire(), and is returned again if
+     * nothing newer has been published.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            frontIndex = middle.getAndSet(frontIndex) & INDEX_MASK;
+            hasFront = true;
+        }
+        return hasFront ? (T) buffers[frontIndex] : null;
+    }
+
+    /** Returns true if a value has been published that the consumer hasn't acquired. */
+    public boolean hasNewValue() {
+        return (middle.get() & FRESH) != 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dozingcatsoftware.vectorpinball.model.Field;
+
+/**
+ * Measures Field.draw for each table, both into a RecordingFieldRenderer (the cost of walking the
+ * elements in draw order) and into a VertexBufferRenderer (adding the cost of building vertex
+ * buffers as GL20Renderer does). The field is advanced a few seconds with a ball in play so that
+ * the draw includes a ball and any animated elements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FieldDrawBenchmark {
+
+    @Param({"1", "2", "3", "4", "5", "6", "7"})
+    int table;
+
+    Field field;
+    RecordingFieldRenderer recordingRenderer = new RecordingFieldRenderer(1080, 1920);
+    VertexBufferRenderer vertexRenderer = new VertexBufferRenderer(1080, 1920, 6);
+
+    @Setup
+    public void setUp() {
+        HeadlessRunner runner = HeadlessRunner.forTable(TableFiles.defaultTablesDir(), table);
+        runner.runFrames(3 * HeadlessRunner.FRAMES_PER_SECOND);
+        field = runner.getField();
+        vertexRenderer.setFieldSize(field.getWidth(), field.getHeight());
+    }
+
+    @Benchmark
+    public int drawToRecordingRenderer() {
+        recordingRenderer.clear();
+        field.draw(recordingRenderer);
+        return recordingRenderer.getOperationCount();
+    }
+
+    @Benchmark
+    public int drawToVertexBuffers() {
+        vertexRenderer.startDraw();
+        field.draw(vertexRenderer);
+        return vertexRenderer.bytesWritten();
+    }
+}
@@ -0,0 +1,57 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the time for one frame of simulation (a Field.tick call with the same parameters that
+ * FieldDriver uses, so the number of Box2D steps is chosen adaptively) on each table, with a single ball, three balls as in a typical multiball, and
+ * many balls as a stress case. The autopilot in HeadlessRunner keeps the requested number of balls
+ * in play and operates the flippers, so the measured frames include collisions and scoring.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FieldTickBenchmark {
+
+    @Param({"1", "2", "3", "4", "5", "6", "7"})
+    int table;
+
+    @Param({"1", "3", "12"})
+    int balls;
+
+    // Run with -p parallelLayers=true to compare with stepping the layer worlds concurrently.
+    @Param({"false"})
+    boolean parallelLayers;
+
+    // Box2D steps per frame, or 0 for adaptive substeps. Run with -p substeps=0,4 to compare with
+    // the previous fixed 4 steps of 10 solver iterations.
+    @Param({"0"})
+    int substeps;
+
+    HeadlessRunner runner;
+
+    @Setup
+    public void setUp() {
+        runner = HeadlessRunner.forTable(TableFiles.defaultTablesDir(), table);
+        runner.setTargetBallCount(balls);
+        runner.getField().setParallelLayerStepping(parallelLayers);
+        runner.setFixedSubsteps(substeps);
+        // Get the requested number of balls into play before measuring.
+        runner.runFrames(5 * HeadlessRunner.FRAMES_PER_SECOND);
+    }
+
+    @Benchmark
+    public long tick() {
+        runner.runFrame();
+        return runner.getField().getGameState().getScore();
+    }
+}
@@ -0,0 +1,84 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.ContactListener;
+import com.dozingcatsoftware.vectorpinball.model.AudioPlayer;
+import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.FieldLayout;
+import com.dozingcatsoftware.vectorpinball.model.WorldLayers;
+
+/**
+ * Measures loading a table: parsing the JSON file, constructing the FieldLayout (which creates all
+ * the elements and their Box2D bodies), and the full Field.resetForLayoutMap that the app calls
+ * when switching tables. The Box2D worlds are disposed after each invocation so that native
+ * memory doesn't grow for the duration of the benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayoutBenchmark {
+
+    static {
+        Box2D.init();
+    }
+
+    @Param({"1", "2", "3", "4", "5", "6", "7"})
+    int table;
+
+    String layoutJson;
+    Map<String, Object> layoutMap;
+    WorldLayers worlds;
+    Field field;
+
+    @Setup
+    public void setUp() throws Exception {
+        File file = TableFiles.fileForTable(TableFiles.defaultTablesDir(), table);
+        layoutJson = new String(Files.readAllBytes(file.toPath()), "utf8");
+        layoutMap = TableFiles.layoutMapFromJSONString(layoutJson);
+    }
+
+    @TearDown(Level.Invocation)
+    public void disposeWorlds() {
+        if (worlds != null) {
+            worlds.dispose();
+            worlds = null;
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> parseJson() {
+        return TableFiles.layoutMapFromJSONString(layoutJson);
+    }
+
+    @Benchmark
+    public FieldLayout createFieldLayout() {
+        // Contacts aren't processed, so the worlds don't need a contact listener.
+        worlds = new WorldLayers((ContactListener) null);
+        return new FieldLayout(layoutMap, worlds);
+    }
+
+    @Benchmark
+    public Field resetField() {
+        field = new Field(() -> 0L, HeadlessRunner.KEY_RESOLVER,
+                AudioPlayer.NoOpPlayer.getInstance());
+        field.resetForLayoutMap(layoutMap);
+        worlds = field.getWorlds();
+        return field;
+    }
+}
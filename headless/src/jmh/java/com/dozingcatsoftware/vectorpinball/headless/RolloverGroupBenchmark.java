@@ -0,0 +1,102 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.ContactListener;
+import com.dozingcatsoftware.vectorpinball.elements.FieldElement;
+import com.dozingcatsoftware.vectorpinball.elements.RolloverGroupElement;
+import com.dozingcatsoftware.vectorpinball.model.WorldLayers;
+
+/**
+ * Measures querying, setting, and cycling the states of a RolloverGroupElement as the size of the
+ * group grows. 5 is the size of the planet orbits group in table 6, the largest group that
+ * delegates query on every tick; the larger sizes check that the time per query doesn't depend on
+ * the number of rollovers. Every other rollover is active, and queries step through the indices
+ * so that they aren't all for the same rollover.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RolloverGroupBenchmark {
+
+    static {
+        Box2D.init();
+    }
+
+    @Param({"5", "64", "1000"})
+    int rollovers;
+
+    WorldLayers worlds;
+    RolloverGroupElement group;
+    int index = 0;
+
+    @Setup
+    public void setUp() {
+        List<Map<String, Object>> rolloverMaps = new ArrayList<>();
+        for (int i = 0; i < rollovers; i++) {
+            Map<String, Object> rollover = new HashMap<>();
+            rollover.put("position", Arrays.asList(i, 0));
+            rolloverMaps.add(rollover);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("class", "RolloverGroupElement");
+        params.put("radius", 0.5);
+        params.put("rollovers", rolloverMaps);
+        // The group has no bodies, so the world doesn't need a contact listener.
+        worlds = new WorldLayers((ContactListener) null);
+        group = (RolloverGroupElement) FieldElement.createFromParameters(params, null, worlds);
+        for (int i = 1; i < rollovers; i += 2) {
+            group.setRolloverActiveAtIndex(i, true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        worlds.dispose();
+    }
+
+    private int nextIndex() {
+        index = (index + 1 == rollovers) ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public boolean isRolloverActive() {
+        return group.isRolloverActiveAtIndex(nextIndex());
+    }
+
+    @Benchmark
+    public boolean setRolloverActive() {
+        int i = nextIndex();
+        boolean active = !group.isRolloverActiveAtIndex(i);
+        group.setRolloverActiveAtIndex(i, active);
+        return active;
+    }
+
+    @Benchmark
+    public boolean allRolloversActive() {
+        return group.allRolloversActive();
+    }
+
+    @Benchmark
+    public boolean cycleRollovers() {
+        group.cycleRollovers(true);
+        return group.isRolloverActiveAtIndex(0);
+    }
+}
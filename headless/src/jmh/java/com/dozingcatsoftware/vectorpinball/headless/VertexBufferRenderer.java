@@ -0,0 +1,356 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.dozingcatsoftware.bouncy.util.TrigLookupTable;
+import com.dozingcatsoftware.vectorpinball.model.Color;
+import com.dozingcatsoftware.vectorpinball.model.IFieldRenderer;
+
+/**
+ * Builds vertex and index buffers the same way that the Android app's GL20Renderer does, but
+ * without any OpenGL calls, so that the CPU cost of vertex generation can be measured on a
+ * desktop JVM. Lines and polygon outlines use 16-byte vertices (position and packed color), and
+ * filled circles use 32-byte vertices (position, packed color, center, and squared radii). The
+ * view is unzoomed and centered, as FieldViewManager does when no ball is in play. Keep this in
+ * sync with GL20Renderer when its vertex layout changes.
+ */
+public class VertexBufferRenderer implements IFieldRenderer.FloatOnlyRenderer {
+    static final double TAU = 2 * Math.PI;
+
+    private static final int LINE_VERTEX_STRIDE_BYTES = 16;
+    private static final int CIRCLE_VERTEX_STRIDE_BYTES = 32;
+
+    private ByteBuffer lineVertices = makeByteBuffer(2048);
+    private ByteBuffer lineVertexIndices = makeByteBuffer(512);
+    private int numLineVertices = 0;
+    private int numLineVertexIndices = 0;
+
+    private ByteBuffer circleVertices = makeByteBuffer(2048);
+    private ByteBuffer circleVertexIndices = makeByteBuffer(512);
+    private int numCircleVertices = 0;
+    private int numCircleVertexIndices = 0;
+
+    TrigLookupTable trigTable = new TrigLookupTable(16, 32, 64, 128);
+
+    final int width;
+    final int height;
+    final int lineWidth;
+    float scale;
+    float xOffset;
+    float yOffset;
+
+    public VertexBufferRenderer(int width, int height, int lineWidth) {
+        this.width = width;
+        this.height = height;
+        this.lineWidth = lineWidth;
+    }
+
+    /** Sets the world to pixel transform so the field is fully visible and centered. */
+    public void setFieldSize(float fieldWidth, float fieldHeight) {
+        scale = Math.min(width / fieldWidth, height / fieldHeight);
+        xOffset = -(width / scale - fieldWidth) / 2;
+        yOffset = -(height / scale - fieldHeight) / 2;
+    }
+
+    private static ByteBuffer makeByteBuffer(int cap) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(cap);
+        bb.order(ByteOrder.nativeOrder());
+        return bb;
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int requiredRemaining) {
+        if (buffer.remaining() >= requiredRemaining) {
+            return buffer;
+        }
+        int newSize = Math.max(buffer.capacity() + requiredRemaining * 2, buffer.capacity() * 2);
+        ByteBuffer newBuffer = makeByteBuffer(newSize);
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private static int packColor(int color) {
+        int red = Color.getRed(color);
+        int green = Color.getGreen(color);
+        int blue = Color.getBlue(color);
+        int alpha = Color.getAlpha(color);
+        return LITTLE_ENDIAN ?
+            (alpha << 24) | (blue << 16) | (green << 8) | red :
+            (red << 24) | (green << 16) | (blue << 8) | alpha;
+    }
+
+    float world2pixelX(float x) {
+        return (x - xOffset) * scale;
+    }
+
+    float world2pixelY(float y) {
+        return height - ((y - yOffset) * scale);
+    }
+
+    float world2glX(float x) {
+        float maxDim = Math.max(width, height);
+        float offset = 1 - width / maxDim;
+        return ((2 * world2pixelX(x)) / maxDim - 1) + offset;
+    }
+
+    float world2glY(float y) {
+        float maxDim = Math.max(width, height);
+        float offset = 1 - height / maxDim;
+        return -(((2 * world2pixelY(y)) / maxDim - 1) + offset);
+    }
+
+    private float worldToGLPixelX(float x) {
+        return world2pixelX(x);
+    }
+
+    private float worldToGLPixelY(float y) {
+        return height - world2pixelY(y);
+    }
+
+    /** Clears all buffers, as GL20Renderer does at the start of each frame. */
+    public void startDraw() {
+        lineVertices.clear();
+        numLineVertices = 0;
+        lineVertexIndices.clear();
+        numLineVertexIndices = 0;
+
+        circleVertices.clear();
+        numCircleVertices = 0;
+        circleVertexIndices.clear();
+        numCircleVertexIndices = 0;
+    }
+
+    /** Returns the total number of bytes written to the vertex and index buffers this frame. */
+    public int bytesWritten() {
+        return lineVertices.position() + lineVertexIndices.position() +
+                circleVertices.position() + circleVertexIndices.position();
+    }
+
+    public int vertexCount() {
+        return numLineVertices + numCircleVertices;
+    }
+
+    public int indexCount() {
+        return numLineVertexIndices + numCircleVertexIndices;
+    }
+
+    private void putLineVertex(float x, float y, int packedColor) {
+        lineVertices.putFloat(x);
+        lineVertices.putFloat(y);
+        lineVertices.putFloat(0f);
+        lineVertices.putInt(packedColor);
+    }
+
+    private void putQuadIndices(ByteBuffer indices, int i0, int i1, int i2, int i3) {
+        indices.putInt(i0);
+        indices.putInt(i1);
+        indices.putInt(i2);
+        indices.putInt(i1);
+        indices.putInt(i2);
+        indices.putInt(i3);
+    }
+
+    private void addLine(
+            float x1, float y1, float x2, float y2,
+            float coreWidthPixels, float aaWidthPixels, int color) {
+        boolean useAA = (aaWidthPixels > coreWidthPixels);
+        int numVerticesToAdd = useAA ? 8 : 4;
+        int numIndicesToAdd = useAA ? 18 : 6;
+        int baseIndex = this.numLineVertices;
+        lineVertices = ensureRemaining(
+                lineVertices, LINE_VERTEX_STRIDE_BYTES * numVerticesToAdd);
+        lineVertexIndices = ensureRemaining(lineVertexIndices, numIndicesToAdd * 4);
+
+        float glx1 = world2glX(x1);
+        float gly1 = world2glY(y1);
+        float glx2 = world2glX(x2);
+        float gly2 = world2glY(y2);
+        int packedColor = packColor(color);
+        double perpAngle = Math.atan2(gly2 - gly1, glx2 - glx1) + TAU / 4;
+        float cosPerp = (float) Math.cos(perpAngle);
+        float sinPerp = (float) Math.sin(perpAngle);
+        float corePerpDistGl = coreWidthPixels / height;
+        float coreDx = corePerpDistGl * cosPerp;
+        float coreDy = corePerpDistGl * sinPerp;
+
+        putLineVertex(glx1 - coreDx, gly1 - coreDy, packedColor);
+        putLineVertex(glx2 - coreDx, gly2 - coreDy, packedColor);
+        putLineVertex(glx1 + coreDx, gly1 + coreDy, packedColor);
+        putLineVertex(glx2 + coreDx, gly2 + coreDy, packedColor);
+        putQuadIndices(lineVertexIndices, baseIndex, baseIndex + 1, baseIndex + 2, baseIndex + 3);
+
+        if (useAA) {
+            int alphaZeroColor = packColor(Color.withAlpha(color, 0));
+            float aaPerpDistGl = aaWidthPixels / height;
+            float aaDx = aaPerpDistGl * cosPerp;
+            float aaDy = aaPerpDistGl * sinPerp;
+
+            putLineVertex(glx1 - aaDx, gly1 - aaDy, alphaZeroColor);
+            putLineVertex(glx2 - aaDx, gly2 - aaDy, alphaZeroColor);
+            putLineVertex(glx1 + aaDx, gly1 + aaDy, alphaZeroColor);
+            putLineVertex(glx2 + aaDx, gly2 + aaDy, alphaZeroColor);
+            putQuadIndices(lineVertexIndices,
+                    baseIndex, baseIndex + 1, baseIndex + 4, baseIndex + 5);
+            putQuadIndices(lineVertexIndices,
+                    baseIndex + 2, baseIndex + 3, baseIndex + 6, baseIndex + 7);
+        }
+
+        this.numLineVertices += numVerticesToAdd;
+        this.numLineVertexIndices += numIndicesToAdd;
+    }
+
+    @Override public void drawLine(float x1, float y1, float x2, float y2, int color) {
+        if (lineWidth >= 5) {
+            addLine(x1, y1, x2, y2, lineWidth - 2, lineWidth + 2, color);
+        }
+        else {
+            addLine(x1, y1, x2, y2, lineWidth, 0, color);
+        }
+    }
+
+    @Override public void drawLinePath(float[] xEndpoints, float[] yEndpoints, int color) {
+        for (int i = 1; i < xEndpoints.length; i++) {
+            drawLine(xEndpoints[i - 1], yEndpoints[i - 1], xEndpoints[i], yEndpoints[i], color);
+        }
+    }
+
+    private void putCircleVertex(float x, float y, int packedColor,
+            float centerX, float centerY, float outerRadiusSq, float innerRadiusSq) {
+        circleVertices.putFloat(x);
+        circleVertices.putFloat(y);
+        circleVertices.putFloat(0f);
+        circleVertices.putInt(packedColor);
+        circleVertices.putFloat(centerX);
+        circleVertices.putFloat(centerY);
+        circleVertices.putFloat(outerRadiusSq);
+        circleVertices.putFloat(innerRadiusSq);
+    }
+
+    private void addFilledCircle(float cx, float cy, float coreRadius, float aaRadius, int color) {
+        circleVertices = ensureRemaining(circleVertices, CIRCLE_VERTEX_STRIDE_BYTES * 4);
+        float glx = world2glX(cx);
+        float gly = world2glY(cy);
+        float glrad = world2glX(aaRadius) - world2glX(0);
+        int packedColor = packColor(color);
+
+        float centerPixelX = worldToGLPixelX(cx);
+        float centerPixelY = worldToGLPixelY(cy);
+
+        float coreRadiusInPixels = worldToGLPixelX(coreRadius) - worldToGLPixelX(0);
+        float coreRadiusSq = coreRadiusInPixels * coreRadiusInPixels;
+        float aaRadiusInPixels = worldToGLPixelX(aaRadius) - worldToGLPixelX(0);
+        float aaRadiusSq = aaRadiusInPixels * aaRadiusInPixels;
+
+        putCircleVertex(glx - glrad, gly - glrad, packedColor,
+                centerPixelX, centerPixelY, aaRadiusSq, coreRadiusSq);
+        putCircleVertex(glx + glrad, gly - glrad, packedColor,
+                centerPixelX, centerPixelY, aaRadiusSq, coreRadiusSq);
+        putCircleVertex(glx - glrad, gly + glrad, packedColor,
+                centerPixelX, centerPixelY, aaRadiusSq, coreRadiusSq);
+        putCircleVertex(glx + glrad, gly + glrad, packedColor,
+                centerPixelX, centerPixelY, aaRadiusSq, coreRadiusSq);
+
+        circleVertexIndices = ensureRemaining(circleVertexIndices, 6 * 4);
+        int baseIndex = this.numCircleVertices;
+        putQuadIndices(circleVertexIndices, baseIndex, baseIndex + 1, baseIndex + 2, baseIndex + 3);
+
+        this.numCircleVertices += 4;
+        this.numCircleVertexIndices += 6;
+    }
+
+    @Override public void fillCircle(float cx, float cy, float radius, int color) {
+        float radiusInPixels = worldToGLPixelX(radius) - worldToGLPixelX(0);
+        if (radiusInPixels >= 10) {
+            float pixelsPerWorldUnit = world2pixelX(1) - world2pixelX(0);
+            float worldDelta = 1 / pixelsPerWorldUnit;
+            addFilledCircle(cx, cy, radius - worldDelta, radius + worldDelta, color);
+        }
+        else {
+            addFilledCircle(cx, cy, radius, radius, color);
+        }
+    }
+
+    private void addPolygonOutline(
+            float cx, float cy, float radius, int minPolySides,
+            float coreWidthPixels, float aaWidthPixels, int color) {
+        TrigLookupTable.SinCosValues sinCosValues = trigTable.valuesWithSizeAtLeast(minPolySides);
+        int polySides = sinCosValues.size();
+        boolean useAA = (aaWidthPixels > coreWidthPixels);
+        int numVerticesToAdd = polySides * (useAA ? 4 : 2);
+        int numIndicesToAdd = polySides * (useAA ? 18 : 6);
+        lineVertices = ensureRemaining(
+                lineVertices, LINE_VERTEX_STRIDE_BYTES * numVerticesToAdd);
+        lineVertexIndices = ensureRemaining(lineVertexIndices, numIndicesToAdd * 4);
+
+        float glcx = world2glX(cx);
+        float glcy = world2glY(cy);
+        float glrad = world2glX(radius) - world2glX(0);
+        float corePerpDistGl = coreWidthPixels / height;
+        float innerRadius = glrad - corePerpDistGl;
+        float outerRadius = glrad + corePerpDistGl;
+        int packedColor = packColor(color);
+        int base = this.numLineVertices;
+        for (int i = 0; i < polySides; i++) {
+            float cos = sinCosValues.cosAtIndex(i);
+            float sin = sinCosValues.sinAtIndex(i);
+            putLineVertex(glcx + innerRadius * cos, glcy + innerRadius * sin, packedColor);
+            putLineVertex(glcx + outerRadius * cos, glcy + outerRadius * sin, packedColor);
+
+            int baseIndex = base + 2 * i;
+            int nextIndex = (i < polySides - 1) ? baseIndex + 2 : base;
+            putQuadIndices(lineVertexIndices, baseIndex, baseIndex + 1, nextIndex, nextIndex + 1);
+        }
+
+        if (useAA) {
+            float aaPerpDistGl = aaWidthPixels / height;
+            float aaInnerRadius = glrad - aaPerpDistGl;
+            float aaOuterRadius = glrad + aaPerpDistGl;
+            int alphaZeroColor = packColor(Color.withAlpha(color, 0));
+            for (int i = 0; i < polySides; i++) {
+                float cos = sinCosValues.cosAtIndex(i);
+                float sin = sinCosValues.sinAtIndex(i);
+                putLineVertex(glcx + aaInnerRadius * cos, glcy + aaInnerRadius * sin,
+                        alphaZeroColor);
+                putLineVertex(glcx + aaOuterRadius * cos, glcy + aaOuterRadius * sin,
+                        alphaZeroColor);
+
+                int baseCoreIndex = base + 2 * i;
+                int baseAaIndex = baseCoreIndex + 2 * polySides;
+                int nextCoreIndex = (i < polySides - 1) ? baseCoreIndex + 2 : base;
+                int nextAaIndex = (i < polySides - 1) ? baseAaIndex + 2 : base + 2 * polySides;
+                putQuadIndices(lineVertexIndices,
+                        baseAaIndex, baseCoreIndex, nextAaIndex, nextCoreIndex);
+                putQuadIndices(lineVertexIndices,
+                        baseAaIndex + 1, baseCoreIndex + 1, nextAaIndex + 1, nextCoreIndex + 1);
+            }
+        }
+
+        this.numLineVertices += numVerticesToAdd;
+        this.numLineVertexIndices += numIndicesToAdd;
+    }
+
+    @Override public void frameCircle(float cx, float cy, float radius, int color) {
+        int radPixels = (int) Math.ceil(world2pixelX(radius) - world2pixelX(0));
+        int minPolySides = radPixels < 256 ? Math.min(64, radPixels) : radPixels;
+        if (lineWidth >= 5) {
+            addPolygonOutline(cx, cy, radius, minPolySides, lineWidth - 2, lineWidth + 2, color);
+        }
+        else {
+            addPolygonOutline(cx, cy, radius, minPolySides, lineWidth, 0, color);
+        }
+    }
+
+    @Override public void doDraw() {
+    }
+
+    @Override public int getWidth() {
+        return width;
+    }
+
+    @Override public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,66 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures GL20Renderer-style vertex building alone, by replaying the drawing operations recorded
+ * from a table into a VertexBufferRenderer. Separates the cost of generating vertices from the
+ * cost of Field.draw walking the elements. The line width parameter selects between plain lines
+ * and the antialiased lines that GL20Renderer uses for widths of 5 pixels or more.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VertexBuildBenchmark {
+
+    @Param({"1", "7"})
+    int table;
+
+    @Param({"2", "6"})
+    int lineWidth;
+
+    RecordingFieldRenderer recording = new RecordingFieldRenderer(1080, 1920);
+    VertexBufferRenderer vertexRenderer;
+
+    @Setup
+    public void setUp() {
+        HeadlessRunner runner = HeadlessRunner.forTable(TableFiles.defaultTablesDir(), table);
+        runner.runFrames(3 * HeadlessRunner.FRAMES_PER_SECOND);
+        runner.getField().draw(recording);
+        vertexRenderer = new VertexBufferRenderer(1080, 1920, lineWidth);
+        vertexRenderer.setFieldSize(runner.getField().getWidth(), runner.getField().getHeight());
+    }
+
+    @Benchmark
+    public int buildVertices() {
+        vertexRenderer.startDraw();
+        int numOps = recording.getOperationCount();
+        for (int i = 0; i < numOps; i++) {
+            int color = recording.getOperationColor(i);
+            float a = recording.getOperationCoordinate(i, 0);
+            float b = recording.getOperationCoordinate(i, 1);
+            float c = recording.getOperationCoordinate(i, 2);
+            switch (recording.getOperationType(i)) {
+                case RecordingFieldRenderer.LINE:
+                    vertexRenderer.drawLine(a, b, c, recording.getOperationCoordinate(i, 3), color);
+                    break;
+                case RecordingFieldRenderer.FILLED_CIRCLE:
+                    vertexRenderer.fillCircle(a, b, c, color);
+                    break;
+                case RecordingFieldRenderer.FRAMED_CIRCLE:
+                    vertexRenderer.frameCircle(a, b, c, color);
+                    break;
+            }
+        }
+        return vertexRenderer.bytesWritten();
+    }
+}
@@ -0,0 +1,233 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import com.dozingcatsoftware.vectorpinball.model.Ball;
+import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.FieldDriver;
+import com.dozingcatsoftware.vectorpinball.model.GameMessage;
+import com.dozingcatsoftware.vectorpinball.model.RenderSnapshot;
+import com.dozingcatsoftware.vectorpinball.util.FrameRateManager;
+import com.dozingcatsoftware.vectorpinball.util.FrameTimingStats;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
+import com.dozingcatsoftware.vectorpinball.util.TripleBuffer;
+
+/**
+ * Checks that ticking and drawing a field doesn't allocate memory in steady-state play. On
+ * Android every allocation in the game loop eventually causes a garbage collection, which can
+ * drop frames. Each table is run with the HeadlessRunner autopilot, and the bytes allocated by
+ * each frame are measured with the JVM's per-thread allocation counter. A frame is what
+ * FieldDriver's game thread does: the frame timing calls to FrameRateManager, Field.tick, drawing
+ * as the app does it (capturing a RenderSnapshot, passing it through a TripleBuffer, and replaying
+ * it to a renderer), FrameProfiler.frameFinished, and periodically copying the timing stats. The
+ * profiler and TraceRecorder are enabled, as they are when the app shows the frame rate.
+ *
+ * Frames where a ball is launched or lost, where a ball moves to another layer (which recreates
+ * its Box2D body), or where the game message changes, are game events that are allowed to
+ * allocate, and aren't counted. The check fails if more than MAX_ALLOCATING_FRAME_FRACTION of
+ * the remaining frames allocate anything. Run with `./gradlew :headless:allocationCheck`, or from
+ * the command line with arguments [seconds] [tablesDir] [table...]. Exits with status 1 if any
+ * table fails.
+ */
+public class AllocationCheck {
+
+    /** Simulated seconds to run before measuring, so that lazily created objects exist. */
+    static final double WARMUP_SECONDS = 20;
+    /**
+     * Allowed fraction of steady-state frames that allocate. The game code itself shouldn't
+     * allocate outside of events, but the JVM occasionally allocates on the game thread while it
+     * is still compiling methods (about 1 frame in 1000 on a first run), so this isn't zero. An
+     * allocation once per second would be 1 frame in 60.
+     */
+    static final double MAX_ALLOCATING_FRAME_FRACTION = 0.003;
+    /** Number of balls the autopilot keeps in play in the multiball pass. */
+    static final int MULTIBALL_COUNT = 3;
+
+    /** Allocation results for a single run of a table. */
+    public static class Result {
+        public final String name;
+        public final long steadyFrames;
+        public final long allocatingFrames;
+        public final long steadyBytes;
+        public final long eventFrames;
+        public final long eventBytes;
+
+        Result(String name, long steadyFrames, long allocatingFrames, long steadyBytes,
+                long eventFrames, long eventBytes) {
+            this.name = name;
+            this.steadyFrames = steadyFrames;
+            this.allocatingFrames = allocatingFrames;
+            this.steadyBytes = steadyBytes;
+            this.eventFrames = eventFrames;
+            this.eventBytes = eventBytes;
+        }
+
+        public double allocatingFrameFraction() {
+            return (steadyFrames > 0) ? allocatingFrames / (double) steadyFrames : 0;
+        }
+
+        public boolean passed() {
+            return allocatingFrameFraction() <= MAX_ALLOCATING_FRAME_FRACTION;
+        }
+
+        @Override public String toString() {
+            return String.format(Locale.US,
+                    "%s: %s, %d of %d steady frames allocated (%.2f%%), %.1f bytes/frame; " +
+                    "%d event frames, %d bytes",
+                    name, passed() ? "OK" : "FAILED", allocatingFrames, steadyFrames,
+                    100 * allocatingFrameFraction(),
+                    (steadyFrames > 0) ? steadyBytes / (double) steadyFrames : 0,
+                    eventFrames, eventBytes);
+        }
+    }
+
+    final com.sun.management.ThreadMXBean threadBean;
+
+    public AllocationCheck() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new UnsupportedOperationException("Thread allocation counters not available");
+        }
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            throw new UnsupportedOperationException("Thread allocation counters not supported");
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Runs a field's frames the way FieldDriver's game thread does, without waiting between them.
+     * Rendering and frame timing objects are created once, so that only the frames are measured.
+     */
+    static class FrameLoop {
+        final HeadlessRunner runner;
+        final Field field;
+        final RecordingFieldRenderer renderer = new RecordingFieldRenderer(1000, 1000);
+        final TripleBuffer<RenderSnapshot> snapshots = new TripleBuffer<>(RenderSnapshot::new);
+        final FrameRateManager frameRateManager = FieldDriver.createFrameRateManager();
+        final FrameTimingStats frameTimingStats = new FrameTimingStats();
+        double averageFPS;
+
+        FrameLoop(HeadlessRunner runner) {
+            this.runner = runner;
+            this.field = runner.getField();
+        }
+
+        void runFrame() {
+            frameRateManager.frameStarted();
+            long frameTraceNanos = TraceRecorder.begin();
+            runner.runFrame();
+            snapshots.getWriteBuffer().capture(field);
+            snapshots.publish();
+            renderer.clear();
+            snapshots.acquire().replay(renderer);
+            frameRateManager.frameEnded();
+            field.getProfiler().frameFinished();
+            TraceRecorder.end(TraceRecorder.GAME_FRAME, frameTraceNanos);
+            if (frameRateManager.getTotalFrames() % FieldDriver.STATS_UPDATE_FRAMES == 0) {
+                averageFPS = frameRateManager.currentFramesPerSecond();
+                frameRateManager.copyTimingStats(frameTimingStats);
+            }
+        }
+    }
+
+    /**
+     * Runs `runner` for WARMUP_SECONDS, then measures allocations for the given number of
+     * simulated seconds.
+     */
+    public Result measure(String name, HeadlessRunner runner, double seconds) {
+        FrameLoop frames = new FrameLoop(runner);
+        Field field = runner.getField();
+        field.getProfiler().setEnabled(true);
+        TraceRecorder.setEnabled(true);
+        long warmupFrames = (long) (WARMUP_SECONDS * HeadlessRunner.FRAMES_PER_SECOND);
+        for (long i = 0; i < warmupFrames; i++) {
+            frames.runFrame();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long steadyFrames = 0;
+        long allocatingFrames = 0;
+        long steadyBytes = 0;
+        long eventFrames = 0;
+        long eventBytes = 0;
+        int[] ballLayers = new int[16];
+        long count = (long) (seconds * HeadlessRunner.FRAMES_PER_SECOND);
+        for (long i = 0; i < count; i++) {
+            List<Ball> balls = field.getBalls();
+            int numBalls = balls.size();
+            if (numBalls > ballLayers.length) {
+                ballLayers = Arrays.copyOf(ballLayers, 2 * numBalls);
+            }
+            for (int j = 0; j < numBalls; j++) {
+                ballLayers[j] = balls.get(j).getLayer();
+            }
+            GameMessage message = field.getGameMessage();
+            long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+            frames.runFrame();
+            long bytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+            if (balls.size() != numBalls || field.getGameMessage() != message ||
+                    anyLayerChanged(balls, ballLayers)) {
+                eventFrames++;
+                eventBytes += bytes;
+            }
+            else {
+                steadyFrames++;
+                steadyBytes += bytes;
+                if (bytes > 0) allocatingFrames++;
+            }
+        }
+        TraceRecorder.setEnabled(false);
+        return new Result(name, steadyFrames, allocatingFrames, steadyBytes,
+                eventFrames, eventBytes);
+    }
+
+    static boolean anyLayerChanged(List<Ball> balls, int[] previousLayers) {
+        for (int i = 0; i < balls.size(); i++) {
+            if (balls.get(i).getLayer() != previousLayers[i]) return true;
+        }
+        return false;
+    }
+
+    /** Checks a table with one ball and with MULTIBALL_COUNT balls, and prints the results. */
+    boolean checkTable(File tablesDir, int table, double seconds) {
+        boolean passed = true;
+        for (int numBalls : new int[] {1, MULTIBALL_COUNT}) {
+            HeadlessRunner runner = HeadlessRunner.forTable(tablesDir, table);
+            runner.setTargetBallCount(numBalls);
+            Result result = measure("table" + table + " (" + numBalls + " balls)", runner, seconds);
+            System.out.println(result);
+            passed &= result.passed();
+        }
+        return passed;
+    }
+
+    public static void main(String[] args) {
+        double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 60;
+        File tablesDir = (args.length > 1) ? new File(args[1]) : TableFiles.defaultTablesDir();
+        int numTables = TableFiles.numberOfTables(tablesDir);
+        if (numTables == 0) {
+            throw new IllegalArgumentException("No table files found in " + tablesDir);
+        }
+        AllocationCheck check = new AllocationCheck();
+        boolean passed = true;
+        if (args.length > 2) {
+            for (int i = 2; i < args.length; i++) {
+                passed &= check.checkTable(tablesDir, Integer.parseInt(args[i]), seconds);
+            }
+        }
+        else {
+            for (int table = 1; table <= numTables; table++) {
+                passed &= check.checkTable(tablesDir, table, seconds);
+            }
+        }
+        if (!passed) {
+            System.out.println("Steady-state frames allocated memory");
+            System.exit(1);
+        }
+    }
+}
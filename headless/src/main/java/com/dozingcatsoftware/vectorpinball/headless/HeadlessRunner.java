@@ -0,0 +1,377 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.dozingcatsoftware.vectorpinball.elements.FlipperElement;
+import com.dozingcatsoftware.vectorpinball.model.AudioPlayer;
+import com.dozingcatsoftware.vectorpinball.model.Ball;
+import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.IStringResolver;
+import com.dozingcatsoftware.vectorpinball.model.InputQueue;
+import com.dozingcatsoftware.vectorpinball.util.FrameTimeHistogram;
+import com.dozingcatsoftware.vectorpinball.util.TraceRecorder;
+
+/**
+ * Runs a table on a plain JVM with no rendering, sound, or wall clock sleeps, calling Field.tick
+ * as fast as the CPU allows. Each frame advances the simulation by the same amount that
+ * FieldDriver would at 60 frames per second, so "simulated seconds" are seconds of real-world
+ * play time. A simple autopilot starts a game with unlimited balls, launches balls when needed,
+ * and flips when a ball is near a flipper, so that the tables are exercised the way a player
+ * would.
+ *
+ * Can be used from other code (e.g. benchmarks or soak tests) by creating an instance for a
+ * layout map, or run from the command line with arguments [-histogram] [-profile]
+ * [-trace file] [seconds] [tablesDir] [table...]. Results include percentiles of the wall time
+ * per frame; with -histogram, a chart of the full distribution is printed as well, to show
+ * occasional slow frames. With -profile, the field's FrameProfiler is enabled and the average and
+ * maximum time of each phase of the last profiler window is printed. With -trace, TraceRecorder is
+ * enabled and the most recent spans are written to the file in Chrome trace_event format.
+ */
+public class HeadlessRunner {
+
+    static {
+        // Loads the Box2D native library; on Android this happens in BouncyActivity.
+        Box2D.init();
+    }
+
+    /** Simulation rate, matching FieldDriver's highest target frame rate. */
+    public static final int FRAMES_PER_SECOND = 60;
+    /** Box2D steps per frame used before FieldDriver switched to adaptive substeps. */
+    public static final int TICK_ITERATIONS = 4;
+
+    // Same delay that FieldViewManager uses before launching a new ball.
+    static final long END_BALL_DELAY_MS = 1000;
+    // Flippers are engaged when a ball is this close to their pivot, and released after being
+    // held for FLIP_HOLD_FRAMES so that a ball cradled on a flipper doesn't stay there forever.
+    static final float FLIP_DISTANCE = 3.0f;
+    static final int FLIP_HOLD_FRAMES = 20;
+    // Queued flipper input is timestamped at one of this many evenly spaced points inside the
+    // frame, cycling by frame, so that it lands on different substeps of the tick.
+    static final int QUEUED_INPUT_POSITIONS = 7;
+
+    static final long MILLION = 1000000;
+    static final long BILLION = MILLION * 1000;
+
+    // Length of the longest bar in histogram charts.
+    static final int HISTOGRAM_BAR_LENGTH = 60;
+
+    static final IStringResolver KEY_RESOLVER = (key, params) -> key;
+
+    /** Timing and game results from a call to `run`. */
+    public static class Result {
+        public final String name;
+        public final long frames;
+        public final double simulatedSeconds;
+        public final double wallSeconds;
+        public final long score;
+        /** Wall time taken by each frame. */
+        public final FrameTimeHistogram frameTimes;
+
+        Result(String name, long frames, double simulatedSeconds, double wallSeconds, long score,
+                FrameTimeHistogram frameTimes) {
+            this.name = name;
+            this.frames = frames;
+            this.simulatedSeconds = simulatedSeconds;
+            this.wallSeconds = wallSeconds;
+            this.score = score;
+            this.frameTimes = frameTimes;
+        }
+
+        public double simulatedSecondsPerWallSecond() {
+            return simulatedSeconds / wallSeconds;
+        }
+
+        public double framesPerWallSecond() {
+            return frames / wallSeconds;
+        }
+
+        @Override public String toString() {
+            return String.format(Locale.US,
+                    "%s: %.1f simulated sec in %.3f wall sec (%.1fx realtime, %.0f frames/sec), " +
+                    "score %d, frame time %s",
+                    name, simulatedSeconds, wallSeconds, simulatedSecondsPerWallSecond(),
+                    framesPerWallSecond(), score, frameTimes.percentileSummary());
+        }
+    }
+
+    final Field field;
+    final long frameNanos = BILLION / FRAMES_PER_SECOND;
+    // Simulated real-world time, used as the field's millisecond clock so that game messages and
+    // ball loss delays behave as they do in the app, independent of how fast we're running.
+    long elapsedNanos = 0;
+    long frames = 0;
+    boolean autoPlay = true;
+    int targetBallCount = 1;
+    int fixedSubsteps = 0;
+    // Number of consecutive frames the left and right flippers have wanted to be engaged.
+    int leftFlipFrames = 0;
+    int rightFlipFrames = 0;
+    // See setQueueFlipperInput. The flipper states are the last ones queued.
+    boolean queueFlipperInput = false;
+    boolean leftFlippersQueued = false;
+    boolean rightFlippersQueued = false;
+    long queuedInputCount = 0;
+
+    public HeadlessRunner(Map<String, Object> layoutMap) {
+        this(layoutMap, AudioPlayer.NoOpPlayer.getInstance());
+    }
+
+    public HeadlessRunner(Map<String, Object> layoutMap, AudioPlayer audioPlayer) {
+        field = new Field(() -> elapsedNanos / MILLION, KEY_RESOLVER, audioPlayer);
+        field.resetForLayoutMap(layoutMap);
+    }
+
+    public static HeadlessRunner forTable(File tablesDir, int table) {
+        return new HeadlessRunner(TableFiles.readLayoutMap(tablesDir, table));
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public double getSimulatedSeconds() {
+        return elapsedNanos / (double) BILLION;
+    }
+
+    /**
+     * Sets whether the runner should play the game by starting games, launching balls, and
+     * operating flippers. Defaults to true. If false, callers are responsible for any input.
+     */
+    public void setAutoPlay(boolean value) {
+        autoPlay = value;
+    }
+
+    /**
+     * Sets the number of balls that the autopilot tries to keep in play. Defaults to 1; larger
+     * values launch additional balls whenever the launch area is clear, for measuring multiball
+     * performance.
+     */
+    public void setTargetBallCount(int count) {
+        targetBallCount = count;
+    }
+
+    /**
+     * Sets a fixed number of Box2D steps per frame, or 0 (the default) to let the field choose
+     * them with its SubstepPolicy as FieldDriver does.
+     */
+    public void setFixedSubsteps(int substeps) {
+        fixedSubsteps = substeps;
+    }
+
+    /**
+     * Sets whether the autopilot passes flipper input through Field.queueInput, as the app's UI
+     * thread does, rather than engaging the flippers directly. Defaults to false. Queued input is
+     * timestamped partway through the frame on a simulated clock that matches the field's, and
+     * each tick is told the slice of that clock it covers with Field.setNextTickRealTime, so the
+     * input is applied at a substep inside the tick and recorded with its offset.
+     */
+    public void setQueueFlipperInput(boolean value) {
+        queueFlipperInput = value;
+    }
+
+    /** Returns the number of flipper inputs the autopilot has passed to Field.queueInput. */
+    public long getQueuedInputCount() {
+        return queuedInputCount;
+    }
+
+    /** Advances the field by one frame, applying autopilot input first if enabled. */
+    public void runFrame() {
+        if (autoPlay) {
+            applyAutoPlayInput();
+        }
+        if (queueFlipperInput) {
+            field.setNextTickRealTime(elapsedNanos, frameNanos);
+        }
+        long fieldTickNanos = (long) (frameNanos * field.getTargetTimeRatio());
+        if (fixedSubsteps > 0) {
+            field.tick(fieldTickNanos, fixedSubsteps);
+        }
+        else {
+            field.tick(fieldTickNanos);
+        }
+        field.getProfiler().frameFinished();
+        elapsedNanos += frameNanos;
+        frames++;
+    }
+
+    public void runFrames(long count) {
+        for (long i = 0; i < count; i++) {
+            runFrame();
+        }
+    }
+
+    /** Runs for the given number of simulated seconds and returns timing results. */
+    public Result run(String name, double seconds) {
+        long count = (long) (seconds * FRAMES_PER_SECOND);
+        long startFrames = frames;
+        long startElapsed = elapsedNanos;
+        FrameTimeHistogram frameTimes = new FrameTimeHistogram();
+        long startTime = System.nanoTime();
+        long frameStart = startTime;
+        for (long i = 0; i < count; i++) {
+            runFrame();
+            long frameEnd = System.nanoTime();
+            frameTimes.record(frameEnd - frameStart);
+            frameStart = frameEnd;
+        }
+        long wallNanos = System.nanoTime() - startTime;
+        return new Result(name, frames - startFrames,
+                (elapsedNanos - startElapsed) / (double) BILLION, wallNanos / (double) BILLION,
+                field.getScore(), frameTimes);
+    }
+
+    void applyAutoPlayInput() {
+        if (!field.getGameState().isGameInProgress()) {
+            field.startGameWithUnlimitedBalls();
+        }
+        // Launch once per simulated second at most, like a player tapping the screen.
+        if (frames % FRAMES_PER_SECOND == 0 && !field.ballLostWithinMillis(END_BALL_DELAY_MS)) {
+            field.removeDeadBalls();
+            if (field.getBalls().size() == 0) field.launchBall();
+        }
+        else if (field.getBalls().size() < targetBallCount &&
+                frames % (FRAMES_PER_SECOND / 4) == 0 && isLaunchAreaClear()) {
+            field.launchBall();
+        }
+        leftFlipFrames = shouldFlip(true) ? leftFlipFrames + 1 : 0;
+        rightFlipFrames = shouldFlip(false) ? rightFlipFrames + 1 : 0;
+        boolean left = leftFlipFrames > 0 && leftFlipFrames <= FLIP_HOLD_FRAMES;
+        boolean right = rightFlipFrames > 0 && rightFlipFrames <= FLIP_HOLD_FRAMES;
+        if (queueFlipperInput) {
+            // Like touch events, only changes are queued.
+            long position = 1 + frames % QUEUED_INPUT_POSITIONS;
+            long inputNanos = elapsedNanos + frameNanos * position / (QUEUED_INPUT_POSITIONS + 1);
+            if (left != leftFlippersQueued) {
+                queueInput(left ?
+                        InputQueue.LEFT_FLIPPERS_ENGAGED : InputQueue.LEFT_FLIPPERS_RELEASED,
+                        inputNanos);
+                leftFlippersQueued = left;
+            }
+            if (right != rightFlippersQueued) {
+                queueInput(right ?
+                        InputQueue.RIGHT_FLIPPERS_ENGAGED : InputQueue.RIGHT_FLIPPERS_RELEASED,
+                        inputNanos);
+                rightFlippersQueued = right;
+            }
+        }
+        else {
+            field.setLeftFlippersEngaged(left);
+            field.setRightFlippersEngaged(right);
+        }
+    }
+
+    void queueInput(int type, long timeNanos) {
+        if (!field.queueInput(type, timeNanos)) {
+            // The queue is drained by every tick, so it can only fill up if something is broken.
+            throw new IllegalStateException("Input queue is full");
+        }
+        queuedInputCount++;
+    }
+
+    boolean isLaunchAreaClear() {
+        List<Float> launchPosition = field.getLaunchPosition();
+        List<Ball> balls = field.getBalls();
+        for (int i = 0; i < balls.size(); i++) {
+            Ball ball = balls.get(i);
+            float minDistance = 4 * ball.getRadius();
+            if (ball.getPosition().dst2(launchPosition.get(0), launchPosition.get(1)) <
+                    minDistance * minDistance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns true if any ball is just above and near a left or right flipper. */
+    boolean shouldFlip(boolean left) {
+        List<FlipperElement> flippers = field.getFlipperElements();
+        List<Ball> balls = field.getBalls();
+        for (int i = 0; i < flippers.size(); i++) {
+            FlipperElement flipper = flippers.get(i);
+            if (flipper.isLeftFlipper() != left) continue;
+            Vector2 pivot = flipper.anchorBody.getPosition();
+            for (int j = 0; j < balls.size(); j++) {
+                Ball ball = balls.get(j);
+                if (ball.getLayer() != flipper.getLayer()) continue;
+                Vector2 pos = ball.getPosition();
+                if (pos.y > pivot.y - ball.getRadius() &&
+                        pos.dst2(pivot) < FLIP_DISTANCE * FLIP_DISTANCE) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Runs a single table for the given number of simulated seconds. */
+    public static Result runTable(File tablesDir, int table, double seconds) {
+        return forTable(tablesDir, table).run("table" + table, seconds);
+    }
+
+    /** Runs a single table and prints the results, optionally with the profiler enabled. */
+    static void runAndPrint(File tablesDir, int table, double seconds, boolean showHistogram,
+            boolean profile) {
+        HeadlessRunner runner = forTable(tablesDir, table);
+        runner.getField().getProfiler().setEnabled(profile);
+        Result result = runner.run("table" + table, seconds);
+        System.out.println(result);
+        if (showHistogram) {
+            System.out.print(result.frameTimes.asciiChart(HISTOGRAM_BAR_LENGTH));
+        }
+        if (profile) {
+            System.out.print(runner.getField().getProfiler().detailedSummary());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean showHistogram = false;
+        boolean profile = false;
+        File traceFile = null;
+        int firstArg = 0;
+        for (; firstArg < args.length && args[firstArg].startsWith("-"); firstArg++) {
+            if (args[firstArg].equals("-histogram")) showHistogram = true;
+            else if (args[firstArg].equals("-profile")) profile = true;
+            else if (args[firstArg].equals("-trace")) traceFile = new File(args[++firstArg]);
+            else throw new IllegalArgumentException("Unknown option: " + args[firstArg]);
+        }
+        args = Arrays.copyOfRange(args, firstArg, args.length);
+        double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 60;
+        File tablesDir = (args.length > 1) ? new File(args[1]) : TableFiles.defaultTablesDir();
+        int numTables = TableFiles.numberOfTables(tablesDir);
+        if (numTables == 0) {
+            throw new IllegalArgumentException("No table files found in " + tablesDir);
+        }
+        if (traceFile != null) TraceRecorder.setEnabled(true);
+        if (args.length > 2) {
+            for (int i = 2; i < args.length; i++) {
+                runAndPrint(tablesDir, Integer.parseInt(args[i]), seconds, showHistogram, profile);
+            }
+        }
+        else {
+            for (int table = 1; table <= numTables; table++) {
+                runAndPrint(tablesDir, table, seconds, showHistogram, profile);
+            }
+        }
+        if (traceFile != null) {
+            try (Writer out = new BufferedWriter(new FileWriter(traceFile))) {
+                TraceRecorder.writeChromeTrace(out);
+            }
+            System.out.println("Wrote " + TraceRecorder.getRecordCount() + " trace events to "
+                    + traceFile);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.util.Arrays;
+
+import com.dozingcatsoftware.vectorpinball.model.IFieldRenderer;
+
+/**
+ * IFieldRenderer that records drawing calls into flat primitive arrays instead of drawing them,
+ * so that Field.draw can be measured and inspected without a display. Line paths are recorded as
+ * individual segments. Call `clear` before each frame; the arrays are reused and only grow when
+ * a frame has more operations than any previous frame.
+ */
+public class RecordingFieldRenderer implements IFieldRenderer {
+
+    public static final int LINE = 0;
+    public static final int FILLED_CIRCLE = 1;
+    public static final int FRAMED_CIRCLE = 2;
+
+    // Every operation stores 4 floats: x1, y1, x2, y2 for lines, and cx, cy, radius, 0 for circles.
+    static final int FLOATS_PER_OP = 4;
+
+    int width;
+    int height;
+
+    int[] opTypes = new int[256];
+    int[] colors = new int[256];
+    float[] coordinates = new float[256 * FLOATS_PER_OP];
+    int numOps = 0;
+    long drawCount = 0;
+
+    public RecordingFieldRenderer(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public void clear() {
+        numOps = 0;
+    }
+
+    public int getOperationCount() {
+        return numOps;
+    }
+
+    public int getOperationType(int index) {
+        return opTypes[index];
+    }
+
+    public int getOperationColor(int index) {
+        return colors[index];
+    }
+
+    /** Returns the coordinate at `offset` (0-3) of the operation at `index`. */
+    public float getOperationCoordinate(int index, int offset) {
+        return coordinates[index * FLOATS_PER_OP + offset];
+    }
+
+    /** Returns the number of operations of the given type recorded since the last `clear`. */
+    public int countOperationsOfType(int type) {
+        int count = 0;
+        for (int i = 0; i < numOps; i++) {
+            if (opTypes[i] == type) count++;
+        }
+        return count;
+    }
+
+    /** Returns the number of times `doDraw` has been called. */
+    public long getDrawCount() {
+        return drawCount;
+    }
+
+    private void addOperation(int type, float a, float b, float c, float d, int color) {
+        if (numOps == opTypes.length) {
+            int newSize = 2 * numOps;
+            opTypes = Arrays.copyOf(opTypes, newSize);
+            colors = Arrays.copyOf(colors, newSize);
+            coordinates = Arrays.copyOf(coordinates, newSize * FLOATS_PER_OP);
+        }
+        opTypes[numOps] = type;
+        colors[numOps] = color;
+        int offset = numOps * FLOATS_PER_OP;
+        coordinates[offset] = a;
+        coordinates[offset + 1] = b;
+        coordinates[offset + 2] = c;
+        coordinates[offset + 3] = d;
+        numOps++;
+    }
+
+    @Override public void drawLine(float x1, float y1, float x2, float y2, int color) {
+        addOperation(LINE, x1, y1, x2, y2, color);
+    }
+
+    @Override public void drawLine(double x1, double y1, double x2, double y2, int color) {
+        addOperation(LINE, (float) x1, (float) y1, (float) x2, (float) y2, color);
+    }
+
+    @Override public void drawLinePath(float[] xEndpoints, float[] yEndpoints, int color) {
+        for (int i = 1; i < xEndpoints.length; i++) {
+            addOperation(LINE, xEndpoints[i - 1], yEndpoints[i - 1], xEndpoints[i], yEndpoints[i],
+                    color);
+        }
+    }
+
+    @Override public void drawLinePath(double[] xEndpoints, double[] yEndpoints, int color) {
+        for (int i = 1; i < xEndpoints.length; i++) {
+            addOperation(LINE, (float) xEndpoints[i - 1], (float) yEndpoints[i - 1],
+                    (float) xEndpoints[i], (float) yEndpoints[i], color);
+        }
+    }
+
+    @Override public void fillCircle(float cx, float cy, float radius, int color) {
+        addOperation(FILLED_CIRCLE, cx, cy, radius, 0f, color);
+    }
+
+    @Override public void fillCircle(double cx, double cy, double radius, int color) {
+        addOperation(FILLED_CIRCLE, (float) cx, (float) cy, (float) radius, 0f, color);
+    }
+
+    @Override public void frameCircle(float cx, float cy, float radius, int color) {
+        addOperation(FRAMED_CIRCLE, cx, cy, radius, 0f, color);
+    }
+
+    @Override public void frameCircle(double cx, double cy, double radius, int color) {
+        addOperation(FRAMED_CIRCLE, (float) cx, (float) cy, (float) radius, 0f, color);
+    }
+
+    @Override public void doDraw() {
+        drawCount++;
+    }
+
+    @Override public int getWidth() {
+        return width;
+    }
+
+    @Override public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,332 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.dozingcatsoftware.vectorpinball.elements.FlipperElement;
+import com.dozingcatsoftware.vectorpinball.model.Ball;
+import com.dozingcatsoftware.vectorpinball.model.Field;
+import com.dozingcatsoftware.vectorpinball.model.InputQueue;
+import com.dozingcatsoftware.vectorpinball.model.InputRecorder;
+import com.dozingcatsoftware.vectorpinball.model.InputReplayer;
+
+/**
+ * Checks that games recorded with InputRecorder are reproduced exactly by InputReplayer. Each
+ * table is played by the HeadlessRunner autopilot while recording, then the recording is
+ * replayed on a new field and the final state of the two fields is compared. This fails if
+ * anything in the simulation depends on something other than the random seed and the recorded
+ * input, such as an unseeded random number generator or the wall clock.
+ *
+ * Each table is also recorded with the autopilot passing its flipper input through
+ * Field.queueInput with timestamps partway through each frame, as the app's UI thread does. That
+ * input is applied at a substep inside the tick and recorded with its offset, and the check fails
+ * if the replay doesn't apply every such input at the same offset and reach the same state. A
+ * ball launch queued after such input must wait for the next tick, so that queued input is
+ * applied in order; that is checked on each table with a few inputs queued in a single tick.
+ *
+ * Taking keyframes without resetting the field, as any recorder attached to a real game does,
+ * must not change the game, so each table is also recorded that way and checked against the game
+ * recorded without keyframes, and the recording is replayed from the start.
+ *
+ * Each table is also recorded with exact keyframes (see InputRecorder), and the replay is
+ * checked by seeking to random points in the recording, forwards and backwards, and comparing
+ * the state with the state of the recorded game at the same point. The slowest seek is
+ * reported; it should stay well under MAX_SEEK_MILLIS so that long recordings can be inspected
+ * interactively.
+ *
+ * Run with `./gradlew :headless:replayCheck`, or from the command line with arguments
+ * [seconds] [tablesDir] [table...]. Exits with status 1 if any table fails. With arguments
+ * `-replay file [tablesDir]`, instead replays a recording saved by the app (as "last_game.rec")
+ * and prints the final score and replay speed, for reproducing reported problems and for
+ * performance testing with real games.
+ */
+public class ReplayCheck {
+
+    /** Seed for recorded games, so that failures can be reproduced. */
+    static final long SEED = 42;
+    /** Number of balls the autopilot keeps in play in the multiball pass. */
+    static final int MULTIBALL_COUNT = 3;
+    /**
+     * Game time between keyframes. Replaying runs at about 70 game seconds per second on a
+     * desktop JVM for the slowest table with multiball, so a seek simulates for at most about
+     * 45 ms after restoring a keyframe. Each keyframe is about 3.5 KB.
+     */
+    static final long KEYFRAME_INTERVAL_NANOS = 3_000_000_000L;
+    /** Number of random points in each recording to seek to. */
+    static final int SEEK_COUNT = 20;
+    /** Target time for a single seek. */
+    static final double MAX_SEEK_MILLIS = 100;
+
+    /**
+     * Hash of the game time, score, position and velocity of every ball, and angle and angular
+     * velocity of every flipper.
+     */
+    public static long stateHash(Field field) {
+        long hash = field.getGameTimeNanos();
+        hash = 31 * hash + field.getScore();
+        List<Ball> balls = field.getBalls();
+        for (int i = 0; i < balls.size(); i++) {
+            Ball ball = balls.get(i);
+            Vector2 pos = ball.getPosition();
+            Vector2 vel = ball.getLinearVelocity();
+            hash = 31 * hash + ball.getLayer();
+            hash = 31 * hash + Float.floatToIntBits(pos.x);
+            hash = 31 * hash + Float.floatToIntBits(pos.y);
+            hash = 31 * hash + Float.floatToIntBits(vel.x);
+            hash = 31 * hash + Float.floatToIntBits(vel.y);
+        }
+        List<FlipperElement> flippers = field.getFlipperElements();
+        for (int i = 0; i < flippers.size(); i++) {
+            Body body = flippers.get(i).getBodies().get(0);
+            hash = 31 * hash + Float.floatToIntBits(body.getAngle());
+            hash = 31 * hash + Float.floatToIntBits(body.getAngularVelocity());
+        }
+        return hash;
+    }
+
+    /**
+     * Replays `recording` on a new field for the given table and returns the field. Prints the
+     * number of ticks and the replay speed.
+     */
+    public static Field replay(File tablesDir, int table, byte[] recording) throws IOException {
+        InputReplayer replayer = new InputReplayer(recording);
+        Field field = HeadlessRunner.forTable(tablesDir, table).getField();
+        replayer.begin(field);
+        long startTime = System.nanoTime();
+        replayer.replayToEnd(field);
+        double wallSeconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.println(String.format(Locale.US,
+                "Replayed %d ticks (%.1f game seconds) in %.2f seconds, %.0f ticks/sec",
+                replayer.getTicksReplayed(), field.getGameTimeNanos() / 1e9, wallSeconds,
+                replayer.getTicksReplayed() / wallSeconds));
+        return field;
+    }
+
+    /** Checks a table with one ball and with MULTIBALL_COUNT balls, and checks input order. */
+    static boolean checkTable(File tablesDir, int table, double seconds) throws IOException {
+        boolean passed = true;
+        for (int numBalls : new int[] {1, MULTIBALL_COUNT}) {
+            passed &= checkTable(tablesDir, table, numBalls, seconds);
+        }
+        passed &= checkInputOrder(tablesDir, table);
+        return passed;
+    }
+
+    /** Records and replays a table with the given number of balls, and prints the result. */
+    static boolean checkTable(File tablesDir, int table, int numBalls, double seconds)
+            throws IOException {
+        HeadlessRunner runner = HeadlessRunner.forTable(tablesDir, table);
+        runner.setTargetBallCount(numBalls);
+        InputRecorder recorder = new InputRecorder(SEED);
+        runner.getField().setInputRecorder(recorder);
+        runner.runFrames((long) (seconds * HeadlessRunner.FRAMES_PER_SECOND));
+        byte[] recording = recorder.toByteArray();
+        long expectedHash = stateHash(runner.getField());
+
+        Field replayed = replay(tablesDir, table, recording);
+        boolean passed = stateHash(replayed) == expectedHash;
+        System.out.println(String.format(Locale.US,
+                "table%d (%d balls): %s, %d bytes for %d ticks, score %d (replayed %d)",
+                table, numBalls, passed ? "OK" : "FAILED", recording.length,
+                recorder.getTickCount(), runner.getField().getScore(), replayed.getScore()));
+        return passed && checkApproximateKeyframes(tablesDir, table, numBalls, seconds,
+                expectedHash) && checkQueuedInput(tablesDir, table, numBalls, seconds) &&
+                checkSeeking(tablesDir, table, numBalls, seconds);
+    }
+
+    /**
+     * Records a table with keyframes that don't reset the field, and checks that both the
+     * recorded game and its replay from the start end in `expectedHash`, the state of the same
+     * game recorded without keyframes.
+     */
+    static boolean checkApproximateKeyframes(File tablesDir, int table, int numBalls,
+            double seconds, long expectedHash) throws IOException {
+        HeadlessRunner runner = HeadlessRunner.forTable(tablesDir, table);
+        runner.setTargetBallCount(numBalls);
+        InputRecorder recorder = new InputRecorder(SEED, KEYFRAME_INTERVAL_NANOS);
+        runner.getField().setInputRecorder(recorder);
+        runner.runFrames((long) (seconds * HeadlessRunner.FRAMES_PER_SECOND));
+        byte[] recording = recorder.toByteArray();
+
+        InputReplayer replayer = new InputReplayer(recording);
+        Field replayed = HeadlessRunner.forTable(tablesDir, table).getField();
+        replayer.begin(replayed);
+        replayer.replayToEnd(replayed);
+        boolean passed = stateHash(runner.getField()) == expectedHash &&
+                stateHash(replayed) == expectedHash;
+        System.out.println(String.format(Locale.US,
+                "table%d (%d balls) with approximate keyframes: %s, %d keyframes, " +
+                "score %d (replayed %d)",
+                table, numBalls, passed ? "OK" : "FAILED", replayer.getKeyframeCount(),
+                runner.getField().getScore(), replayed.getScore()));
+        return passed;
+    }
+
+    /**
+     * Records a table with the autopilot's flipper input queued partway through each frame, then
+     * replays it and checks that every queued input was recorded with its offset into the tick
+     * and that the replay reaches the same state.
+     */
+    static boolean checkQueuedInput(File tablesDir, int table, int numBalls, double seconds)
+            throws IOException {
+        HeadlessRunner runner = HeadlessRunner.forTable(tablesDir, table);
+        runner.setTargetBallCount(numBalls);
+        runner.setQueueFlipperInput(true);
+        InputRecorder recorder = new InputRecorder(SEED);
+        runner.getField().setInputRecorder(recorder);
+        runner.runFrames((long) (seconds * HeadlessRunner.FRAMES_PER_SECOND));
+        byte[] recording = recorder.toByteArray();
+        long expectedHash = stateHash(runner.getField());
+
+        InputReplayer replayer = new InputReplayer(recording);
+        Field replayed = HeadlessRunner.forTable(tablesDir, table).getField();
+        replayer.begin(replayed);
+        replayer.replayToEnd(replayed);
+        long queuedInputs = runner.getQueuedInputCount();
+        boolean passed = queuedInputs > 0 && replayer.getOffsetInputCount() == queuedInputs &&
+                stateHash(replayed) == expectedHash;
+        System.out.println(String.format(Locale.US,
+                "table%d (%d balls) with queued input: %s, %d of %d inputs recorded at offsets, " +
+                "score %d (replayed %d)",
+                table, numBalls, passed ? "OK" : "FAILED", replayer.getOffsetInputCount(),
+                queuedInputs, runner.getField().getScore(), replayed.getScore()));
+        return passed;
+    }
+
+    /**
+     * Queues a flipper press partway through a tick, then a ball launch and a flipper release
+     * later in the same tick, and checks that they're applied in that order: the launch can't be
+     * applied inside a tick, so it waits for the next tick, and the release waits with it. Also
+     * checks that the recorded input reaches the same state when replayed.
+     */
+    static boolean checkInputOrder(File tablesDir, int table) throws IOException {
+        Field field = HeadlessRunner.forTable(tablesDir, table).getField();
+        InputRecorder recorder = new InputRecorder(SEED);
+        field.setInputRecorder(recorder);
+        long tickNanos = 1_000_000_000L / HeadlessRunner.FRAMES_PER_SECOND;
+        field.queueInput(InputQueue.LEFT_FLIPPERS_ENGAGED, tickNanos / 2);
+        field.queueInput(InputQueue.LAUNCH_BALL_IF_NEEDED, tickNanos * 5 / 8);
+        field.queueInput(InputQueue.LEFT_FLIPPERS_RELEASED, tickNanos * 3 / 4);
+        field.setNextTickRealTime(0, tickNanos);
+        field.tick(tickNanos);
+        boolean launchWaited = field.getBalls().isEmpty() && areLeftFlippersEngaged(field);
+        field.setNextTickRealTime(tickNanos, tickNanos);
+        field.tick(tickNanos);
+        boolean launchApplied = field.getBalls().size() == 1 && !areLeftFlippersEngaged(field);
+        long expectedHash = stateHash(field);
+
+        Field replayed = replay(tablesDir, table, recorder.toByteArray());
+        boolean passed = launchWaited && launchApplied && stateHash(replayed) == expectedHash;
+        System.out.println(String.format(Locale.US,
+                "table%d input order: %s", table, passed ? "OK" : "FAILED"));
+        return passed;
+    }
+
+    static boolean areLeftFlippersEngaged(Field field) {
+        List<FlipperElement> flippers = field.getFlipperElements();
+        for (int i = 0; i < flippers.size(); i++) {
+            FlipperElement flipper = flippers.get(i);
+            if (flipper.isLeftFlipper() && !flipper.isFlipperEngaged()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a table with keyframes, then replays it by seeking to random ticks and checks that
+     * the state matches the recorded game at each of them.
+     */
+    static boolean checkSeeking(File tablesDir, int table, int numBalls, double seconds)
+            throws IOException {
+        HeadlessRunner runner = HeadlessRunner.forTable(tablesDir, table);
+        runner.setTargetBallCount(numBalls);
+        InputRecorder recorder = new InputRecorder(SEED, KEYFRAME_INTERVAL_NANOS, true);
+        runner.getField().setInputRecorder(recorder);
+        long frames = (long) (seconds * HeadlessRunner.FRAMES_PER_SECOND);
+        Random random = new Random(SEED);
+        List<Long> seekTicks = new ArrayList<>();
+        for (int i = 0; i < SEEK_COUNT; i++) {
+            seekTicks.add(1 + (long) (random.nextDouble() * frames));
+        }
+        long[] expectedHashes = new long[(int) frames + 1];
+        for (int i = 1; i <= frames; i++) {
+            runner.runFrame();
+            expectedHashes[i] = stateHash(runner.getField());
+        }
+        byte[] recording = recorder.toByteArray();
+
+        InputReplayer replayer = new InputReplayer(recording);
+        Field field = HeadlessRunner.forTable(tablesDir, table).getField();
+        replayer.begin(field);
+        boolean passed = true;
+        double maxSeekMillis = 0;
+        Collections.shuffle(seekTicks, random);
+        seekTicks.add(frames);
+        for (long tick : seekTicks) {
+            long startTime = System.nanoTime();
+            replayer.seek(field, tick);
+            maxSeekMillis = Math.max(maxSeekMillis, (System.nanoTime() - startTime) / 1e6);
+            if (stateHash(field) != expectedHashes[(int) tick]) {
+                System.out.println("State differs after seeking to tick " + tick);
+                passed = false;
+            }
+        }
+        System.out.println(String.format(Locale.US,
+                "table%d (%d balls) with keyframes: %s, %d keyframes in %d bytes, " +
+                "slowest seek %.1f ms%s",
+                table, numBalls, passed ? "OK" : "FAILED", replayer.getKeyframeCount(),
+                recording.length, maxSeekMillis,
+                (maxSeekMillis > MAX_SEEK_MILLIS) ? " (slower than target)" : ""));
+        return passed;
+    }
+
+    /** Reads a recording saved by the app: the table number, length, and recorded bytes. */
+    static void replayFile(File file, File tablesDir) throws IOException {
+        int table;
+        byte[] recording;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            table = in.readInt();
+            recording = new byte[in.readInt()];
+            in.readFully(recording);
+        }
+        Field field = replay(tablesDir, table, recording);
+        System.out.println("table" + table + ": score " + field.getScore());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1 && args[0].equals("-replay")) {
+            File tablesDir = (args.length > 2) ? new File(args[2]) : TableFiles.defaultTablesDir();
+            replayFile(new File(args[1]), tablesDir);
+            return;
+        }
+        double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 60;
+        File tablesDir = (args.length > 1) ? new File(args[1]) : TableFiles.defaultTablesDir();
+        int numTables = TableFiles.numberOfTables(tablesDir);
+        if (numTables == 0) {
+            throw new IllegalArgumentException("No table files found in " + tablesDir);
+        }
+        boolean passed = true;
+        if (args.length > 2) {
+            for (int i = 2; i < args.length; i++) {
+                passed &= checkTable(tablesDir, Integer.parseInt(args[i]), seconds);
+            }
+        }
+        else {
+            for (int table = 1; table <= numTables; table++) {
+                passed &= checkTable(tablesDir, table, seconds);
+            }
+        }
+        if (!passed) {
+            System.out.println("Replayed games differed from recorded games");
+            System.exit(1);
+        }
+    }
+}
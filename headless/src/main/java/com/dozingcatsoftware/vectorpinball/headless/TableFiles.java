@@ -0,0 +1,104 @@
+package com.dozingcatsoftware.vectorpinball.headless;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+import com.dozingcatsoftware.vectorpinball.util.IOUtils;
+
+/**
+ * Reads table layouts from a directory of JSON files named "table1.json", "table2.json", etc.
+ * This is the desktop equivalent of the Android app's FieldLayoutReader, and produces the same
+ * Map/List structure that FieldLayout expects.
+ */
+public class TableFiles {
+
+    /** Default location of the table layouts, relative to the root of the project. */
+    public static final File DEFAULT_TABLES_DIR = new File("app/src/main/assets/tables");
+    /** System property that overrides the default table directory. */
+    public static final String TABLES_DIR_PROPERTY = "vectorpinball.tablesDir";
+
+    /**
+     * Returns the directory named by the "vectorpinball.tablesDir" system property if it's set.
+     * Otherwise returns DEFAULT_TABLES_DIR, resolved against either the current directory or its
+     * parent so that it works when run from the project root or from a module directory.
+     */
+    public static File defaultTablesDir() {
+        String dir = System.getProperty(TABLES_DIR_PROPERTY);
+        if (dir != null) {
+            return new File(dir);
+        }
+        if (!DEFAULT_TABLES_DIR.isDirectory()) {
+            File parentRelative = new File("..", DEFAULT_TABLES_DIR.getPath());
+            if (parentRelative.isDirectory()) {
+                return parentRelative;
+            }
+        }
+        return DEFAULT_TABLES_DIR;
+    }
+
+    public static File fileForTable(File tablesDir, int table) {
+        return new File(tablesDir, "table" + table + ".json");
+    }
+
+    /** Returns the number of consecutively numbered table files, starting with table1.json. */
+    public static int numberOfTables(File tablesDir) {
+        int count = 0;
+        while (fileForTable(tablesDir, count + 1).isFile()) {
+            count++;
+        }
+        return count;
+    }
+
+    public static Map<String, Object> readLayoutMap(File tablesDir, int table) {
+        try (InputStream in = new FileInputStream(fileForTable(tablesDir, table))) {
+            return layoutMapFromJSONString(IOUtils.utf8FromStream(in));
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> layoutMapFromJSONString(String jsonString) {
+        return (Map<String, Object>) objectFromJsonValue(new JsonReader().parse(jsonString));
+    }
+
+    /**
+     * Converts objects and arrays to maps and lists, recursively. Numbers are returned as Integer
+     * when possible to match what org.json produces on Android.
+     */
+    static Object objectFromJsonValue(JsonValue value) {
+        switch (value.type()) {
+            case object:
+                Map<String, Object> map = new HashMap<>();
+                for (JsonValue child = value.child; child != null; child = child.next) {
+                    map.put(child.name, objectFromJsonValue(child));
+                }
+                return map;
+            case array:
+                List<Object> list = new ArrayList<>();
+                for (JsonValue child = value.child; child != null; child = child.next) {
+                    list.add(objectFromJsonValue(child));
+                }
+                return list;
+            case stringValue:
+                return value.asString();
+            case doubleValue:
+                return value.asDouble();
+            case longValue:
+                long lv = value.asLong();
+                return (lv == (int) lv) ? (Object) (int) lv : (Object) lv;
+            case booleanValue:
+                return value.asBoolean();
+            default:
+                return null;
+        }
+    }
+}